@@ -163,13 +163,13 @@ public final class C1XCompilation {
     public BlockMap getBlockMap(RiResolvedMethod method, int osrBCI) {
         // PERF: cache the block map for methods that are compiled or inlined often
         BlockMap map = new BlockMap(method, hir.numberOfBlocks());
-        boolean isOsrCompilation = false;
-        if (osrBCI >= 0) {
-            map.addEntrypoint(osrBCI, BlockBegin.BlockFlag.OsrEntry);
-            isOsrCompilation = true;
-        }
+        boolean isOsrCompilation = osrBCI >= 0;
+        // the OSR entry block is created by the graph builder as an extra predecessor
+        // of the loop header at osrBCI, so the header itself is not marked as an entry
         if (!map.build(!isOsrCompilation && C1XOptions.PhiLoopStores)) {
             throw new CiBailout("build of BlockMap failed for " + method);
+        } else if (isOsrCompilation && (map.get(osrBCI) == null || !map.get(osrBCI).isParserLoopHeader())) {
+            throw new CiBailout("OSR bci " + osrBCI + " is not a loop header in " + method);
         } else {
             if (compiler.isObserved()) {
                 String label = CiUtil.format("BlockListBuilder %f %R %H.%n(%P)", method);
@@ -291,6 +291,10 @@ public final class C1XCompilation {
             lirAssembler.emitTraps();
 
             CiTargetMethod targetMethod = assembler().finishTargetMethod(method, runtime, lirAssembler.registerRestoreEpilogueOffset, false);
+            if (isOsrCompilation()) {
+                assert lirAssembler.osrEntryOffset >= 0 : "no OSR entry emitted";
+                targetMethod.setOsrEntryOffset(lirAssembler.osrEntryOffset);
+            }
             if (!assumptions.isEmpty()) {
                 targetMethod.setAssumptions(assumptions);
             }
@@ -48,6 +48,9 @@ public class C1XMetrics {
     public static int DivideSpecialChecksRedundant;
     public static int StoreCheckEliminations;
     public static int BoundsChecksElminations;
+    public static int CountedLoops;
+    public static int LoopInvariantsHoisted;
+    public static int LoopPredicatesInserted;
     public static int ConditionalEliminations;
     public static int BlocksMerged;
     public static int BlocksSkipped;
@@ -108,6 +108,8 @@ public final class C1XOptions {
     public static boolean OptLocalValueNumbering;
     public static boolean OptLocalLoadElimination;
     public static boolean OptGlobalValueNumbering;
+    public static boolean OptLoopInvariantCodeMotion;
+    public static boolean OptRangeCheckElimination;
     public static boolean OptDiamondElimination;
     public static boolean OptCEElimination;
     public static boolean OptBlockMerging;
@@ -122,6 +124,11 @@ public final class C1XOptions {
 
     // optimistic optimization settings
     public static boolean UseAssumptions                = true;
+    public static boolean UseProfilingInformation       = true;
+    public static float   MinimumReceiverTypeProbability = 0.95f;
+    public static int     MinimumReceiverTypeCount      = 100;
+    public static float   RareBranchProbability         = 0.05f;
+    public static int     MinimumBranchPruningCount     = 100;
 
     // state merging settings
     public static boolean AssumeVerifiedBytecode        = ____;
@@ -222,11 +229,14 @@ public final class C1XOptions {
         OptInlineSynchronized           = lll;
         UseStackMapTableLiveness        = lll;
         UseAssumptions                  = lll;
+        UseProfilingInformation         = lll;
         OptIterativeNCE                 = lll;
         OptFlowSensitiveNCE             = lll;
         OptDeadCodeElimination1         = lll;
         OptDeadCodeElimination2         = lll;
         OptGlobalValueNumbering         = lll;
+        OptLoopInvariantCodeMotion      = lll;
+        OptRangeCheckElimination        = lll;
         OptDiamondElimination           = lll;
         OptCEElimination                = lll;
         OptBlockSkipping                = lll;
@@ -431,9 +431,10 @@ public abstract class LIRGenerator extends ValueVisitor {
         setNoResult(x);
 
         if (currentBlock.next() instanceof OsrEntry) {
-            // need to free up storage used for OSR entry point
+            // need to free up storage used for OSR entry point. The locals have all been loaded
+            // from the buffer at this point, so the state after the goto describes the frame.
             CiValue osrBuffer = currentBlock.next().operand();
-            callRuntime(CiRuntimeCall.OSRMigrationEnd, null, osrBuffer);
+            callRuntime(CiRuntimeCall.OSRMigrationEnd, stateFor(x, x.stateAfter()), osrBuffer);
             emitXir(xir.genSafepointPoll(site(x)), x, stateFor(x, x.stateAfter()), null, false);
         } else if (x.isSafepointPoll()) {
             emitXir(xir.genSafepointPoll(site(x)), x, stateFor(x, x.stateAfter()), null, false);
@@ -2153,4 +2154,20 @@ public abstract class LIRGenerator extends ValueVisitor {
         lir.cmp(typeEqualityCheck.condition.negate(), leftValue, rightValue);
         emitGuard(typeEqualityCheck);
     }
+
+    @Override
+    public void visitTypeGuard(TypeGuard x) {
+        XirArgument obj = toXirArgument(x.object());
+        XirSnippet snippet = xir.genTypeCheck(site(x), obj, toXirArgument(x.hub()), x.type());
+        emitXir(snippet, x, stateFor(x), null, false);
+    }
+
+    @Override
+    public void visitCompareGuard(CompareGuard x) {
+        LIRItem xitem = new LIRItem(x.x(), this);
+        LIRItem yitem = new LIRItem(x.y(), this);
+        xitem.loadItem();
+        lir.cmp(x.condition.negate(), xitem.result(), yitem.result());
+        emitGuard(x);
+    }
 }
@@ -120,7 +120,11 @@ public final class GraphBuilder {
         // 2. compute the block map and get the entrypoint(s)
         BlockMap blockMap = compilation.getBlockMap(scope.method, compilation.osrBCI);
         BlockBegin stdEntry = blockMap.get(0);
-        BlockBegin osrEntry = compilation.osrBCI < 0 ? null : blockMap.get(compilation.osrBCI);
+        BlockBegin osrEntry = null;
+        if (compilation.osrBCI >= 0) {
+            osrEntry = new BlockBegin(compilation.osrBCI, ir.nextBlockNumber());
+            osrEntry.setBlockFlag(BlockBegin.BlockFlag.OsrEntry);
+        }
         pushRootScope(scope, blockMap, startBlock);
         MutableFrameState initialState = stateAtEntry(rootMethod);
         startBlock.mergeOrClone(initialState);
@@ -204,11 +208,62 @@ public final class GraphBuilder {
 
         if (compilation.osrBCI >= 0) {
             BlockBegin osrBlock = blockMap.get(compilation.osrBCI);
-            assert osrBlock.wasVisited();
+            if (!osrBlock.wasVisited()) {
+                throw new CiBailout("OSR loop header is unreachable");
+            }
             if (!osrBlock.stateBefore().stackEmpty()) {
                 throw new CiBailout("cannot OSR with non-empty stack");
             }
+            setupOsrEntryBlock(osrEntry, osrBlock);
+        }
+    }
+
+    /**
+     * Fills in the block through which an OSR compilation is entered. The block loads the live locals of the
+     * loop header from the {@linkplain OsrEntry OSR buffer} and then jumps to the loop header, becoming an
+     * additional predecessor of it.
+     *
+     * @param osrEntry the OSR entry block
+     * @param loopHeader the (already parsed) loop header at {@link C1XCompilation#osrBCI}
+     */
+    private void setupOsrEntryBlock(BlockBegin osrEntry, BlockBegin loopHeader) {
+        FrameState headerState = loopHeader.stateBefore();
+        if (headerState.locksSize() != 0) {
+            throw new CiBailout("cannot OSR with locked monitors");
+        }
+
+        int osrBCI = compilation.osrBCI;
+        MutableFrameState entryState = headerState.copy();
+        entryState.clearLocals();
+        osrEntry.mergeOrClone(entryState);
+        osrEntry.setWasVisited(true);
+
+        curBlock = osrEntry;
+        curState = osrEntry.stateBefore().copy();
+        lastInstr = osrEntry;
+        osrEntry.setNext(null, -1);
+        killMemoryMap();
+
+        Value buffer = appendWithoutOptimization(new OsrEntry(), osrBCI);
+        int wordSize = compilation.target.wordSize;
+        for (int i = 0; i < headerState.localsSize(); i++) {
+            Value local = headerState.localAt(i);
+            if (local == null || local.isIllegal()) {
+                continue;
+            }
+            if (local.kind.isJsr()) {
+                throw new CiBailout("cannot OSR with a return address in a local");
+            }
+            Value offset = appendWithoutOptimization(new Constant(CiConstant.forInt(i * wordSize)), osrBCI);
+            RiType type = compilation.runtime.asRiType(local.kind);
+            curState.storeLocal(i, appendWithoutOptimization(new LoadPointer(type, buffer, null, offset, null, false), osrBCI));
         }
+
+        Goto end = new Goto(loopHeader, null, false);
+        appendWithoutOptimization(end, osrBCI);
+        end.setStateAfter(curState.immutableCopy(osrBCI));
+        osrEntry.setEnd(end);
+        loopHeader.mergeOrClone(end.stateAfter());
     }
 
     private void closeAccessorScope(RiType accessor) {
@@ -696,9 +751,50 @@ public final class GraphBuilder {
         BlockBegin fsucc = blockAt(stream().nextBCI());
         int bci = stream().currentBCI();
         boolean isSafepointPoll = !scopeData.noSafepointPolls() && tsucc.bci() <= bci || fsucc.bci() <= bci;
+        double takenProbability = C1XOptions.UseProfilingInformation ? method().branchProbability(bci) : -1;
+        if ((takenProbability == 0 || takenProbability == 1) && method().branchCount(bci) >= C1XOptions.MinimumBranchPruningCount) {
+            // the profile shows that only one successor is ever reached: deoptimize if the other one is
+            boolean taken = takenProbability == 1;
+            append(new CompareGuard(x, taken ? cond : cond.negate(), y, stateBefore));
+            append(new Goto(taken ? tsucc : fsucc, isSafepointPoll ? stateBefore : null, isSafepointPoll));
+            return;
+        }
+        if (takenProbability > 0) {
+            markRarelyExecuted(tsucc, takenProbability);
+            markRarelyExecuted(fsucc, 1 - takenProbability);
+        }
         append(new If(x, cond, false, y, tsucc, fsucc, isSafepointPoll ? stateBefore : null, isSafepointPoll));
     }
 
+    /**
+     * Marks a successor of a branch that is rarely reached according to the profile, so that it is laid out after the
+     * other blocks. This is only a hint: the block may also be reached by other paths.
+     */
+    private static void markRarelyExecuted(BlockBegin block, double probability) {
+        if (probability < C1XOptions.RareBranchProbability) {
+            block.setBlockFlag(BlockBegin.BlockFlag.RarelyExecuted);
+        }
+    }
+
+    /**
+     * Marks the successors of a switch that are rarely reached according to the profile.
+     * The probabilities of the cases branching to the same block are added up.
+     */
+    private void markRarelyExecutedSuccessors(List<BlockBegin> successors) {
+        double[] probabilities = C1XOptions.UseProfilingInformation ? method().switchProbability(bci()) : null;
+        if (probabilities == null || probabilities.length != successors.size()) {
+            return;
+        }
+        Map<BlockBegin, Double> blockProbabilities = new IdentityHashMap<BlockBegin, Double>();
+        for (int i = 0; i < probabilities.length; i++) {
+            Double probability = blockProbabilities.get(successors.get(i));
+            blockProbabilities.put(successors.get(i), probability == null ? probabilities[i] : probability + probabilities[i]);
+        }
+        for (Map.Entry<BlockBegin, Double> entry : blockProbabilities.entrySet()) {
+            markRarelyExecuted(entry.getKey(), entry.getValue());
+        }
+    }
+
     void genIfZero(Condition cond) {
         Value y = appendConstant(CiConstant.INT_0);
         FrameState stateBefore = curState.immutableCopy(bci());
@@ -1056,12 +1152,65 @@ public final class GraphBuilder {
                 assert result : "Inlining must succeed";
                 return;
             }
+            // 4. check if the profile shows a dominant receiver type the call can be inlined for
+            if (tryInlineProfiledReceiver(resolvedTarget, args, cpi, constantPool)) {
+                return;
+            }
         }
 
         // devirtualization failed, produce an actual invokevirtual
         appendInvoke(opcode, target, args, false, cpi, constantPool);
     }
 
+    /**
+     * Inlines a virtual or interface call for the receiver type that dominates the type profile of the call site,
+     * behind a guard that deoptimizes if the receiver has another type.
+     *
+     * @return {@code true} if the call was devirtualized
+     */
+    private boolean tryInlineProfiledReceiver(RiResolvedMethod target, Value[] args, int cpi, RiConstantPool constantPool) {
+        if (!C1XOptions.UseProfilingInformation) {
+            return false;
+        }
+        RiTypeProfile profile = method().typeProfile(bci());
+        if (profile == null || profile.types == null || profile.count < C1XOptions.MinimumReceiverTypeCount) {
+            return false;
+        }
+        RiResolvedType type = null;
+        for (int i = 0; i < profile.types.length; i++) {
+            if (profile.probabilities[i] >= C1XOptions.MinimumReceiverTypeProbability) {
+                type = profile.types[i];
+            }
+        }
+        if (type == null || !type.isInstanceClass() || !type.isSubtypeOf(target.holder())) {
+            return false;
+        }
+        RiResolvedMethod impl = type.resolveMethodImpl(target);
+        if (impl == null || isAbstract(impl.accessFlags()) || !checkInliningConditions(impl)) {
+            return false;
+        }
+        if (C1XOptions.PrintAssumptions) {
+            TTY.println("Speculative invoke direct because of profiled receiver type " + type.name() + " to " + impl);
+        }
+
+        // deoptimize to the state before the call, with the arguments still on the stack
+        for (int i = 0; i < args.length; ++i) {
+            if (args[i] != null) {
+                curState.push(args[i].kind.stackKind(), args[i]);
+            }
+        }
+        FrameState stateBefore = curState.immutableCopy(bci());
+        curState.popArguments(args.length);
+
+        Value receiver = append(new NullCheck(args[0], stateBefore));
+        Value hub = appendConstant(type.getEncoding(Representation.ObjectHub));
+        append(new TypeGuard(receiver, hub, type, stateBefore));
+        Value[] guardedArgs = args.clone();
+        guardedArgs[0] = receiver;
+        invokeDirect(impl, guardedArgs, type, cpi, constantPool);
+        return true;
+    }
+
     private CiKind returnKind(RiMethod target) {
         return target.signature().returnKind(false);
     }
@@ -1319,6 +1468,7 @@ public final class GraphBuilder {
         int offset = ts.defaultOffset();
         isBackwards |= offset < 0; // if the default successor is backwards
         list.add(blockAt(bci + offset));
+        markRarelyExecutedSuccessors(list);
         boolean isSafepointPoll = isBackwards && !scopeData.noSafepointPolls();
         FrameState stateBefore = isSafepointPoll ? curState.immutableCopy(bci()) : null;
         append(new TableSwitch(ipop(), list, ts.lowKey(), stateBefore, isSafepointPoll));
@@ -1341,6 +1491,7 @@ public final class GraphBuilder {
         int offset = ls.defaultOffset();
         isBackwards |= offset < 0; // if the default successor is backwards
         list.add(blockAt(bci + offset));
+        markRarelyExecutedSuccessors(list);
         boolean isSafepointPoll = isBackwards && !scopeData.noSafepointPolls();
         FrameState stateBefore = isSafepointPoll ? curState.immutableCopy(bci()) : null;
         append(new LookupSwitch(ipop(), list, keys, stateBefore, isSafepointPoll));
@@ -2051,7 +2202,7 @@ public final class GraphBuilder {
         while ((b = scopeData.removeFromWorkList()) != null) {
             if (!b.wasVisited()) {
                 if (b.isOsrEntry()) {
-                    // OSR not yet supported
+                    // the OSR entry block is built by setupOsrEntryBlock and is never parsed
                     Util.shouldNotReachHere();
                 }
                 b.setWasVisited(true);
@@ -158,6 +158,11 @@ public class IR {
 
     private void optimize2() {
         // do more advanced, dominator-based optimizations
+        if (C1XOptions.OptLoopInvariantCodeMotion || C1XOptions.OptRangeCheckElimination) {
+            makeLinearScanOrder();
+            new LoopOptimizer(this);
+            observeCompilationEvent("After loop optimizations");
+        }
         if (C1XOptions.OptGlobalValueNumbering) {
             makeLinearScanOrder();
             new GlobalValueNumberer(this);
@@ -55,7 +55,8 @@ public final class BlockBegin extends Instruction {
         ParserLoopHeader,
         CriticalEdgeSplit,
         LinearScanLoopHeader,
-        LinearScanLoopEnd;
+        LinearScanLoopEnd,
+        RarelyExecuted;
 
         public final int mask = 1 << ordinal();
     }
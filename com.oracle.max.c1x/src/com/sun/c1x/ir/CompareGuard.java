@@ -0,0 +1,77 @@
+/*
+ * Copyright (c) 2012, Oracle and/or its affiliates. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * Please contact Oracle, 500 Oracle Parkway, Redwood Shores, CA 94065 USA
+ * or visit www.oracle.com if you need additional information or have any
+ * questions.
+ */
+package com.sun.c1x.ir;
+
+import com.oracle.max.criutils.*;
+import com.sun.c1x.util.*;
+import com.sun.c1x.value.*;
+import com.sun.cri.ci.*;
+
+/**
+ * Compares two values and deoptimizes if the condition does not hold.
+ * Replaces a branch that the profile of the method shows as never taken.
+ */
+public final class CompareGuard extends Guard {
+
+    Value x;
+    Value y;
+
+    /**
+     * Creates a new CompareGuard instruction.
+     * @param x the instruction producing the first input to the comparison
+     * @param condition the condition that must hold
+     * @param y the instruction producing the second input to the comparison
+     * @param stateBefore the state before the branch, to deoptimize to if the condition does not hold
+     */
+    public CompareGuard(Value x, Condition condition, Value y, FrameState stateBefore) {
+        super(condition, stateBefore);
+        this.x = x;
+        this.y = y;
+        assert Util.archKindsEqual(x, y);
+        assert !x.kind.isFloat() && !x.kind.isDouble();
+    }
+
+    public Value x() {
+        return x;
+    }
+
+    public Value y() {
+        return y;
+    }
+
+    @Override
+    public void inputValuesDo(ValueClosure closure) {
+        x = closure.apply(x);
+        y = closure.apply(y);
+    }
+
+    @Override
+    public void accept(ValueVisitor v) {
+        v.visitCompareGuard(this);
+    }
+
+    @Override
+    public void print(LogStream out) {
+        out.print("compareGuard ").print(Util.valueString(x)).print(' ').print(condition.operator).print(' ').print(Util.valueString(y));
+    }
+}
@@ -48,6 +48,7 @@ public class DefaultValueVisitor extends ValueVisitor {
     @Override public void visitBoundsCheck(BoundsCheck i) { visit(i); }
     @Override public void visitBreakpointTrap(BreakpointTrap i) {visit(i); }
     @Override public void visitCheckCast(CheckCast i) { visit(i); }
+    @Override public void visitCompareGuard(CompareGuard i) { visit(i); }
     @Override public void visitCompareOp(CompareOp i) { visit(i); }
     @Override public void visitCompareAndSwap(CompareAndSwap i) { visit(i); }
     @Override public void visitConstant(Constant i) { visit(i); }
@@ -93,6 +94,7 @@ public class DefaultValueVisitor extends ValueVisitor {
     @Override public void visitStoreRegister(StoreRegister i) { visit(i); }
     @Override public void visitTableSwitch(TableSwitch i) { visit(i); }
     @Override public void visitTypeEqualityCheck(TypeEqualityCheck i) { visit(i); }
+    @Override public void visitTypeGuard(TypeGuard i) { visit(i); }
     @Override public void visitThrow(Throw i) { visit(i); }
     @Override public void visitUnsafeCast(UnsafeCast i) { visit(i); }
     @Override public void visitUnsafeGetObject(UnsafeGetObject i) { visit(i); }
@@ -26,7 +26,9 @@ import com.oracle.max.criutils.*;
 import com.sun.cri.ci.*;
 
 /**
- * The {@code OsrEntry} instruction represents the buffer for an OSR.
+ * The {@code OsrEntry} instruction represents the buffer for an OSR. The buffer is a native
+ * memory block filled in by the runtime that holds the value of local variable {@code i}
+ * in the word at offset {@code i * wordSize}.
  */
 public final class OsrEntry extends Instruction {
 
@@ -34,8 +36,9 @@ public final class OsrEntry extends Instruction {
      * Constructs a new OsrEntry instruction.
      */
     public OsrEntry() {
-        // TODO: this should be a CiKind.Word
-        super(CiKind.Jsr);
+        // the buffer is a raw pointer which is modeled as a long
+        super(CiKind.Long);
+        setFlag(Flag.NonNull);
     }
 
     @Override
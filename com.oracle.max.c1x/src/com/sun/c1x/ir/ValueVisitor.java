@@ -38,6 +38,7 @@ public abstract class ValueVisitor {
     public abstract void visitBlockBegin(BlockBegin i);
     public abstract void visitBreakpointTrap(BreakpointTrap i);
     public abstract void visitCheckCast(CheckCast i);
+    public abstract void visitCompareGuard(CompareGuard compareGuard);
     public abstract void visitCompareOp(CompareOp i);
     public abstract void visitCompareAndSwap(CompareAndSwap i);
     public abstract void visitConstant(Constant i);
@@ -84,6 +85,7 @@ public abstract class ValueVisitor {
     public abstract void visitTableSwitch(TableSwitch i);
     public abstract void visitThrow(Throw i);
     public abstract void visitTypeEqualityCheck(TypeEqualityCheck typeEqualityCheck);
+    public abstract void visitTypeGuard(TypeGuard typeGuard);
     public abstract void visitUnsafeCast(UnsafeCast i);
     public abstract void visitUnsafeGetObject(UnsafeGetObject i);
     public abstract void visitUnsafeGetRaw(UnsafeGetRaw i);
@@ -48,6 +48,7 @@ public abstract class LIRAssembler {
     public final AbstractAssembler asm;
     public final FrameMap frameMap;
     public int registerRestoreEpilogueOffset = -1;
+    public int osrEntryOffset = -1;
 
     protected final List<SlowPath> xirSlowPath;
     protected final List<BlockBegin> branchTargetBlocks;
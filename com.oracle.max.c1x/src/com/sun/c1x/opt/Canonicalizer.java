@@ -1513,6 +1513,24 @@ public class Canonicalizer extends DefaultValueVisitor {
         }
     }
 
+    @Override
+    public void visitTypeGuard(TypeGuard i) {
+        if (i.object().exactType() == i.type()) {
+            setCanonical(null);
+        }
+    }
+
+    @Override
+    public void visitCompareGuard(CompareGuard g) {
+        Value x = g.x();
+        Value y = g.y();
+        if (x.isConstant() && y.isConstant() && x.kind.isInt()) {
+            if (g.condition.check(x.asConstant().asInt(), y.asConstant().asInt())) {
+                setCanonical(null);
+            }
+        }
+    }
+
     @Override
     public void visitBoundsCheck(BoundsCheck b) {
         Value index = b.index();
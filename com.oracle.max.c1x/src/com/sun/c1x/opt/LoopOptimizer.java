@@ -0,0 +1,525 @@
+/*
+ * Copyright (c) 2012, Oracle and/or its affiliates. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * Please contact Oracle, 500 Oracle Parkway, Redwood Shores, CA 94065 USA
+ * or visit www.oracle.com if you need additional information or have any
+ * questions.
+ */
+package com.sun.c1x.opt;
+
+import static com.sun.cri.bytecode.Bytecodes.*;
+
+import java.util.*;
+
+import com.sun.c1x.*;
+import com.sun.c1x.graph.*;
+import com.sun.c1x.ir.*;
+import com.sun.c1x.value.*;
+import com.sun.cri.ri.*;
+
+/**
+ * Optimizes the natural loops of the IR: hoists loop invariant computations and eliminates the bounds checks
+ * of array accesses indexed by the induction variable of a counted loop.
+ * <p>
+ * The loops are found from the dominators and the loop headers computed by {@link ComputeLinearScanOrder} and are
+ * processed innermost first. Only loops entered through a single pre-header ending with a {@link Goto} are optimized;
+ * no block is added to the control flow graph.
+ * <p>
+ * An instruction is hoisted to the pre-header if its inputs are defined outside the loop and it can neither trap nor
+ * have side effects. A {@link LoadField} is also hoisted if its object is known to be non-null and the loop contains no
+ * store to the field and no call or other memory barrier.
+ * <p>
+ * A loop is counted if its header ends with a test of a phi against a loop invariant limit and all its back edges
+ * increment (or all decrement) the phi by one. The bounds checks of the accesses to invariant arrays indexed by the phi
+ * outside the header are then eliminated, provided the range of the phi fits in the array. When this cannot be proven
+ * from the IR alone, guards that deoptimize to the loop entry are inserted in the pre-header. As a guard may fail for
+ * a loop that would have exited before any access, guards are only inserted if the method has a baseline profile
+ * that is still used for speculation (see {@link RiResolvedMethod#branchProbability(int)}).
+ */
+public class LoopOptimizer {
+
+    final IR ir;
+
+    /**
+     * The blocks of the loop being optimized.
+     */
+    HashSet<BlockBegin> loopBlocks;
+
+    /**
+     * The instructions of the loop being optimized that have not been hoisted.
+     */
+    HashSet<Value> loopValues;
+
+    /**
+     * The pre-header of the loop being optimized.
+     */
+    BlockBegin preHeader;
+
+    /**
+     * The last instruction inserted in the pre-header, before which are inserted the next ones.
+     */
+    Instruction preHeaderLast;
+
+    /**
+     * The lengths of the arrays materialized in the pre-header for the guards.
+     */
+    HashMap<Value, Value> arrayLengths;
+
+    /**
+     * Creates a new LoopOptimizer pass and performs it on the IR.
+     *
+     * @param ir the IR on which to perform loop optimizations
+     */
+    public LoopOptimizer(IR ir) {
+        this.ir = ir;
+        ArrayList<BlockBegin> headers = new ArrayList<BlockBegin>();
+        for (BlockBegin block : ir.linearScanOrder()) {
+            if (block.isLinearScanLoopHeader()) {
+                headers.add(block);
+            }
+        }
+        // innermost loops first, so that their invariants can be hoisted further by the enclosing loops
+        Collections.sort(headers, new Comparator<BlockBegin>() {
+            public int compare(BlockBegin o1, BlockBegin o2) {
+                return o2.loopDepth() - o1.loopDepth();
+            }
+        });
+        for (BlockBegin header : headers) {
+            optimize(header);
+        }
+    }
+
+    void optimize(BlockBegin header) {
+        ArrayList<BlockBegin> loopEnds = new ArrayList<BlockBegin>();
+        preHeader = null;
+        for (BlockBegin pred : header.predecessors()) {
+            if (dominates(header, pred)) {
+                loopEnds.add(pred);
+            } else if (preHeader == null) {
+                preHeader = pred;
+            } else {
+                // more than one entry (e.g. an OSR entry)
+                return;
+            }
+        }
+        if (preHeader == null || loopEnds.isEmpty() || header.isExceptionEntry() || preHeader.numberOfSux() != 1 || !(preHeader.end() instanceof Goto)) {
+            return;
+        }
+        if (!collectLoop(header, loopEnds)) {
+            return;
+        }
+        preHeaderLast = preHeader.end().prev(preHeader);
+        arrayLengths = new HashMap<Value, Value>();
+
+        if (C1XOptions.OptLoopInvariantCodeMotion) {
+            hoistInvariants();
+        }
+        if (C1XOptions.OptRangeCheckElimination) {
+            eliminateRangeChecks(header);
+        }
+
+        loopBlocks = null;
+        loopValues = null;
+        arrayLengths = null;
+        preHeader = null;
+        preHeaderLast = null;
+    }
+
+    /**
+     * Computes the blocks and the instructions of the natural loop of a header.
+     *
+     * @return {@code false} if the loop contains an exception handler entry
+     */
+    private boolean collectLoop(BlockBegin header, List<BlockBegin> loopEnds) {
+        loopBlocks = new HashSet<BlockBegin>();
+        loopBlocks.add(header);
+        ArrayList<BlockBegin> worklist = new ArrayList<BlockBegin>(loopEnds);
+        while (!worklist.isEmpty()) {
+            BlockBegin block = worklist.remove(worklist.size() - 1);
+            if (loopBlocks.add(block)) {
+                if (block.isExceptionEntry()) {
+                    return false;
+                }
+                worklist.addAll(block.predecessors());
+            }
+        }
+        loopValues = new HashSet<Value>();
+        for (BlockBegin block : loopBlocks) {
+            for (Instruction instr = block.next(); instr != null; instr = instr.next()) {
+                loopValues.add(instr);
+            }
+        }
+        return true;
+    }
+
+    private static boolean dominates(BlockBegin dominator, BlockBegin block) {
+        for (BlockBegin b = block; b != null; b = b.dominator()) {
+            if (b == dominator) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Checks whether a value is defined outside of the loop being optimized.
+     */
+    boolean isInvariant(Value x) {
+        if (x instanceof Phi) {
+            return !loopBlocks.contains(((Phi) x).block());
+        }
+        return !loopValues.contains(x);
+    }
+
+    private void insertInPreHeader(Instruction x) {
+        preHeaderLast.resetNext(x);
+        x.resetNext(preHeader.end());
+        preHeaderLast = x;
+    }
+
+    private void appendToPreHeader(Instruction x) {
+        x.setBCI(preHeader.end().bci());
+        insertInPreHeader(x);
+    }
+
+    // Loop invariant code motion
+
+    private void hoistInvariants() {
+        boolean memoryKilled = false;
+        HashSet<RiField> storedFields = new HashSet<RiField>();
+        for (Value x : loopValues) {
+            if (x instanceof StoreField) {
+                StoreField store = (StoreField) x;
+                if (store.isLoaded()) {
+                    storedFields.add(store.field());
+                } else {
+                    memoryKilled = true;
+                }
+            } else if (killsMemory(x)) {
+                memoryKilled = true;
+            }
+        }
+
+        // visit the blocks in linear scan order so that the inputs of an instruction are visited before it
+        for (BlockBegin block : ir.linearScanOrder()) {
+            if (!loopBlocks.contains(block)) {
+                continue;
+            }
+            Instruction instr = block.next();
+            while (instr != null) {
+                Instruction next = instr.next();
+                if (isHoistable(instr, memoryKilled, storedFields)) {
+                    hoist(block, instr);
+                    C1XMetrics.LoopInvariantsHoisted++;
+                }
+                instr = next;
+            }
+        }
+    }
+
+    private static boolean killsMemory(Value x) {
+        return x instanceof Invoke || x instanceof Intrinsic || x instanceof NativeCall || x instanceof AccessMonitor ||
+               x instanceof MemoryBarrier || x instanceof CompareAndSwap || x instanceof UnsafePutRaw ||
+               x instanceof UnsafePutObject || x instanceof StorePointer;
+    }
+
+    private boolean isHoistable(Instruction x, boolean memoryKilled, Set<RiField> storedFields) {
+        if (x instanceof BlockEnd || x.stateBefore() != null || x.canTrap()) {
+            return false;
+        }
+        if (x instanceof LoadField) {
+            LoadField load = (LoadField) x;
+            if (memoryKilled || !load.isLoaded() || load.isVolatile() || storedFields.contains(load.field())) {
+                return false;
+            }
+            // a null check eliminated by a dominating check inside the loop doesn't hold in the pre-header
+            if (!load.isStatic() && !load.object().isNonNull()) {
+                return false;
+            }
+        } else if (x instanceof ArrayLength) {
+            if (!((ArrayLength) x).array().isNonNull()) {
+                return false;
+            }
+        } else if (!(x instanceof Op2 || x instanceof NegateOp || x instanceof Convert)) {
+            return false;
+        }
+        return hasInvariantInputs(x);
+    }
+
+    private boolean hasInvariantInputs(Instruction x) {
+        invariantInputChecker.invariant = true;
+        x.inputValuesDo(invariantInputChecker);
+        return invariantInputChecker.invariant;
+    }
+
+    private void hoist(BlockBegin block, Instruction x) {
+        x.inputValuesDo(constantHoister);
+        x.prev(block).resetNext(x.next());
+        loopValues.remove(x);
+        insertInPreHeader(x);
+    }
+
+    final InvariantInputChecker invariantInputChecker = new InvariantInputChecker();
+
+    private final class InvariantInputChecker implements ValueClosure {
+        boolean invariant;
+
+        public Value apply(Value i) {
+            if (!isInvariant(i) && !(i instanceof Constant)) {
+                invariant = false;
+            }
+            return i;
+        }
+    }
+
+    final ConstantHoister constantHoister = new ConstantHoister();
+
+    /**
+     * Moves the constants defined in the loop along with the first hoisted instruction using them.
+     */
+    private final class ConstantHoister implements ValueClosure {
+        public Value apply(Value i) {
+            if (!isInvariant(i)) {
+                Constant c = (Constant) i;
+                c.prev(c.block()).resetNext(c.next());
+                loopValues.remove(c);
+                insertInPreHeader(c);
+            }
+            return i;
+        }
+    }
+
+    // Range check elimination
+
+    private void eliminateRangeChecks(BlockBegin header) {
+        if (!(header.end() instanceof If)) {
+            return;
+        }
+        If loopTest = (If) header.end();
+        if (!loopTest.x().kind.isInt()) {
+            return;
+        }
+        Condition cond = loopTest.condition();
+        if (loopBlocks.contains(loopTest.falseSuccessor())) {
+            if (loopBlocks.contains(loopTest.trueSuccessor())) {
+                return;
+            }
+            cond = cond.negate();
+        } else if (!loopBlocks.contains(loopTest.trueSuccessor())) {
+            return;
+        }
+
+        // normalize the condition under which the loop continues to "phi cond limit"
+        Phi phi;
+        Value limit;
+        if (loopTest.x() instanceof Phi && ((Phi) loopTest.x()).block() == header) {
+            phi = (Phi) loopTest.x();
+            limit = loopTest.y();
+        } else if (loopTest.y() instanceof Phi && ((Phi) loopTest.y()).block() == header) {
+            phi = (Phi) loopTest.y();
+            limit = loopTest.x();
+            cond = cond.mirror();
+        } else {
+            return;
+        }
+        if (phi.isDeadPhi() || !isInvariantLimit(limit)) {
+            return;
+        }
+
+        Value init = null;
+        int stride = 0;
+        for (int i = 0; i < header.numberOfPreds(); i++) {
+            Value input = phi.inputAt(i);
+            if (header.predAt(i) == preHeader) {
+                init = input;
+            } else {
+                int s = strideOf(phi, input);
+                if (s == 0 || (stride != 0 && s != stride)) {
+                    return;
+                }
+                stride = s;
+            }
+        }
+
+        // the phi ranges over [lowValue + lowAdjust, highValue - highAdjust] while the accesses are executed
+        Value lowValue;
+        int lowAdjust;
+        Value highValue;
+        int highAdjust;
+        if (stride == 1 && (cond == Condition.LT || cond == Condition.LE)) {
+            lowValue = init;
+            lowAdjust = 0;
+            highValue = limit;
+            highAdjust = cond == Condition.LT ? 1 : 0;
+        } else if (stride == -1 && (cond == Condition.GT || cond == Condition.GE)) {
+            lowValue = limit;
+            lowAdjust = cond == Condition.GT ? 1 : 0;
+            highValue = init;
+            highAdjust = 0;
+        } else {
+            return;
+        }
+        C1XMetrics.CountedLoops++;
+
+        // accesses in the header may precede the loop test
+        LinkedHashMap<Value, ArrayList<AccessIndexed>> accesses = new LinkedHashMap<Value, ArrayList<AccessIndexed>>();
+        for (BlockBegin block : ir.linearScanOrder()) {
+            if (block == header || !loopBlocks.contains(block)) {
+                continue;
+            }
+            for (Instruction instr = block.next(); instr != null; instr = instr.next()) {
+                if (instr instanceof AccessIndexed) {
+                    AccessIndexed access = (AccessIndexed) instr;
+                    if (access.index() == phi && access.needsBoundsCheck() && isInvariant(access.array())) {
+                        ArrayList<AccessIndexed> list = accesses.get(access.array());
+                        if (list == null) {
+                            list = new ArrayList<AccessIndexed>();
+                            accesses.put(access.array(), list);
+                        }
+                        list.add(access);
+                    }
+                }
+            }
+        }
+        if (accesses.isEmpty()) {
+            return;
+        }
+
+        // guards are needed when the range of the phi cannot be proven to fit in the arrays
+        FrameState entryState = canSpeculate(header) ? entryState(header) : null;
+        boolean lowProven = isAtLeast(lowValue, -lowAdjust);
+        if (!lowProven && (entryState == null || lowValue.isConstant())) {
+            return;
+        }
+        Condition highCond = highAdjust == 1 ? Condition.LE : Condition.LT;
+        boolean lowGuarded = lowProven;
+        for (Map.Entry<Value, ArrayList<AccessIndexed>> entry : accesses.entrySet()) {
+            Value array = entry.getKey();
+            if (isLengthOf(highValue, array)) {
+                if (highCond != Condition.LE) {
+                    // the last index would be the length of the array
+                    continue;
+                }
+            } else if (entryState == null) {
+                continue;
+            }
+            if (!lowGuarded) {
+                appendToPreHeader(new BoundsCheck(lowValue, appendConstant(-lowAdjust), entryState, Condition.GE));
+                C1XMetrics.LoopPredicatesInserted++;
+                lowGuarded = true;
+            }
+            if (!isLengthOf(highValue, array)) {
+                Value high = isInvariant(highValue) ? highValue : lengthOf(((ArrayLength) highValue).array(), entryState);
+                appendToPreHeader(new BoundsCheck(high, lengthOf(array, entryState), entryState, highCond));
+                C1XMetrics.LoopPredicatesInserted++;
+            }
+            for (AccessIndexed access : entry.getValue()) {
+                access.eliminateBoundsCheck();
+            }
+        }
+    }
+
+    /**
+     * Checks whether a loop limit is invariant. The length of an invariant array is invariant even if it is read
+     * inside the loop, which is how {@code javac} compiles {@code for (int i = 0; i < a.length; i++)}.
+     */
+    private boolean isInvariantLimit(Value limit) {
+        return isInvariant(limit) || (limit instanceof ArrayLength && isInvariant(((ArrayLength) limit).array()));
+    }
+
+    /**
+     * Gets the amount by which a back edge input of an induction phi increments it.
+     *
+     * @return the increment or {@code 0} if {@code input} is not the phi incremented by a constant
+     */
+    private static int strideOf(Phi phi, Value input) {
+        if (input instanceof ArithmeticOp) {
+            ArithmeticOp op = (ArithmeticOp) input;
+            if (op.opcode == IADD) {
+                if (op.x() == phi && op.y().isConstant()) {
+                    return op.y().asConstant().asInt();
+                }
+                if (op.y() == phi && op.x().isConstant()) {
+                    return op.x().asConstant().asInt();
+                }
+            } else if (op.opcode == ISUB && op.x() == phi && op.y().isConstant()) {
+                return -op.y().asConstant().asInt();
+            }
+        }
+        return 0;
+    }
+
+    private static boolean isAtLeast(Value x, int min) {
+        if (x.isConstant()) {
+            return x.asConstant().asInt() >= min;
+        }
+        return x instanceof ArrayLength && min <= 0;
+    }
+
+    private static boolean isLengthOf(Value x, Value array) {
+        return x instanceof ArrayLength && ((ArrayLength) x).array() == array;
+    }
+
+    /**
+     * Checks whether guards that may fail although the loop accesses no element out of bounds can be inserted.
+     * A failing guard invalidates the method and is recorded in its baseline profile, which is no longer
+     * used for speculation once failures are too frequent.
+     */
+    private static boolean canSpeculate(BlockBegin header) {
+        RiResolvedMethod method = header.stateBefore().scope().method;
+        return C1XOptions.UseProfilingInformation && method.branchProbability(header.end().bci()) >= 0;
+    }
+
+    /**
+     * Creates the state to which the guards of the pre-header deoptimize, so that the interpreter
+     * re-enters the loop through its header.
+     */
+    private FrameState entryState(BlockBegin header) {
+        FrameState state = preHeader.end().stateAfter();
+        if (state == null || state.scope() != header.stateBefore().scope()) {
+            return null;
+        }
+        return state.copy(header.bci(), true, true, true);
+    }
+
+    private Constant appendConstant(int value) {
+        Constant c = Constant.forInt(value);
+        appendToPreHeader(c);
+        return c;
+    }
+
+    /**
+     * Gets the length of an array in the pre-header, guarding it with a null check that deoptimizes.
+     */
+    private Value lengthOf(Value array, FrameState entryState) {
+        Value length = arrayLengths.get(array);
+        if (length == null) {
+            if (!array.isNonNull()) {
+                Constant nullConstant = Constant.forObject(null);
+                appendToPreHeader(nullConstant);
+                appendToPreHeader(new CompareGuard(array, Condition.NE, nullConstant, entryState));
+            }
+            ArrayLength arrayLength = new ArrayLength(array, null);
+            arrayLength.eliminateNullCheck();
+            appendToPreHeader(arrayLength);
+            arrayLengths.put(array, arrayLength);
+            length = arrayLength;
+        }
+        return length;
+    }
+}
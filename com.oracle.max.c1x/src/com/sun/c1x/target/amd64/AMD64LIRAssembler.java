@@ -76,7 +76,22 @@ public final class AMD64LIRAssembler extends LIRAssembler {
 
     @Override
     protected void emitOsrEntry() {
-        throw Util.unimplemented();
+        // The OSR entry is jumped to with the stack pointer addressing the return address of the
+        // replaced baseline frame, i.e. in the same state as on entry through the normal prologue.
+        osrEntryOffset = masm.codeBuffer.position();
+        emitStackOverflowCheck();
+        masm.decrementq(AMD64.rsp, initialFrameSizeInBytes());
+    }
+
+    private void emitStackOverflowCheck() {
+        int frameSize = initialFrameSizeInBytes();
+        int lastFramePage = frameSize / target.pageSize;
+        // emit multiple stack bangs for methods with frames larger than a page
+        for (int i = 0; i <= lastFramePage; i++) {
+            int offset = (i + C1XOptions.StackShadowPages) * target.pageSize;
+            // Deduct 'frameSize' to handle frames larger than the shadow
+            bangStackWithOffset(offset - frameSize);
+        }
     }
 
     @Override
@@ -2000,14 +2015,7 @@ public final class AMD64LIRAssembler extends LIRAssembler {
                     break;
                 }
                 case StackOverflowCheck: {
-                    int frameSize = initialFrameSizeInBytes();
-                    int lastFramePage = frameSize / target.pageSize;
-                    // emit multiple stack bangs for methods with frames larger than a page
-                    for (int i = 0; i <= lastFramePage; i++) {
-                        int offset = (i + C1XOptions.StackShadowPages) * target.pageSize;
-                        // Deduct 'frameSize' to handle frames larger than the shadow
-                        bangStackWithOffset(offset - frameSize);
-                    }
+                    emitStackOverflowCheck();
                     break;
                 }
                 case PushFrame: {
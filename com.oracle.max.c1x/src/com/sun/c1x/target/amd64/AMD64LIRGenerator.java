@@ -680,7 +680,8 @@ public class AMD64LIRGenerator extends LIRGenerator {
 
     @Override
     protected CiValue osrBufferPointer() {
-        return Util.nonFatalUnimplemented(null);
+        // the runtime enters OSR code via an unwind stub that passes the buffer in the return register
+        return RAX_L;
     }
 
     @Override
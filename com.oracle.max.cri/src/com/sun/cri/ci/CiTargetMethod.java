@@ -345,6 +345,7 @@ public class CiTargetMethod implements Serializable {
     private int frameSize = -1;
     private int customStackAreaOffset = -1;
     private int registerRestoreEpilogueOffset = -1;
+    private int osrEntryOffset = -1;
     private int deoptReturnAddressOffset;
 
     /**
@@ -480,6 +481,24 @@ public class CiTargetMethod implements Serializable {
         this.registerRestoreEpilogueOffset = registerRestoreEpilogueOffset;
     }
 
+    /**
+     * Sets the offset of the on-stack replacement entry of an OSR compilation.
+     *
+     * @param osrEntryOffset the offset in the machine code of the OSR entry
+     */
+    public void setOsrEntryOffset(int osrEntryOffset) {
+        assert this.osrEntryOffset == -1;
+        this.osrEntryOffset = osrEntryOffset;
+    }
+
+    /**
+     * @return the code offset at which an on-stack replacement enters this method, or -1 if this is not an OSR
+     *         compilation
+     */
+    public int osrEntryOffset() {
+        return osrEntryOffset;
+    }
+
     /**
      * The frame size of the method in bytes.
      *
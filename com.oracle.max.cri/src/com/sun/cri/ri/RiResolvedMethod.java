@@ -181,6 +181,12 @@ public interface RiResolvedMethod extends RiMethod {
      */
     double branchProbability(int bci);
 
+    /**
+     * Returns how often the branch at the given byte code index was executed, whichever way it went.
+     * @return The number of executions, or -1 if this information isn't available.
+     */
+    int branchCount(int bci);
+
     /**
      * Returns an estimate of how often the branches of the switch at the given byte code were taken.
      * @return The estimated probability, with 0.0 meaning never and 1.0 meaning always, or NULL if this information isn't available.
@@ -0,0 +1,94 @@
+/*
+ * Copyright (c) 2012, Oracle and/or its affiliates. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * Please contact Oracle, 500 Oracle Parkway, Redwood Shores, CA 94065 USA
+ * or visit www.oracle.com if you need additional information or have any
+ * questions.
+ */
+package jtt.jdk;
+
+/*
+ * Tests System.arraycopy of primitive arrays with overlapping source and destination ranges,
+ * including copies longer than the chunks copied between two safepoint polls.
+ * @Harness: java
+ * @Runs: 0 = true; 1 = true; 17 = true; 100000 = true;
+ */
+public class System_arraycopy01 {
+
+    public static boolean test(int length) {
+        return copyInts(length) && copyBytes(length) && copyLongs(length);
+    }
+
+    private static boolean copyInts(int length) {
+        final int[] array = new int[length + 8];
+        for (int i = 0; i < array.length; i++) {
+            array[i] = i;
+        }
+        // Destination above the source
+        System.arraycopy(array, 0, array, 3, length);
+        for (int i = 0; i < length; i++) {
+            if (array[i + 3] != i) {
+                return false;
+            }
+        }
+        // Destination below the source
+        System.arraycopy(array, 3, array, 1, length);
+        for (int i = 0; i < length; i++) {
+            if (array[i + 1] != i) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean copyBytes(int length) {
+        final byte[] array = new byte[length + 16];
+        for (int i = 0; i < array.length; i++) {
+            array[i] = (byte) i;
+        }
+        // Source and destination with different alignments
+        System.arraycopy(array, 1, array, 4, length);
+        for (int i = 0; i < length; i++) {
+            if (array[i + 4] != (byte) (i + 1)) {
+                return false;
+            }
+        }
+        System.arraycopy(array, 4, array, 0, length);
+        for (int i = 0; i < length; i++) {
+            if (array[i] != (byte) (i + 1)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean copyLongs(int length) {
+        final long[] from = new long[length];
+        final long[] to = new long[length + 1];
+        for (int i = 0; i < length; i++) {
+            from[i] = (long) i << 32 | i;
+        }
+        System.arraycopy(from, 0, to, 1, length);
+        for (int i = 0; i < length; i++) {
+            if (to[i + 1] != from[i]) {
+                return false;
+            }
+        }
+        return to[0] == 0L;
+    }
+}
@@ -0,0 +1,78 @@
+/*
+ * Copyright (c) 2012, Oracle and/or its affiliates. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * Please contact Oracle, 500 Oracle Parkway, Redwood Shores, CA 94065 USA
+ * or visit www.oracle.com if you need additional information or have any
+ * questions.
+ */
+package jtt.jdk;
+
+/*
+ * Tests System.arraycopy of reference arrays: overlapping ranges of the same array, copies to an array of a
+ * supertype of the source component type and copies that fail the store check part of the way.
+ * @Harness: java
+ * @Runs: 0 = true; 1 = true; 17 = true; 100000 = true;
+ */
+public class System_arraycopy02 {
+
+    public static boolean test(int length) {
+        final String[] strings = new String[length];
+        for (int i = 0; i < length; i++) {
+            strings[i] = String.valueOf(i);
+        }
+        final Object[] objects = new Object[length + 5];
+        System.arraycopy(strings, 0, objects, 5, length);
+        for (int i = 0; i < length; i++) {
+            if (objects[i + 5] != strings[i]) {
+                return false;
+            }
+        }
+        // Destination below the source in the same array
+        System.arraycopy(objects, 5, objects, 2, length);
+        for (int i = 0; i < length; i++) {
+            if (objects[i + 2] != strings[i]) {
+                return false;
+            }
+        }
+        // Destination above the source in the same array
+        System.arraycopy(objects, 2, objects, 4, length);
+        for (int i = 0; i < length; i++) {
+            if (objects[i + 4] != strings[i]) {
+                return false;
+            }
+        }
+        // Elements are stored up to the first one that fails the store check
+        if (length > 0) {
+            final Object[] mixed = new Object[length];
+            System.arraycopy(strings, 0, mixed, 0, length);
+            mixed[length / 2] = Integer.valueOf(0);
+            final String[] copy = new String[length];
+            try {
+                System.arraycopy(mixed, 0, copy, 0, length);
+                return false;
+            } catch (ArrayStoreException e) {
+                for (int i = 0; i < length; i++) {
+                    if (copy[i] != (i < length / 2 ? strings[i] : null)) {
+                        return false;
+                    }
+                }
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,54 @@
+/*
+ * Copyright (c) 2012, Oracle and/or its affiliates. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * Please contact Oracle, 500 Oracle Parkway, Redwood Shores, CA 94065 USA
+ * or visit www.oracle.com if you need additional information or have any
+ * questions.
+ */
+package jtt.loop;
+
+/*
+ * Runs a loop long enough for its backward branch counter to overflow in baseline code, so that the
+ * frame is migrated into optimized code by on-stack replacement when that is enabled. The locals
+ * live across the loop header include an object, a long and a double.
+ *
+ * @Harness: java
+ * @Runs: 0 = 0L; 1 = 165536L; 2 = 396608L; 3 = 562144L
+ */
+public class LoopOSR {
+
+    static final class Cell {
+        long value;
+    }
+
+    public static long test(int arg) {
+        Cell cell = new Cell();
+        long sum = 0;
+        double half = 0.5d;
+        int n = arg * 100000;
+        for (int i = 0; i < n; i++) {
+            sum += i & 1;
+            if ((i & 0xffff) == 0) {
+                // allocate in the loop so that a GC may have to update the references in the migrated frame
+                cell = new Cell();
+                cell.value = i;
+            }
+        }
+        return (long) (sum * half * 4) + cell.value;
+    }
+}
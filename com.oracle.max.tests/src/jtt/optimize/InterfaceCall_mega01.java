@@ -0,0 +1,112 @@
+/*
+ * Copyright (c) 2012, Oracle and/or its affiliates. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * Please contact Oracle, 500 Oracle Parkway, Redwood Shores, CA 94065 USA
+ * or visit www.oracle.com if you need additional information or have any
+ * questions.
+ */
+package jtt.optimize;
+
+/*
+ * Tests an interface call site that sees more receiver classes than its inline cache tolerates misses,
+ * so that it becomes megamorphic, and checks that every receiver still reaches its own implementation.
+ * @Harness: java
+ * @Runs: 0 = 0; 1 = 1; 8 = 36; 16 = 72; 100 = 442
+ */
+public class InterfaceCall_mega01 {
+
+    interface Other {
+        int other();
+    }
+
+    interface Value {
+        int value();
+    }
+
+    static class V1 implements Value {
+        public int value() {
+            return 1;
+        }
+    }
+
+    static class V2 implements Value {
+        public int value() {
+            return 2;
+        }
+    }
+
+    static class V3 extends V2 {
+        @Override
+        public int value() {
+            return 3;
+        }
+    }
+
+    static class V4 implements Other, Value {
+        public int other() {
+            return -4;
+        }
+        public int value() {
+            return 4;
+        }
+    }
+
+    static class V5 extends V4 {
+        @Override
+        public int value() {
+            return 5;
+        }
+    }
+
+    static class V6 implements Value, Other {
+        public int other() {
+            return -6;
+        }
+        public int value() {
+            return 6;
+        }
+    }
+
+    static class V7 extends V1 {
+        @Override
+        public int value() {
+            return 7;
+        }
+    }
+
+    static class V8 extends V6 {
+        @Override
+        public int value() {
+            return 8;
+        }
+    }
+
+    static final Value[] RECEIVERS = {new V1(), new V2(), new V3(), new V4(), new V5(), new V6(), new V7(), new V8()};
+
+    public static int test(int n) {
+        int sum = 0;
+        for (int i = 0; i < n; i++) {
+            sum += call(RECEIVERS[i & 7]);
+        }
+        return sum;
+    }
+
+    private static int call(Value v) {
+        return v.value();
+    }
+}
@@ -0,0 +1,70 @@
+/*
+ * Copyright (c) 2012, Oracle and/or its affiliates. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * Please contact Oracle, 500 Oracle Parkway, Redwood Shores, CA 94065 USA
+ * or visit www.oracle.com if you need additional information or have any
+ * questions.
+ */
+package jtt.optimize;
+
+/*
+ * Tests an interface call site whose receiver alternates between two classes, so that its
+ * inline cache misses and is rebound repeatedly. The interface method is at a different
+ * itable index in each receiver class.
+ * @Harness: java
+ * @Runs: 0 = 0; 1 = 1; 2 = 11; 10 = 55; 100 = 550
+ */
+public class InterfaceCall_poly01 {
+
+    interface Other {
+        int other();
+    }
+
+    interface Value {
+        int value();
+    }
+
+    static final class One implements Value {
+        public int value() {
+            return 1;
+        }
+    }
+
+    static final class Ten implements Other, Value {
+        public int other() {
+            return -1;
+        }
+        public int value() {
+            return 10;
+        }
+    }
+
+    static final Value[] RECEIVERS = {new One(), new Ten()};
+
+    public static int test(int n) {
+        int sum = 0;
+        for (int i = 0; i < n; i++) {
+            sum += call(RECEIVERS[i & 1]);
+        }
+        return sum;
+    }
+
+    private static int call(Value v) {
+        return v.value();
+    }
+}
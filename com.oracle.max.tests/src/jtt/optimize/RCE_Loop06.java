@@ -0,0 +1,45 @@
+/*
+ * Copyright (c) 2012, Oracle and/or its affiliates. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * Please contact Oracle, 500 Oracle Parkway, Redwood Shores, CA 94065 USA
+ * or visit www.oracle.com if you need additional information or have any
+ * questions.
+ */
+package jtt.optimize;
+
+/*
+ * Tests range check elimination of loads and stores to arrays other than the one bounding the loop.
+ * @Harness: java
+ * @Runs: 0=0; 4=10; 5=15; 6=!java.lang.ArrayIndexOutOfBoundsException
+ */
+public class RCE_Loop06 {
+
+    public static int test(int arg) {
+        int[] src = new int[arg];
+        for (int i = 0; i < src.length; i++) {
+            src[i] = i + 1;
+        }
+        int[] dst = new int[5];
+        int sum = 0;
+        for (int i = 0; i < src.length; i++) {
+            dst[i] = src[i];
+            sum += dst[i];
+        }
+        return sum;
+    }
+}
@@ -0,0 +1,69 @@
+/*
+ * Copyright (c) 2012, Oracle and/or its affiliates. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * Please contact Oracle, 500 Oracle Parkway, Redwood Shores, CA 94065 USA
+ * or visit www.oracle.com if you need additional information or have any
+ * questions.
+ */
+/*
+ * @Harness: java
+ * @Runs: 0 = true
+ */
+package test.bench.loop;
+
+import test.bench.util.*;
+
+/**
+ * A microbenchmark for a counted loop over an array, whose bounds checks can be eliminated.
+ */
+public class ArraySum_Loop extends RunBench {
+
+    protected ArraySum_Loop() {
+        super(new Bench());
+    }
+
+    public static boolean test(int i) {
+        return new ArraySum_Loop().runBench();
+    }
+
+    static class Bench extends MicroBenchmark {
+        private int[] array;
+
+        @Override
+        public void prerun() {
+            array = new int[1000];
+            for (int i = 0; i < array.length; i++) {
+                array[i] = i;
+            }
+        }
+
+        @Override
+        public long run() {
+            final int[] a = array;
+            int sum = 0;
+            for (int i = 0; i < a.length; i++) {
+                sum += a[i];
+            }
+            return sum;
+        }
+    }
+
+    public static void main(String[] args) {
+        test(0);
+    }
+}
@@ -0,0 +1,81 @@
+/*
+ * Copyright (c) 2012, Oracle and/or its affiliates. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * Please contact Oracle, 500 Oracle Parkway, Redwood Shores, CA 94065 USA
+ * or visit www.oracle.com if you need additional information or have any
+ * questions.
+ */
+/*
+ * @Harness: java
+ * @Runs: 0 = true
+ */
+package test.bench.loop;
+
+import test.bench.util.*;
+
+/**
+ * A microbenchmark for a loop parsing the numbers of a byte buffer, whose loop invariant field loads can be hoisted.
+ */
+public class ByteParse_Loop extends RunBench {
+
+    protected ByteParse_Loop() {
+        super(new Bench());
+    }
+
+    public static boolean test(int i) {
+        return new ByteParse_Loop().runBench();
+    }
+
+    static class Bench extends MicroBenchmark {
+        private static final byte[] INPUT = "12345 67890 1234567890 42 ".getBytes();
+
+        private byte[] buffer;
+        private int end;
+
+        @Override
+        public void prerun() {
+            buffer = INPUT;
+            end = INPUT.length;
+        }
+
+        /**
+         * Parses the space separated numbers of the buffer and returns the largest one.
+         */
+        @Override
+        public long run() {
+            int max = 0;
+            int value = 0;
+            for (int i = 0; i < end; i++) {
+                final byte b = buffer[i];
+                if (b == ' ') {
+                    if (value > max) {
+                        max = value;
+                    }
+                    value = 0;
+                } else {
+                    value = value * 10 + (b - '0');
+                }
+            }
+            return max;
+        }
+    }
+
+    public static void main(String[] args) {
+        test(0);
+    }
+}
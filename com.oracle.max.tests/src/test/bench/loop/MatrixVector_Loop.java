@@ -0,0 +1,78 @@
+/*
+ * Copyright (c) 2012, Oracle and/or its affiliates. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * Please contact Oracle, 500 Oracle Parkway, Redwood Shores, CA 94065 USA
+ * or visit www.oracle.com if you need additional information or have any
+ * questions.
+ */
+/*
+ * @Harness: java
+ * @Runs: 0 = true
+ */
+package test.bench.loop;
+
+import test.bench.util.*;
+
+/**
+ * A microbenchmark for nested counted loops multiplying a matrix by a vector.
+ */
+public class MatrixVector_Loop extends RunBench {
+
+    protected MatrixVector_Loop() {
+        super(new Bench());
+    }
+
+    public static boolean test(int i) {
+        return new MatrixVector_Loop().runBench();
+    }
+
+    static class Bench extends MicroBenchmark {
+        private static final int SIZE = 16;
+
+        private final int[][] matrix = new int[SIZE][SIZE];
+        private final int[] vector = new int[SIZE];
+        private final int[] result = new int[SIZE];
+
+        @Override
+        public void prerun() {
+            for (int i = 0; i < SIZE; i++) {
+                vector[i] = i;
+                for (int j = 0; j < SIZE; j++) {
+                    matrix[i][j] = i + j;
+                }
+            }
+        }
+
+        @Override
+        public long run() {
+            for (int i = 0; i < SIZE; i++) {
+                final int[] row = matrix[i];
+                int sum = 0;
+                for (int j = 0; j < SIZE; j++) {
+                    sum += row[j] * vector[j];
+                }
+                result[i] = sum;
+            }
+            return result[SIZE - 1];
+        }
+    }
+
+    public static void main(String[] args) {
+        test(0);
+    }
+}
@@ -0,0 +1,122 @@
+/*
+ * Copyright (c) 2012, Oracle and/or its affiliates. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * Please contact Oracle, 500 Oracle Parkway, Redwood Shores, CA 94065 USA
+ * or visit www.oracle.com if you need additional information or have any
+ * questions.
+ */
+/*
+ * @Harness: java
+ * @Runs: 0 = true;
+ */
+package test.bench.threads;
+
+import java.util.concurrent.locks.*;
+
+import test.bench.util.*;
+
+import com.sun.max.vm.thread.*;
+
+/**
+ * Measures how long it takes two fibers to hand control to each other with {@link LockSupport#park()} and
+ * {@link LockSupport#unpark(Thread)}, which unmounts the parking fiber from its carrier and mounts the other one.
+ * The encapsulating benchmark starts and joins the same two fibers without any hand-off.
+ *
+ * Run the VM with {@code -XX:FiberParallelism=1} to keep both fibers on a single carrier.
+ */
+public class Fiber_handoff01 extends RunBench {
+
+    private static final int HANDOFFS = 1000;
+
+    protected Fiber_handoff01() {
+        super(new Bench(HANDOFFS), new Bench(0));
+    }
+
+    public static boolean test(int i) {
+        return new Fiber_handoff01().runBench();
+    }
+
+    /**
+     * Two fibers taking turns until they have handed control to each other a given number of times.
+     */
+    static final class Game {
+        final int handoffs;
+        final Fiber[] players = new Fiber[2];
+        volatile int turn;
+
+        Game(int handoffs) {
+            this.handoffs = handoffs;
+            for (int i = 0; i < players.length; i++) {
+                final int player = i;
+                players[i] = new Fiber(new Runnable() {
+                    public void run() {
+                        play(player);
+                    }
+                });
+            }
+        }
+
+        void play(int player) {
+            final Fiber other = players[1 - player];
+            while (true) {
+                final int t = turn;
+                if (t >= handoffs) {
+                    LockSupport.unpark(other);
+                    return;
+                }
+                if (t % 2 == player) {
+                    turn = t + 1;
+                    LockSupport.unpark(other);
+                } else {
+                    LockSupport.park();
+                }
+            }
+        }
+
+        void play() {
+            for (Fiber player : players) {
+                player.start();
+            }
+            try {
+                for (Fiber player : players) {
+                    player.join();
+                }
+            } catch (InterruptedException ex) {
+            }
+        }
+    }
+
+    static class Bench extends MicroBenchmark {
+        private final int handoffs;
+
+        Bench(int handoffs) {
+            this.handoffs = handoffs;
+        }
+
+        @Override
+        public long run() {
+            new Game(handoffs).play();
+            return defaultResult;
+        }
+    }
+
+    // for running stand-alone
+    public static void main(String[] args) {
+        RunBench.runTest(Fiber_handoff01.class, args);
+    }
+}
@@ -0,0 +1,84 @@
+/*
+ * Copyright (c) 2012, Oracle and/or its affiliates. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * Please contact Oracle, 500 Oracle Parkway, Redwood Shores, CA 94065 USA
+ * or visit www.oracle.com if you need additional information or have any
+ * questions.
+ */
+/*
+ * @Harness: java
+ * @Runs: 0 = true
+ */
+package test.bench.threads;
+
+import test.bench.util.*;
+
+/**
+ * A variant of {@link Monitor_enter01} where the monitor is held for a short while, long enough for
+ * other threads to find it held. It is intended to be run in multi-threaded mode, where all threads
+ * contend on the same monitor, to measure the cost of acquiring a briefly held inflated monitor.
+ */
+public class Monitor_enter02 extends RunBench {
+    static int count;
+
+    /**
+     * Number of iterations of the loop run while holding the monitor.
+     */
+    static final int HOLD_ITERATIONS = 100;
+
+    protected Monitor_enter02() {
+        super(new Bench(), new EncapBench());
+    }
+
+    public static boolean test(int i) {
+        return new Monitor_enter02().runBench();
+    }
+
+    static int hold() {
+        int result = count;
+        for (int i = 0; i < HOLD_ITERATIONS; i++) {
+            result = result * 31 + i;
+        }
+        return result;
+    }
+
+    static class Bench extends MicroBenchmark {
+
+        @Override
+        public long run() {
+            synchronized (this) {
+                count = hold();
+            }
+            return defaultResult;
+        }
+    }
+
+    static class EncapBench extends MicroBenchmark {
+        @Override
+        public long run() {
+            count = hold();
+            return defaultResult;
+        }
+    }
+
+    // for running stand-alone
+    public static void main(String[] args) {
+        RunBench.runTest(Monitor_enter02.class, args);
+    }
+
+}
@@ -0,0 +1,82 @@
+/*
+ * Copyright (c) 2012, Oracle and/or its affiliates. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * Please contact Oracle, 500 Oracle Parkway, Redwood Shores, CA 94065 USA
+ * or visit www.oracle.com if you need additional information or have any
+ * questions.
+ */
+/*
+ * @Harness: java
+ * @Runs: 0 = true;
+ */
+package test.bench.threads;
+
+import test.bench.util.*;
+
+/**
+ * Measures how long it takes to start a thread that does nothing and to wait for it to terminate.
+ *
+ * Run the VM with {@code -XX:ThreadPoolSize=n} to measure the latency when the native threads of
+ * terminated threads are reused.
+ */
+public class Thread_start01 extends RunBench {
+
+    protected Thread_start01() {
+        super(new Bench(), new EncapBench());
+    }
+
+    public static boolean test(int i) {
+        return new Thread_start01().runBench();
+    }
+
+    static final Runnable EMPTY = new Runnable() {
+        public void run() {
+        }
+    };
+
+    static class Bench extends MicroBenchmark {
+
+        @Override
+        public long run() {
+            final Thread thread = new Thread(EMPTY);
+            thread.start();
+            try {
+                thread.join();
+            } catch (InterruptedException ex) {
+            }
+            return defaultResult;
+        }
+    }
+
+    /**
+     * Allocates the thread without starting it.
+     */
+    static class EncapBench extends MicroBenchmark {
+
+        @Override
+        public long run() {
+            new Thread(EMPTY);
+            return defaultResult;
+        }
+    }
+
+    // for running stand-alone
+    public static void main(String[] args) {
+        RunBench.runTest(Thread_start01.class, args);
+    }
+}
@@ -0,0 +1,142 @@
+/*
+ * Copyright (c) 2012, Oracle and/or its affiliates. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * Please contact Oracle, 500 Oracle Parkway, Redwood Shores, CA 94065 USA
+ * or visit www.oracle.com if you need additional information or have any
+ * questions.
+ */
+package test.output;
+
+import java.util.*;
+
+/**
+ * Moves objects between lists while the heap is marked concurrently, and checks that none of them is swept. Each mover
+ * unlinks a node from the middle of one list and links it at the head of another, which is how an object reachable at
+ * the start of a marking ends up only reachable from an object the marker has already visited. The node survives the
+ * collection only if the overwritten reference is recorded by the pre-write barrier. Run with a heap marked
+ * concurrently (e.g., the {@code msecm} image of MaxineTester) for the test to be meaningful.
+ */
+public class ConcurrentMarkingTest {
+
+    private static final int MOVERS = 4;
+    private static final int ROUNDS = 5;
+    private static final int LISTS = 8;
+    private static final int NODES_PER_LIST = 500;
+    private static final int MOVES_PER_ROUND = 20000;
+
+    static final class Node {
+        final int value;
+        final int[] payload;
+        Node next;
+
+        Node(int value) {
+            this.value = value;
+            this.payload = new int[value % 16 + 1];
+            Arrays.fill(payload, value);
+        }
+
+        boolean isIntact() {
+            for (int i : payload) {
+                if (i != value) {
+                    return false;
+                }
+            }
+            return payload.length == value % 16 + 1;
+        }
+    }
+
+    static class Mover extends Thread {
+        final Node[] heads = new Node[LISTS];
+        final Random random;
+        final StringBuilder log = new StringBuilder();
+
+        Mover(int id) {
+            super("Mover-" + id);
+            random = new Random(id);
+            int value = 0;
+            for (int l = 0; l < LISTS; l++) {
+                for (int n = 0; n < NODES_PER_LIST; n++) {
+                    final Node node = new Node(value++);
+                    node.next = heads[l];
+                    heads[l] = node;
+                }
+            }
+        }
+
+        private void move() {
+            final int from = random.nextInt(LISTS);
+            final int to = random.nextInt(LISTS);
+            Node prev = heads[from];
+            if (prev == null || prev.next == null) {
+                return;
+            }
+            for (int i = random.nextInt(NODES_PER_LIST); i > 0 && prev.next.next != null; i--) {
+                prev = prev.next;
+            }
+            final Node node = prev.next;
+            // Overwrite the only reference to the node, then store it in a list head.
+            prev.next = node.next;
+            node.next = heads[to];
+            heads[to] = node;
+        }
+
+        private void check(int round) {
+            int count = 0;
+            long sum = 0;
+            int broken = 0;
+            for (Node head : heads) {
+                for (Node node = head; node != null; node = node.next) {
+                    count++;
+                    sum += node.value;
+                    if (!node.isIntact()) {
+                        broken++;
+                    }
+                }
+            }
+            log.append(getName()).append(" round ").append(round).append(": ").append(count).append(" nodes, sum ").append(sum).append(", ").append(broken).append(" broken\n");
+        }
+
+        @Override
+        public void run() {
+            for (int round = 0; round < ROUNDS; round++) {
+                for (int i = 0; i < MOVES_PER_ROUND; i++) {
+                    move();
+                    // Garbage, so that markings start and complete while nodes are moved.
+                    final Object[] garbage = new Object[64];
+                    garbage[i % 64] = new Node(i);
+                }
+                check(round);
+            }
+        }
+    }
+
+    public static void main(String[] args) throws InterruptedException {
+        final Mover[] movers = new Mover[MOVERS];
+        for (int i = 0; i < MOVERS; i++) {
+            movers[i] = new Mover(i);
+        }
+        for (Mover mover : movers) {
+            mover.start();
+        }
+        for (Mover mover : movers) {
+            mover.join();
+            System.out.print(mover.log);
+        }
+        System.out.println(ConcurrentMarkingTest.class.getSimpleName() + " done");
+    }
+}
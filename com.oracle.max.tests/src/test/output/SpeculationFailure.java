@@ -0,0 +1,75 @@
+/*
+ * Copyright (c) 2012, Oracle and/or its affiliates. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * Please contact Oracle, 500 Oracle Parkway, Redwood Shores, CA 94065 USA
+ * or visit www.oracle.com if you need additional information or have any
+ * questions.
+ */
+package test.output;
+
+/**
+ * Warms up methods whose baseline profiles show a single receiver type at a call site and a never taken branch,
+ * so that their optimized compilations speculate on these, then makes the speculations fail repeatedly.
+ * Each failure deoptimizes the optimized code and must produce the same results as the reference VM.
+ */
+public class SpeculationFailure {
+
+    interface Shape {
+        int sides();
+    }
+
+    static final class Triangle implements Shape {
+        public int sides() {
+            return 3;
+        }
+    }
+
+    static final class Square implements Shape {
+        public int sides() {
+            return 4;
+        }
+    }
+
+    static int sides(Shape shape) {
+        return shape.sides();
+    }
+
+    static int sign(int x) {
+        if (x < 0) {
+            return -1;
+        }
+        return 1;
+    }
+
+    public static void main(String[] args) {
+        final Shape triangle = new Triangle();
+        final Shape square = new Square();
+        long sum = 0;
+        for (int i = 0; i < 100000; i++) {
+            sum += sides(triangle) + sign(i);
+        }
+        System.out.println("warm up: " + sum);
+        for (int round = 0; round < 10; round++) {
+            sum = 0;
+            for (int i = 0; i < 20000; i++) {
+                sum += sides(i % 1000 == 999 ? square : triangle) + sign(i % 5000 == 4999 ? -i : i);
+            }
+            System.out.println("round " + round + ": " + sum);
+        }
+    }
+}
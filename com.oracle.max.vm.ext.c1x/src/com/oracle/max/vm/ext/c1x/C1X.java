@@ -57,7 +57,7 @@ import com.sun.max.vm.thread.*;
 /**
  * Integration of the C1X compiler into Maxine's compilation framework.
  */
-public class C1X extends RuntimeCompiler.DefaultNameAdapter implements RuntimeCompiler {
+public class C1X extends RuntimeCompiler.DefaultNameAdapter implements RuntimeCompiler, RuntimeCompiler.OSRCompiler {
 
     /**
      * The Maxine specific implementation of the {@linkplain RiRuntime runtime interface} needed by C1X.
@@ -124,6 +124,22 @@ public class C1X extends RuntimeCompiler.DefaultNameAdapter implements RuntimeCo
 
             map.put("UseStackMapTableLiveness", "Use liveness information derived from StackMapTable class file attribute.");
 
+            map.put("UseProfilingInformation", "Use the profile collected by the baseline compiler to inline calls for the dominant receiver type " +
+                            "and to replace never taken branches with deoptimization guards.");
+
+            map.put("MinimumReceiverTypeProbability", "Minimum probability of the dominant receiver type of a call site for the call to be inlined for that type.");
+
+            map.put("MinimumReceiverTypeCount", "Minimum number of profiled executions of a call site for its receiver type profile to be used.");
+
+            map.put("RareBranchProbability", "Probability below which the successor of a branch is laid out after the other blocks.");
+
+            map.put("MinimumBranchPruningCount", "Minimum number of profiled executions of a branch for a never taken successor to be replaced with a deoptimization guard.");
+
+            map.put("OptLoopInvariantCodeMotion", "Hoist loop invariant arithmetic, array lengths and field loads out of loops.");
+
+            map.put("OptRangeCheckElimination", "Eliminate the bounds checks of array accesses indexed by the induction variable of a counted loop, " +
+                            "guarding the loop entry with deoptimizing range checks if needed.");
+
             for (String name : map.keySet()) {
                 try {
                     C1XOptions.class.getField(name);
@@ -251,10 +267,20 @@ public class C1X extends RuntimeCompiler.DefaultNameAdapter implements RuntimeCo
     }
 
     public TargetMethod compile(final ClassMethodActor method, boolean isDeopt, boolean install, CiStatistics stats) {
+        return compile(method, -1, install, stats);
+    }
+
+    @Override
+    public TargetMethod compileOSR(ClassMethodActor method, int osrBCI) {
+        assert osrBCI >= 0;
+        return compile(method, osrBCI, true, null);
+    }
+
+    private TargetMethod compile(final ClassMethodActor method, int osrBCI, boolean install, CiStatistics stats) {
         CiTargetMethod compiledMethod;
         do {
             DebugInfoLevel debugInfoLevel = method.isTemplate() ? DebugInfoLevel.REF_MAPS : DebugInfoLevel.FULL;
-            compiledMethod = compiler().compileMethod(method, -1, stats, debugInfoLevel).targetMethod();
+            compiledMethod = compiler().compileMethod(method, osrBCI, stats, debugInfoLevel).targetMethod();
 
             Dependencies deps = Dependencies.validateDependencies(compiledMethod.assumptions());
             if (deps != Dependencies.INVALID) {
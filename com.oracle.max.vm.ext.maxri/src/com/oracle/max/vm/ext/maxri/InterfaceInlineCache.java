@@ -0,0 +1,122 @@
+/*
+ * Copyright (c) 2012, Oracle and/or its affiliates. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * Please contact Oracle, 500 Oracle Parkway, Redwood Shores, CA 94065 USA
+ * or visit www.oracle.com if you need additional information or have any
+ * questions.
+ */
+package com.oracle.max.vm.ext.maxri;
+
+import com.sun.max.annotate.*;
+import com.sun.max.unsafe.*;
+import com.sun.max.vm.actor.holder.*;
+import com.sun.max.vm.actor.member.*;
+import com.sun.max.vm.object.*;
+
+/**
+ * Inline cache of a resolved {@code invokeinterface} call site compiled by C1X.
+ * <p>
+ * The cache remembers the hub of the last receiver seen at the site together with the index, in that hub, of the
+ * itable entry of the invoked method. The compiled code compares the receiver's hub with the cached one and, on a hit,
+ * loads the entry point directly from the hub, skipping the mtable lookup (and its integer division) of the regular
+ * interface dispatch. The index is cached rather than the entry point itself so that the call always goes through the
+ * hub's current entry, which is patched when the target method is compiled or deoptimized.
+ * <p>
+ * On a miss, the compiled code calls {@link #update(Object)} to rebind the cache to the receiver's hub, until the site
+ * has missed {@link MaxXirGenerator#InterfaceInlineCacheMisses} times. The site is then considered megamorphic and
+ * misses fall back to the inline itable lookup without updating the cache any more.
+ */
+public final class InterfaceInlineCache {
+
+    /**
+     * An immutable hub / itable index pair. The cache is rebound by replacing its entry with a single reference store,
+     * so that compiled code racing with an update always reads a consistent pair.
+     */
+    static final class Entry {
+        final Hub hub;
+        final int index;
+
+        Entry(Hub hub, int index) {
+            this.hub = hub;
+            this.index = index;
+        }
+    }
+
+    /**
+     * Initial entry of all caches. It never matches a receiver's hub.
+     */
+    private static final Entry EMPTY = new Entry(null, 0);
+
+    /**
+     * Current entry of the cache, read by the compiled code of the call site.
+     */
+    Entry entry = EMPTY;
+
+    /**
+     * Number of misses left before the call site is considered megamorphic. Read by the compiled code of the call site.
+     * Updates race benignly: a lost decrement only lets the cache be rebound once more.
+     */
+    int missesLeft;
+
+    private final int interfaceID;
+
+    private final int iIndexInInterface;
+
+    public InterfaceInlineCache(InterfaceMethodActor methodActor, int maxMisses) {
+        this.interfaceID = methodActor.holder().id;
+        this.iIndexInInterface = methodActor.iIndexInInterface();
+        this.missesLeft = maxMisses;
+    }
+
+    @FOLD
+    static int entryOffset() {
+        return FieldActor.findInstance(ClassActor.fromJava(InterfaceInlineCache.class), "entry").offset();
+    }
+
+    @FOLD
+    static int missesLeftOffset() {
+        return FieldActor.findInstance(ClassActor.fromJava(InterfaceInlineCache.class), "missesLeft").offset();
+    }
+
+    @FOLD
+    static int entryHubOffset() {
+        return FieldActor.findInstance(ClassActor.fromJava(Entry.class), "hub").offset();
+    }
+
+    @FOLD
+    static int entryIndexOffset() {
+        return FieldActor.findInstance(ClassActor.fromJava(Entry.class), "index").offset();
+    }
+
+    /**
+     * Rebinds the cache to the hub of a receiver that missed it, unless the call site has become megamorphic.
+     *
+     * @param receiver the receiver of the call
+     * @return the entry point of the method to call for {@code receiver}
+     */
+    Address update(Object receiver) {
+        final Hub hub = ObjectAccess.readHub(receiver);
+        final int index = hub.getITableIndex(interfaceID) + iIndexInInterface;
+        final int misses = missesLeft;
+        if (misses > 0) {
+            missesLeft = misses - 1;
+            entry = new Entry(hub, index);
+        }
+        return hub.getWord(index).asAddress();
+    }
+}
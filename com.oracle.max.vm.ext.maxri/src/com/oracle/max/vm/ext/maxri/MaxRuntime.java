@@ -55,6 +55,7 @@ import com.sun.max.vm.actor.holder.*;
 import com.sun.max.vm.actor.member.*;
 import com.sun.max.vm.bytecode.*;
 import com.sun.max.vm.compiler.*;
+import com.sun.max.vm.compiler.deopt.*;
 import com.sun.max.vm.compiler.target.*;
 import com.sun.max.vm.runtime.*;
 import com.sun.max.vm.ti.*;
@@ -111,6 +112,7 @@ public class MaxRuntime implements RiRuntime {
         // must go through a stub that saves the register state before calling the deopt routine.
         CriticalMethod uncommonTrap = new CriticalMethod(MaxRuntimeCalls.class, "uncommonTrap", null);
         uncommonTrap.classMethodActor.compiledState = new Compilations(null, vm().stubs.genUncommonTrapStub());
+        Deoptimization.initializeUncommonTrapMethodActor(uncommonTrap.classMethodActor);
     }
 
     /**
@@ -28,12 +28,14 @@ import java.lang.reflect.*;
 
 import com.sun.cri.ci.*;
 import com.sun.max.annotate.*;
+import com.sun.max.unsafe.*;
 import com.sun.max.vm.*;
 import com.sun.max.vm.actor.holder.ClassActor;
 import com.sun.max.vm.actor.member.*;
 import com.sun.max.vm.classfile.constant.SymbolTable;
 import com.sun.max.vm.classfile.constant.Utf8Constant;
 import com.sun.max.vm.compiler.*;
+import com.sun.max.vm.compiler.deopt.*;
 import com.sun.max.vm.compiler.target.*;
 import com.sun.max.vm.heap.*;
 import com.sun.max.vm.object.*;
@@ -173,8 +175,9 @@ public class MaxRuntimeCalls {
     }
 
     @MAX_RUNTIME_ENTRYPOINT(runtimeCall = CiRuntimeCall.OSRMigrationEnd)
-    public static void runtimeOSRMigrationEnd() {
+    public static void runtimeOSRMigrationEnd(Pointer buffer) {
         verifyRefMaps();
+        OnStackReplacement.migrationEnd(buffer);
     }
 
     @MAX_RUNTIME_ENTRYPOINT(runtimeCall = CiRuntimeCall.JavaTimeMillis)
@@ -111,6 +111,11 @@ public class MaxTargetMethod extends TargetMethod implements Cloneable {
 
     private CiTargetMethod debugCiTargetMethod;
 
+    /**
+     * @see #osrEntryPos()
+     */
+    private int osrEntryPos = -1;
+
     public MaxTargetMethod(ClassMethodActor classMethodActor, CiTargetMethod ciTargetMethod, boolean install) {
         super(classMethodActor, CallEntryPoint.OPTIMIZED_ENTRY_POINT);
         assert classMethodActor != null;
@@ -141,6 +146,7 @@ public class MaxTargetMethod extends TargetMethod implements Cloneable {
 
         initCodeBuffer(ciTargetMethod, install);
         initFrameLayout(ciTargetMethod);
+        osrEntryPos = ciTargetMethod.osrEntryOffset();
         CiDebugInfo[] debugInfos = initSafepoints(ciTargetMethod);
         initExceptionTable(ciTargetMethod);
 
@@ -764,6 +770,11 @@ public class MaxTargetMethod extends TargetMethod implements Cloneable {
         throw FatalError.unimplemented();
     }
 
+    @Override
+    public int osrEntryPos() {
+        return osrEntryPos;
+    }
+
     /**
      * Advances the cursor to the caller's frame.
      * @param current the current frame
@@ -83,6 +83,10 @@ public class MaxXirGenerator implements RiXirGenerator {
             public XirWriteBarrierGenerator barrierGenerator(IntBitSet<WriteBarrierSpecification.WriteBarrierSpec> writeBarrierSpec) {
                 return XirWriteBarrierSpecification.NULL_WRITE_BARRIER_GEN;
             }
+
+            public List<XirTemplate> barrierStubs() {
+                return Collections.emptyList();
+            }
         };
     }
 
@@ -114,6 +118,15 @@ public class MaxXirGenerator implements RiXirGenerator {
         }
     }
 
+    static class InvokeInterfaceTemplates extends XirPair {
+        final XirTemplate resolvedInlineCache;
+
+        InvokeInterfaceTemplates(XirTemplate resolved, XirTemplate unresolved, XirTemplate resolvedInlineCache) {
+            super(resolved, unresolved);
+            this.resolvedInlineCache = resolvedInlineCache;
+        }
+    }
+
     private final HashMap<String, XirTemplate> runtimeCallStubs = new HashMap<String, XirTemplate>();
     private final HashMap<String, RiMethod> runtimeMethods = new HashMap<String, RiMethod>();
 
@@ -124,7 +137,7 @@ public class MaxXirGenerator implements RiXirGenerator {
     private XirPair[] getStaticFieldTemplates;
 
     private XirPair invokeVirtualTemplates;
-    private XirPair invokeInterfaceTemplates;
+    private InvokeInterfaceTemplates invokeInterfaceTemplates;
     private InvokeSpecialTemplates invokeSpecialTemplates;
     private XirPair invokeStaticTemplates;
     private XirPair[] newArrayTemplates;
@@ -196,6 +209,21 @@ public class MaxXirGenerator implements RiXirGenerator {
         return vmConfig().heapScheme().objectAlignment() - 1;
     }
 
+    /**
+     * Use an {@linkplain InterfaceInlineCache inline cache} at resolved {@code invokeinterface} sites.
+     */
+    public static boolean InterfaceInlineCaches = true;
+
+    /**
+     * Number of times an interface inline cache can be rebound before its call site is considered megamorphic.
+     */
+    public static int InterfaceInlineCacheMisses = 4;
+
+    static {
+        VMOptions.addFieldOption("-XX:", "InterfaceInlineCaches", MaxXirGenerator.class, "Use inline caches at interface call sites compiled by the optimizing compiler.");
+        VMOptions.addFieldOption("-XX:", "InterfaceInlineCacheMisses", MaxXirGenerator.class, "Number of cache misses after which an interface call site is considered megamorphic.");
+    }
+
     public final boolean printXirTemplates;
 
     public MaxXirGenerator(boolean printXirTemplates) {
@@ -309,6 +337,7 @@ public class MaxXirGenerator implements RiXirGenerator {
 
         MaxTargetMethod.initializeMaxXirGeneratorRuntimeCallsMonitorEnterMethodActor(getRuntimeCallsMonitorEnterMethodActor());
 
+        stubs.addAll(writeBarrierSpecification().barrierStubs());
         return stubs;
     }
 
@@ -378,11 +407,15 @@ public class MaxXirGenerator implements RiXirGenerator {
 
     @Override
     public XirSnippet genInvokeInterface(XirSite site, XirArgument receiver, RiMethod method) {
-        XirPair pair = invokeInterfaceTemplates;
+        InvokeInterfaceTemplates pair = invokeInterfaceTemplates;
         if (method instanceof RiResolvedMethod) {
             InterfaceMethodActor methodActor = (InterfaceMethodActor) method;
             XirArgument interfaceID = XirArgument.forInt(methodActor.holder().id);
             XirArgument methodIndex = XirArgument.forInt(methodActor.iIndexInInterface());
+            if (InterfaceInlineCaches) {
+                XirArgument cache = XirArgument.forObject(new InterfaceInlineCache(methodActor, InterfaceInlineCacheMisses));
+                return new XirSnippet(pair.resolvedInlineCache, receiver, cache, interfaceID, methodIndex);
+            }
             return new XirSnippet(pair.resolved, receiver, interfaceID, methodIndex);
         }
         XirArgument guard = XirArgument.forObject(guardFor(method));
@@ -868,9 +901,10 @@ public class MaxXirGenerator implements RiXirGenerator {
     }
 
     @HOSTED_ONLY
-    private XirPair buildInvokeInterface() {
+    private InvokeInterfaceTemplates buildInvokeInterface() {
         XirTemplate resolved;
         XirTemplate unresolved;
+        XirTemplate resolvedInlineCache;
         {
             // resolved invokeinterface
             asm.restart();
@@ -891,6 +925,48 @@ public class MaxXirGenerator implements RiXirGenerator {
             asm.pload(WordUtil.archKind(), result, hub, a, offsetOfFirstArrayElement(), Scale.fromInt(Word.size()), false);
             resolved = finishTemplate(asm, result, "invokeinterface");
         }
+        {
+            // resolved invokeinterface with an inline cache
+            asm.restart();
+            XirParameter receiver = asm.createInputParameter("receiver", CiKind.Object); // receiver object
+            XirParameter cache = asm.createConstantInputParameter("cache", CiKind.Object);
+            XirParameter interfaceID = asm.createConstantInputParameter("interfaceID", CiKind.Int);
+            XirParameter methodIndex = asm.createConstantInputParameter("methodIndex", CiKind.Int);
+            XirOperand hub = asm.createTemp("hub", CiKind.Object);
+            XirOperand entry = asm.createTemp("entry", CiKind.Object);
+            XirOperand a = asm.createTemp("a", CiKind.Int);
+            XirOperand result = asm.createTemp("result", WordUtil.archKind());
+            XirLabel done = asm.createInlineLabel("done");
+            XirLabel miss = asm.createOutOfLineLabel("miss");
+            XirLabel megamorphic = asm.createOutOfLineLabel("megamorphic");
+            asm.pload(CiKind.Object, hub, receiver, asm.i(hubOffset()), true);
+            // load the cached itable index first, so that the entry register can then hold the cached hub
+            asm.pload(CiKind.Object, entry, cache, asm.i(InterfaceInlineCache.entryOffset()), false);
+            asm.pload(CiKind.Int, a, entry, asm.i(InterfaceInlineCache.entryIndexOffset()), false);
+            asm.pload(CiKind.Object, entry, entry, asm.i(InterfaceInlineCache.entryHubOffset()), false);
+            asm.jneq(miss, hub, entry);
+            asm.pload(WordUtil.archKind(), result, hub, a, offsetOfFirstArrayElement(), Scale.fromInt(Word.size()), false);
+            asm.bindInline(done);
+
+            asm.bindOutOfLine(miss);
+            asm.pload(CiKind.Int, a, cache, asm.i(InterfaceInlineCache.missesLeftOffset()), false);
+            asm.jeq(megamorphic, a, asm.i(0));
+            callRuntimeThroughStub(asm, "updateInterfaceInlineCache", result, cache, receiver);
+            asm.jmp(done);
+
+            // same sequence as the resolved invokeinterface without inline cache
+            asm.bindOutOfLine(megamorphic);
+            XirOperand mtableLengthOrStartIndex = asm.createTemp("mtableLength/StartIndex", CiKind.Int);
+            asm.pload(CiKind.Int, mtableLengthOrStartIndex, hub, asm.i(offsetOfMTableLength()), false);
+            asm.mod(a, interfaceID, mtableLengthOrStartIndex);
+            asm.pload(CiKind.Int, mtableLengthOrStartIndex, hub, asm.i(offsetOfMTableStartIndex()), false);
+            asm.add(a, a, mtableLengthOrStartIndex);
+            asm.pload(CiKind.Int, a, hub, a, offsetOfFirstArrayElement(), Scale.Times4, false);
+            asm.add(a, a, methodIndex);
+            asm.pload(WordUtil.archKind(), result, hub, a, offsetOfFirstArrayElement(), Scale.fromInt(Word.size()), false);
+            asm.jmp(done);
+            resolvedInlineCache = finishTemplate(asm, result, "invokeinterface-inlinecache");
+        }
         {
             // unresolved invokeinterface
             // TODO This uses seven registers, combined with lots of parameters this can lead to heavy spilling.
@@ -917,7 +993,7 @@ public class MaxXirGenerator implements RiXirGenerator {
             asm.pload(WordUtil.archKind(), result, hub, a, offsetOfFirstArrayElement(), Scale.fromInt(Word.size()), false);
             unresolved = finishTemplate(asm, result, "invokeinterface");
         }
-        return new XirPair(resolved, unresolved);
+        return new InvokeInterfaceTemplates(resolved, unresolved, resolvedInlineCache);
     }
 
     @HOSTED_ONLY
@@ -1016,7 +1092,7 @@ public class MaxXirGenerator implements RiXirGenerator {
         asm.add(newMark, cell, arraySize);
         asm.jlteq(ok, newMark, tlabEnd);
 
-        callRuntimeThroughStub(asm, "slowPathAllocate", cell, arraySize, etla);
+        callRuntimeThroughStub(asm, "slowPathAllocate", cell, arraySize, etla, hub);
         asm.jmp(done);
 
         asm.bindInline(ok);
@@ -1115,7 +1191,7 @@ public class MaxXirGenerator implements RiXirGenerator {
         callRuntimeThroughStub(asm, "throwNegativeArraySizeException", null, length);
 
         asm.bindOutOfLine(slowPath);
-        callRuntimeThroughStub(asm, "slowPathAllocate", cell, arraySize, etla);
+        callRuntimeThroughStub(asm, "slowPathAllocate", cell, arraySize, etla, hub);
         asm.jmp(done);
         return finishTemplate(asm, (kind.isObject() ? "a" : "") + "newarray<" + kind + ">");
     }
@@ -1237,7 +1313,7 @@ public class MaxXirGenerator implements RiXirGenerator {
         asm.add(newMark, cell, tupleSize);
         asm.jlteq(ok, newMark, tlabEnd);
         // Slow path.
-        callRuntimeThroughStub(asm, "slowPathAllocate", cell, tupleSize, etla);
+        callRuntimeThroughStub(asm, "slowPathAllocate", cell, tupleSize, etla, hub);
         // Jump over update of TLAB mark and go directly to code formatting the allocated cell.
         asm.jmp(done);
         asm.bindInline(ok);
@@ -1317,7 +1393,7 @@ public class MaxXirGenerator implements RiXirGenerator {
         }
         asm.mov(result, cell);
         asm.bindOutOfLine(slowPath);
-        callRuntimeThroughStub(asm, "slowPathAllocate", cell, tupleSize, etla);
+        callRuntimeThroughStub(asm, "slowPathAllocate", cell, tupleSize, etla, hub);
         asm.jmp(done);
     }
 
@@ -1410,7 +1486,7 @@ public class MaxXirGenerator implements RiXirGenerator {
             XirParameter value = asm.createInputParameter("value", kind);
             XirParameter fieldOffset = asm.createConstantInputParameter("fieldOffset", CiKind.Int);
             if (genWriteBarrier) {
-                writeBarrierSpecification.barrierGenerator(WriteBarrierSpecification.TUPLE_PRE_BARRIER).genWriteBarrier(asm, object);
+                writeBarrierSpecification.barrierGenerator(WriteBarrierSpecification.TUPLE_PRE_BARRIER).genWriteBarrier(asm, object, fieldOffset);
             }
             asm.pstore(kind, object, fieldOffset, value, true);
             if (genWriteBarrier) {
@@ -1429,9 +1505,12 @@ public class MaxXirGenerator implements RiXirGenerator {
             } else {
                 callRuntimeThroughStub(asm, "resolvePutField", fieldOffset, guard);
             }
+            if (genWriteBarrier) {
+                writeBarrierSpecification.barrierGenerator(WriteBarrierSpecification.TUPLE_PRE_BARRIER).genWriteBarrier(asm, object, fieldOffset);
+            }
             asm.pstore(kind, object, fieldOffset, value, true);
             if (genWriteBarrier) {
-                writeBarrier(asm, object, null, value);
+                writeBarrierSpecification.barrierGenerator(WriteBarrierSpecification.TUPLE_POST_BARRIER).genWriteBarrier(asm, object);
             }
             xirTemplate = finishTemplate(asm, "putfield<" + kind + ", " + genWriteBarrier + ">-unresolved");
         }
@@ -1801,10 +1880,6 @@ public class MaxXirGenerator implements RiXirGenerator {
         return template;
     }
 
-    private void writeBarrier(CiXirAssembler asm, XirOperand object, XirOperand fieldOffset, XirOperand value) {
-        // XXX: add write barrier mechanism
-    }
-
     @HOSTED_ONLY
     private void callRuntimeThroughStub(CiXirAssembler asm, String method, XirOperand result, XirOperand... args) {
         XirTemplate stub = runtimeCallStubs.get(method);
@@ -1989,6 +2064,10 @@ public class MaxXirGenerator implements RiXirGenerator {
             return Snippets.resolveInterfaceMethod(guard).holder().id;
         }
 
+        public static Word updateInterfaceInlineCache(InterfaceInlineCache cache, Object receiver) {
+            return cache.update(receiver);
+        }
+
         public static Object allocatePrimitiveArray(DynamicHub hub, int length) {
             if (length < 0) {
                 throw new NegativeArraySizeException(String.valueOf(length));
@@ -2015,13 +2094,14 @@ public class MaxXirGenerator implements RiXirGenerator {
          * Runtime entry point for failed tlab allocation.
          * @param etla Pointer to the TLA for enabled safepoints.
          * @param size amount of space requested
+         * @param hub hub of the object that will be planted in the allocated chunk
          * @return pointer to an unformatted chunk of allocated memory.
          */
-        public static Pointer slowPathAllocate(int size, Pointer etla) {
+        public static Pointer slowPathAllocate(int size, Pointer etla, Hub hub) {
             if (MaxineVM.isDebug()) {
                 FatalError.check(vmConfig().heapScheme().usesTLAB(), "HeapScheme must use TLAB");
             }
-            return ((HeapSchemeWithTLAB) vmConfig().heapScheme()).c1xSlowPathAllocate(Size.fromInt(size), etla);
+            return ((HeapSchemeWithTLAB) vmConfig().heapScheme()).c1xSlowPathAllocate(Size.fromInt(size), etla, hub);
         }
 
         public static Pointer flushLog(Pointer logTail) {
@@ -2047,11 +2047,17 @@ public abstract class T1XCompilation {
         emitEpilogue();
     }
 
-    protected void do_profileBackwardBranch() {
+    /**
+     * Profiles a backward branch.
+     *
+     * @param targetBCI the loop header branched to, which is where an on-stack replacement enters optimized code
+     */
+    protected void do_profileBackwardBranch(int targetBCI) {
         if (methodProfileBuilder != null) {
             // Profiling of backward branches.
             start(PROFILE_BACKWARD_BRANCH);
             assignObject(0, "mpo", methodProfileBuilder.methodProfileObject());
+            assignInt(1, "bci", targetBCI);
             finish();
         }
     }
@@ -2131,7 +2137,7 @@ public abstract class T1XCompilation {
             finish();
 
             if (bci >= targetBCI) {
-                do_profileBackwardBranch();
+                do_profileBackwardBranch(targetBCI);
             }
         }
     }
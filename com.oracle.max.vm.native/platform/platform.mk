@@ -246,10 +246,10 @@ ifeq ($(OS),linux)
     endif
     LINK_LIB = $(CC) -g -shared
     ifeq ($(ISA),arm)
-    	LINK_LIB_POSTFIX = -lstdc++ -lc -lm -lpthread -ldl
+    	LINK_LIB_POSTFIX = -lstdc++ -lc -lm -lpthread -ldl -lrt
     endif
     ifneq ($(ISA),arm)
-    	LINK_LIB_POSTFIX = -lc -lm -lpthread 
+    	LINK_LIB_POSTFIX = -lc -lm -lpthread -lrt
     endif
     LIB_PREFIX = lib
     LIB_SUFFIX = .so
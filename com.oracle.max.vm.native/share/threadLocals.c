@@ -97,6 +97,101 @@ static void commitStackMemoryForInitialThread(Address base, int pageSize) {
 #endif
 }
 
+/**
+ * Computes the size of a thread locals block (see diagram at top of threadLocals.h).
+ *
+ * @param stackSize the size of the stack covered by the reference map in the block
+ * @param refMapSize the size of the reference map is returned in this value
+ */
+static int threadLocalsBlock_size(Size stackSize, Size *refMapSize) {
+    Size stackWords = stackSize / sizeof(Address);
+    *refMapSize = wordAlign(1 + (stackWords / 8));
+    const int tlBlockSize = virtualMemory_getPageSize() +
+                            (3 * tlaSize()) +
+                            sizeof(NativeThreadLocalsStruct) +
+                            *refMapSize;
+    c_ASSERT(wordAlign(tlBlockSize) == (Address) tlBlockSize);
+    return tlBlockSize;
+}
+
+/**
+ * Clears the thread local spaces and native thread locals of a thread locals block and
+ * initializes the thread locals that are independent of the stack guard zones.
+ *
+ * @return the native thread locals of the block
+ */
+static NativeThreadLocals threadLocalsBlock_initialize(jint id, Address tlBlock, int tlBlockSize, Address stackBase, Size stackSize, Size refMapSize) {
+    const int s = tlaSize();
+    const int tlaSize = s;
+    const int pageSize = virtualMemory_getPageSize();
+
+    TLA ttla = tlBlock + pageSize - sizeof(Address);
+    TLA etla  = ttla + tlaSize;
+    TLA dtla = etla + tlaSize;
+
+    Address current = (Address) dtla + tlaSize;
+    NativeThreadLocals ntl = (NativeThreadLocals) current;
+    current += sizeof(NativeThreadLocalsStruct);
+    Address refMap = current;
+
+    /* Clear each of the thread local spaces: */
+    memset((void *) ttla, 0, tlaSize);
+    memset((void *) etla, 0, tlaSize);
+    memset((void *) dtla, 0, tlaSize);
+
+    /* Clear the NativeThreadLocals: */
+    memset((void *) ntl, 0, sizeof(NativeThreadLocalsStruct));
+
+    ntl->handle = (Address) thread_self();
+    ntl->stackBase = stackBase;
+    ntl->stackSize = stackSize;
+    ntl->tlBlock = tlBlock;
+    ntl->tlBlockSize = tlBlockSize;
+
+    tla_store(etla, ETLA, etla);
+    tla_store(etla, DTLA, dtla);
+    tla_store(etla, TTLA, ttla);
+
+    tla_store(dtla, ETLA, etla);
+    tla_store(dtla, DTLA, dtla);
+    tla_store(dtla, TTLA, ttla);
+
+    tla_store(ttla, ETLA, etla);
+    tla_store(ttla, DTLA, dtla);
+    tla_store(ttla, TTLA, ttla);
+
+    tla_store(etla, SAFEPOINT_LATCH, etla);
+    tla_store(dtla, SAFEPOINT_LATCH, dtla);
+
+    tla_store3(etla, NATIVE_THREAD_LOCALS, ntl);
+    tla_store3(etla, ID, id);
+    tla_store3(etla, STACK_REFERENCE_MAP, refMap);
+    tla_store3(etla, STACK_REFERENCE_MAP_SIZE, refMapSize);
+
+    return ntl;
+}
+
+static void threadLocalsBlock_log(jint id, Address tlBlock) {
+#if log_THREADS
+    TLA etla = ETLA_FROM_TLBLOCK(tlBlock);
+    NativeThreadLocals ntl = NATIVE_THREAD_LOCALS_FROM_TLBLOCK(tlBlock);
+    log_println("thread %3d: stackEnd     = %p", id, ntl->stackBase + ntl->stackSize);
+    log_println("thread %3d: sp           ~ %p", id, &id);
+    log_println("thread %3d: stackBase    = %p", id, ntl->stackBase);
+    log_println("thread %3d: stackSize    = %d (%p)", id, ntl->stackSize, ntl->stackSize);
+    log_println("thread %3d: redZone      = %p", id, ntl->redZone);
+    log_println("thread %3d: yellowZone   = %p", id, ntl->yellowZone);
+    log_println("thread %3d: blueZone     = %p", id, ntl->blueZone);
+    log_println("thread %3d: ttla         = %p", id, tla_load(TLA, etla, TTLA));
+    log_println("thread %3d: etla         = %p", id, etla);
+    log_println("thread %3d: dtla         = %p", id, tla_load(TLA, etla, DTLA));
+    log_println("thread %3d: anchor       = %p", id, tla_load(Address, etla, LAST_JAVA_FRAME_ANCHOR));
+    log_println("thread %3d: ntl          = %p", id, ntl);
+    log_println("thread %3d: refMap       = %p", id, tla_load(Address, etla, STACK_REFERENCE_MAP));
+    log_println("thread %3d: refMapSize   = %d (%p)", id, tla_load(Size, etla, STACK_REFERENCE_MAP_SIZE), tla_load(Size, etla, STACK_REFERENCE_MAP_SIZE));
+#endif
+}
+
 /**
  * Allocates and/or initializes a thread locals block.
  *
@@ -108,8 +203,6 @@ static void commitStackMemoryForInitialThread(Address base, int pageSize) {
  */
 Address threadLocalsBlock_create(jint id, Address tlBlock, Size stackSize) {
     c_ASSERT(id != 0);
-    const int s = tlaSize();
-    const int tlaSize = s;
     const int pageSize = virtualMemory_getPageSize();
     const jboolean attaching = id < 0 || id == PRIMORDIAL_THREAD_ID;
     jboolean haveRedZone = false;
@@ -123,15 +216,9 @@ Address threadLocalsBlock_create(jint id, Address tlBlock, Size stackSize) {
     }
 
     /* See diagram at top of threadLocals.h */
-    const int triggerPageSize = pageSize;
-    Size stackWords = stackSize / sizeof(Address);
-    Size refMapSize = wordAlign(1 + (stackWords / 8));
-    const int tlBlockSize = triggerPageSize +
-                            (3 * tlaSize) +
-                            sizeof(NativeThreadLocalsStruct) +
-                            refMapSize;
+    Size refMapSize;
+    const int tlBlockSize = threadLocalsBlock_size(stackSize, &refMapSize);
 
-    c_ASSERT(wordAlign(tlBlockSize) == (Address) tlBlockSize);
     if (tlBlock == 0) {
         tlBlock = allocateThreadLocalBlock(tlBlockSize);
         // if we are creating a VM thread, initialization is deferred until the thread is running
@@ -140,29 +227,7 @@ Address threadLocalsBlock_create(jint id, Address tlBlock, Size stackSize) {
         }
     }
 
-    TLA ttla = tlBlock + pageSize - sizeof(Address);
-    TLA etla  = ttla + tlaSize;
-    TLA dtla = etla + tlaSize;
-
-    Address current = (Address) dtla + tlaSize;
-    NativeThreadLocals ntl = (NativeThreadLocals) current;
-    current += sizeof(NativeThreadLocalsStruct);
-    Address refMap = current;
-    current = current + refMapSize;
-
-    /* Clear each of the thread local spaces: */
-    memset((void *) ttla, 0, tlaSize);
-    memset((void *) etla, 0, tlaSize);
-    memset((void *) dtla, 0, tlaSize);
-
-    /* Clear the NativeThreadLocals: */
-    memset((void *) ntl, 0, sizeof(NativeThreadLocalsStruct));
-
-    ntl->handle = (Address) thread_self();
-    ntl->stackBase = stackBase;
-    ntl->stackSize = stackSize;
-    ntl->tlBlock = tlBlock;
-    ntl->tlBlockSize = tlBlockSize;
+    NativeThreadLocals ntl = threadLocalsBlock_initialize(id, tlBlock, tlBlockSize, stackBase, stackSize, refMapSize);
 
     Address startGuardZone;
     int guardZonePages;
@@ -192,26 +257,6 @@ Address threadLocalsBlock_create(jint id, Address tlBlock, Size stackSize) {
         }
     }
 
-    tla_store(etla, ETLA, etla);
-    tla_store(etla, DTLA, dtla);
-    tla_store(etla, TTLA, ttla);
-
-    tla_store(dtla, ETLA, etla);
-    tla_store(dtla, DTLA, dtla);
-    tla_store(dtla, TTLA, ttla);
-
-    tla_store(ttla, ETLA, etla);
-    tla_store(ttla, DTLA, dtla);
-    tla_store(ttla, TTLA, ttla);
-
-    tla_store(etla, SAFEPOINT_LATCH, etla);
-    tla_store(dtla, SAFEPOINT_LATCH, dtla);
-
-    tla_store3(etla, NATIVE_THREAD_LOCALS, ntl);
-    tla_store3(etla, ID, id);
-    tla_store3(etla, STACK_REFERENCE_MAP, refMap);
-    tla_store3(etla, STACK_REFERENCE_MAP_SIZE, refMapSize);
-
     Address endGuardZone = startGuardZone + (guardZonePages * pageSize);
     Address sp = (Address) &ntl; // approximation of stack pointer
     const int safetyMargin = pageSize;
@@ -225,22 +270,7 @@ Address threadLocalsBlock_create(jint id, Address tlBlock, Size stackSize) {
 
     ntl->blueZone = ntl->yellowZone;  // default is no blue zone
 
-#if log_THREADS
-    log_println("thread %3d: stackEnd     = %p", id, ntl->stackBase + ntl->stackSize);
-    log_println("thread %3d: sp           ~ %p", id, &id);
-    log_println("thread %3d: stackBase    = %p", id, ntl->stackBase);
-    log_println("thread %3d: stackSize    = %d (%p)", id, ntl->stackSize, ntl->stackSize);
-    log_println("thread %3d: redZone      = %p", id, ntl->redZone);
-    log_println("thread %3d: yellowZone   = %p", id, ntl->yellowZone);
-    log_println("thread %3d: blueZone     = %p", id, ntl->blueZone);
-    log_println("thread %3d: ttla         = %p", id, ttla);
-    log_println("thread %3d: etla         = %p", id, etla);
-    log_println("thread %3d: dtla         = %p", id, dtla);
-    log_println("thread %3d: anchor       = %p", id, tla_load(Address, etla, LAST_JAVA_FRAME_ANCHOR));
-    log_println("thread %3d: ntl          = %p", id, ntl);
-    log_println("thread %3d: refMap       = %p", id, refMap);
-    log_println("thread %3d: refMapSize   = %d (%p)", id, refMapSize, refMapSize);
-#endif
+    threadLocalsBlock_log(id, tlBlock);
 
     if (guardZonePages != 0) {
 #if os_MAXVE
@@ -258,6 +288,43 @@ Address threadLocalsBlock_create(jint id, Address tlBlock, Size stackSize) {
     return tlBlock;
 }
 
+/**
+ * See the documentation in threadLocals.h for this function.
+ */
+Address threadLocalsBlock_createForStack(jint id, Address stackBase, Size stackSize) {
+    c_ASSERT(id > 0);
+    const int pageSize = virtualMemory_getPageSize();
+    Size refMapSize;
+    const int tlBlockSize = threadLocalsBlock_size(stackSize, &refMapSize);
+    Address tlBlock = allocateThreadLocalBlock(tlBlockSize);
+    if (tlBlock == 0) {
+        return 0;
+    }
+
+    NativeThreadLocals ntl = threadLocalsBlock_initialize(id, tlBlock, tlBlockSize, stackBase, stackSize, refMapSize);
+
+    /* The stack was not allocated by the thread library so the VM places both guard zones at the bottom of the stack */
+    ntl->redZone = ntl->stackBase;
+    ntl->redZoneIsProtectedByVM = true;
+    ntl->yellowZone = ntl->stackBase + (RED_ZONE_PAGES * pageSize);
+    ntl->blueZone = ntl->yellowZone;
+
+    threadLocalsBlock_log(id, tlBlock);
+
+    virtualMemory_protectPages(ntl->redZone, RED_ZONE_PAGES + YELLOW_ZONE_PAGES);
+    virtualMemory_protectPages(tlBlock, 1);
+    return tlBlock;
+}
+
+/**
+ * See the documentation in threadLocals.h for this function.
+ */
+void threadLocalsBlock_destroyForStack(Address tlBlock) {
+    NativeThreadLocals ntl = NATIVE_THREAD_LOCALS_FROM_TLBLOCK(tlBlock);
+    virtualMemory_unprotectPages(tlBlock, 1);
+    deallocateThreadLocalBlock(tlBlock, ntl->tlBlockSize);
+}
+
 /**
  * Declared in threads.c
  */
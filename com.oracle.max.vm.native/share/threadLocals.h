@@ -79,6 +79,25 @@ extern void tla_initialize(int tlaSize);
  */
 extern Address threadLocalsBlock_create(jint id, Address tlBlock, Size stackSize);
 
+/**
+ * Allocates and initializes the thread locals block of a VM thread that runs on a stack allocated by the VM
+ * instead of the thread library (i.e. a continuation). The red and yellow stack guard zones are placed at
+ * the bottom of the stack. The block is not registered as the thread locals block of the current thread.
+ * The resources are released by threadLocalsBlock_destroyForStack().
+ *
+ * @param id the identifier reserved in the thread map for the thread
+ * @param stackBase the lowest address of the stack
+ * @param stackSize the size of the stack
+ * @return the thread locals block or 0 if it could not be allocated
+ */
+extern Address threadLocalsBlock_createForStack(jint id, Address stackBase, Size stackSize);
+
+/**
+ * Releases a thread locals block allocated by threadLocalsBlock_createForStack().
+ * Unprotecting the stack guard zones is left to the caller, which deallocates the stack.
+ */
+extern void threadLocalsBlock_destroyForStack(Address tlBlock);
+
 /**
  * Simplified version of above, when thread already created by native code, i.e. where id <= 0.
  */
@@ -238,6 +238,77 @@ boolean virtualMemory_allocateAtFixedAddress(Address address, Size size, int typ
 #endif
 }
 
+/*
+ * Releases the physical pages backing a range of virtual memory without unmapping it.
+ * The range remains accessible: pages released with MADV_DONTNEED read as zero on next access,
+ * whereas pages released lazily with MADV_FREE may keep their content until the OS actually reclaims them.
+ * No action is needed to commit the range again; pages are backed again on first access.
+ */
+boolean virtualMemory_discard(Address start, Size size, jboolean lazily, int type) {
+#if os_SOLARIS || os_DARWIN || os_LINUX
+    int advice = MADV_DONTNEED;
+#if defined(MADV_FREE)
+    if (lazily == JNI_TRUE) {
+        advice = MADV_FREE;
+    }
+#endif
+    if (madvise((void *) start, (size_t) size, advice) != 0) {
+#if log_MMAP
+        int error = errno;
+        log_println("virtualMemory_discard(%p, %p) failed: %s", start, size, strerror(error));
+#endif
+        return false;
+    }
+    return true;
+#else
+    return false;
+#endif
+}
+
+/*
+ * Remaps a range of committed virtual memory with explicit large pages (MAP_HUGETLB).
+ * The content of the range is lost. The range must be aligned to the large page size.
+ * If no large pages are available, the range is committed again with normal pages so that it remains usable.
+ */
+boolean virtualMemory_commitLargePages(Address start, Size size, int type) {
+#if os_LINUX && defined(MAP_HUGETLB)
+    if (mmap((void *) start, (size_t) size, PROT, MAP_ANON | MAP_PRIVATE | MAP_FIXED | MAP_HUGETLB, -1, (off_t) 0) != MAP_FAILED) {
+        return true;
+    }
+#if log_MMAP
+    int error = errno;
+    log_println("virtualMemory_commitLargePages(%p, %p) failed: %s", start, size, strerror(error));
+#endif
+    /* A failed MAP_FIXED request may have unmapped the range already. */
+    if (mmap((void *) start, (size_t) size, PROT, MAP_ANON | MAP_PRIVATE | MAP_FIXED, -1, (off_t) 0) == MAP_FAILED) {
+        int error = errno;
+        log_exit(error, "virtualMemory_commitLargePages: could not commit back %p with normal pages: %s", start, strerror(error));
+    }
+    return false;
+#else
+    return false;
+#endif
+}
+
+/*
+ * Advises the OS to back a range of virtual memory with transparent huge pages (MADV_HUGEPAGE).
+ * The content of the range is preserved.
+ */
+boolean virtualMemory_adviseHugePages(Address start, Size size, int type) {
+#if os_LINUX && defined(MADV_HUGEPAGE)
+    if (madvise((void *) start, (size_t) size, MADV_HUGEPAGE) != 0) {
+#if log_MMAP
+        int error = errno;
+        log_println("virtualMemory_adviseHugePages(%p, %p) failed: %s", start, size, strerror(error));
+#endif
+        return false;
+    }
+    return true;
+#else
+    return false;
+#endif
+}
+
 void virtualMemory_protectPages(Address address, int count) {
 /* log_println("---   protected %p .. %p", address, address + (count * virtualMemory_getPageSize())); */
     c_ASSERT(virtualMemory_pageAlign(address) == address);
@@ -43,6 +43,9 @@ extern Address virtualMemory_allocate(Size size, int type);
 extern Address virtualMemory_allocateIn31BitSpace(Size size, int type);
 extern Address virtualMemory_allocatePrivateAnon(Address address, Size size, jboolean reserveSwap, jboolean protNone, int type);
 extern Address virtualMemory_deallocate(Address start, Size size, int type);
+extern boolean virtualMemory_discard(Address start, Size size, jboolean lazily, int type);
+extern boolean virtualMemory_commitLargePages(Address start, Size size, int type);
+extern boolean virtualMemory_adviseHugePages(Address start, Size size, int type);
 
 extern unsigned int virtualMemory_getPageSize(void);
 extern Size virtualMemory_getPhysicalMemorySize(void);
@@ -0,0 +1,322 @@
+/*
+ * Copyright (c) 2012, Oracle and/or its affiliates. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * Please contact Oracle, 500 Oracle Parkway, Redwood Shores, CA 94065 USA
+ * or visit www.oracle.com if you need additional information or have any
+ * questions.
+ */
+
+/**
+ * Native functions for VmContinuation.java and FiberPoller.java.
+ *
+ * A continuation is a VM thread that has its own stack and thread locals block but no native thread.
+ * It runs on the native thread (the carrier) that mounts it: mounting switches the carrier to the stack
+ * of the continuation and registers the thread locals block of the continuation as the one of the
+ * carrier until the continuation unmounts itself or terminates.
+ *
+ * The first mount of a continuation runs it through the same VM entry points as a VM thread started by
+ * thread_run() in threads.c. A continuation unmounts itself from a native method, so its frame anchor
+ * is set up and the GC scans its stack like the stack of any thread that is running native code.
+ */
+#include <stdlib.h>
+#include <string.h>
+#include <errno.h>
+
+#include "c.h"
+#include "log.h"
+#include "image.h"
+#include "mutex.h"
+#include "threads.h"
+#include "threadLocals.h"
+#include "virtualMemory.h"
+
+#if !os_MAXVE
+#include <unistd.h>
+#include <fcntl.h>
+#include <poll.h>
+#include <signal.h>
+#include <ucontext.h>
+
+typedef struct {
+    Address tlBlock;
+    Address stack;
+    Size stackSize;
+
+    /* The registers of the continuation while it is not mounted */
+    ucontext_t context;
+
+    /* The registers of the carrier while the continuation is mounted */
+    ucontext_t carrierContext;
+    Address carrierTLBlock;
+
+    jboolean started;
+    jboolean terminated;
+} ContinuationStruct, *Continuation;
+
+/**
+ * Declared in threads.c
+ */
+extern Mutex globalThreadLock;
+
+/**
+ * The function run on the stack of a continuation when it is first mounted.
+ * The thread locals block of the continuation is already the current one.
+ */
+static void continuation_run(void) {
+    Address tlBlock = threadLocalsBlock_current();
+    TLA etla = ETLA_FROM_TLBLOCK(tlBlock);
+    NativeThreadLocals ntl = NATIVE_THREAD_LOCALS_FROM_TLBLOCK(tlBlock);
+    Continuation k = (Continuation) ntl->osData;
+    jint id = tla_load(jint, etla, ID);
+    Address stackEnd = ntl->stackBase + ntl->stackSize;
+
+#if log_THREADS
+    log_println("continuation_run: BEGIN id=%d, k=%p", id, k);
+#endif
+
+    /* See thread_run() for why the global thread lock is held */
+    mutex_enter(globalThreadLock);
+    VmThreadAddMethod addMethod = image_offset_as_address(VmThreadAddMethod, vmThreadAddMethodOffset);
+    int result = (*addMethod)(id, true, 0, etla, ntl->stackBase, stackEnd, ntl->yellowZone);
+    mutex_exit(globalThreadLock);
+    c_ASSERT(result == 0);
+
+    VmThreadRunMethod runMethod = image_offset_as_address(VmThreadRunMethod, vmThreadRunMethodOffset);
+    (*runMethod)(etla, ntl->stackBase, stackEnd);
+
+    /* There is no native thread whose exit would detach the continuation (see threadLocalsBlock_destroy) */
+    VmThreadDetachMethod detachMethod = image_offset_as_address(VmThreadDetachMethod, vmThreadDetachMethodOffset);
+    (*detachMethod)(etla);
+
+#if log_THREADS
+    log_println("continuation_run: END id=%d, k=%p", id, k);
+#endif
+
+    k->terminated = true;
+    setcontext(&k->carrierContext);
+    c_FATAL();
+}
+#endif
+
+/**
+ * Declared in VmContinuation.java.
+ *
+ * @param id the identifier reserved in the thread map for the VM thread run by the continuation
+ * @param stackSize the size of the stack of the continuation, guard zones included
+ * @return the handle of the continuation or 0 if its stack or thread locals block could not be allocated
+ */
+Address nativeContinuationCreate(jint id, Size stackSize) {
+#if os_MAXVE
+    c_UNIMPLEMENTED();
+    return 0;
+#else
+    Continuation k = (Continuation) calloc(1, sizeof(ContinuationStruct));
+    if (k == NULL) {
+        return 0;
+    }
+    Address stack = virtualMemory_allocate(stackSize, STACK_VM);
+    if (stack == ALLOC_FAILED) {
+        free(k);
+        return 0;
+    }
+    Address tlBlock = threadLocalsBlock_createForStack(id, stack, stackSize);
+    if (tlBlock == 0) {
+        virtualMemory_deallocate(stack, stackSize, STACK_VM);
+        free(k);
+        return 0;
+    }
+    NATIVE_THREAD_LOCALS_FROM_TLBLOCK(tlBlock)->osData = k;
+    k->tlBlock = tlBlock;
+    k->stack = stack;
+    k->stackSize = stackSize;
+
+    getcontext(&k->context);
+    k->context.uc_stack.ss_sp = (void *) stack;
+    k->context.uc_stack.ss_size = (size_t) stackSize;
+    k->context.uc_link = NULL;
+    makecontext(&k->context, continuation_run, 0);
+
+#if log_THREADS
+    log_println("nativeContinuationCreate: id=%d, k=%p, stack=%p, stackSize=%d", id, k, stack, stackSize);
+#endif
+    return (Address) k;
+#endif
+}
+
+/**
+ * Declared in VmContinuation.java.
+ *
+ * Releases the stack and thread locals block of a terminated continuation.
+ */
+void nativeContinuationDestroy(Address handle) {
+#if !os_MAXVE
+    Continuation k = (Continuation) handle;
+    c_ASSERT(k->terminated);
+    threadLocalsBlock_destroyForStack(k->tlBlock);
+    virtualMemory_deallocate(k->stack, k->stackSize, STACK_VM);
+    free(k);
+#endif
+}
+
+/**
+ * Declared in VmContinuation.java.
+ *
+ * Runs a continuation on the current native thread until it unmounts itself or terminates.
+ *
+ * @return true if the continuation terminated
+ */
+JNIEXPORT jboolean JNICALL
+Java_com_sun_max_vm_thread_VmContinuation_nativeMount(JNIEnv *env, jclass c, Address handle) {
+#if os_MAXVE
+    c_UNIMPLEMENTED();
+    return true;
+#else
+    Continuation k = (Continuation) handle;
+    c_ASSERT(!k->terminated);
+    if (!k->started) {
+        /* The continuation runs with the signal mask of its carriers */
+        pthread_sigmask(SIG_SETMASK, NULL, &k->context.uc_sigmask);
+        k->started = true;
+    }
+    NATIVE_THREAD_LOCALS_FROM_TLBLOCK(k->tlBlock)->handle = (Address) thread_self();
+    k->carrierTLBlock = threadLocalsBlock_current();
+    threadLocalsBlock_setCurrent(k->tlBlock);
+    swapcontext(&k->carrierContext, &k->context);
+    threadLocalsBlock_setCurrent(k->carrierTLBlock);
+    return k->terminated;
+#endif
+}
+
+/**
+ * Declared in VmContinuation.java.
+ *
+ * Returns to the carrier of the current continuation. The call returns when the continuation is mounted again.
+ */
+JNIEXPORT void JNICALL
+Java_com_sun_max_vm_thread_VmContinuation_nativeUnmount(JNIEnv *env, jclass c, Address handle) {
+#if os_MAXVE
+    c_UNIMPLEMENTED();
+#else
+    Continuation k = (Continuation) handle;
+    swapcontext(&k->context, &k->carrierContext);
+#endif
+}
+
+/**
+ * Declared in FiberPoller.java.
+ *
+ * Creates the pipe used to wake up the poller thread. Both ends are non-blocking.
+ *
+ * @param fds the file descriptors of the read and write ends of the pipe are returned in this array of two ints
+ * @return 0 on success, -1 otherwise
+ */
+jint nativeOpenWakeupPipe(Address fds) {
+#if os_MAXVE
+    c_UNIMPLEMENTED();
+    return -1;
+#else
+    int *p = (int *) fds;
+    if (pipe(p) != 0) {
+        return -1;
+    }
+    fcntl(p[0], F_SETFL, fcntl(p[0], F_GETFL) | O_NONBLOCK);
+    fcntl(p[1], F_SETFL, fcntl(p[1], F_GETFL) | O_NONBLOCK);
+    return 0;
+#endif
+}
+
+/**
+ * Declared in FiberPoller.java.
+ *
+ * @return true if reading from a file descriptor does not block, i.e. if it is readable, closed or in error
+ */
+jboolean nativeIsReadable(jint fd) {
+#if os_MAXVE
+    return true;
+#else
+    struct pollfd pollfd;
+    pollfd.fd = fd;
+    pollfd.events = POLLIN;
+    pollfd.revents = 0;
+    return poll(&pollfd, 1, 0) != 0;
+#endif
+}
+
+/**
+ * Declared in FiberPoller.java.
+ *
+ * Writes a byte to the wake up pipe. A full pipe means that the poller will wake up anyway.
+ */
+void nativeWakeup(jint fd) {
+#if !os_MAXVE
+    char b = 0;
+    while (write(fd, &b, 1) < 0 && errno == EINTR) {
+    }
+#endif
+}
+
+/**
+ * Declared in FiberPoller.java.
+ *
+ * Reads all the bytes written to the wake up pipe.
+ */
+void nativeDrainWakeupPipe(jint fd) {
+#if !os_MAXVE
+    char buffer[64];
+    while (read(fd, buffer, sizeof(buffer)) > 0 || errno == EINTR) {
+    }
+#endif
+}
+
+/**
+ * Declared in FiberPoller.java.
+ *
+ * Blocks until at least one of the given file descriptors is readable, has been closed or is in error.
+ *
+ * @param fds an array of {@code count} file descriptors
+ * @param revents the events of each file descriptor are returned in this array of {@code count} ints.
+ *            The value is non-zero for the file descriptors that do not block readers any more.
+ * @return the number of non-zero values in {@code revents}, or -1 if polling failed
+ */
+JNIEXPORT jint JNICALL
+Java_com_sun_max_vm_thread_FiberPoller_nativePoll(JNIEnv *env, jclass c, Address fds, Address revents, jint count) {
+#if os_MAXVE
+    c_UNIMPLEMENTED();
+    return -1;
+#else
+    struct pollfd *pollfds = (struct pollfd *) malloc(count * sizeof(struct pollfd));
+    if (pollfds == NULL) {
+        return -1;
+    }
+    int i;
+    for (i = 0; i < count; i++) {
+        pollfds[i].fd = ((jint *) fds)[i];
+        pollfds[i].events = POLLIN;
+        pollfds[i].revents = 0;
+    }
+    int result;
+    do {
+        result = poll(pollfds, (nfds_t) count, -1);
+    } while (result < 0 && errno == EINTR);
+    for (i = 0; i < count; i++) {
+        ((jint *) revents)[i] = result < 0 ? 0 : pollfds[i].revents;
+    }
+    free(pollfds);
+    return result;
+#endif
+}
@@ -963,6 +963,11 @@ JVM_RegisterSignal(jint sig, void* handler) {
         case SIGILL:
         case SIGSEGV:
             return (void *)-1;
+        case SIGPROF:
+            if (profileSignalHandled) {
+                return (void *)-1;
+            }
+            break;
     }
 
     void* oldHandler = setSignalHandler(sig, (SignalHandlerFunction) newHandler);
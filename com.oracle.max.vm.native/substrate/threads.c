@@ -38,6 +38,7 @@
 #include "vm.h"
 #include "word.h"
 #include "mutex.h"
+#include "condition.h"
 #include "trap.h"
 #include "threads.h"
 #include "threadLocals.h"
@@ -63,6 +64,39 @@
  */
 Mutex globalThreadLock;
 
+#if !os_MAXVE
+/**
+ * A native thread parked in the thread pool once the VM thread it ran has terminated. The thread keeps its
+ * stack and its thread locals block, so that it can run another VM thread without going through the native
+ * thread library again. The struct lives on the stack of the parked thread.
+ */
+typedef struct PooledThreadStruct {
+    Thread thread;
+    Size stackSize;
+    /* The identifier reserved in the thread map for the next VM thread to run, 0 while the thread is parked. */
+    jint id;
+    condition_Struct wakeUp;
+    struct PooledThreadStruct *next;
+} PooledThreadStruct, *PooledThread;
+
+static mutex_Struct threadPoolLock;
+
+/**
+ * The list of parked threads.
+ */
+static PooledThread threadPool;
+
+/**
+ * The number of parked threads, including threads that are about to park.
+ */
+static int threadPoolSize;
+
+/**
+ * The maximum number of parked threads. Threads are never parked if it is 0.
+ */
+static int threadPoolMaximumSize;
+#endif
+
 /**
  * Gets the address and size of the calling thread's stack. The returned values denote
  * the stack memory above the red-zone guard page (if any) configured by the native thread library.
@@ -123,6 +157,92 @@ void thread_getStackInfo(Address *stackBase, Size* stackSize) {
 
 }
 
+#if !os_MAXVE
+/**
+ * Hands a parked thread the identifier of a VM thread to run.
+ *
+ * @param id the identifier reserved in the thread map for the thread to be started
+ * @param stackSize the requested size of the thread's stack
+ * @return the native thread handle of the parked thread or 0 if no thread with a stack of the requested size is parked
+ */
+static Thread threadPool_start(jint id, Size stackSize) {
+    Thread thread = (Thread) 0;
+    mutex_enter(&threadPoolLock);
+    PooledThread *link = &threadPool;
+    while (*link != NULL) {
+        PooledThread pooled = *link;
+        if (pooled->stackSize == stackSize) {
+            *link = pooled->next;
+            threadPoolSize--;
+            thread = pooled->thread;
+            pooled->id = id;
+            condition_notify(&pooled->wakeUp);
+            break;
+        }
+        link = &pooled->next;
+    }
+    mutex_exit(&threadPoolLock);
+#if log_THREADS
+    if (thread != (Thread) 0) {
+        log_println("threadPool_start: id = %d, recycled t=%p", id, thread);
+    }
+#endif
+    return thread;
+}
+
+/**
+ * Detaches the current thread from the VM thread it ran, once the VM thread has terminated, and parks it
+ * in the thread pool until it is handed another VM thread to run. Nothing is done if the pool is full.
+ *
+ * @param tlBlock the thread locals block of the current thread
+ * @param stackSize the stack size the current thread was created with
+ * @return the identifier of the VM thread to run next or 0 if the current thread is not parked
+ */
+static jint threadPool_park(Address tlBlock, Size stackSize) {
+    if (threadPoolMaximumSize == 0) {
+        return 0;
+    }
+    mutex_enter(&threadPoolLock);
+    if (threadPoolSize >= threadPoolMaximumSize) {
+        mutex_exit(&threadPoolLock);
+        return 0;
+    }
+    threadPoolSize++;
+    mutex_exit(&threadPoolLock);
+
+    /* Detach the thread as the thread library would on thread exit (see threadLocalsBlock_destroy),
+     * but keep its thread locals block. */
+    VmThreadDetachMethod method = image_offset_as_address(VmThreadDetachMethod, vmThreadDetachMethodOffset);
+    (*method)(ETLA_FROM_TLBLOCK(tlBlock));
+    threadLocalsBlock_setCurrent(0);
+
+    /* Unprotect the first page of the TL block and the yellow zone as threadLocalsBlock_destroy does:
+     * threadLocalsBlock_create initializes the block again and re-protects them when the thread is reused. */
+    NativeThreadLocals ntl = NATIVE_THREAD_LOCALS_FROM_TLBLOCK(tlBlock);
+    virtualMemory_unprotectPages(tlBlock, 1);
+    virtualMemory_unprotectPages(ntl->yellowZone, YELLOW_ZONE_PAGES);
+
+    PooledThreadStruct pooled;
+    pooled.thread = thread_current();
+    pooled.stackSize = stackSize;
+    pooled.id = 0;
+    condition_initialize(&pooled.wakeUp);
+
+    mutex_enter(&threadPoolLock);
+    pooled.next = threadPool;
+    threadPool = &pooled;
+#if log_THREADS
+    log_println("threadPool_park: t=%p parked, %d threads in pool", pooled.thread, threadPoolSize);
+#endif
+    while (pooled.id == 0) {
+        condition_wait(&pooled.wakeUp, &threadPoolLock);
+    }
+    mutex_exit(&threadPoolLock);
+    condition_destroy(&pooled.wakeUp);
+    return pooled.id;
+}
+#endif
+
 /**
  * OS-specific thread creation.
  *
@@ -152,6 +272,15 @@ static Thread thread_create(jint id, Size stackSize, int priority) {
     }
 #endif
 
+#if !os_MAXVE
+    if (threadPoolMaximumSize != 0) {
+        Thread pooled = threadPool_start(id, stackSize);
+        if (pooled != (Thread) 0) {
+            return pooled;
+        }
+    }
+#endif
+
     // Allocate the threadLocals block and the struct for passing this to the created thread.
     // We do this to ensure that all memory allocation problems are addressed here before the thread runs.
     Address tlBlock = threadLocalsBlock_create(id, 0, stackSize);
@@ -161,6 +290,9 @@ static Thread thread_create(jint id, Size stackSize, int priority) {
 
     TLA etla = ETLA_FROM_TLBLOCK(tlBlock);
     tla_store(etla, ID, id);
+    /* Pass the requested stack size to the thread, which initializes its native thread locals later.
+     * It is the stack size a thread is recycled for if the thread is parked in the thread pool. */
+    NATIVE_THREAD_LOCALS_FROM_TLBLOCK(tlBlock)->stackSize = stackSize;
 
 #if os_MAXVE
     thread = maxve_create_thread(
@@ -219,75 +351,90 @@ void *thread_run(void *arg) {
     TLA etla = ETLA_FROM_TLBLOCK(tlBlock);
     jint id = tla_load(jint, etla, ID);
     Address nativeThread = (Address) thread_current();
+    /* Read before the native thread locals are initialized (see thread_create) */
+    Size stackSize = NATIVE_THREAD_LOCALS_FROM_TLBLOCK(tlBlock)->stackSize;
 
+    while (true) {
 #if log_THREADS
-    log_println("thread_run: BEGIN t=%p", nativeThread);
+        log_println("thread_run: BEGIN t=%p", nativeThread);
 #endif
 
-    threadLocalsBlock_setCurrent(tlBlock);
-    // initialize the thread locals block
-    if (id != PRIMORDIAL_THREAD_ID) {
-        threadLocalsBlock_create(id, tlBlock, 0);
-    }
-    NativeThreadLocals ntl = NATIVE_THREAD_LOCALS_FROM_TLBLOCK(tlBlock);
+        threadLocalsBlock_setCurrent(tlBlock);
+        // initialize the thread locals block
+        if (id != PRIMORDIAL_THREAD_ID) {
+            threadLocalsBlock_create(id, tlBlock, 0);
+        }
+        NativeThreadLocals ntl = NATIVE_THREAD_LOCALS_FROM_TLBLOCK(tlBlock);
 
-    /* Grab the global thread lock so that:
-     *   1. This thread can atomically be added to the thread list
-     *   2. This thread is blocked if a GC is currently underway. Once we have the lock,
-     *      GC is blocked and cannot occur until we completed the upcall to
-     *      VmThread.add().
-     */
+        /* Grab the global thread lock so that:
+         *   1. This thread can atomically be added to the thread list
+         *   2. This thread is blocked if a GC is currently underway. Once we have the lock,
+         *      GC is blocked and cannot occur until we completed the upcall to
+         *      VmThread.add().
+         */
 #if log_THREADS
-    log_println("thread_run: t=%p acquiring global thread lock", nativeThread);
+        log_println("thread_run: t=%p acquiring global thread lock", nativeThread);
 #endif
-    mutex_enter(globalThreadLock);
+        mutex_enter(globalThreadLock);
 #if log_THREADS
-    log_println("thread_run: t=%p acquired  global thread lock", nativeThread);
+        log_println("thread_run: t=%p acquired  global thread lock", nativeThread);
 #endif
 
-    VmThreadAddMethod addMethod = image_offset_as_address(VmThreadAddMethod, vmThreadAddMethodOffset);
+        VmThreadAddMethod addMethod = image_offset_as_address(VmThreadAddMethod, vmThreadAddMethodOffset);
 
 #if log_THREADS
-    log_print("thread_run: id=%d, t=%p, calling VmThread.add(): ", id, nativeThread);  
-    void image_printAddress(Address address);
-    image_printAddress((Address) addMethod);
-    log_println("");
+        log_print("thread_run: id=%d, t=%p, calling VmThread.add(): ", id, nativeThread);  
+        void image_printAddress(Address address);
+        image_printAddress((Address) addMethod);
+        log_println("");
 #endif
-    Address stackEnd = ntl->stackBase + ntl->stackSize;
-    int result = (*addMethod)(id,
-              false,
-              nativeThread,
-              etla,
-              ntl->stackBase,
-              stackEnd,
-              ntl->yellowZone);
+        Address stackEnd = ntl->stackBase + ntl->stackSize;
+        int result = (*addMethod)(id,
+                  false,
+                  nativeThread,
+                  etla,
+                  ntl->stackBase,
+                  stackEnd,
+                  ntl->yellowZone);
 
 #if log_THREADS
-    log_println("thread_run: t=%p releasing global GC and thread list lock", nativeThread);
+        log_println("thread_run: t=%p releasing global GC and thread list lock", nativeThread);
 #endif
-    mutex_exit(globalThreadLock);
+        mutex_exit(globalThreadLock);
 #if log_THREADS
-    log_println("thread_run: t=%p released  global GC and thread list lock", nativeThread);
+        log_println("thread_run: t=%p released  global GC and thread list lock", nativeThread);
 #endif
 
-    /* Adding a VM created thread to the thread list should never fail. */
-    c_ASSERT(result == 0 || result == 1);
-    setCurrentThreadSignalMask(result == 1);
+        /* Adding a VM created thread to the thread list should never fail. */
+        c_ASSERT(result == 0 || result == 1);
+        setCurrentThreadSignalMask(result == 1);
 
-    VmThreadRunMethod runMethod = image_offset_as_address(VmThreadRunMethod, vmThreadRunMethodOffset);
+        VmThreadRunMethod runMethod = image_offset_as_address(VmThreadRunMethod, vmThreadRunMethodOffset);
 
 #if log_THREADS
-    log_print("thread_run: id=%d, t=%p, calling VmThread.run(): ", id, nativeThread);
-    image_printAddress((Address) runMethod);
-    log_println("");
+        log_print("thread_run: id=%d, t=%p, calling VmThread.run(): ", id, nativeThread);
+        image_printAddress((Address) runMethod);
+        log_println("");
 #endif
-    (*runMethod)(etla, ntl->stackBase, stackEnd);
+        (*runMethod)(etla, ntl->stackBase, stackEnd);
 
 #if log_THREADS
-    log_println("thread_run: END t=%p", nativeThread);
+        log_println("thread_run: END t=%p", nativeThread);
 #endif
 
-    setCurrentThreadSignalMaskOnThreadExit(result == 1);
+        setCurrentThreadSignalMaskOnThreadExit(result == 1);
+
+#if !os_MAXVE
+        if (id != PRIMORDIAL_THREAD_ID && result == 0) {
+            id = threadPool_park(tlBlock, stackSize);
+            if (id != 0) {
+                /* Run another VM thread with the same native thread */
+                continue;
+            }
+        }
+#endif
+        break;
+    }
 
     /* Successful thread exit */
     return NULL;
@@ -447,6 +594,20 @@ void nativeBlockOnThreadLock() {
     mutex_exit(globalThreadLock);
 }
 
+/**
+ * Declared in VmThread.java.
+ *
+ * @param size the maximum number of native threads kept for reuse once the VM thread they ran has terminated
+ */
+void nativeSetThreadPoolSize(jint size) {
+#if !os_MAXVE
+    if (threadPoolMaximumSize == 0 && size > 0) {
+        mutex_initialize(&threadPoolLock);
+    }
+    threadPoolMaximumSize = size;
+#endif
+}
+
 /*
  * Create a thread.
  * @C_FUNCTION - called from Java
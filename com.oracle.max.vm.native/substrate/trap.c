@@ -30,6 +30,15 @@
 #include "image.h"
 #include "trap.h"
 
+#if os_LINUX
+#   include <errno.h>
+#   include <time.h>
+#   include <sys/syscall.h>
+#   ifndef sigev_notify_thread_id
+#       define sigev_notify_thread_id _sigev_un._tid
+#   endif
+#endif
+
 #if os_SOLARIS && isa_SPARC
     /* Get STACK_BIAS definition for Solaris / SPARC */
 #      include <sys/stack.h>
@@ -45,6 +54,7 @@
 #define STACK_FATAL 2
 #define ARITHMETIC_EXCEPTION 3
 #define ASYNC_INTERRUPT 4
+#define PROFILE_SAMPLE 7
 
 static Address theJavaTrapStub;
 static boolean traceTraps = false;
@@ -86,6 +96,8 @@ int getTrapNumber(int signal) {
 #if !os_MAXVE
     case SIGUSR1:
         return ASYNC_INTERRUPT;
+    case SIGPROF:
+        return PROFILE_SAMPLE;
      default:
         log_print("Unknown Signal: %d\n", signal);
 #endif
@@ -222,6 +234,7 @@ char *vmSignalName(int signal) {
     case SIGILL: return "SIGILL";
 #if !os_MAXVE
     case SIGUSR1: return "SIGUSR1";
+    case SIGPROF: return "SIGPROF";
     case SIGBUS: return "SIGBUS";
 #endif
     }
@@ -378,6 +391,15 @@ static void vmSignalHandler(int signal, SigInfo *signalInfo, UContext *ucontext)
 #endif
 
     TLA tla = tla_current();
+    if (trapNumber == PROFILE_SAMPLE) {
+        /* A profiling tick is dropped if the thread is not attached to the VM or if it is already
+         * handling a trap: the trap state saved in the thread locals must not be overwritten
+         * before the trap stub has read it. */
+        if (tla == 0 || tla_load(TLA, tla, DTLA) == 0 ||
+            tla_load(Address, tla_load(TLA, tla, DTLA), TRAP_INSTRUCTION_POINTER) != 0) {
+            return;
+        }
+    }
     NativeThreadLocals ntl = nativeThreadLocals_current();
     if (ntl == 0) {
         logTrap(signal, ip, faultAddress, 0);
@@ -493,6 +515,7 @@ void nativeTrapInitialize(Address javaTrapStub) {
     sigaddset(&vmSignals, SIGILL);
     sigaddset(&vmSignals, SIGFPE);
     sigaddset(&vmSignals, SIGUSR1);
+    sigaddset(&vmSignals, SIGPROF);
 
     /* Let all threads be stopped by a debugger. */
     sigaddset(&vmSignals, SIGTRAP);
@@ -500,6 +523,7 @@ void nativeTrapInitialize(Address javaTrapStub) {
     /* Define the signals to be blocked on thread exit. */
     sigemptyset(&blockedOnThreadExitSignals);
     sigaddset(&blockedOnThreadExitSignals, SIGUSR1);
+    sigaddset(&blockedOnThreadExitSignals, SIGPROF);
 
     /* Apply the normal thread mask to the primordial thread. */
     thread_setSignalMask(SIG_BLOCK, &allSignals, NULL);
@@ -513,3 +537,66 @@ void nativeTrapInitialize(Address javaTrapStub) {
 void nativeSetTrapTracing(boolean flag) {
     traceTraps = flag;
 }
+
+/* Defined global declared in trap.h */
+boolean profileSignalHandled = false;
+
+/**
+ * Implementation of com.sun.max.vm.profilers.sampling.AsyncSamplingProfiler.nativeProfileSignalHandlerInstall().
+ *
+ * Installs the VM handler of SIGPROF. This is only done when the profiler is enabled: SIGPROF is otherwise
+ * left to the application.
+ */
+void nativeProfileSignalHandlerInstall() {
+#if !os_MAXVE
+    setSignalHandler(SIGPROF, (SignalHandlerFunction) vmSignalHandler);
+    profileSignalHandled = true;
+#endif
+}
+
+/**
+ * Implementation of com.sun.max.vm.profilers.sampling.AsyncSamplingProfiler.nativeProfileTimerCreate().
+ *
+ * Creates a timer sending SIGPROF to the current thread each time it has consumed {@code periodNanos}
+ * of CPU time. As the timer identifier returned by the kernel can be 0, the result is the identifier plus one.
+ *
+ * @return the encoded timer or 0 if the timer could not be created
+ */
+Address nativeProfileTimerCreate(jlong periodNanos) {
+#if os_LINUX
+    struct sigevent event;
+    struct itimerspec period;
+    timer_t timer;
+
+    memset((char *) &event, 0, sizeof(event));
+    event.sigev_notify = SIGEV_THREAD_ID;
+    event.sigev_signo = SIGPROF;
+    event.sigev_notify_thread_id = (pid_t) syscall(SYS_gettid);
+    if (timer_create(CLOCK_THREAD_CPUTIME_ID, &event, &timer) != 0) {
+        log_println("could not create profiling timer: %s", strerror(errno));
+        return 0;
+    }
+    period.it_interval.tv_sec = periodNanos / 1000000000LL;
+    period.it_interval.tv_nsec = periodNanos % 1000000000LL;
+    period.it_value = period.it_interval;
+    if (timer_settime(timer, 0, &period, NULL) != 0) {
+        log_println("could not start profiling timer: %s", strerror(errno));
+        timer_delete(timer);
+        return 0;
+    }
+    return ((Address) timer) + 1;
+#else
+    return 0;
+#endif
+}
+
+/**
+ * Implementation of com.sun.max.vm.profilers.sampling.AsyncSamplingProfiler.nativeProfileTimerDelete().
+ */
+void nativeProfileTimerDelete(Address encodedTimer) {
+#if os_LINUX
+    if (encodedTimer != 0) {
+        timer_delete((timer_t) (encodedTimer - 1));
+    }
+#endif
+}
@@ -58,6 +58,11 @@ extern SignalHandlerFunction userSignalHandler;
  */
 extern boolean traceSignals;
 
+/**
+ * Indicates whether SIGPROF is handled by the VM, which is the case when the asynchronous sampling profiler is enabled.
+ */
+extern boolean profileSignalHandled;
+
 /**
  * Sets the signal mask for the current thread on thread exit.
  */
@@ -328,7 +328,8 @@ public class MaxineTesterConfiguration {
         imageConfig("c1xgraal", opt_c1xgraal);
         imageConfig("c1xgraal-boot", opt_c1xgraal, "--XX:+GraalForBoot");
         imageConfig("jtt-t1xc1x", opt_c1x, tmpVMArgs, gcScheme, "-threads=4", build, "-run=test.com.sun.max.vm.jtrun.all", "-native-tests", testCallerT1X);
-        imageConfig("jtt-c1xt1x", opt_c1x, tmpVMArgs, gcScheme, "-threads=4", build, "-run=test.com.sun.max.vm.jtrun.all", "-native-tests", testCalleeT1X, "--XX:+FailOverCompilation");
+        // The tests are baseline compiled, so hot loops (e.g. jtt.loop.LoopOSR) are migrated by on-stack replacement
+        imageConfig("jtt-c1xt1x", opt_c1x, tmpVMArgs, gcScheme, "-threads=4", build, "-run=test.com.sun.max.vm.jtrun.all", "-native-tests", testCalleeT1X, "--XX:+FailOverCompilation", "--XX:+OSR");
         imageConfig("jtt-t1xt1x", opt_c1x, tmpVMArgs, gcScheme, "-threads=4", build, "-run=test.com.sun.max.vm.jtrun.all", "-native-tests",
                         joinCompileCommands(testCallerT1X, testCalleeT1X), "--XX:+FailOverCompilation");
 
@@ -345,7 +346,9 @@ public class MaxineTesterConfiguration {
         imageConfig("jtt-mset1xt1x", opt_c1x, "-run=test.com.sun.max.vm.jtrun.all", "-heap=gcx.mse", "-native-tests", joinCompileCommands(testCallerT1X, testCalleeT1X));
         imageConfig("jtt-msec1xc1x", opt_c1x, "-run=test.com.sun.max.vm.jtrun.all", "-heap=gcx.mse", "-native-tests");
 
-        imageConfig("vm-output", "-run=test.com.sun.max.vm.output");
+        // The native threads of terminated threads are reused (see test.vm.output.ThreadPoolReuse),
+        // and fibers run on several carriers (see test.vm.output.Fibers)
+        imageConfig("vm-output", "-run=test.com.sun.max.vm.output", "--XX:ThreadPoolSize=4", "--XX:FiberParallelism=4");
 
         maxvmConfig("std", "-Xms2g", "-Xmx2g");
         maxvmConfig("eviction1000", "-Xms2g", "-Xmx2g", "-XX:CodeCacheContentionFrequency=1000");
@@ -391,6 +394,8 @@ public class MaxineTesterConfiguration {
         imageConfig("msd", opt_c1x, "-run=java", "-heap=gcx.ms", "-build=DEBUG");
         imageConfig("msed", opt_c1x, "-run=java", "-heap=gcx.mse", "-build=DEBUG");
         imageConfig("mse", opt_c1x, "-run=java", "-heap=gcx.mse");
+        // Concurrent marking starting early, so that most collections complete a concurrent marking (see test.output.ConcurrentMarkingTest)
+        imageConfig("msecm", opt_c1x, "-run=java", "-heap=gcx.mse", "--XX:+ConcurrentMarking", "--XX:ConcurrentMarkingOccupancy=10");
         imageConfig("gmse", opt_c1x, "-run=java", "-heap=gcx.gen.mse");
         imageConfig("gmsed", opt_c1x, "-run=java", "-heap=gcx.gen.mse", "-build=DEBUG");
 
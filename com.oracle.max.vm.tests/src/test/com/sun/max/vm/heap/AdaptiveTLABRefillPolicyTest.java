@@ -0,0 +1,123 @@
+/*
+ * Copyright (c) 2012, Oracle and/or its affiliates. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * Please contact Oracle, 500 Oracle Parkway, Redwood Shores, CA 94065 USA
+ * or visit www.oracle.com if you need additional information or have any
+ * questions.
+ */
+package test.com.sun.max.vm.heap;
+
+import com.sun.max.ide.*;
+import com.sun.max.unsafe.*;
+import com.sun.max.vm.heap.*;
+
+/**
+ * Tests for {@link AdaptiveTLABRefillPolicy}.
+ */
+public class AdaptiveTLABRefillPolicyTest extends MaxTestCase {
+
+    /**
+     * Number of TLAB refills per GC interval the policy sizes TLABs for.
+     */
+    private static final int TARGET_REFILLS = 50;
+
+    private static final Size TLAB_SIZE = Size.K.times(64);
+
+    public AdaptiveTLABRefillPolicyTest(String name) {
+        super(name);
+    }
+
+    public static void main(String[] args) {
+        junit.textui.TestRunner.run(AdaptiveTLABRefillPolicyTest.class);
+    }
+
+    private static Size expectedSize(long allocated) {
+        return Size.fromLong(allocated / TARGET_REFILLS).wordAligned();
+    }
+
+    private static void assertSize(Size expected, Size actual) {
+        assertEquals(expected.toLong(), actual.toLong());
+    }
+
+    /**
+     * Creates a policy and reports the refill of the first TLAB to it, as the heap scheme does.
+     */
+    private static AdaptiveTLABRefillPolicy newPolicy() {
+        final AdaptiveTLABRefillPolicy policy = new AdaptiveTLABRefillPolicy(TLAB_SIZE);
+        policy.notifyRefill(TLAB_SIZE, Size.zero());
+        return policy;
+    }
+
+    public void test_initialSize() {
+        final AdaptiveTLABRefillPolicy policy = newPolicy();
+        assertSize(TLAB_SIZE, policy.nextTlabSize());
+    }
+
+    public void test_initialRefillIsAccounted() {
+        final AdaptiveTLABRefillPolicy policy = newPolicy();
+        for (int i = 1; i < 10; i++) {
+            policy.notifyRefill(TLAB_SIZE, Size.zero());
+        }
+        policy.notifyRetire(Size.zero());
+        assertSize(expectedSize(TLAB_SIZE.toLong() * 10), policy.nextTlabSize());
+    }
+
+    public void test_retireWaste() {
+        final AdaptiveTLABRefillPolicy policy = newPolicy();
+        final Size leftover = TLAB_SIZE.dividedBy(4);
+        for (int i = 1; i < 10; i++) {
+            policy.notifyRefill(TLAB_SIZE, leftover);
+        }
+        policy.notifyRetire(leftover);
+        assertSize(expectedSize(TLAB_SIZE.toLong() * 10 - leftover.toLong() * 10), policy.nextTlabSize());
+    }
+
+    public void test_negativeAllocationIsClamped() {
+        // A policy that missed refills may see more space left than refilled. The TLABs must shrink, not grow.
+        final AdaptiveTLABRefillPolicy policy = new AdaptiveTLABRefillPolicy(TLAB_SIZE);
+        policy.notifyRefill(TLAB_SIZE, TLAB_SIZE.dividedBy(2));
+        policy.notifyRetire(TLAB_SIZE);
+        assertSize(TLAB_SIZE.dividedBy(16).wordAligned(), policy.nextTlabSize());
+    }
+
+    public void test_interimRetire() {
+        final AdaptiveTLABRefillPolicy policy = newPolicy();
+        final Size leftover = TLAB_SIZE.dividedBy(2);
+        policy.notifyInterimRetire(leftover);
+        assertSize(TLAB_SIZE, policy.nextTlabSize());
+        for (int i = 1; i < 10; i++) {
+            policy.notifyRefill(TLAB_SIZE, Size.zero());
+        }
+        policy.notifyRetire(Size.zero());
+        assertSize(expectedSize(TLAB_SIZE.toLong() * 10 - leftover.toLong()), policy.nextTlabSize());
+    }
+
+    public void test_average() {
+        final AdaptiveTLABRefillPolicy policy = newPolicy();
+        policy.notifyRetire(Size.zero());
+        long average = TLAB_SIZE.toLong();
+        for (int refills = 20; refills <= 40; refills += 20) {
+            for (int i = 0; i < refills; i++) {
+                policy.notifyRefill(TLAB_SIZE, Size.zero());
+            }
+            policy.notifyRetire(Size.zero());
+            average = (35 * TLAB_SIZE.toLong() * refills + 65 * average) / 100;
+            assertSize(expectedSize(average), policy.nextTlabSize());
+        }
+    }
+}
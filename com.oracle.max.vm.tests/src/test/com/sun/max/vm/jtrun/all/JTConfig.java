@@ -375,6 +375,8 @@ public class JTConfig {
         jtt.jdk.Class_getName.class,
         jtt.jdk.EnumMap01.class,
         jtt.jdk.EnumMap02.class,
+        jtt.jdk.System_arraycopy01.class,
+        jtt.jdk.System_arraycopy02.class,
         jtt.jdk.System_currentTimeMillis01.class,
         jtt.jdk.System_currentTimeMillis02.class,
         jtt.jdk.System_nanoTime01.class,
@@ -514,6 +516,7 @@ public class JTConfig {
         jtt.loop.Loop14.class,
         jtt.loop.LoopInline.class,
         jtt.loop.LoopNewInstance.class,
+        jtt.loop.LoopOSR.class,
         jtt.loop.LoopPhi.class,
         jtt.loop.LoopSwitch01.class,
         jtt.micro.ArrayCompare01.class,
@@ -593,6 +596,12 @@ public class JTConfig {
         jtt.optimize.Fold_Math01.class,
         jtt.optimize.Inline01.class,
         jtt.optimize.Inline02.class,
+        jtt.optimize.InterfaceCall_mega01.class,
+        jtt.optimize.InterfaceCall_poly01.class,
+        jtt.optimize.LICM_Loop01.class,
+        jtt.optimize.LICM_Loop02.class,
+        jtt.optimize.LICM_Loop03.class,
+        jtt.optimize.LICM_Loop04.class,
         jtt.optimize.LLE_01.class,
         jtt.optimize.List_reorder_bug.class,
         jtt.optimize.NCE_01.class,
@@ -616,6 +625,13 @@ public class JTConfig {
         jtt.optimize.Phi01.class,
         jtt.optimize.Phi02.class,
         jtt.optimize.Phi03.class,
+        jtt.optimize.RCE_Loop01.class,
+        jtt.optimize.RCE_Loop02.class,
+        jtt.optimize.RCE_Loop03.class,
+        jtt.optimize.RCE_Loop04.class,
+        jtt.optimize.RCE_Loop05.class,
+        jtt.optimize.RCE_Loop06.class,
+        jtt.optimize.RCE_Loop07.class,
         jtt.optimize.Reduce_Convert01.class,
         jtt.optimize.Reduce_Double01.class,
         jtt.optimize.Reduce_Float01.class,
@@ -0,0 +1,156 @@
+/*
+ * Copyright (c) 2012, Oracle and/or its affiliates. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * Please contact Oracle, 500 Oracle Parkway, Redwood Shores, CA 94065 USA
+ * or visit www.oracle.com if you need additional information or have any
+ * questions.
+ */
+package test.vm.output;
+
+import java.util.*;
+import java.util.concurrent.atomic.*;
+import java.util.concurrent.locks.*;
+
+import com.sun.max.vm.thread.*;
+
+/**
+ * Runs fibers that sleep, wait for and notify each other, and park, so that they are unmounted and mounted again on
+ * any of the carriers (the vm-output image is built with several). While all the fibers are parked, the heap is
+ * collected: each fiber then checks the objects it only references from the stack of its unmounted continuation.
+ */
+public class Fibers implements MaxineOnly {
+
+    private static final int FIBERS = 16;
+
+    private static final int ROUNDS = 4;
+
+    /**
+     * A value handed from a fiber to its partner with {@link Object#wait()} and {@link Object#notify()}.
+     */
+    static final class Box {
+        int value = -1;
+
+        synchronized void put(int v) throws InterruptedException {
+            while (value >= 0) {
+                wait();
+            }
+            value = v;
+            notifyAll();
+        }
+
+        synchronized int take() throws InterruptedException {
+            while (value < 0) {
+                wait();
+            }
+            final int v = value;
+            value = -1;
+            notifyAll();
+            return v;
+        }
+    }
+
+    static final Fiber[] fibers = new Fiber[FIBERS];
+    static final Box[] boxes = new Box[FIBERS / 2];
+    static final String[] results = new String[FIBERS];
+    static final AtomicInteger parked = new AtomicInteger();
+    static volatile boolean resumed;
+
+    static final class Task implements Runnable {
+        final int id;
+
+        Task(int id) {
+            this.id = id;
+        }
+
+        public void run() {
+            try {
+                results[id] = play();
+            } catch (Throwable t) {
+                results[id] = "failed: " + t;
+            }
+        }
+
+        private String play() throws InterruptedException {
+            // Objects only referenced from this stack while the fiber is unmounted
+            final int[][] arrays = new int[64][];
+            for (int i = 0; i < arrays.length; i++) {
+                arrays[i] = new int[i + 1];
+                Arrays.fill(arrays[i], id * 1000 + i);
+            }
+            final String name = "fiber " + id;
+
+            int sum = 0;
+            for (int round = 0; round < ROUNDS; round++) {
+                Thread.sleep(1 + (id + round) % 3);
+                final Box box = boxes[id / 2];
+                if (id % 2 == 0) {
+                    box.put(round + id);
+                } else {
+                    sum += box.take();
+                }
+                LockSupport.unpark(fibers[id ^ 1]);
+                LockSupport.parkNanos(1000000L);
+            }
+
+            parked.incrementAndGet();
+            while (!resumed) {
+                LockSupport.park();
+            }
+
+            for (int i = 0; i < arrays.length; i++) {
+                for (int v : arrays[i]) {
+                    if (v != id * 1000 + i || arrays[i].length != i + 1) {
+                        return name + ": corrupted array " + i;
+                    }
+                }
+            }
+            return name + ": sum " + sum;
+        }
+    }
+
+    public static void main(String[] args) throws InterruptedException {
+        for (int i = 0; i < FIBERS / 2; i++) {
+            boxes[i] = new Box();
+        }
+        for (int i = 0; i < FIBERS; i++) {
+            fibers[i] = new Fiber(new Task(i), "Fiber-" + i);
+        }
+        for (Fiber fiber : fibers) {
+            fiber.start();
+        }
+        while (parked.get() < FIBERS) {
+            Thread.sleep(10);
+        }
+        // Let the last fibers unmount, then collect while all of them are parked
+        Thread.sleep(50);
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        resumed = true;
+        for (Fiber fiber : fibers) {
+            LockSupport.unpark(fiber);
+        }
+        for (Fiber fiber : fibers) {
+            fiber.join();
+        }
+        for (String result : results) {
+            System.out.println(result);
+        }
+        System.out.println("done.");
+    }
+}
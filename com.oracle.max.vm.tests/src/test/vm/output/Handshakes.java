@@ -0,0 +1,247 @@
+/*
+ * Copyright (c) 2012, Oracle and/or its affiliates. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * Please contact Oracle, 500 Oracle Parkway, Redwood Shores, CA 94065 USA
+ * or visit www.oracle.com if you need additional information or have any
+ * questions.
+ */
+package test.vm.output;
+
+import java.util.*;
+
+import com.sun.max.lang.*;
+import com.sun.max.unsafe.*;
+import com.sun.max.vm.actor.member.*;
+import com.sun.max.vm.compiler.RuntimeCompiler.Nature;
+import com.sun.max.vm.compiler.deopt.*;
+import com.sun.max.vm.compiler.target.*;
+import com.sun.max.vm.runtime.*;
+import com.sun.max.vm.thread.*;
+
+/**
+ * Revokes biases, deoptimizes and runs {@linkplain VmOperation.Mode#Handshake handshakes}, plain and nested, while
+ * spinner threads keep running. The spinners trap for the handshakes in compiled code and wait for the VM operation
+ * thread there, while a sleeper is handshaked with in native code. The test checks that every targeted thread is
+ * handshaked with, and that the spinners make progress once the operations are done.
+ */
+public class Handshakes implements MaxineOnly {
+
+    private static final int SPINNERS = 4;
+
+    static volatile boolean stop;
+
+    static class Spinner extends Thread {
+        volatile long counter;
+        volatile boolean handshaked;
+
+        Spinner(int id) {
+            super("Spinner-" + id);
+        }
+
+        @Override
+        public void run() {
+            while (!stop) {
+                counter++;
+            }
+        }
+    }
+
+    static class Sleeper extends Thread {
+        volatile boolean handshaked;
+
+        Sleeper() {
+            super("Sleeper");
+        }
+
+        @Override
+        public void run() {
+            while (!stop) {
+                try {
+                    Thread.sleep(10);
+                } catch (InterruptedException e) {
+                }
+            }
+        }
+    }
+
+    /**
+     * A thread that takes the bias of a lock, so that the main thread has it revoked when it locks it.
+     */
+    static class Biaser extends Thread {
+        final Object lock;
+        volatile boolean locked;
+
+        Biaser(Object lock) {
+            super("Biaser");
+            this.lock = lock;
+        }
+
+        @Override
+        public void run() {
+            int count = 0;
+            while (!stop) {
+                synchronized (lock) {
+                    count++;
+                }
+                locked = true;
+            }
+        }
+    }
+
+    /**
+     * Handshakes with the spinners and the sleeper, optionally submitting a nested operation while handshaking with
+     * the first of them.
+     */
+    static class MarkingHandshake extends VmOperation {
+        final boolean nest;
+        int nestedRuns;
+
+        MarkingHandshake(boolean nest) {
+            super("MarkingHandshake", null, Mode.Handshake);
+            this.nest = nest;
+        }
+
+        @Override
+        protected boolean operateOnThread(VmThread thread) {
+            return thread.javaThread() instanceof Spinner || thread.javaThread() instanceof Sleeper;
+        }
+
+        @Override
+        protected void doThread(VmThread vmThread, Pointer ip, Pointer sp, Pointer fp) {
+            final Thread thread = vmThread.javaThread();
+            if (thread instanceof Spinner) {
+                ((Spinner) thread).handshaked = true;
+            } else {
+                ((Sleeper) thread).handshaked = true;
+            }
+            if (nest && nestedRuns == 0) {
+                // Freezes the threads still waiting for this handshake without disarming them.
+                final VmOperation nested = new VmOperation("NestedInHandshake", null, Mode.Safepoint) {
+                    @Override
+                    protected void doIt() {
+                        nestedRuns++;
+                    }
+                };
+                nested.submit();
+            }
+        }
+    }
+
+    /**
+     * A safepoint operation in which a handshake is nested, and therefore run like a safepoint operation.
+     */
+    static class EnclosingSafepoint extends VmOperation {
+        final MarkingHandshake handshake = new MarkingHandshake(false);
+
+        EnclosingSafepoint() {
+            super("EnclosingSafepoint", null, Mode.Safepoint);
+        }
+
+        @Override
+        protected void doIt() {
+            handshake.submit();
+        }
+    }
+
+    static Spinner[] spinners = new Spinner[SPINNERS];
+    static Sleeper sleeper = new Sleeper();
+
+    private static void resetHandshaked() {
+        for (Spinner spinner : spinners) {
+            spinner.handshaked = false;
+        }
+        sleeper.handshaked = false;
+    }
+
+    private static boolean allHandshaked() {
+        for (Spinner spinner : spinners) {
+            if (!spinner.handshaked) {
+                return false;
+            }
+        }
+        return sleeper.handshaked;
+    }
+
+    /**
+     * Checks that every spinner runs after an operation.
+     */
+    private static boolean spinnersRunning() throws InterruptedException {
+        final long[] counters = new long[SPINNERS];
+        for (int i = 0; i < SPINNERS; i++) {
+            counters[i] = spinners[i].counter;
+        }
+        Thread.sleep(50);
+        for (int i = 0; i < SPINNERS; i++) {
+            if (spinners[i].counter == counters[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public static void main(String[] args) throws InterruptedException {
+        final ClassMethodActor spinnerRun = ClassMethodActor.fromJava(Classes.getDeclaredMethod(Spinner.class, "run"));
+        final TargetMethod spinnerRunTM = spinnerRun.makeTargetMethod(Nature.OPT);
+        for (int i = 0; i < SPINNERS; i++) {
+            spinners[i] = new Spinner(i);
+            spinners[i].start();
+        }
+        sleeper.start();
+        final Object lock = new Object();
+        final Biaser biaser = new Biaser(lock);
+        biaser.start();
+        while (!biaser.locked) {
+            Thread.sleep(10);
+        }
+        Thread.sleep(50);
+
+        // Revokes the bias of the biaser, if any, in a handshake with it.
+        for (int i = 0; i < 10; i++) {
+            synchronized (lock) {
+                Thread.sleep(1);
+            }
+        }
+        System.out.println("bias revoked, spinners running: " + spinnersRunning());
+
+        // Patches the return addresses of the spinners in a handshake with each of them.
+        new Deoptimization(new ArrayList<TargetMethod>(Arrays.asList(spinnerRunTM))).go();
+        System.out.println("deoptimized, spinners running: " + spinnersRunning());
+
+        resetHandshaked();
+        new MarkingHandshake(false).submit();
+        System.out.println("handshake: all handshaked: " + allHandshaked() + ", spinners running: " + spinnersRunning());
+
+        resetHandshaked();
+        final MarkingHandshake handshake = new MarkingHandshake(true);
+        handshake.submit();
+        System.out.println("operation nested in handshake: all handshaked: " + allHandshaked() + ", nested runs: " + handshake.nestedRuns +
+                        ", spinners running: " + spinnersRunning());
+
+        resetHandshaked();
+        new EnclosingSafepoint().submit();
+        System.out.println("handshake nested in safepoint: all handshaked: " + allHandshaked() + ", spinners running: " + spinnersRunning());
+
+        stop = true;
+        for (Spinner spinner : spinners) {
+            spinner.join();
+        }
+        sleeper.join();
+        biaser.join();
+        System.out.println("done.");
+    }
+}
@@ -0,0 +1,76 @@
+/*
+ * Copyright (c) 2012, Oracle and/or its affiliates. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * Please contact Oracle, 500 Oracle Parkway, Redwood Shores, CA 94065 USA
+ * or visit www.oracle.com if you need additional information or have any
+ * questions.
+ */
+package test.vm.output;
+
+/**
+ * Starts more threads, one after the other, than the {@code -XX:ThreadPoolSize} the vm-output image is built with,
+ * so that most of them run on the native thread of a terminated thread. Each thread overflows its stack, which
+ * checks that the guard zones and thread locals of a reused native thread are set up again.
+ */
+public class ThreadPoolReuse {
+
+    private static final int THREADS = 16;
+
+    static int depth;
+
+    private static void recurse() {
+        depth++;
+        recurse();
+    }
+
+    static class Worker extends Thread {
+        final int index;
+        final ThreadLocal<Integer> local = new ThreadLocal<Integer>();
+        String result;
+
+        Worker(int index) {
+            super("Worker-" + index);
+            this.index = index;
+        }
+
+        @Override
+        public void run() {
+            local.set(index);
+            try {
+                recurse();
+                result = "no stack overflow";
+            } catch (StackOverflowError e) {
+                result = "caught " + e.getClass().getName();
+            }
+            if (local.get() != index) {
+                result = "lost thread local";
+            }
+        }
+    }
+
+    public static void main(String[] args) throws InterruptedException {
+        for (int i = 0; i < THREADS; i++) {
+            Worker worker = new Worker(i);
+            worker.start();
+            worker.join();
+            System.out.println(worker.getName() + ": " + worker.result);
+            // Let the native thread of the worker park in the pool before the next thread is started
+            Thread.sleep(10);
+        }
+    }
+}
@@ -208,6 +208,121 @@ public final class Memory {
         assert i.equals(numberOfBytes);
     }
 
+    /**
+     * Copies elements between two possibly overlapping areas of memory. Elements are moved a word at a time
+     * when the two areas have the same alignment modulo the word size, and one at a time otherwise, so that
+     * no element is torn by a concurrent reader.
+     *
+     * @param fromPointer start of the area to copy from, aligned to {@code elementSize}
+     * @param toPointer start of the area to copy to, aligned to {@code elementSize}
+     * @param numberOfBytes number of bytes to copy, a multiple of {@code elementSize}
+     * @param elementSize the size of the elements in bytes: 1, 2, 4 or 8
+     */
+    @NO_SAFEPOINT_POLLS("speed, and used to copy array elements in place")
+    public static void moveBytes(Pointer fromPointer, Pointer toPointer, Size numberOfBytes, int elementSize) {
+        final Offset end = numberOfBytes.asOffset();
+        final boolean coaligned = elementSize <= Word.size() && fromPointer.minus(toPointer).isAligned(Word.size());
+        if (toPointer.lessEqual(fromPointer) || toPointer.greaterEqual(fromPointer.plus(numberOfBytes))) {
+            Offset i = Offset.zero();
+            if (coaligned) {
+                Offset head = fromPointer.wordAligned().minus(fromPointer).asOffset();
+                if (head.greaterThan(end)) {
+                    head = end;
+                }
+                moveElementsForward(fromPointer, toPointer, i, head, elementSize);
+                i = head;
+                final Offset wordEnd = end.minus(Word.size());
+                while (i.lessEqual(wordEnd)) {
+                    toPointer.writeWord(i, fromPointer.readWord(i));
+                    i = i.plus(Word.size());
+                }
+            }
+            moveElementsForward(fromPointer, toPointer, i, end, elementSize);
+        } else {
+            // The areas overlap and the destination is above the source: copy backward.
+            Offset i = end;
+            if (coaligned) {
+                Offset tail = fromPointer.plus(end).alignDown(Word.size()).minus(fromPointer).asOffset();
+                if (tail.lessThan(0)) {
+                    tail = Offset.zero();
+                }
+                moveElementsBackward(fromPointer, toPointer, tail, i, elementSize);
+                i = tail;
+                while (i.greaterEqual(Word.size())) {
+                    i = i.minus(Word.size());
+                    toPointer.writeWord(i, fromPointer.readWord(i));
+                }
+            }
+            moveElementsBackward(fromPointer, toPointer, Offset.zero(), i, elementSize);
+        }
+    }
+
+    /**
+     * Copies the elements between offsets {@code start} and {@code end} in increasing order of address.
+     */
+    @NO_SAFEPOINT_POLLS("speed, and used to copy array elements in place")
+    private static void moveElementsForward(Pointer fromPointer, Pointer toPointer, Offset start, Offset end, int elementSize) {
+        Offset i = start;
+        switch (elementSize) {
+            case 1:
+                while (i.lessThan(end)) {
+                    toPointer.writeByte(i, fromPointer.readByte(i));
+                    i = i.plus(1);
+                }
+                break;
+            case 2:
+                while (i.lessThan(end)) {
+                    toPointer.writeShort(i, fromPointer.readShort(i));
+                    i = i.plus(2);
+                }
+                break;
+            case 4:
+                while (i.lessThan(end)) {
+                    toPointer.writeInt(i, fromPointer.readInt(i));
+                    i = i.plus(4);
+                }
+                break;
+            default:
+                while (i.lessThan(end)) {
+                    toPointer.writeLong(i, fromPointer.readLong(i));
+                    i = i.plus(8);
+                }
+        }
+    }
+
+    /**
+     * Copies the elements between offsets {@code start} and {@code end} in decreasing order of address.
+     */
+    @NO_SAFEPOINT_POLLS("speed, and used to copy array elements in place")
+    private static void moveElementsBackward(Pointer fromPointer, Pointer toPointer, Offset start, Offset end, int elementSize) {
+        Offset i = end;
+        switch (elementSize) {
+            case 1:
+                while (i.greaterThan(start)) {
+                    i = i.minus(1);
+                    toPointer.writeByte(i, fromPointer.readByte(i));
+                }
+                break;
+            case 2:
+                while (i.greaterThan(start)) {
+                    i = i.minus(2);
+                    toPointer.writeShort(i, fromPointer.readShort(i));
+                }
+                break;
+            case 4:
+                while (i.greaterThan(start)) {
+                    i = i.minus(4);
+                    toPointer.writeInt(i, fromPointer.readInt(i));
+                }
+                break;
+            default:
+                while (i.greaterThan(start)) {
+                    i = i.minus(8);
+                    toPointer.writeLong(i, fromPointer.readLong(i));
+                }
+        }
+    }
+
     @NO_SAFEPOINT_POLLS("speed")
     public static void readBytes(Pointer fromPointer, int numberOfBytes, byte[] toArray, int startIndex) {
         for (int i = 0; i < numberOfBytes; i++) {
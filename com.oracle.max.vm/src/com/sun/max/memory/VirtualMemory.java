@@ -28,6 +28,7 @@ import static com.sun.max.vm.intrinsics.MaxineIntrinsicIDs.*;
 import java.io.*;
 
 import com.sun.max.annotate.*;
+import com.sun.max.lang.*;
 import com.sun.max.platform.*;
 import com.sun.max.profile.*;
 import com.sun.max.unsafe.*;
@@ -46,10 +47,29 @@ import com.sun.max.vm.MaxineVM.Phase;
  */
 public final class VirtualMemory {
     private static boolean TraceAnonOperations = false;
+    private static boolean LazyDiscard = false;
+    private static boolean UseLargePages = false;
+    private static boolean UseTransparentHugePages = false;
     static {
         VMOptions.addFieldOption("-XX:", "TraceAnonOperations", VirtualMemory.class, "TraceAnonOperations", Phase.PRISTINE);
+        VMOptions.addFieldOption("-XX:", "LazyDiscard", VirtualMemory.class,
+                        "Let the OS reclaim the pages of discarded memory when it runs short of memory, if supported", Phase.PRISTINE);
+        VMOptions.addFieldOption("-XX:", "UseLargePages", VirtualMemory.class,
+                        "Back the heap, the code cache and their side tables with explicit large pages, if available", Phase.PRISTINE);
+        VMOptions.addFieldOption("-XX:", "UseTransparentHugePages", VirtualMemory.class,
+                        "Back the heap, the code cache and their side tables with transparent huge pages, if available", Phase.PRISTINE);
     }
 
+    /**
+     * Size of the large pages requested with {@code -XX:+UseLargePages} or {@code -XX:+UseTransparentHugePages}.
+     */
+    public static final int LARGE_PAGE_SIZE = 2 * Ints.M;
+
+    /**
+     * Set once a request for explicit large pages failed. Further requests fall back to transparent huge pages.
+     */
+    private static boolean largePagesUnavailable;
+
     public enum Type {
         HEAP,   // for the garbage collected heap
         STACK,  // for thread stacks
@@ -168,12 +188,14 @@ public final class VirtualMemory {
     private static final TimerMetric commitMemoryTime = new TimerMetric(new SingleUseTimer(Clock.SYSTEM_MILLISECONDS));
     private static final TimerMetric uncommitMemoryTime = new TimerMetric(new SingleUseTimer(Clock.SYSTEM_MILLISECONDS));
     private static final TimerMetric deallocateMemoryTime = new TimerMetric(new SingleUseTimer(Clock.SYSTEM_MILLISECONDS));
+    private static final TimerMetric discardMemoryTime = new TimerMetric(new SingleUseTimer(Clock.SYSTEM_MILLISECONDS));
 
     public static void reportMetrics() {
         reserveMemoryTime.report("VirtualMemory.reserveMemory", Log.out);
         commitMemoryTime.report("VirtualMemory.commitMemory", Log.out);
         uncommitMemoryTime.report("VirtualMemory.uncommitMemory", Log.out);
         deallocateMemoryTime.report("VirtualMemory.deallocate", Log.out);
+        discardMemoryTime.report("VirtualMemory.discardMemory", Log.out);
         allocateMemoryTime.report("VirtualMemory.allocate", Log.out);
         allocateAtFixedAddressTime.report("VirtualMemory.allocateAtFixedAddress", Log.out);
     }
@@ -208,8 +230,15 @@ public final class VirtualMemory {
         }
         commitMemoryTime.start();
         final Pointer committed = virtualMemory_allocatePrivateAnon(address, size, true, false, type.ordinal());
+        if (committed.equals(address)) {
+            if (type != Type.STACK) {
+                backWithLargePages(address, size, type, true);
+            }
+            commitMemoryTime.stop();
+            return true;
+        }
         commitMemoryTime.stop();
-        return committed.equals(address);
+        return false;
     }
 
     public static boolean uncommitMemory(Address address, Size size, Type type) {
@@ -226,6 +255,91 @@ public final class VirtualMemory {
         return !uncommitted.isZero();
     }
 
+    /**
+     * Releases the physical memory backing a range of committed virtual memory to the OS, without uncommitting the range.
+     * Unlike {@link #uncommitMemory(Address, Size, Type)}, the range remains accessible and doesn't need to be committed again:
+     * the OS backs its pages again on first access. The content of the range is lost. Pages read as zero on next access, unless
+     * {@code -XX:+LazyDiscard} is set, in which case they may keep their content until the OS reclaims them.
+     *
+     * @param address page aligned start of the range
+     * @param size size of the range, in bytes
+     * @param type type of memory
+     * @return true if the memory was released, false otherwise
+     */
+    public static boolean discardMemory(Address address, Size size, Type type) {
+        if (address.isZero()) {
+            return false;
+        }
+        if (TraceAnonOperations) {
+            traceRange("discardMemory", address, size);
+        }
+        discardMemoryTime.start();
+        final boolean discarded = virtualMemory_discard(address, size, LazyDiscard, type.ordinal());
+        discardMemoryTime.stop();
+        return discarded;
+    }
+
+    @C_FUNCTION
+    private static native boolean virtualMemory_discard(Address start, Size size, boolean lazily, int type);
+
+    /**
+     * Indicates whether large pages were requested for the heap, the code cache and their side tables.
+     * @return true if either {@code -XX:+UseLargePages} or {@code -XX:+UseTransparentHugePages} is set
+     */
+    @INLINE
+    public static boolean usesLargePages() {
+        return UseLargePages || UseTransparentHugePages;
+    }
+
+    /**
+     * Alignment that ranges of memory must have to be backed with large pages.
+     * @return the {@linkplain #LARGE_PAGE_SIZE large page size} if large pages are used, the platform's page size otherwise
+     */
+    public static int largePageAlignment() {
+        return usesLargePages() ? LARGE_PAGE_SIZE : Platform.platform().pageSize;
+    }
+
+    /**
+     * Backs the part of a range of committed memory aligned to the {@linkplain #LARGE_PAGE_SIZE large page size} with large pages,
+     * if large pages are used. Explicit large pages are requested only if the range holds no data yet, as the range is mapped anew.
+     * Transparent huge pages are requested otherwise, or if explicit large pages are unavailable. Nothing is done if
+     * the OS supports neither: the range stays backed with normal pages.
+     *
+     * @param address start of the range
+     * @param size size of the range, in bytes
+     * @param type type of memory
+     * @param fresh true if the range doesn't hold any data yet
+     * @return true if the range is backed with large pages
+     */
+    public static boolean backWithLargePages(Address address, Size size, Type type, boolean fresh) {
+        if (!usesLargePages()) {
+            return false;
+        }
+        final Address start = address.alignUp(LARGE_PAGE_SIZE);
+        final Address end = address.plus(size).alignDown(LARGE_PAGE_SIZE);
+        if (end.lessEqual(start)) {
+            return false;
+        }
+        final Size largePagesSize = end.minus(start).asSize();
+        if (TraceAnonOperations) {
+            traceRange("backWithLargePages", start, largePagesSize);
+        }
+        if (UseLargePages && fresh && !largePagesUnavailable) {
+            if (virtualMemory_commitLargePages(start, largePagesSize, type.ordinal())) {
+                return true;
+            }
+            largePagesUnavailable = true;
+            Log.println("WARNING: explicit large pages unavailable, falling back to transparent huge pages");
+        }
+        return virtualMemory_adviseHugePages(start, largePagesSize, type.ordinal());
+    }
+
+    @C_FUNCTION
+    private static native boolean virtualMemory_commitLargePages(Address start, Size size, int type);
+
+    @C_FUNCTION
+    private static native boolean virtualMemory_adviseHugePages(Address start, Size size, int type);
+
     /**
      * Return the amount of physical memory (in bytes) of the underlying platform.
      * @return amount of physical memory in bytes
@@ -38,8 +38,10 @@ import com.sun.max.vm.bytecode.graft.*;
 import com.sun.max.vm.classfile.*;
 import com.sun.max.vm.classfile.constant.*;
 import com.sun.max.vm.compiler.RuntimeCompiler.*;
+import com.sun.max.vm.compiler.deopt.*;
 import com.sun.max.vm.compiler.target.*;
 import com.sun.max.vm.jni.*;
+import com.sun.max.vm.profile.*;
 import com.sun.max.vm.object.ObjectAccess;
 import com.sun.max.vm.runtime.FatalError;
 import com.sun.max.vm.type.*;
@@ -405,6 +407,36 @@ public abstract class ClassMethodActor extends MethodActor {
         return Compilations.currentTargetMethod(compiledState, null);
     }
 
+    /**
+     * Gets the profile collected by the current baseline compilation of this method.
+     *
+     * @return {@code null} if there is no baseline compilation of this method or if it isn't profiled
+     */
+    public final MethodProfile baselineProfile() {
+        TargetMethod tm = Compilations.currentTargetMethod(compiledState, Nature.BASELINE);
+        if (tm == null || tm.profile() == null || tm.profile().rawData() == null) {
+            return null;
+        }
+        return tm.profile();
+    }
+
+    /**
+     * Gets the baseline profile of this method if the optimizing compiler may still speculate on it.
+     *
+     * @param deoptReasonId the deoptimization reason recorded when the speculation fails
+     * @return {@code null} if the speculation has failed {@link Deoptimization#SpeculationFailureLimit} times already
+     */
+    private MethodProfile speculativeProfile(int deoptReasonId) {
+        if (MaxineVM.isHosted() || !Deoptimization.UseDeopt) {
+            return null;
+        }
+        MethodProfile profile = baselineProfile();
+        if (profile == null || profile.getDeoptimizationCount(deoptReasonId) >= Deoptimization.SpeculationFailureLimit) {
+            return null;
+        }
+        return profile;
+    }
+
     /**
      * Records if this object returned {@code true} for a call to {@link #canBePermanentlyLinked()} during
      * boot image building.
@@ -527,4 +559,81 @@ public abstract class ClassMethodActor extends MethodActor {
     public RiConstantPool getConstantPool() {
         return compilee().codeAttribute().cp;
     }
+
+    @Override
+    public RiTypeProfile typeProfile(int bci) {
+        MethodProfile profile = speculativeProfile(MethodProfile.TYPE_CHECKED_INLINING_VIOLATED_REASON_ID);
+        if (profile == null) {
+            return null;
+        }
+        Integer[] typeProfile = profile.getTypeProfile(bci);
+        if (typeProfile == null) {
+            return null;
+        }
+        int entries = typeProfile.length / 2;
+        int typesNum = 0;
+        long totalCount = 0;
+        for (int i = 0; i < entries; i++) {
+            totalCount += typeProfile[i * 2 + 1];
+            if (typeProfile[i * 2] != MethodProfile.UNDEFINED_TYPE_ID) {
+                typesNum++;
+            }
+        }
+        if (totalCount <= 0) {
+            return null;
+        }
+        // the probabilities of the recorded types add up to less than 1 if other types were seen
+        RiTypeProfile result = new RiTypeProfile();
+        result.count = (int) Math.min(totalCount, Integer.MAX_VALUE);
+        result.morphism = entries;
+        result.types = new RiResolvedType[typesNum];
+        result.probabilities = new float[typesNum];
+        int j = 0;
+        for (int i = 0; i < entries; i++) {
+            int typeId = typeProfile[i * 2];
+            if (typeId != MethodProfile.UNDEFINED_TYPE_ID) {
+                result.types[j] = ClassIDManager.toClassActor(typeId);
+                result.probabilities[j] = (float) (typeProfile[i * 2 + 1] / (double) totalCount);
+                j++;
+            }
+        }
+        return result;
+    }
+
+    @Override
+    public double branchProbability(int bci) {
+        MethodProfile profile = speculativeProfile(MethodProfile.UNREACHED_CODE_REASON_ID);
+        if (profile == null) {
+            return -1;
+        }
+        return profile.getBranchTakenProbability(bci);
+    }
+
+    @Override
+    public int branchCount(int bci) {
+        MethodProfile profile = speculativeProfile(MethodProfile.UNREACHED_CODE_REASON_ID);
+        if (profile == null) {
+            return -1;
+        }
+        Integer[] branchCounts = profile.getBranchCounts(bci);
+        if (branchCounts == null) {
+            return -1;
+        }
+        long count = 0;
+        for (Integer c : branchCounts) {
+            if (c != null) {
+                count += c;
+            }
+        }
+        return (int) Math.min(count, Integer.MAX_VALUE);
+    }
+
+    @Override
+    public double[] switchProbability(int bci) {
+        MethodProfile profile = speculativeProfile(MethodProfile.UNREACHED_CODE_REASON_ID);
+        if (profile == null) {
+            return null;
+        }
+        return profile.getSwitchProbabilities(bci);
+    }
 }
@@ -617,6 +617,10 @@ public abstract class MethodActor extends MemberActor implements RiResolvedMetho
         return -1;
     }
 
+    public int branchCount(int bci) {
+        return -1;
+    }
+
     public double[] switchProbability(int bci) {
         return null;
     }
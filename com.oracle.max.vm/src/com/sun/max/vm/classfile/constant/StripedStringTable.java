@@ -0,0 +1,282 @@
+/*
+ * Copyright (c) 2012, Oracle and/or its affiliates. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * Please contact Oracle, 500 Oracle Parkway, Redwood Shores, CA 94065 USA
+ * or visit www.oracle.com if you need additional information or have any
+ * questions.
+ */
+package com.sun.max.vm.classfile.constant;
+
+import java.util.concurrent.atomic.*;
+
+import com.sun.max.vm.*;
+
+/**
+ * A concurrent hash table of canonical entries identified by a string. Used for the {@linkplain SymbolTable symbol table}
+ * and for the table of interned strings.
+ * <p>
+ * The table is split into segments. The high bits of the string's hash select the segment. Each segment is an
+ * open addressing table with linear probing.
+ * <ul>
+ * <li>Lookups take no lock. They probe the segment's current array of slots, and slots are read and written with volatile semantics.</li>
+ * <li>Insertions are serialized per segment, so threads inserting different strings seldom contend.</li>
+ * <li>A segment grows by copying its entries into a larger array, which then replaces the old one. Readers still probing
+ * the old array carry on: it keeps every entry inserted before the copy.</li>
+ * </ul>
+ * Entries may be cleared (see {@link #key(Object)}). Insertions reuse the slots of cleared entries, and copying a segment
+ * drops them.
+ *
+ * @param <E> type of the entries of the table
+ */
+abstract class StripedStringTable<E> {
+
+    private static final int LOG2_NUMBER_OF_SEGMENTS = 6;
+
+    private static final int MIN_SEGMENT_LENGTH = 16;
+
+    static final class Segment<E> {
+        /**
+         * The slots of the segment. The length is a power of two, and at least one slot is always empty.
+         */
+        volatile AtomicReferenceArray<E> slots;
+
+        /**
+         * Number of threads inserting in the segment, including the one holding the segment's lock.
+         */
+        final AtomicInteger writers = new AtomicInteger();
+
+        /**
+         * Number of non-empty slots, including the slots of cleared entries.
+         * The counters below it are only updated with the segment locked.
+         */
+        int occupied;
+        int insertions;
+        int contendedInsertions;
+        int resizes;
+        int purged;
+
+        Segment(int length) {
+            slots = new AtomicReferenceArray<E>(length);
+        }
+    }
+
+    private final Segment<E>[] segments;
+
+    @SuppressWarnings("unchecked")
+    StripedStringTable(int expectedEntries) {
+        final int numberOfSegments = 1 << LOG2_NUMBER_OF_SEGMENTS;
+        final int entriesPerSegment = expectedEntries / numberOfSegments;
+        int length = MIN_SEGMENT_LENGTH;
+        while (length * 3 < entriesPerSegment * 4) {
+            length <<= 1;
+        }
+        segments = new Segment[numberOfSegments];
+        for (int i = 0; i < numberOfSegments; i++) {
+            segments[i] = new Segment<E>(length);
+        }
+    }
+
+    /**
+     * Gets the string identifying an entry.
+     *
+     * @return the string identifying {@code entry}, or null if the entry was cleared
+     */
+    protected abstract String key(E entry);
+
+    /**
+     * Scrambles the hash of a string so that the high bits used to select a segment depend on all the bits of the hash.
+     * Short strings have small hashes.
+     */
+    private static int hash(String key) {
+        final int h = key.hashCode() * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+
+    private Segment<E> segment(int hash) {
+        return segments[hash >>> (Integer.SIZE - LOG2_NUMBER_OF_SEGMENTS)];
+    }
+
+    /**
+     * Looks up the entry identified by a given string, without locking.
+     *
+     * @return the entry identified by {@code key}, or null if there is none
+     */
+    final E get(String key) {
+        final int hash = hash(key);
+        final AtomicReferenceArray<E> slots = segment(hash).slots;
+        final int mask = slots.length() - 1;
+        int i = hash & mask;
+        E entry;
+        while ((entry = slots.get(i)) != null) {
+            final String k = key(entry);
+            if (k == key || (k != null && k.equals(key))) {
+                return entry;
+            }
+            i = (i + 1) & mask;
+        }
+        return null;
+    }
+
+    /**
+     * Adds an entry unless the table already has an entry identified by the same string.
+     *
+     * @param key the string identifying {@code newEntry}
+     * @param newEntry the entry to add
+     * @return the entry identified by {@code key} in the table, which is {@code newEntry} if it was added
+     */
+    final E putIfAbsent(String key, E newEntry) {
+        final int hash = hash(key);
+        final Segment<E> segment = segment(hash);
+        final boolean contended = segment.writers.getAndIncrement() != 0;
+        try {
+            synchronized (segment) {
+                if (contended) {
+                    segment.contendedInsertions++;
+                }
+                AtomicReferenceArray<E> slots = segment.slots;
+                int mask = slots.length() - 1;
+                int i = hash & mask;
+                int firstCleared = -1;
+                E entry;
+                while ((entry = slots.get(i)) != null) {
+                    final String k = key(entry);
+                    if (k == null) {
+                        if (firstCleared < 0) {
+                            firstCleared = i;
+                        }
+                    } else if (k == key || k.equals(key)) {
+                        return entry;
+                    }
+                    i = (i + 1) & mask;
+                }
+                segment.insertions++;
+                if (firstCleared >= 0) {
+                    // Readers looking for another string just probe past the reused slot.
+                    slots.set(firstCleared, newEntry);
+                    return newEntry;
+                }
+                if ((segment.occupied + 1) * 4 > slots.length() * 3) {
+                    slots = copy(segment);
+                    mask = slots.length() - 1;
+                    i = hash & mask;
+                    while (slots.get(i) != null) {
+                        i = (i + 1) & mask;
+                    }
+                    slots.set(i, newEntry);
+                    segment.occupied++;
+                    segment.slots = slots;
+                } else {
+                    slots.set(i, newEntry);
+                    segment.occupied++;
+                }
+                return newEntry;
+            }
+        } finally {
+            segment.writers.decrementAndGet();
+        }
+    }
+
+    /**
+     * Copies the entries of a segment that aren't cleared into a new array at most half full.
+     * The segment must be locked. The new array isn't published to readers.
+     */
+    private AtomicReferenceArray<E> copy(Segment<E> segment) {
+        final AtomicReferenceArray<E> slots = segment.slots;
+        int live = 0;
+        for (int i = 0; i < slots.length(); i++) {
+            final E entry = slots.get(i);
+            if (entry != null && key(entry) != null) {
+                live++;
+            }
+        }
+        int length = MIN_SEGMENT_LENGTH;
+        while (length < (live + 1) * 2) {
+            length <<= 1;
+        }
+        final AtomicReferenceArray<E> newSlots = new AtomicReferenceArray<E>(length);
+        final int mask = length - 1;
+        int copied = 0;
+        for (int i = 0; i < slots.length(); i++) {
+            final E entry = slots.get(i);
+            if (entry != null) {
+                final String k = key(entry);
+                if (k != null) {
+                    int j = hash(k) & mask;
+                    while (newSlots.get(j) != null) {
+                        j = (j + 1) & mask;
+                    }
+                    newSlots.set(j, entry);
+                    copied++;
+                }
+            }
+        }
+        segment.purged += segment.occupied - copied;
+        segment.occupied = copied;
+        segment.resizes++;
+        return newSlots;
+    }
+
+    /**
+     * Gets the number of entries in the table, including cleared entries that haven't been purged yet.
+     * The result is approximate if the table is being updated.
+     */
+    final int size() {
+        int size = 0;
+        for (Segment<E> segment : segments) {
+            size += segment.occupied;
+        }
+        return size;
+    }
+
+    /**
+     * Prints the size and contention statistics of the table on the {@linkplain Log log stream}.
+     *
+     * @param name the name of the table
+     */
+    final void printStats(String name) {
+        int capacity = 0;
+        long insertions = 0;
+        long contendedInsertions = 0;
+        long resizes = 0;
+        long purged = 0;
+        for (Segment<E> segment : segments) {
+            capacity += segment.slots.length();
+            insertions += segment.insertions;
+            contendedInsertions += segment.contendedInsertions;
+            resizes += segment.resizes;
+            purged += segment.purged;
+        }
+        final boolean lockDisabled = Log.lock();
+        Log.print(name);
+        Log.print(": entries=");
+        Log.print(size());
+        Log.print(", capacity=");
+        Log.print(capacity);
+        Log.print(", segments=");
+        Log.print(segments.length);
+        Log.print(", insertions=");
+        Log.print(insertions);
+        Log.print(", contended insertions=");
+        Log.print(contendedInsertions);
+        Log.print(", resizes=");
+        Log.print(resizes);
+        Log.print(", purged=");
+        Log.println(purged);
+        Log.unlock(lockDisabled);
+    }
+}
@@ -23,52 +23,41 @@
 package com.sun.max.vm.classfile.constant;
 
 import java.io.*;
+import java.lang.ref.*;
 
-import com.sun.max.collect.*;
-import com.sun.max.collect.ChainedHashMapping.Entry;
 import com.sun.max.vm.*;
+import com.sun.max.vm.MaxineVM.Phase;
 
 /**
  * Implementation of symbol and String interning, the latter of which is a Java language requirement.
- *
+ * <p>
+ * Both are backed by {@link StripedStringTable}s, so that lookups never lock and insertions only contend with
+ * insertions of strings in the same segment. Symbols live as long as the VM. Interned strings are held weakly, so that
+ * strings interned by the application can be collected once unreachable. A string interned at run time is interned before
+ * the symbol with the same value is created, so that {@link #intern(String)} and the string of the symbol are identical.
+ * The strings of the symbols in the boot image are interned lazily.
  */
 public final class SymbolTable {
 
+    private static boolean PrintSymbolTableStats;
+    static {
+        VMOptions.addFieldOption("-XX:", "PrintSymbolTableStats", SymbolTable.class,
+                        "Print the size and contention statistics of the symbol and interned string tables at end of program.", Phase.PRISTINE);
+    }
+
     private SymbolTable() {
     }
 
     /**
      * The only concrete subclass of {@link Utf8Constant}.
-     * Using a subclass hides the details of storing Utf8Constants in a {@link ChainedHashMapping}.
+     * Using a subclass hides the details of storing Utf8Constants in the symbol table.
      */
-    static final class Utf8ConstantEntry extends Utf8Constant implements ChainedHashMapping.Entry<String, Utf8ConstantEntry> {
+    static final class Utf8ConstantEntry extends Utf8Constant {
 
         Utf8ConstantEntry(String value) {
             super(value);
         }
 
-        public String key() {
-            return toString();
-        }
-
-        private Entry<String, Utf8ConstantEntry> next;
-
-        public Entry<String, Utf8ConstantEntry> next() {
-            return next;
-        }
-
-        public void setNext(Entry<String, Utf8ConstantEntry> next) {
-            this.next = next;
-        }
-
-        public void setValue(Utf8ConstantEntry value) {
-            assert value == this;
-        }
-
-        public Utf8ConstantEntry value() {
-            return this;
-        }
-
         @Override
         public void writeOn(DataOutputStream stream, ConstantPoolEditor editor, int index) throws IOException {
             super.writeOn(stream, editor, index);
@@ -76,39 +65,83 @@ public final class SymbolTable {
         }
     }
 
+    private static final StripedStringTable<Utf8ConstantEntry> symbolTable = new StripedStringTable<Utf8ConstantEntry>(40000) {
+        @Override
+        protected String key(Utf8ConstantEntry entry) {
+            return entry.toString();
+        }
+    };
+
     /**
-     * Searching and adding entries to this map is only performed by {@linkplain #makeSymbol(String) one method} which
-     * is synchronized.
+     * Strings interned at run time. Empty in the boot image, as strings are interned by the host VM when hosted.
      */
-    private static final ChainingValueChainedHashMapping<String, Utf8ConstantEntry> symbolTable = new ChainingValueChainedHashMapping<String, Utf8ConstantEntry>(40000);
+    private static final StripedStringTable<WeakReference<String>> stringTable = new StripedStringTable<WeakReference<String>>(0) {
+        @Override
+        protected String key(WeakReference<String> entry) {
+            return entry.get();
+        }
+    };
 
     public static final Utf8Constant INIT = makeSymbol("<init>");
     public static final Utf8Constant CLINIT = makeSymbol("<clinit>");
     public static final Utf8Constant FINALIZE = makeSymbol("finalize");
 
     public static int length() {
-        return symbolTable.length();
+        return symbolTable.size();
     }
 
-    public static synchronized Utf8Constant lookupSymbol(String value) {
+    public static Utf8Constant lookupSymbol(String value) {
         return symbolTable.get(value);
     }
 
-    public static synchronized Utf8Constant makeSymbol(String value) {
+    public static Utf8Constant makeSymbol(String value) {
         Utf8ConstantEntry utf8 = symbolTable.get(value);
         if (utf8 == null) {
             if (MaxineVM.isHosted()) {
                 // String interning is implemented with another data structure when running hosted
                 utf8 = new Utf8ConstantEntry(value.intern());
             } else {
-                utf8 = new Utf8ConstantEntry(value);
+                utf8 = new Utf8ConstantEntry(internString(value));
             }
-            symbolTable.put(value, utf8);
+            utf8 = symbolTable.putIfAbsent(value, utf8);
         }
         return utf8;
     }
 
     public static String intern(String value) {
-        return makeSymbol(value).toString();
+        if (MaxineVM.isHosted()) {
+            return makeSymbol(value).toString();
+        }
+        return internString(value);
+    }
+
+    private static String internString(String value) {
+        final WeakReference<String> ref = stringTable.get(value);
+        if (ref != null) {
+            final String interned = ref.get();
+            if (interned != null) {
+                return interned;
+            }
+        }
+        // The string of a symbol of the boot image must be the one interned.
+        final Utf8ConstantEntry utf8 = symbolTable.get(value);
+        final String string = utf8 == null ? value : utf8.toString();
+        while (true) {
+            final String interned = stringTable.putIfAbsent(string, new WeakReference<String>(string)).get();
+            if (interned != null) {
+                return interned;
+            }
+            // The entry found was cleared since it was found: try again.
+        }
+    }
+
+    /**
+     * Prints the statistics of the symbol and interned string tables if {@code -XX:+PrintSymbolTableStats} is set.
+     */
+    public static void printStats() {
+        if (PrintSymbolTableStats) {
+            symbolTable.printStats("Symbol table");
+            stringTable.printStats("Interned string table");
+        }
     }
 }
@@ -578,8 +578,10 @@ public final class CodeEviction extends VmOperation {
             CodeManager.runtimeBaselineCodeRegion.doOldTargetMethods(vmtiUnload);
             CodeManager.runtimeBaselineCodeRegion.doNewTargetMethods(vmtiMove);
         }
+        PerfMapWriter.baselineCodeMoved();
 
         CodeManager.runtimeBaselineCodeRegion.resetFromSpace();
+        CodeManager.runtimeBaselineCodeRegion.releaseFromSpace();
         if (logging()) {
             codeEvictionLogger.logMove_Progress("FINISHED walking threads");
         }
@@ -309,6 +309,8 @@ public abstract class CodeManager {
 
         if (currentCodeRegion != null) {
             currentCodeRegion.add(targetMethod);
+            // Code allocated in the heap may be moved by the GC and isn't described to external profilers.
+            PerfMapWriter.methodAllocated(targetMethod);
         }
     }
 
@@ -21,7 +21,6 @@
 package com.sun.max.vm.code;
 
 import com.sun.max.memory.*;
-import com.sun.max.platform.*;
 import com.sun.max.program.*;
 import com.sun.max.unsafe.*;
 import com.sun.max.vm.*;
@@ -43,9 +42,10 @@ public class NearBootRegionCodeManager extends CodeManager {
      */
     @Override
     void initialize() {
-        final Address baselineAddress = Code.bootCodeRegion().end().alignUp(Platform.platform().pageSize);
+        // Align the code regions so that they can be backed with large pages if requested.
+        final Address baselineAddress = Code.bootCodeRegion().end().alignUp(VirtualMemory.largePageAlignment());
         tryAllocate(runtimeBaselineCodeRegionSize, runtimeBaselineCodeRegion, baselineAddress);
-        final Address optAddress = runtimeBaselineCodeRegion.end().alignUp(Platform.platform().pageSize);
+        final Address optAddress = runtimeBaselineCodeRegion.end().alignUp(VirtualMemory.largePageAlignment());
         tryAllocate(runtimeOptCodeRegionSize, runtimeOptCodeRegion, optAddress);
     }
 
@@ -54,6 +54,7 @@ public class NearBootRegionCodeManager extends CodeManager {
         if (!Heap.AvoidsAnonOperations && !VirtualMemory.allocateAtFixedAddress(address, size, VirtualMemory.Type.CODE)) {
             throw ProgramError.unexpected("could not allocate " + cr.regionName());
         }
+        VirtualMemory.backWithLargePages(address, size, VirtualMemory.Type.CODE, true);
         cr.bind(address, size);
     }
 }
@@ -0,0 +1,213 @@
+/*
+ * Copyright (c) 2012, Oracle and/or its affiliates. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * Please contact Oracle, 500 Oracle Parkway, Redwood Shores, CA 94065 USA
+ * or visit www.oracle.com if you need additional information or have any
+ * questions.
+ */
+package com.sun.max.vm.code;
+
+import java.io.*;
+import java.util.*;
+
+import com.sun.max.vm.*;
+import com.sun.max.vm.compiler.target.*;
+
+/**
+ * A daemon thread that writes the symbol map read by the Linux {@code perf} tools to resolve addresses in
+ * dynamically generated code, i.e. {@code /tmp/perf-<pid>.map}. Each line of the map gives the start address and the
+ * size, in hexadecimal, of the code of a target method followed by its name.
+ * <p>
+ * Compiler threads only queue the target methods allocated by the {@link CodeManager}; formatting and writing the
+ * map is done by this thread, every second or as soon as enough methods are queued. When a {@link CodeEviction}
+ * relocates baseline code, the entries of all the methods in the baseline code region are written again. Lines
+ * for evicted code are never removed from the map: {@code perf} uses the most recent entry covering an address.
+ * <p>
+ * Enabled with {@code -XX:+PerfMap}.
+ */
+public final class PerfMapWriter extends Thread {
+
+    static boolean PerfMap;
+    static {
+        VMOptions.addFieldOption("-XX:", "PerfMap", PerfMapWriter.class, "Write a /tmp/perf-<pid>.map file describing compiled code for the Linux perf tools.");
+    }
+
+    /**
+     * Number of queued methods above which the writer is woken up before its next periodic flush.
+     */
+    private static final int FLUSH_THRESHOLD = 256;
+
+    private static final long FLUSH_PERIOD_MS = 1000;
+
+    /**
+     * The writer thread, or {@code null} if the map isn't being written.
+     * Set while holding the {@link CodeManager} lock so that no allocated method is missed or written twice.
+     */
+    private static PerfMapWriter writer;
+
+    /**
+     * Methods allocated since the last flush. Also serves as the lock protecting itself.
+     */
+    private static ArrayList<TargetMethod> pending = new ArrayList<TargetMethod>();
+
+    /**
+     * Set by a code eviction that moved baseline methods, reset when their new addresses have been written.
+     */
+    private static volatile boolean baselineCodeMoved;
+
+    private final File file;
+
+    private Writer out;
+
+    private PerfMapWriter(File file) {
+        super("PerfMapWriter");
+        setDaemon(true);
+        this.file = file;
+    }
+
+    /**
+     * Starts the writer thread if {@code -XX:+PerfMap} was specified, and queues all the target methods allocated so far.
+     */
+    public static void startIfEnabled() {
+        if (!PerfMap || writer != null) {
+            return;
+        }
+        final PerfMapWriter perfMapWriter = new PerfMapWriter(new File("/tmp/perf-" + processID() + ".map"));
+        final CodeManager codeManager = Code.getCodeManager();
+        synchronized (codeManager) {
+            synchronized (pending) {
+                pending.addAll(Arrays.asList(Code.bootCodeRegion().copyOfTargetMethods()));
+                pending.addAll(Arrays.asList(CodeManager.runtimeOptCodeRegion.copyOfTargetMethods()));
+                pending.addAll(Arrays.asList(CodeManager.runtimeBaselineCodeRegion.copyOfTargetMethods()));
+            }
+            writer = perfMapWriter;
+        }
+        Runtime.getRuntime().addShutdownHook(new Thread("PerfMapWriter-shutdown") {
+            @Override
+            public void run() {
+                perfMapWriter.flush();
+            }
+        });
+        perfMapWriter.start();
+    }
+
+    /**
+     * Gets the process identifier used by {@code perf} to find the map, from the {@code /proc/self} link.
+     */
+    private static String processID() {
+        try {
+            return new File("/proc/self").getCanonicalFile().getName();
+        } catch (IOException e) {
+            return "unknown";
+        }
+    }
+
+    /**
+     * Queues a target method whose code has just been allocated.
+     * Called by the {@link CodeManager}, with its lock held.
+     */
+    static void methodAllocated(TargetMethod targetMethod) {
+        if (writer == null) {
+            return;
+        }
+        synchronized (pending) {
+            pending.add(targetMethod);
+            if (pending.size() >= FLUSH_THRESHOLD) {
+                pending.notifyAll();
+            }
+        }
+    }
+
+    /**
+     * Records that a code eviction moved the surviving baseline methods.
+     * Called by the VM operation thread: it must not allocate nor block on a lock.
+     */
+    static void baselineCodeMoved() {
+        if (writer != null) {
+            baselineCodeMoved = true;
+        }
+    }
+
+    @Override
+    public void run() {
+        while (true) {
+            synchronized (pending) {
+                if (pending.size() < FLUSH_THRESHOLD) {
+                    try {
+                        pending.wait(FLUSH_PERIOD_MS);
+                    } catch (InterruptedException e) {
+                    }
+                }
+            }
+            flush();
+        }
+    }
+
+    /**
+     * Writes the entries of all queued methods, and of all baseline methods if they were moved since the last flush.
+     */
+    private synchronized void flush() {
+        final TargetMethod[] allocated;
+        synchronized (pending) {
+            allocated = pending.toArray(new TargetMethod[pending.size()]);
+            pending.clear();
+        }
+        TargetMethod[] moved = null;
+        if (baselineCodeMoved) {
+            // Code eviction only happens while allocating, with the code manager lock held.
+            synchronized (Code.getCodeManager()) {
+                baselineCodeMoved = false;
+                moved = CodeManager.runtimeBaselineCodeRegion.copyOfTargetMethods();
+            }
+        }
+        if (allocated.length == 0 && moved == null) {
+            return;
+        }
+        try {
+            if (out == null) {
+                out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file, true)));
+            }
+            write(allocated);
+            if (moved != null) {
+                write(moved);
+            }
+            out.flush();
+        } catch (IOException e) {
+            Log.println("Error writing " + file + ": " + e);
+            PerfMap = false;
+            writer = null;
+        }
+    }
+
+    private void write(TargetMethod[] targetMethods) throws IOException {
+        for (TargetMethod targetMethod : targetMethods) {
+            if (targetMethod == null || targetMethod.codeLength() == 0) {
+                continue;
+            }
+            out.write(Long.toHexString(targetMethod.codeStart().toLong()));
+            out.write(' ');
+            out.write(Integer.toHexString(targetMethod.codeLength()));
+            out.write(' ');
+            out.write(targetMethod.toString());
+            if (targetMethod.isBaseline()) {
+                out.write(" [baseline]");
+            }
+            out.write('\n');
+        }
+    }
+}
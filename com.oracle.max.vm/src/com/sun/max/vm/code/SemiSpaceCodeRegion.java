@@ -20,9 +20,12 @@
  */
 package com.sun.max.vm.code;
 
+import java.lang.management.*;
 import java.util.*;
 
 import com.sun.max.annotate.*;
+import com.sun.max.memory.*;
+import com.sun.max.platform.*;
 import com.sun.max.program.*;
 import com.sun.max.unsafe.*;
 import com.sun.max.vm.*;
@@ -74,6 +77,11 @@ public final class SemiSpaceCodeRegion extends CodeRegion {
     @INSPECTED
     protected int fromLength;
 
+    /**
+     * Indicates whether the memory of from-space was given back to the OS since the last {@linkplain #flip() flip}.
+     */
+    private boolean fromSpaceReleased;
+
     /**
      * Binds this code region to some allocated memory range and sets the semi-space addresses.
      *
@@ -118,6 +126,7 @@ public final class SemiSpaceCodeRegion extends CodeRegion {
         int[] tmpIndex = findIndex;
         findIndex = fromFindIndex;
         fromFindIndex = tmpIndex;
+        fromSpaceReleased = false;
     }
 
     /**
@@ -235,6 +244,30 @@ public final class SemiSpaceCodeRegion extends CodeRegion {
         Arrays.fill(fromFindIndex, 0);
     }
 
+    /**
+     * Give the memory of from-space back to the OS. From-space must hold no live code, i.e., the
+     * {@linkplain #resetFromSpace() survivors of the last eviction must have been copied to to-space}.
+     * The pages are backed again when code is allocated in them after the next flip.
+     */
+    public void releaseFromSpace() {
+        final int pageSize = Platform.platform().pageSize;
+        final Address start = fromSpace.alignUp(pageSize);
+        final Address end = fromSpace.plus(spaceSize).alignDown(pageSize);
+        if (end.greaterThan(start) && VirtualMemory.discardMemory(start, end.minus(start).asSize(), VirtualMemory.Type.CODE)) {
+            fromSpaceReleased = true;
+        }
+    }
+
+    /**
+     * Only the code in to-space is reported used. From-space isn't committed after it was {@linkplain #releaseFromSpace() released}.
+     */
+    @Override
+    public MemoryUsage getUsage() {
+        final long sizeAsLong = size.toLong();
+        final long committed = fromSpaceReleased ? sizeAsLong - spaceSize.toLong() : sizeAsLong;
+        return new MemoryUsage(sizeAsLong, getAllocationMark().minus(toSpace).toLong(), committed, sizeAsLong);
+    }
+
     /**
      * Process each target method in this region's to-space with a given closure.
      */
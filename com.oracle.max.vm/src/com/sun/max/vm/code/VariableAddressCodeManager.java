@@ -55,6 +55,7 @@ public class VariableAddressCodeManager extends CodeManager {
         if (address.isZero() || address.isAllOnes()) {
             throw ProgramError.unexpected("could not allocate " + cr.regionName());
         }
+        VirtualMemory.backWithLargePages(address, size, VirtualMemory.Type.CODE, true);
         cr.bind(address, size);
     }
 
@@ -41,6 +41,7 @@ import com.sun.max.vm.actor.*;
 import com.sun.max.vm.actor.holder.*;
 import com.sun.max.vm.actor.member.*;
 import com.sun.max.vm.code.*;
+import com.sun.max.vm.compiler.deopt.*;
 import com.sun.max.vm.compiler.target.*;
 import com.sun.max.vm.compiler.target.amd64.*;
 import com.sun.max.vm.compiler.target.arm.*;
@@ -67,9 +68,14 @@ public class CompilationBroker {
     private static int RCT = 5000;
 
     /**
-     * A queue of pending compilations.
+     * A queue of pending {@linkplain Compilation#isBackground background} compilations, ordered such that the
+     * compilation with the highest {@linkplain Compilation#priority priority} is at the head of the queue.
      */
-    protected final LinkedList<Compilation> pending = new LinkedList<Compilation>();
+    protected final PriorityQueue<Compilation> pending = new PriorityQueue<Compilation>(11, new Comparator<Compilation>() {
+        public int compare(Compilation c1, Compilation c2) {
+            return c1.priority > c2.priority ? -1 : c1.priority < c2.priority ? 1 : 0;
+        }
+    });
 
     /**
      * The baseline compiler.
@@ -91,6 +97,9 @@ public class CompilationBroker {
     private static boolean FailOverCompilation = true;
     private static boolean VMExtOpt;
     static int PrintCodeCacheMetrics;
+    private static boolean BackgroundCompilation;
+    private static int CompilerThreads;
+    private static boolean OSR;
 
     private static boolean offline = false;
     private static boolean simulateAdapter = false;
@@ -106,6 +115,13 @@ public class CompilationBroker {
         addFieldOption("-XX:", "PrintCodeCacheMetrics", CompilationBroker.class, "Print code cache metrics (0 = disabled, 1 = summary, 2 = verbose).");
         addFieldOption("-XX:", "VMExtOpt", CompilationBroker.class, "Compile VM extensions with optimizing compiler (default: false");
         addFieldOption("-XX:", "AddCompiler", CompilationBroker.class, "Add a compiler, Name:Class");
+        addFieldOption("-XX:", "BackgroundCompilation", CompilationBroker.class,
+            "Perform recompilations triggered by the recompilation threshold on background compiler threads " +
+            "while the triggering thread continues executing baseline code.");
+        addFieldOption("-XX:", "CompilerThreads", CompilationBroker.class,
+            "Number of background compiler threads. Use 0 to derive the number from the available processors (default: 0).");
+        addFieldOption("-XX:", "OSR", CompilationBroker.class,
+            "Replace the frame of a baseline method executing a hot loop with optimized code (on-stack replacement) (default: false).");
     }
 
     @RESET
@@ -164,8 +180,6 @@ public class CompilationBroker {
      */
     private RuntimeCompiler defaultCompiler;
 
-    private static final boolean BACKGROUND_COMPILATION = false;
-
     public boolean needsAdapters() {
         return baselineCompiler != null;
     }
@@ -337,14 +351,7 @@ public class CompilationBroker {
             }
         }
 
-        if (isHosted()) {
-            if (BACKGROUND_COMPILATION) {
-                // launch a compiler thread if background compilation is supported (currently no)
-                final CompilationThread compilationThread = new CompilationThread();
-                compilationThread.setDaemon(true);
-                compilationThread.start();
-            }
-        } else if (phase == MaxineVM.Phase.STARTING) {
+        if (phase == MaxineVM.Phase.STARTING) {
             if (opt) {
                 defaultCompiler = optimizingCompiler;
             }
@@ -353,11 +360,12 @@ public class CompilationBroker {
                 MethodInstrumentation.enable(RCT);
             }
 
-            if (BACKGROUND_COMPILATION) {
-                // launch a compiler thread if background compilation is supported (currently no)
-                final CompilationThread compilationThread = new CompilationThread();
-                compilationThread.setDaemon(true);
-                compilationThread.start();
+            if (isBackgroundCompilationEnabled()) {
+                final int threads = compilerThreadCount();
+                for (int i = 0; i < threads; i++) {
+                    final CompilationThread compilationThread = new CompilationThread(i);
+                    compilationThread.start();
+                }
             }
         } else if (phase == Phase.RUNNING) {
             if (PrintCodeCacheMetrics != 0) {
@@ -371,6 +379,71 @@ public class CompilationBroker {
         }
     }
 
+    /**
+     * Determines if recompilations triggered by an {@linkplain #instrumentationCounterOverflow instrumentation counter
+     * overflow} are performed by background compiler threads.
+     */
+    public boolean isBackgroundCompilationEnabled() {
+        return BackgroundCompilation && RCT != 0 && baselineCompiler != null;
+    }
+
+    /**
+     * Determines if a backward branch counter overflow in a baseline method triggers an
+     * {@linkplain OnStackReplacement on-stack replacement}.
+     */
+    public boolean isOSREnabled() {
+        return OSR && RCT != 0 && baselineCompiler != null && optimizingCompiler instanceof OSRCompiler && OnStackReplacement.isSupported();
+    }
+
+    /**
+     * Gets the number of background compiler threads to start. Unless specified by {@code -XX:CompilerThreads},
+     * one compiler thread is started for every four available processors.
+     */
+    private static int compilerThreadCount() {
+        if (CompilerThreads > 0) {
+            return CompilerThreads;
+        }
+        return Math.max(1, Runtime.getRuntime().availableProcessors() / 4);
+    }
+
+    /**
+     * Enqueues a request to compile a method with the optimizing compiler on a background compiler thread.
+     * If a background compilation for the method is already pending, its priority is raised instead so that
+     * there is at most one queued compilation per method.
+     *
+     * @param cma the method to compile
+     * @param priority the hotness of the method, as the {@linkplain MethodProfile#entryBackedgeRate() rate} at which its
+     *            invocation and backward branch counter expires
+     * @return {@code true} if a new compilation was queued, {@code false} if an existing one was reprioritized or
+     *         the method is currently being compiled by another thread
+     */
+    public boolean enqueue(ClassMethodActor cma, long priority) {
+        synchronized (cma) {
+            Object compiledState = cma.compiledState;
+            if (compiledState instanceof Compilation) {
+                Compilation compilation = (Compilation) compiledState;
+                if (compilation.isBackground) {
+                    synchronized (pending) {
+                        // re-insert to restore the queue ordering
+                        if (pending.remove(compilation)) {
+                            compilation.priority += priority;
+                            pending.add(compilation);
+                        }
+                    }
+                }
+                return false;
+            }
+            Compilation compilation = new Compilation(optimizingCompiler, cma, (Compilations) compiledState, null, Nature.OPT, false);
+            compilation.priority = priority;
+            cma.compiledState = compilation;
+            synchronized (pending) {
+                pending.add(compilation);
+                pending.notify();
+            }
+            return true;
+        }
+    }
+
     /**
      * Default compilation, not for deopt.
      *
@@ -398,7 +471,7 @@ public class CompilationBroker {
             if (mp != null) {
                 mp.incrementDeoptimizationCount(deoptReasonId);
                 if (mp.entryBackedgeCount <= 0) {
-                    mp.entryBackedgeCount = MethodInstrumentation.initialEntryBackedgeCount;
+                    mp.armEntryBackedgeCount(MethodInstrumentation.initialEntryBackedgeCount);
                 }
             }
         }
@@ -453,11 +526,28 @@ public class CompilationBroker {
                 assert !(cma.isNative() && cma.isVmEntryPoint()) : "cannot compile JNI functions that are native";
                 Object compiledState = cma.compiledState;
                 compilation = compiledState instanceof Compilation ? (Compilation) compiledState : null;
+                if (compilation != null && compilation.isBackground && nature == null && !retryRun) {
+                    // Any target method is acceptable: keep using the previous one
+                    // until the background compilation has installed its result.
+                    TargetMethod tm = compilation.prevCompilations.currentTargetMethod(null);
+                    if (tm != null) {
+                        return tm;
+                    }
+                }
                 if (compilation != null && (nature == null || nature == compilation.nature)) {
                     // Only wait for a pending compilation if it is compatible with the current request.
                     // That is, the current request does not specify a special nature (nature == null)
                     // or it specifies the same nature as the pending compilation (nature == compilation.nature)
-                    if (retryRun) {
+                    if (!retryRun && compilation.isBackground && compilation.compilingThread == null) {
+                        synchronized (pending) {
+                            // steal the queued compilation instead of waiting for a compiler thread to take it
+                            if (pending.remove(compilation)) {
+                                compilation.compilingThread = Thread.currentThread();
+                            } else {
+                                doCompile = false;
+                            }
+                        }
+                    } else if (retryRun) {
                         assert compilation.compilingThread == Thread.currentThread();
                         assert nature == null : "cannot retry if specific compilation nature is specified";
                         compilation.compiler = selectRetryCompiler(cma, nature, compilation.compiler);
@@ -466,6 +556,12 @@ public class CompilationBroker {
                         doCompile = false;
                     }
                 } else {
+                    if (compilation != null && compilation.isBackground) {
+                        // the queued background compilation is superseded by this one
+                        synchronized (pending) {
+                            pending.remove(compilation);
+                        }
+                    }
                     Compilations prevCompilations = compilation != null ? compilation.prevCompilations : (Compilations) compiledState;
                     RuntimeCompiler compiler = selectCompiler(cma, nature, isDeopt);
                     if (retryRun) {
@@ -503,6 +599,13 @@ public class CompilationBroker {
                 // cannot retry if specific compilation nature is specified so fall back to previous compilations if
                 // available, else throw an exception
                 if (nature != null) {
+                    synchronized (cma) {
+                        if (cma.compiledState == compilation) {
+                            // release any threads waiting for the failed compilation
+                            cma.compiledState = compilation.prevCompilations;
+                            cma.notifyAll();
+                        }
+                    }
                     if (compilation.prevCompilations != Compilations.EMPTY) {
                         nature = nature == Nature.BASELINE ? Nature.OPT : Nature.BASELINE;
                         return compilation.prevCompilations.currentTargetMethod(nature);
@@ -661,7 +764,14 @@ public class CompilationBroker {
         TargetMethod newMethod = Compilations.currentTargetMethod(cma.compiledState, null);
 
         if (oldMethod == newMethod || newMethod == null) {
-            if (!(cma.compiledState instanceof Compilation)) {
+            CompilationBroker broker = vm().compilationBroker;
+            if (broker.isBackgroundCompilationEnabled() && !(Thread.currentThread() instanceof CompilationThread)) {
+                // Hand the recompilation to a compiler thread (or raise the priority of the one already
+                // queued) and continue in the current code until the optimized version is installed.
+                if (broker.enqueue(cma, mpo.entryBackedgeRate())) {
+                    logCounterOverflow(mpo, "Queued for background compilation");
+                }
+            } else if (!(cma.compiledState instanceof Compilation)) {
                 // There is no newer compiled version available yet that we could just patch to, so recompile
                 logCounterOverflow(mpo, "");
                 try {
@@ -681,7 +791,7 @@ public class CompilationBroker {
         if (oldMethod == newMethod || newMethod == null) {
             // No compiled method available yet, maybe compilation is pending.
             // We don't want to see another counter overflow in the near future.
-            mpo.entryBackedgeCount = 10000;
+            mpo.armEntryBackedgeCount(10000);
         } else {
             assert newMethod != null : oldMethod;
             logPatching(cma, oldMethod, newMethod);
@@ -720,6 +830,119 @@ public class CompilationBroker {
         }
     }
 
+    /**
+     * The OSR methods compiled so far for each baseline method, keyed by the bytecode index of their loop header.
+     * A {@code null} value records a failed OSR compilation so that it is not retried.
+     */
+    private final HashMap<TargetMethod, HashMap<Integer, TargetMethod>> osrMethods = new HashMap<TargetMethod, HashMap<Integer, TargetMethod>>();
+
+    /**
+     * Set while the current thread is compiling an OSR method.
+     */
+    private static final ThreadLocal<Boolean> OSR_COMPILATION = new ThreadLocal<Boolean>();
+
+    /**
+     * Gets the optimized code for entering a given baseline method at a loop header, compiling it if necessary.
+     *
+     * @param baselineMethod the baseline method executing the loop
+     * @param bci the bytecode index of the loop header
+     * @return {@code null} if the method could not be compiled for entry at {@code bci}
+     */
+    private TargetMethod compileOSR(TargetMethod baselineMethod, int bci) {
+        synchronized (osrMethods) {
+            HashMap<Integer, TargetMethod> methods = osrMethods.get(baselineMethod);
+            if (methods != null && methods.containsKey(bci)) {
+                TargetMethod osrMethod = methods.get(bci);
+                if (osrMethod == null || osrMethod.invalidated() == null) {
+                    return osrMethod;
+                }
+            }
+        }
+
+        ClassMethodActor cma = baselineMethod.classMethodActor;
+        TargetMethod osrMethod = null;
+        OSR_COMPILATION.set(Boolean.TRUE);
+        try {
+            osrMethod = ((OSRCompiler) optimizingCompiler).compileOSR(cma, bci);
+        } catch (Throwable t) {
+            if (verboseOption.verboseCompilation) {
+                boolean lockDisabledSafepoints = Log.lock();
+                Log.printCurrentThread(false);
+                Log.print(": OSR compilation of ");
+                Log.printMethod(cma, false);
+                Log.print(" at bci ");
+                Log.print(bci);
+                Log.print(" failed: ");
+                Log.println(t.toString());
+                Log.unlock(lockDisabledSafepoints);
+            }
+        } finally {
+            OSR_COMPILATION.set(null);
+        }
+
+        synchronized (osrMethods) {
+            HashMap<Integer, TargetMethod> methods = osrMethods.get(baselineMethod);
+            if (methods == null) {
+                methods = new HashMap<Integer, TargetMethod>();
+                osrMethods.put(baselineMethod, methods);
+            }
+            methods.put(bci, osrMethod);
+            pruneOSRMethods();
+        }
+        return osrMethod;
+    }
+
+    /**
+     * Drops the OSR methods of baseline methods that were invalidated or evicted from the code cache, as their frames
+     * can no longer be migrated. This is done when OSR methods are recorded rather than by the eviction itself, which
+     * runs in a VM operation and must not take the lock on {@link #osrMethods}.
+     */
+    private void pruneOSRMethods() {
+        for (Iterator<TargetMethod> i = osrMethods.keySet().iterator(); i.hasNext();) {
+            TargetMethod baselineMethod = i.next();
+            if (baselineMethod.invalidated() != null || baselineMethod.isWiped()) {
+                i.remove();
+            }
+        }
+    }
+
+    /**
+     * Handles an instrumentation counter overflow at a backward branch in a profiled method. If
+     * {@linkplain #isOSREnabled() enabled}, the frame executing the loop is migrated into optimized code
+     * compiled for entry at the loop header. Otherwise, or if the migration is not possible, a method that is not
+     * optimized yet is recompiled as upon an {@linkplain #instrumentationCounterOverflow overflow on method entry},
+     * and the counter is re-armed.
+     * This method must be called directly from the baseline code of {@code mpo.method}.
+     *
+     * @param mpo profiling object (including the method itself)
+     * @param bci the bytecode index of the loop header branched to
+     */
+    public static void backedgeCounterOverflow(MethodProfile mpo, int bci) {
+        CompilationBroker broker = vm().compilationBroker;
+        if (broker.isOSREnabled() && !mpo.compilationDisabled && OSR_COMPILATION.get() == null &&
+                        !Heap.isAllocationDisabledForCurrentThread() && !Compilation.isCompilationRunningInCurrentThread()) {
+            TargetMethod osrMethod = broker.compileOSR(mpo.method, bci);
+            if (osrMethod != null) {
+                logCounterOverflow(mpo, "On-stack replacement");
+                // Leave the counter expired so that loops of other activations migrate too and
+                // the next invocation of the method installs a regular optimized version.
+                mpo.entryBackedgeCount = 0;
+                OnStackReplacement.migrate(mpo.method, osrMethod);
+            }
+        }
+
+        // The loop keeps running in the baseline code. Unless the method is not optimized yet, the overflow is left
+        // to the next invocation, which patches the callers. In any case, the counter is re-armed so that the back
+        // edges of this activation do not call back here at every iteration.
+        TargetMethod newMethod = Compilations.currentTargetMethod(mpo.method.classMethodActor.compiledState, null);
+        if (newMethod == null || newMethod == mpo.method) {
+            instrumentationCounterOverflow(mpo, null);
+        }
+        if (mpo.entryBackedgeCount <= 0) {
+            mpo.armEntryBackedgeCount(10000);
+        }
+    }
+
     public static void logCounterOverflow(MethodProfile mpo, String msg) {
         if (VMOptions.verboseOption.verboseCompilation) {
             boolean lockDisabledSafepoints = Log.lock();
@@ -799,8 +1022,8 @@ public class CompilationBroker {
      */
     protected class CompilationThread extends Thread {
 
-        protected CompilationThread() {
-            super("compile");
+        protected CompilationThread(int id) {
+            super("compile-" + id);
             setDaemon(true);
         }
 
@@ -821,10 +1044,36 @@ public class CompilationBroker {
                 } catch (InterruptedException e) {
                     // do nothing.
                 } catch (Throwable t) {
-                    Log.print("Exception during compilation of " + compilation.classMethodActor);
-                    t.printStackTrace();
+                    compilationFailed(t);
+                }
+            }
+        }
+
+        /**
+         * Restores the compiled state of the method whose compilation failed so that it continues to use its
+         * baseline code, and stops further recompilation attempts for it.
+         */
+        private void compilationFailed(Throwable t) {
+            final ClassMethodActor cma = compilation.classMethodActor;
+            if (verboseOption.verboseCompilation) {
+                boolean lockDisabledSafepoints = Log.lock();
+                Log.printCurrentThread(false);
+                Log.print(": Background compilation of " + cma + " by " + compilation.compiler + " failed");
+                t.printStackTrace(Log.out);
+                Log.unlock(lockDisabledSafepoints);
+            }
+            synchronized (cma) {
+                if (cma.compiledState == compilation) {
+                    cma.compiledState = compilation.prevCompilations;
+                    // release any threads waiting for the result
+                    cma.notifyAll();
                 }
             }
+            TargetMethod baseline = compilation.prevCompilations.baseline;
+            if (baseline != null && baseline.profile() != null) {
+                baseline.profile().compilationDisabled = true;
+            }
+            compilation = null;
         }
 
         /**
@@ -839,15 +1088,30 @@ public class CompilationBroker {
                     compilation = pending.poll();
                     if (compilation == null) {
                         pending.wait();
+                    } else {
+                        // claimed while holding the queue lock so that no other thread can steal it
+                        compilation.compilingThread = Thread.currentThread();
                     }
                 }
             }
-            compilation.compilingThread = Thread.currentThread();
             if (GCOnRecompilation) {
                 System.gc();
             }
             compilation.compile();
+            final ClassMethodActor cma = compilation.classMethodActor;
             compilation = null;
+            // The new code is installed: a failing handler must not be taken for a failed compilation.
+            try {
+                VMTI.handler().methodCompiled(cma);
+            } catch (Throwable t) {
+                if (verboseOption.verboseCompilation) {
+                    boolean lockDisabledSafepoints = Log.lock();
+                    Log.printCurrentThread(false);
+                    Log.print(": Compiled method handler failed for " + cma);
+                    t.printStackTrace(Log.out);
+                    Log.unlock(lockDisabledSafepoints);
+                }
+            }
         }
     }
 
@@ -128,6 +128,25 @@ public interface RuntimeCompiler {
      */
     String name(ClassMethodActor classMethodActor);
 
+    /**
+     * Implemented by an optimizing compiler that can compile a method for
+     * {@linkplain com.sun.max.vm.compiler.deopt.OnStackReplacement on-stack replacement}
+     * of a baseline frame executing a loop.
+     */
+    interface OSRCompiler {
+
+        /**
+         * Compiles a method with an additional entry at the header of a loop. The returned target method is not
+         * installed as the compiled state of {@code classMethodActor}; it is only entered through its
+         * {@linkplain TargetMethod#osrEntryPos() OSR entry}.
+         *
+         * @param classMethodActor the method to compile
+         * @param osrBCI the bytecode index of the loop header at which the compiled code is entered
+         * @return the compiled method
+         */
+        TargetMethod compileOSR(ClassMethodActor classMethodActor, int osrBCI);
+    }
+
     abstract class DefaultNameAdapter implements RuntimeCompiler {
         public String name(ClassMethodActor classMethodActor) {
             return getClass().getSimpleName();
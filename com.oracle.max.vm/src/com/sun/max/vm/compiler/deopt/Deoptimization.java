@@ -21,7 +21,9 @@
  */
 package com.sun.max.vm.compiler.deopt;
 
+import com.sun.cri.bytecode.*;
 import com.sun.cri.ci.*;
+import com.sun.cri.ri.*;
 import com.sun.max.Utils;
 import com.sun.max.annotate.*;
 import com.sun.max.lang.ISA;
@@ -50,6 +52,7 @@ import static com.sun.max.platform.Platform.platform;
 import static com.sun.max.vm.MaxineVM.vm;
 import static com.sun.max.vm.compiler.CallEntryPoint.VTABLE_ENTRY_POINT;
 import static com.sun.max.vm.compiler.target.Stub.Type.*;
+import static com.sun.max.vm.intrinsics.MaxineIntrinsicIDs.UNCOMMON_TRAP;
 import static com.sun.max.vm.intrinsics.MaxineIntrinsicIDs.UNSAFE_CAST;
 import static com.sun.max.vm.stack.VMFrameLayout.STACK_SLOT_SIZE;
 
@@ -77,12 +80,10 @@ import static com.sun.max.vm.stack.VMFrameLayout.STACK_SLOT_SIZE;
  * </ul>
  * </li>
  * </ol>
- * All but step 1 above are performed in a {@linkplain #doIt() VM operation} (i.e. all threads have been stopped at a
- * safepoint).
- * <p/>
- * One optimization applied is for each thread to perform step 5 on itself just
- * {@linkplain VmOperation#doAtSafepointBeforeBlocking before} suspending. This is analogous to each thread preparing
- * its own reference map when being stopped for a garbage collection.
+ * Steps 2 to 4 above are performed in a {@linkplain #doIt() VM operation} (i.e. all threads have been stopped at a
+ * safepoint). Step 5 is performed afterwards by a {@linkplain StackPatching handshake} with each thread, so that
+ * a thread is only stopped while its own stack is scanned. A thread may execute an invalidated method until then,
+ * but no new activation of the method can be created once its entry points are patched.
  * <p/>
  * <li><b>Convert the frame of an optimized method into one or more deoptimized frames.</b>
  * <p>
@@ -105,11 +106,22 @@ public class Deoptimization extends VmOperation {
      */
     public static int DeoptimizeALot;
 
+    /**
+     * A VM option for limiting the number of times the optimizing compiler speculates on the profile of a method.
+     * Once the speculations made on the profile of a method have failed this many times for a given
+     * {@linkplain MethodProfile#getDeoptimizationCount(int) reason}, the profile is no longer offered to the compiler
+     * for that kind of speculation.
+     */
+    public static int SpeculationFailureLimit = 4;
+
     static {
         VMOptions.addFieldOption("-XX:", "UseDeopt", Deoptimization.class, "Enable deoptimization.");
         VMOptions.addFieldOption("-XX:", "DeoptimizeALot", Deoptimization.class,
                                  "Invalidate and deoptimize a selection of executing optimized methods every <n> milliseconds. " +
                                  "A value of 0 disables this mechanism.");
+        VMOptions.addFieldOption("-XX:", "SpeculationFailureLimit", Deoptimization.class,
+                                 "Number of failed speculations of a given kind after which the profile of a method is no longer " +
+                                 "used by the optimizing compiler to make that kind of speculation.");
     }
 
     /**
@@ -117,6 +129,11 @@ public class Deoptimization extends VmOperation {
      */
     private static StaticMethodActor MaxMiscLoweringsDeoptimizeMethodActor;
 
+    /**
+     * Method actor of the runtime call made by optimized code to the {@linkplain Stubs#genUncommonTrapStub() uncommon trap} stub.
+     */
+    private static ClassMethodActor UncommonTrapMethodActor;
+
     /**
      * The set of target methods to be deoptimized.
      */
@@ -155,11 +172,19 @@ public class Deoptimization extends VmOperation {
         MaxMiscLoweringsDeoptimizeMethodActor = methodActor;
     }
 
+    @HOSTED_ONLY
+    public static void initializeUncommonTrapMethodActor(ClassMethodActor methodActor) {
+        UncommonTrapMethodActor = methodActor;
+    }
+
     /**
      * Mark methods for deoptimization.
      */
     public void go() {
         submit();
+        if (!methods.isEmpty()) {
+            new StackPatching(methods).submit();
+        }
     }
 
     @Override
@@ -193,9 +218,6 @@ public class Deoptimization extends VmOperation {
                 i++;
             }
         }
-
-        // Scan the stacks to patch return addresses
-        doAllThreads();
     }
 
     /**
@@ -238,10 +260,26 @@ public class Deoptimization extends VmOperation {
         }
     }
 
-    @Override
-    public void doThread(VmThread vmThread, Pointer ip, Pointer sp, Pointer fp) {
-        Patcher patcher = new Patcher(methods);
-        patcher.go(vmThread, ip, sp, fp);
+    /**
+     * Handshake with each thread to patch the return addresses denoting a method being deoptimized on its stack.
+     */
+    static final class StackPatching extends VmOperation {
+
+        /**
+         * The set of methods being deoptimized.
+         */
+        private final ArrayList<TargetMethod> methods;
+
+        StackPatching(ArrayList<TargetMethod> methods) {
+            super("DeoptimizationStackPatching", null, Mode.Handshake);
+            this.methods = methods;
+        }
+
+        @Override
+        public void doThread(VmThread vmThread, Pointer ip, Pointer sp, Pointer fp) {
+            Patcher patcher = new Patcher(methods);
+            patcher.go(vmThread, ip, sp, fp);
+        }
     }
 
     /**
@@ -805,6 +843,9 @@ public class Deoptimization extends VmOperation {
                     ClassMethodActor callee = tm.callPosToCallee(callPos);
                     if (callee == MaxMiscLoweringsDeoptimizeMethodActor) {
                         reexecute = true;
+                    } else if (callee == UncommonTrapMethodActor && !isUncommonTrapIntrinsic(frame)) {
+                        // a failed guard: the bytecode whose state it captured has not been executed yet
+                        reexecute = true;
                     }
                 }
             }
@@ -924,9 +965,60 @@ public class Deoptimization extends VmOperation {
      */
     public static void uncommonTrap(Pointer csa, Pointer ip, Pointer sp, Pointer fp) {
         FatalError.check(!csa.isZero(), "callee save area expected for uncommon trap");
+        TargetMethod tm = CodePointer.from(ip).toTargetMethod();
+        int deoptReasonId = recordSpeculationFailure(tm, CodePointer.from(ip));
+        if (deoptReasonId != MethodProfile.UNDEFINED_DEOPTIMIZATION_REASON_ID) {
+            // Invalidate the method so that it gets recompiled, as is done for the deoptimization requested by a Graal guard.
+            // The frame trapped here is then deoptimized like any other frame of an invalidated method.
+            ArrayList<TargetMethod> methods = new ArrayList<TargetMethod>(1);
+            methods.add(tm);
+            new Deoptimization(methods, deoptReasonId).go();
+        }
         deoptimize(CodePointer.from(ip), sp, fp, csa, vm().registerConfigs.uncommonTrapStub.getCalleeSaveLayout(), null);
     }
 
+    /**
+     * Determines if a frame deoptimized by an uncommon trap is executing a call to {@link com.sun.max.vm.intrinsics.Infopoints#uncommonTrap()}.
+     * Otherwise, the uncommon trap is a guard of the optimizing compiler that failed before the frame's bytecode was executed.
+     */
+    private static boolean isUncommonTrapIntrinsic(CiFrame frame) {
+        RiMethod callee = ((ClassMethodActor) frame.method).codeAttribute().calleeAt(frame.bci);
+        return callee instanceof MethodActor && UNCOMMON_TRAP.equals(((MethodActor) callee).intrinsic());
+    }
+
+    /**
+     * Determines the reason for the failure of a speculation guarded by an uncommon trap. The compiler does not repeat the
+     * speculation once it has failed {@link #SpeculationFailureLimit} times in the profile of the method it was made on.
+     * The {@linkplain com.sun.max.vm.compiler.CompilationBroker#deoptimize(ClassMethodActor, int) deoptimization} of the optimized method
+     * records the failure in the profile of that method, so it is only recorded here if the speculation was made on a
+     * method inlined into it.
+     *
+     * @param tm the method containing the uncommon trap
+     * @param ip the address of the uncommon trap
+     * @return the deoptimization reason, or {@link MethodProfile#UNDEFINED_DEOPTIMIZATION_REASON_ID} if the trap is not
+     *         a failed speculation or if {@code tm} doesn't need to be invalidated
+     */
+    private static int recordSpeculationFailure(TargetMethod tm, CodePointer ip) {
+        if (tm == null || tm.invalidated() != null || tm.isInBootCodeRegion()) {
+            return MethodProfile.UNDEFINED_DEOPTIMIZATION_REASON_ID;
+        }
+        CiFrame frame = tm.debugInfoAt(tm.findSafepointIndex(ip), null).frame();
+        if (frame == null || isUncommonTrapIntrinsic(frame)) {
+            return MethodProfile.UNDEFINED_DEOPTIMIZATION_REASON_ID;
+        }
+        ClassMethodActor method = (ClassMethodActor) frame.method;
+        final int opcode = method.codeAttribute().code()[frame.bci] & 0xFF;
+        final int deoptReasonId = Bytecodes.isInvoke(opcode) ?
+                        MethodProfile.TYPE_CHECKED_INLINING_VIOLATED_REASON_ID : MethodProfile.UNREACHED_CODE_REASON_ID;
+        if (method != tm.classMethodActor) {
+            MethodProfile profile = method.baselineProfile();
+            if (profile != null) {
+                profile.incrementDeoptimizationCount(deoptReasonId);
+            }
+        }
+        return deoptReasonId;
+    }
+
     @NEVER_INLINE // makes inspecting easier
     static void logPatchITable(ClassActor classActor, int iIndex) {
         if (deoptLogger.enabled()) {
@@ -0,0 +1,193 @@
+/*
+ * Copyright (c) 2012, Oracle and/or its affiliates. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * Please contact Oracle, 500 Oracle Parkway, Redwood Shores, CA 94065 USA
+ * or visit www.oracle.com if you need additional information or have any
+ * questions.
+ */
+package com.sun.max.vm.compiler.deopt;
+
+import static com.sun.max.platform.Platform.*;
+import static com.sun.max.vm.VMOptions.*;
+import static com.sun.max.vm.intrinsics.Infopoints.*;
+
+import com.sun.cri.ci.*;
+import com.sun.max.annotate.*;
+import com.sun.max.lang.*;
+import com.sun.max.memory.*;
+import com.sun.max.unsafe.*;
+import com.sun.max.vm.*;
+import com.sun.max.vm.compiler.target.*;
+import com.sun.max.vm.compiler.target.TargetMethod.FrameAccess;
+import com.sun.max.vm.reference.*;
+import com.sun.max.vm.runtime.*;
+import com.sun.max.vm.stack.*;
+import com.sun.max.vm.thread.*;
+
+/**
+ * On-stack replacement (OSR) of a baseline frame executing a hot loop by a frame of optimized code that was compiled
+ * with an additional entry at the loop header. This is deoptimization in reverse: the values of the baseline frame's
+ * locals are obtained from its {@linkplain TargetMethod#debugInfoAt(int, FrameAccess) debug info} and copied into an
+ * OSR buffer, after which the baseline frame is discarded by unwinding to the {@linkplain TargetMethod#osrEntryPos()
+ * OSR entry} of the optimized code. The OSR entry builds the optimized frame in place of the baseline frame and loads
+ * the locals from the buffer.
+ * <p>
+ * The OSR buffer is a block of native memory holding the value of local {@code i} in the word at offset
+ * {@code i * Word.size()}. The optimized code releases it by calling {@link #migrationEnd(Pointer)} once
+ * all locals have been loaded.
+ */
+public final class OnStackReplacement {
+
+    private OnStackReplacement() {
+    }
+
+    /**
+     * Determines if on-stack replacement is supported on the target platform.
+     */
+    public static boolean isSupported() {
+        return platform().isa == ISA.AMD64;
+    }
+
+    /**
+     * Locates the frame of a given baseline method on the current thread's stack and records
+     * the details required to replace it.
+     */
+    private static final class BaselineFrame extends RawStackFrameVisitor {
+
+        final TargetMethod tm;
+        boolean found;
+        CodePointer ip;
+        Pointer sp;
+        Pointer fp;
+
+        // The following are the details of the caller of the baseline frame.
+        Pointer callerSP;
+        Pointer callerFP;
+
+        /**
+         * The baseline frame's return address slot. Its contents will differ from the caller's IP as recovered
+         * by the stack walker if the caller is marked for deoptimization.
+         */
+        Pointer returnIPSlot;
+
+        BaselineFrame(TargetMethod tm) {
+            this.tm = tm;
+        }
+
+        @Override
+        public boolean visitFrame(StackFrameCursor current, StackFrameCursor callee) {
+            if (found) {
+                callerSP = current.sp();
+                callerFP = current.fp();
+                returnIPSlot = tm.returnAddressPointer(callee);
+                return false;
+            }
+            if (current.targetMethod() == tm) {
+                found = true;
+                ip = current.vmIP();
+                sp = current.sp();
+                fp = current.fp();
+            }
+            return true;
+        }
+    }
+
+    /**
+     * Replaces the frame of a baseline method executing a loop with a frame of an OSR method and continues execution
+     * at the loop header in the latter. This method must be called by the baseline method (i.e. the first frame on the
+     * current thread's stack executing {@code baselineMethod} is the one to be replaced). It does not return
+     * if the migration succeeds.
+     *
+     * @param baselineMethod the baseline method executing the loop
+     * @param osrMethod an optimized compilation of the same method with an {@linkplain TargetMethod#osrEntryPos() OSR
+     *            entry} at the loop header
+     * @return {@code false} if the baseline frame could not be migrated
+     */
+    @NEVER_INLINE
+    public static boolean migrate(TargetMethod baselineMethod, TargetMethod osrMethod) {
+        assert osrMethod.osrEntryPos() >= 0 : "not an OSR method: " + osrMethod;
+        int maxLocals = baselineMethod.classMethodActor.codeAttribute().maxLocals;
+        Pointer buffer = Memory.allocate(Size.fromInt(Math.max(1, maxLocals) * Word.size()));
+        if (buffer.isZero()) {
+            return false;
+        }
+
+        // Everything that allocates is done while safepoints are still enabled: the baseline frame cannot
+        // move and the values of its locals are held by the debug info, where the GC can see them.
+        BaselineFrame frame = new BaselineFrame(baselineMethod);
+        new VmStackFrameWalker(VmThread.current().tla()).inspect(Pointer.fromLong(here()),
+                                                                 VMRegister.getCpuStackPointer(),
+                                                                 VMRegister.getCpuFramePointer(),
+                                                                 frame);
+        int safepointIndex = frame.found ? baselineMethod.findSafepointIndex(frame.ip) : -1;
+
+        // The OSR entry is reached with the stack in the state it is in on entry to a method called by the
+        // baseline frame's caller. That requires the caller's stack pointer to be aligned as at a call.
+        if (safepointIndex < 0 || frame.callerSP.isZero() || !frame.callerSP.isAligned(platform().target.stackAlignment)) {
+            Memory.deallocate(buffer);
+            return false;
+        }
+
+        FrameAccess fa = new FrameAccess(null, Pointer.zero(), frame.sp, frame.fp, frame.callerSP, frame.callerFP);
+        CiFrame debugFrame = baselineMethod.debugInfoAt(safepointIndex, fa).frame();
+        if (verboseOption.verboseCompilation) {
+            boolean lockDisabledSafepoints = Log.lock();
+            Log.printCurrentThread(false);
+            Log.print(": On-stack replacement of ");
+            Log.printMethod(baselineMethod, false);
+            Log.print(" at bci ");
+            Log.print(debugFrame.bci);
+            Log.print(" with ");
+            Log.println(osrMethod);
+            Log.unlock(lockDisabledSafepoints);
+        }
+
+        // The buffer holds raw object references that are not visible to the GC. No allocation or
+        // safepoint may occur from here until the optimized code has loaded them into its frame.
+        SafepointPoll.disable();
+        for (int i = 0; i < debugFrame.numLocals; i++) {
+            CiConstant value = (CiConstant) debugFrame.getLocalValue(i);
+            if (value.kind.isObject()) {
+                buffer.writeWord(i * Word.size(), Reference.fromJava(value.asObject()).toOrigin());
+            } else {
+                buffer.writeWord(i * Word.size(), Address.fromLong(value.asLong()));
+            }
+        }
+
+        // The optimized method returns directly to the caller of the baseline frame. The baseline method pops
+        // its own arguments on return whereas the optimized method does not, so its return address is placed
+        // immediately below the stack pointer expected by the caller after the return. The return address is
+        // read only now as it may have been patched at a safepoint since the stack was walked.
+        Pointer sp = frame.callerSP.minus(Word.size());
+        sp.writeWord(0, frame.returnIPSlot.readWord(0));
+
+        Address entry = osrMethod.codeAt(osrMethod.osrEntryPos()).toAddress();
+        SafepointPoll.enable();
+        Stubs.unwindLong(entry, sp, frame.callerFP, buffer.toLong());
+        throw FatalError.unexpected("should not reach here");
+    }
+
+    /**
+     * Called by the OSR entry of an optimized method once the values in the OSR buffer have been loaded.
+     *
+     * @param buffer the OSR buffer created by {@link #migrate(TargetMethod, TargetMethod)}
+     */
+    public static void migrationEnd(Pointer buffer) {
+        Memory.deallocate(buffer);
+    }
+}
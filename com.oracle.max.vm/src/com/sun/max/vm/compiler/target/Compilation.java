@@ -110,6 +110,18 @@ public class Compilation {
     public TargetMethod result;
     public final boolean isDeopt;
 
+    /**
+     * Denotes a compilation that is queued for (or being performed by) one of the
+     * {@linkplain CompilationBroker background compilation threads}.
+     */
+    public final boolean isBackground;
+
+    /**
+     * The priority of a {@linkplain #isBackground background} compilation. Compilations with
+     * a higher priority are removed from the compilation queue first.
+     */
+    public long priority;
+
     /**
      * State of this compilation. If {@code true}, then this compilation has finished and the target
      * method is available.
@@ -118,13 +130,21 @@ public class Compilation {
 
     public final RuntimeCompiler.Nature nature;
 
+    /**
+     * Creates a compilation.
+     *
+     * @param compilingThread the thread that will perform the compilation or {@code null} if the compilation
+     *            is to be {@linkplain #isBackground performed in the background} by a thread that takes it from
+     *            the compilation queue
+     */
     public Compilation(RuntimeCompiler compiler,
                        ClassMethodActor classMethodActor,
                        Compilations prevCompilations,
                        Thread compilingThread, RuntimeCompiler.Nature nature,
                        boolean isDeopt) {
         assert prevCompilations != null;
-        this.parent = COMPILATION.get();
+        this.isBackground = compilingThread == null;
+        this.parent = isBackground ? null : COMPILATION.get();
         this.compiler = compiler;
         this.classMethodActor = classMethodActor;
         this.prevCompilations = prevCompilations;
@@ -137,7 +157,9 @@ public class Compilation {
                 FatalError.unexpected("Recursive compilation of " + classMethodActor + " by " + compiler);
             }
         }
-        COMPILATION.set(this);
+        if (!isBackground) {
+            COMPILATION.set(this);
+        }
     }
 
     /**
@@ -179,7 +201,7 @@ public class Compilation {
     public TargetMethod get() {
         synchronized (classMethodActor) {
             boolean interrupted = false;
-            while (!done) {
+            while (!done && classMethodActor.compiledState == this) {
                 if (compilingThread == Thread.currentThread()) {
                     throw new RuntimeException("Compilation of " + classMethodActor.format("%H.%n(%p)") + " is recursive");
                 }
@@ -197,6 +219,10 @@ public class Compilation {
             if (interrupted) {
                 Thread.currentThread().interrupt();
             }
+            if (!done) {
+                // a failed background compilation restores the previous compiled state
+                throw new InternalError(classMethodActor.format("Background compilation of %H.%n(%p) failed"));
+            }
             assert result != null;
             return result;
         }
@@ -279,6 +305,10 @@ public class Compilation {
         Throwable error = null;
         String methodString = "";
 
+        // (re)establish this compilation as the current one: a background compilation is
+        // created on a different thread and a retried compilation has already reset it
+        final Compilation outer = COMPILATION.get();
+        COMPILATION.set(this);
         try {
             InspectableCompilationInfo.notifyCompilationEvent(classMethodActor, null);
 
@@ -330,7 +360,9 @@ public class Compilation {
                 }
             }
 
-            COMPILATION.set(parent);
+            // a background compilation may have been taken over by a thread that is already
+            // compiling: leave that thread's current compilation as it was
+            COMPILATION.set(isBackground ? outer : parent);
         }
         if (error != null) {
             // an error occurred
@@ -1036,6 +1036,17 @@ public abstract class TargetMethod extends MemoryRegion {
         return registerRestoreEpilogueOffset >= 0;
     }
 
+    /**
+     * Gets the position in this method's code at which an on-stack replacement enters it. Such an entry
+     * expects the stack pointer to address the return address of the frame being replaced and the
+     * {@linkplain com.sun.max.vm.compiler.deopt.OnStackReplacement OSR buffer} in the integer return register.
+     *
+     * @return {@code -1} if this method was not compiled for on-stack replacement
+     */
+    public int osrEntryPos() {
+        return -1;
+    }
+
     /**
      * Gets the code annotations (if any) associated with this target method.
      *
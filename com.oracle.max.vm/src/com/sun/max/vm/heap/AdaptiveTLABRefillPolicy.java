@@ -0,0 +1,195 @@
+/*
+ * Copyright (c) 2012, Oracle and/or its affiliates. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * Please contact Oracle, 500 Oracle Parkway, Redwood Shores, CA 94065 USA
+ * or visit www.oracle.com if you need additional information or have any
+ * questions.
+ */
+package com.sun.max.vm.heap;
+
+import com.sun.max.unsafe.*;
+import com.sun.max.vm.*;
+import com.sun.max.vm.thread.*;
+
+/**
+ * A per-thread TLAB refill policy that sizes the TLABs of a thread after its allocation rate.
+ * <p>
+ * The policy accounts for the space the thread allocates in its TLABs between two retirements of its TLAB, i.e., between two GCs.
+ * At each retirement, it updates an exponentially weighted average of this amount and sizes the thread's next TLABs so that the
+ * thread refills its TLAB about {@link #TARGET_REFILLS} times per GC interval. Threads allocating at a high rate get large TLABs and
+ * refill less often, whereas mostly idle threads get small TLABs and strand less space in partially used TLABs.
+ * <p>
+ * The space left in a TLAB when it is refilled is wasted. To bound this waste, a TLAB is only refilled when the space left is below a
+ * fraction of the TLAB size; larger requests are allocated directly in the heap. The limit is raised a little at each such request, so
+ * that a thread whose requests keep missing the TLAB eventually gets a new one.
+ * <p>
+ * Enabled with {@code -XX:+ResizeTLAB}. {@code -XX:TLABSize} gives the size of the first TLAB of a thread.
+ */
+public final class AdaptiveTLABRefillPolicy extends TLABRefillPolicy {
+    /**
+     * Number of TLAB refills per GC interval the TLAB size is computed for.
+     */
+    static final int TARGET_REFILLS = 50;
+
+    /**
+     * Weight, in percent, of the last GC interval in the average amount allocated per interval.
+     */
+    static final int ALLOCATION_WEIGHT = 35;
+
+    /**
+     * The refill waste limit is computed as TLAB size / waste fraction.
+     */
+    static final int REFILL_WASTE_FRACTION = 64;
+
+    /**
+     * Number of words the refill waste limit is raised by on each request allocated outside of the TLAB.
+     */
+    static final int WASTE_INCREMENT_WORDS = 4;
+
+    /**
+     * Bounds of the TLAB size, as a factor of the initial TLAB size.
+     */
+    static final int SIZE_RANGE_FACTOR = 16;
+
+    private final Size minSize;
+    private final Size maxSize;
+
+    /**
+     * Size the TLAB should have on next refill.
+     */
+    private Size nextSize;
+
+    /**
+     * Space left in the TLAB below which the TLAB is refilled.
+     */
+    private Size refillWasteLimit;
+
+    /**
+     * Average amount of space allocated in TLABs per GC interval, in bytes. Negative until the end of the first interval.
+     */
+    private long averageAllocated = -1L;
+
+    // Statistics of the current GC interval.
+    private int refills;
+    private long refilledSpace;
+    private long refillWaste;
+    private int directAllocations;
+
+    // Statistics of the thread's lifetime.
+    private int totalRefills;
+    private long totalRefillWaste;
+    private long totalRetireWaste;
+    private int totalDirectAllocations;
+
+    public AdaptiveTLABRefillPolicy(Size initialTLABSize) {
+        minSize = initialTLABSize.dividedBy(SIZE_RANGE_FACTOR).wordAligned();
+        maxSize = initialTLABSize.times(SIZE_RANGE_FACTOR);
+        setNextSize(initialTLABSize);
+    }
+
+    private void setNextSize(Size size) {
+        nextSize = size;
+        refillWasteLimit = size.dividedBy(REFILL_WASTE_FRACTION).wordAligned();
+    }
+
+    @Override
+    public boolean shouldRefill(Size size, Pointer allocationMark) {
+        // Without the end of the TLAB, the waste can't be bounded.
+        return true;
+    }
+
+    @Override
+    public boolean shouldRefill(Size size, Pointer allocationMark, Pointer tlabEnd) {
+        if (allocationMark.isZero() || !tlabEnd.greaterThan(allocationMark)) {
+            return true;
+        }
+        if (tlabEnd.minus(allocationMark).lessEqual(refillWasteLimit)) {
+            return true;
+        }
+        // Keep the TLAB and allocate the request in the heap. Raise the limit so that a thread whose requests don't fit
+        // in the TLAB eventually refills it.
+        refillWasteLimit = refillWasteLimit.plus(WASTE_INCREMENT_WORDS * Word.size());
+        directAllocations++;
+        return false;
+    }
+
+    @Override
+    public Size nextTlabSize() {
+        return nextSize;
+    }
+
+    @Override
+    public void notifyRefill(Size tlabSize, Size leftover) {
+        refills++;
+        refilledSpace += tlabSize.toLong();
+        refillWaste += leftover.toLong();
+    }
+
+    @Override
+    public void notifyInterimRetire(Size leftover) {
+        // The thread gets a new TLAB on its next allocation, as if this one was refilled.
+        refillWaste += leftover.toLong();
+    }
+
+    @Override
+    public void notifyRetire(Size leftover) {
+        final long allocated = Math.max(0L, refilledSpace - refillWaste - leftover.toLong());
+        if (refills > 0 || averageAllocated >= 0) {
+            if (averageAllocated < 0) {
+                averageAllocated = allocated;
+            } else {
+                averageAllocated = (ALLOCATION_WEIGHT * allocated + (100 - ALLOCATION_WEIGHT) * averageAllocated) / 100;
+            }
+            Size size = Size.fromLong(averageAllocated / TARGET_REFILLS).wordAligned();
+            if (size.lessThan(minSize)) {
+                size = minSize;
+            } else if (size.greaterThan(maxSize)) {
+                size = maxSize;
+            }
+            setNextSize(size);
+        }
+        totalRefills += refills;
+        totalRefillWaste += refillWaste;
+        totalRetireWaste += leftover.toLong();
+        totalDirectAllocations += directAllocations;
+        refills = 0;
+        refilledSpace = 0L;
+        refillWaste = 0L;
+        directAllocations = 0;
+    }
+
+    @Override
+    public void printStats(VmThread vmThread) {
+        final boolean lockDisabledSafepoints = Log.lock();
+        Log.print("TLAB: ");
+        Log.printThread(vmThread, false);
+        Log.print(" size=");
+        Log.print(nextSize.toLong());
+        Log.print(" average allocated=");
+        Log.print(averageAllocated < 0 ? 0L : averageAllocated);
+        Log.print(" refills=");
+        Log.print(totalRefills);
+        Log.print(" direct allocations=");
+        Log.print(totalDirectAllocations);
+        Log.print(" refill waste=");
+        Log.print(totalRefillWaste);
+        Log.print(" retire waste=");
+        Log.println(totalRetireWaste);
+        Log.unlock(lockDisabledSafepoints);
+    }
+}
@@ -324,6 +324,17 @@ public interface HeapScheme extends VMScheme {
 
     void postWriteBarrier(Reference ref,  int displacement, int index, Reference value);
 
+    /**
+     * Post-write barrier for a bulk store of references into contiguous slots of an object, e.g., when copying reference array elements.
+     * Bulk stores are only performed if the heap scheme doesn't need {@linkplain WriteBarrierSpecification#ARRAY_PRE_BARRIER pre-write barriers}.
+     * Must not contain safepoint polls, so that no GC can occur between the stores and the barrier.
+     *
+     * @param ref the object whose references are updated
+     * @param offset offset from the origin of the object to the first updated slot
+     * @param numberOfSlots number of updated slots
+     */
+    void postBulkWriteBarrier(Reference ref, Offset offset, int numberOfSlots);
+
     enum PIN_SUPPORT_FLAG {
         /**
          * Just to indicate that the pin support flag has been initialized (makes the pinningSupportFlags treated as constant when not zero).
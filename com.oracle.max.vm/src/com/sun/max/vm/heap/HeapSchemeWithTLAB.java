@@ -39,6 +39,7 @@ import com.sun.max.vm.layout.*;
 import com.sun.max.vm.log.VMLog.Record;
 import com.sun.max.vm.log.hosted.*;
 import com.sun.max.vm.object.*;
+import com.sun.max.vm.profilers.sampling.*;
 import com.sun.max.vm.reference.*;
 import com.sun.max.vm.run.java.JavaRunScheme;
 import com.sun.max.vm.runtime.*;
@@ -82,9 +83,13 @@ public abstract class HeapSchemeWithTLAB extends HeapSchemeAdaptor {
 
     private static boolean PrintTLABStats;
 
+    private static boolean ResizeTLAB;
+
     static {
         VMOptions.addFieldOption("-XX:", "PrintTLABStats", Classes.getDeclaredField(HeapSchemeWithTLAB.class, "PrintTLABStats"),
                         "Print TLAB statistics at end of program.", MaxineVM.Phase.PRISTINE);
+        VMOptions.addFieldOption("-XX:", "ResizeTLAB", Classes.getDeclaredField(HeapSchemeWithTLAB.class, "ResizeTLAB"),
+                        "Size the TLABs of each thread after its allocation rate.", MaxineVM.Phase.PRISTINE);
 
         // TODO: clean this up. Used just for testing with and without inlined XIR tlab allocation.
         VMOptions.addFieldOption("-XX:", "InlineTLAB", Classes.getDeclaredField(HeapSchemeWithTLAB.class, "GenInlinedTLABAlloc"),
@@ -149,6 +154,18 @@ public abstract class HeapSchemeWithTLAB extends HeapSchemeAdaptor {
      * A procedure for resetting the TLAB of a thread.
      */
     public static class ResetTLAB implements Pointer.Procedure {
+        /**
+         * Specifies whether a GC follows the reset, as opposed to the threads resuming allocation right away.
+         */
+        private final boolean beforeGC;
+
+        public ResetTLAB() {
+            this(true);
+        }
+
+        public ResetTLAB(boolean beforeGC) {
+            this.beforeGC = beforeGC;
+        }
 
         protected void doBeforeReset(Pointer etla, Pointer tlabMark, Pointer tlabTop) {
             // Default is nothing.
@@ -178,6 +195,15 @@ public abstract class HeapSchemeWithTLAB extends HeapSchemeAdaptor {
                     refillPolicy.saveTlabTop(Address.zero());
                 }
             }
+            final TLABRefillPolicy refillPolicy = TLABRefillPolicy.getForCurrentThread(etla);
+            if (refillPolicy != null) {
+                final Size leftover = tlabTop.greaterThan(tlabMark) ? tlabTop.minus(tlabMark).asSize() : Size.zero();
+                if (beforeGC) {
+                    refillPolicy.notifyRetire(leftover);
+                } else {
+                    refillPolicy.notifyInterimRetire(leftover);
+                }
+            }
             doBeforeReset(etla, tlabMark, tlabTop);
             TLAB_TOP.store(etla, Address.zero());
             TLAB_MARK.store(etla, Address.zero());
@@ -284,10 +310,38 @@ public abstract class HeapSchemeWithTLAB extends HeapSchemeAdaptor {
         } else if (phase == MaxineVM.Phase.TERMINATING) {
             if (PrintTLABStats) {
                 globalTlabStats.printTLABStats();
+                synchronized (VmThreadMap.THREAD_LOCK) {
+                    VmThreadMap.ACTIVE.forAllThreadLocals(null, printTLABStats);
+                }
             }
         }
     }
 
+    /**
+     * Prints the statistics of the TLAB refill policy of a thread.
+     */
+    private static final Pointer.Procedure printTLABStats = new Pointer.Procedure() {
+        public void run(Pointer tla) {
+            final Pointer etla = ETLA.load(tla);
+            final TLABRefillPolicy refillPolicy = TLABRefillPolicy.getForCurrentThread(etla);
+            if (refillPolicy != null) {
+                refillPolicy.printStats(UnsafeCast.asVmThread(VM_THREAD.loadRef(etla).toJava()));
+            }
+        }
+    };
+
+    /**
+     * Creates the TLAB refill policy of a thread that starts using TLABs. The first TLAB of the thread is refilled
+     * before the policy exists, so its refill is reported to the new policy.
+     *
+     * @param tlabSize size of the first TLAB of the thread
+     */
+    protected TLABRefillPolicy newTLABRefillPolicy(Size tlabSize) {
+        final TLABRefillPolicy refillPolicy = ResizeTLAB ? new AdaptiveTLABRefillPolicy(tlabSize) : new SimpleTLABRefillPolicy(tlabSize);
+        refillPolicy.notifyRefill(tlabSize, Size.zero());
+        return refillPolicy;
+    }
+
     @Override
     public void disableAllocationForCurrentThread() {
         final Pointer etla = ETLA.load(currentTLA());
@@ -376,12 +430,19 @@ public abstract class HeapSchemeWithTLAB extends HeapSchemeAdaptor {
     public void refillTLAB(Pointer etla, Pointer tlab, Size size) {
         final Pointer tlabTop = tlab.plus(size); // top of the new TLAB
         final Pointer allocationMark = TLAB_MARK.load(etla);
+        final TLABRefillPolicy refillPolicy = TLABRefillPolicy.getForCurrentThread(etla);
         if (!allocationMark.isZero()) {
             final Pointer oldTop = TLAB_TOP.load(etla);
             globalTlabStats.leftover += oldTop.minus(allocationMark).toLong();
+            if (refillPolicy != null) {
+                refillPolicy.notifyRefill(size, oldTop.greaterThan(allocationMark) ? oldTop.minus(allocationMark).asSize() : Size.zero());
+            }
             // It is a refill, not an initial fill. So invoke handler.
             doBeforeTLABRefill(allocationMark, oldTop);
         } else {
+            if (refillPolicy != null) {
+                refillPolicy.notifyRefill(size, Size.zero());
+            }
             ProgramError.check(CUSTOM_ALLOCATION_ENABLED.load(etla).isZero(),
                 "Must not refill TLAB when in custom allocator is set");
         }
@@ -437,6 +498,21 @@ public abstract class HeapSchemeWithTLAB extends HeapSchemeAdaptor {
     @INLINE
     @NO_SAFEPOINT_POLLS("object allocation and initialization must be atomic")
     protected final Pointer tlabAllocate(Size size) {
+        return tlabAllocate(size, null);
+    }
+
+    /**
+     * The fast, inline path for allocation of an object whose hub is known.
+     *
+     * @param size the size of memory chunk to be allocated
+     * @param hub the hub of the object that will be planted in the chunk, or {@code null} if the chunk is not
+     *            allocated on behalf of an object allocation request
+     * @return an allocated and zeroed chunk of memory {@code size} bytes in size
+     * @throws OutOfMemoryError if the allocation request cannot be satisfied
+     */
+    @INLINE
+    @NO_SAFEPOINT_POLLS("object allocation and initialization must be atomic")
+    protected final Pointer tlabAllocate(Size size, Hub hub) {
         if (MaxineVM.isDebug() && ((!size.isDoubleWordAligned() && Platform.target().arch.isARM()) || (!size.isWordAligned() && !Platform.target().arch.isARM()))) {
             FatalError.unexpected("size is not word aligned in heap allocation request");
         }
@@ -447,7 +523,7 @@ public abstract class HeapSchemeWithTLAB extends HeapSchemeAdaptor {
         final Pointer end = cell.plus(size);
 
         if (end.greaterThan(tlabEnd)) {
-            return slowPathAllocate(size, etla, oldAllocationMark, tlabEnd);
+            return slowPathAllocate(size, etla, oldAllocationMark, tlabEnd, hub);
         }
         TLAB_MARK.store(etla, end);
 
@@ -475,9 +551,9 @@ public abstract class HeapSchemeWithTLAB extends HeapSchemeAdaptor {
     }
 
     @SNIPPET_SLOWPATH
-    public final Pointer c1xSlowPathAllocate(Size size, Pointer etla) {
+    public final Pointer c1xSlowPathAllocate(Size size, Pointer etla, Hub hub) {
         globalTlabStats.inlinedSlowPathAllocateCount++;
-        return slowPathAllocate(size, etla, TLAB_MARK.load(etla), TLAB_TOP.load(etla));
+        return slowPathAllocate(size, etla, TLAB_MARK.load(etla), TLAB_TOP.load(etla), hub);
     }
 
     /**
@@ -493,7 +569,7 @@ public abstract class HeapSchemeWithTLAB extends HeapSchemeAdaptor {
 
     @NO_SAFEPOINT_POLLS("object allocation and initialization must be atomic")
     @NEVER_INLINE
-    private Pointer slowPathAllocate(Size size, final Pointer etla, final Pointer oldAllocationMark, final Pointer tlabEnd) {
+    private Pointer slowPathAllocate(Size size, final Pointer etla, final Pointer oldAllocationMark, final Pointer tlabEnd, Hub hub) {
         globalTlabStats.runtimeSlowPathAllocateCount++;
         // Slow path may be taken because of a genuine refill request, because allocation was disabled,
         // or because allocation in immortal heap was requested.
@@ -507,7 +583,11 @@ public abstract class HeapSchemeWithTLAB extends HeapSchemeAdaptor {
         }
         globalTlabStats.tlabOverflowCount++;
         // This path will always be taken if TLAB allocation is not enabled.
-        return handleTLABOverflow(size, etla, oldAllocationMark, tlabEnd);
+        final Pointer cell = handleTLABOverflow(size, etla, oldAllocationMark, tlabEnd);
+        if (hub != null && AllocationSampler.isEnabled()) {
+            AllocationSampler.allocated(oldAllocationMark, TLAB_MARK.load(etla), cell, size, hub);
+        }
+        return cell;
     }
 
     @NEVER_INLINE
@@ -526,14 +606,14 @@ public abstract class HeapSchemeWithTLAB extends HeapSchemeAdaptor {
     @NO_SAFEPOINT_POLLS("object allocation and initialization must be atomic")
     public final Object createArray(DynamicHub dynamicHub, int length) {
         final Size size = Layout.getArraySize(dynamicHub.classActor.componentClassActor().kind, length);
-        final Pointer cell = tlabAllocate(size);
+        final Pointer cell = tlabAllocate(size, dynamicHub);
         return Cell.plantArray(cell, size, dynamicHub, length);
     }
 
     @INLINE
     @NO_SAFEPOINT_POLLS("object allocation and initialization must be atomic")
     public final Object createTuple(Hub hub) {
-        Pointer cell = tlabAllocate(hub.tupleSize);
+        Pointer cell = tlabAllocate(hub.tupleSize, hub);
         if (MaxineVM.isDebug()) {
             Reference.fromJava(hub).toOrigin().getReference().toOrigin().getReference().toOrigin();
             Object result = Cell.plantTuple(cell, hub);
@@ -546,21 +626,21 @@ public abstract class HeapSchemeWithTLAB extends HeapSchemeAdaptor {
     @NO_SAFEPOINT_POLLS("object allocation and initialization must be atomic")
     public final Object createHybrid(DynamicHub hub) {
         final Size size = hub.tupleSize;
-        final Pointer cell = tlabAllocate(size);
+        final Pointer cell = tlabAllocate(size, hub);
         return Cell.plantHybrid(cell, size, hub);
     }
 
     @NO_SAFEPOINT_POLLS("object allocation and initialization must be atomic")
     public final Hybrid expandHybrid(Hybrid hybrid, int length) {
         final Size size = Layout.hybridLayout().getArraySize(length);
-        final Pointer cell = tlabAllocate(size);
+        final Pointer cell = tlabAllocate(size, ObjectAccess.readHub(hybrid));
         return Cell.plantExpandedHybrid(cell, size, hybrid, length);
     }
 
     @NO_SAFEPOINT_POLLS("object allocation and initialization must be atomic")
     public final Object clone(Object object) {
         final Size size = Layout.size(Reference.fromJava(object));
-        final Pointer cell = tlabAllocate(size);
+        final Pointer cell = tlabAllocate(size, ObjectAccess.readHub(object));
         return Cell.plantClone(cell, size, object);
     }
 
@@ -597,6 +677,12 @@ public abstract class HeapSchemeWithTLAB extends HeapSchemeAdaptor {
     @Override
     public void notifyCurrentThreadDetach() {
         tlabReset(currentTLA());
+        if (PrintTLABStats) {
+            final TLABRefillPolicy refillPolicy = TLABRefillPolicy.getForCurrentThread(ETLA.load(currentTLA()));
+            if (refillPolicy != null) {
+                refillPolicy.printStats(VmThread.current());
+            }
+        }
     }
 
     public static final TLABLogger logger = MaxineVM.isDebug() ? new TLABLogger(true) : new TLABLogger();
@@ -0,0 +1,441 @@
+/*
+ * Copyright (c) 2012, Oracle and/or its affiliates. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * Please contact Oracle, 500 Oracle Parkway, Redwood Shores, CA 94065 USA
+ * or visit www.oracle.com if you need additional information or have any
+ * questions.
+ */
+package com.sun.max.vm.heap;
+
+import static com.sun.max.platform.Platform.*;
+import static com.sun.max.vm.MaxineVM.*;
+import static com.sun.max.vm.thread.VmThreadLocal.*;
+
+import java.util.*;
+
+import com.sun.cri.ci.*;
+import com.sun.cri.ci.CiAddress.Scale;
+import com.sun.cri.xir.*;
+import com.sun.cri.xir.CiXirAssembler.XirLabel;
+import com.sun.cri.xir.CiXirAssembler.XirOperand;
+import com.sun.cri.xir.CiXirAssembler.XirParameter;
+import com.sun.max.annotate.*;
+import com.sun.max.memory.*;
+import com.sun.max.unsafe.*;
+import com.sun.max.vm.actor.holder.*;
+import com.sun.max.vm.actor.member.*;
+import com.sun.max.vm.classfile.constant.*;
+import com.sun.max.vm.compiler.*;
+import com.sun.max.vm.layout.*;
+import com.sun.max.vm.reference.*;
+import com.sun.max.vm.runtime.*;
+import com.sun.max.vm.thread.*;
+import com.sun.max.vm.thread.VmThreadLocal.Nature;
+
+/**
+ * Snapshot-at-the-beginning (SATB) queues of a concurrent marking.
+ * <p>
+ * While concurrent marking is in progress, the pre-write barrier of reference stores records the reference about to be
+ * overwritten, if not null, in a buffer local to the writing thread. This guarantees that every object reachable when marking
+ * started is eventually marked, even if the mutators disconnect it from the graph of objects the marker still has to trace.
+ * <p>
+ * Buffers are allocated directly off virtual memory, one page each, and recycled from one marking to the next. The thread local
+ * {@link #SATB_QUEUE_TAIL} points to the next free entry of the current thread's buffer. It is zero when marking isn't in progress,
+ * so that the barrier reduces to a load and a test. Filled buffers are queued on a global list of completed buffers, from which the
+ * marker {@linkplain #takeCompletedBuffer() takes} them. The queues are {@linkplain #activate() activated} and
+ * {@linkplain #deactivate() deactivated} by VM operations, when all mutator threads are stopped.
+ * <p>
+ * The first word of a buffer links it in the global lists, the second holds the end of its entries once it is completed.
+ * Since buffers are aligned on their size, a tail aligned on the buffer size indicates a full buffer. Threads are activated with a
+ * {@link #SENTINEL} tail, which looks like a full buffer and makes the first barrier get a buffer. The paths that queue a full buffer
+ * and get a new one must not be stopped by a safepoint, so that deactivation doesn't race with them.
+ */
+public final class SATBQueue {
+    public static final String SATB_QUEUE_TAIL_THREAD_LOCAL_NAME = "SATB_QUEUE_TAIL";
+
+    public static final int BUFFER_SIZE = platform().pageSize;
+    private static final int BUFFER_HEADER_SIZE = 2 * Word.size();
+    private static final long BUFFER_OFFSET_MASK = BUFFER_SIZE - 1;
+
+    /**
+     * Tail of active threads that haven't got a buffer yet.
+     */
+    private static final Address SENTINEL = Address.fromInt(BUFFER_SIZE);
+
+    /**
+     * Indicates whether the queues are active. Only changed by VM operations.
+     */
+    private static boolean active;
+
+    /**
+     * Tail of the SATB buffer of a thread. Zero if concurrent marking isn't in progress.
+     */
+    public static final VmThreadLocal SATB_QUEUE_TAIL
+        = new VmThreadLocal(SATB_QUEUE_TAIL_THREAD_LOCAL_NAME, false, "SATBQueue: tail of the SATB buffer, zero if concurrent marking isn't in progress", Nature.Single) {
+            @Override
+            public void initialize() {
+                // Threads are added while holding the thread lock, so activation and deactivation can't race with this.
+                store3(active ? SENTINEL : Address.zero());
+            }
+        };
+
+    /**
+     * Global lists of buffers and the spin lock protecting them.
+     */
+    private static final class BufferLists {
+        volatile int lock;
+        Address completed = Address.zero();
+        Address free = Address.zero();
+    }
+
+    private static final BufferLists lists = new BufferLists();
+
+    @FOLD
+    private static int lockOffset() {
+        return ClassActor.fromJava(BufferLists.class).findLocalInstanceFieldActor("lock").offset();
+    }
+
+    private SATBQueue() {
+    }
+
+    @INLINE
+    private static void lock() {
+        final Reference listsRef = Reference.fromJava(lists);
+        while (listsRef.compareAndSwapInt(lockOffset(), 0, 1) != 0) {
+            // spin: the lock is only held for a few instructions by threads that can't be stopped.
+        }
+    }
+
+    @INLINE
+    private static void unlock() {
+        lists.lock = 0;
+    }
+
+    @INLINE
+    private static Pointer bufferHead(Pointer tail) {
+        // A full buffer's tail is at the end of the buffer, hence the minus one word.
+        return tail.minus(Word.size()).and(~BUFFER_OFFSET_MASK);
+    }
+
+    @INLINE
+    private static Address next(Address buffer) {
+        return buffer.asPointer().getWord(0).asAddress();
+    }
+
+    /**
+     * Start of the entries of a buffer.
+     */
+    @INLINE
+    public static Pointer entriesStart(Address buffer) {
+        return buffer.asPointer().plus(BUFFER_HEADER_SIZE);
+    }
+
+    /**
+     * End of the entries of a completed buffer.
+     */
+    @INLINE
+    public static Pointer entriesEnd(Address buffer) {
+        return buffer.asPointer().getWord(1).asPointer();
+    }
+
+    @INLINE
+    private static void complete(Pointer tail) {
+        final Pointer head = bufferHead(tail);
+        if (!head.isZero()) {
+            head.setWord(1, tail);
+            lock();
+            head.setWord(0, lists.completed);
+            lists.completed = head;
+            unlock();
+        }
+    }
+
+    /**
+     * Queues a thread's full buffer and gets it a new one.
+     * Called by the pre-write barrier when the buffer of the current thread is full, and by the XIR stub of the compiled barrier.
+     *
+     * @param tail tail of the full buffer, or {@link #SENTINEL}
+     * @return the tail of the new buffer
+     */
+    @NO_SAFEPOINT_POLLS("SATB buffers must not be lost to a deactivation")
+    @NEVER_INLINE
+    public static Pointer flush(Pointer tail) {
+        complete(tail);
+        lock();
+        Address buffer = lists.free;
+        if (!buffer.isZero()) {
+            lists.free = next(buffer);
+        }
+        unlock();
+        if (buffer.isZero()) {
+            buffer = VirtualMemory.allocate(Size.fromInt(BUFFER_SIZE), VirtualMemory.Type.DATA);
+            if (buffer.isZero()) {
+                FatalError.unexpected("Failed to allocate SATB buffer");
+            }
+        }
+        return entriesStart(buffer);
+    }
+
+    /**
+     * Records a reference overwritten during concurrent marking in the current thread's buffer.
+     *
+     * @param etla the safepoint-enabled thread locals of the current thread
+     * @param tail the current tail of the thread's buffer
+     * @param previous the overwritten reference
+     */
+    @INLINE
+    private static void enqueue(Pointer etla, Pointer tail, Reference previous) {
+        if (!previous.isZero()) {
+            Pointer entry = tail;
+            if (entry.and(BUFFER_OFFSET_MASK).isZero()) {
+                entry = flush(entry);
+            }
+            entry.setWord(previous.toOrigin());
+            SATB_QUEUE_TAIL.store(etla, entry.plus(Word.size()));
+        }
+    }
+
+    /**
+     * Pre-write barrier of a store into a reference field.
+     */
+    @INLINE
+    public static void preWrite(Reference ref, Offset offset) {
+        if (isHosted()) {
+            return;
+        }
+        final Pointer etla = ETLA.load(VmThread.currentTLA());
+        final Pointer tail = SATB_QUEUE_TAIL.load(etla);
+        if (!tail.isZero()) {
+            enqueue(etla, tail, ref.readReference(offset));
+        }
+    }
+
+    /**
+     * Pre-write barrier of a store into a reference array element.
+     */
+    @INLINE
+    public static void preWrite(Reference ref, int displacement, int index) {
+        if (isHosted()) {
+            return;
+        }
+        final Pointer etla = ETLA.load(VmThread.currentTLA());
+        final Pointer tail = SATB_QUEUE_TAIL.load(etla);
+        if (!tail.isZero()) {
+            enqueue(etla, tail, ref.getReference(displacement, index));
+        }
+    }
+
+    /**
+     * Records a reference that mutators are about to use without reading it from a traced reference field, e.g., the referent of
+     * a weak reference, so that the marker doesn't miss it.
+     */
+    @INLINE
+    public static void keepAlive(Reference ref) {
+        if (isHosted()) {
+            return;
+        }
+        final Pointer etla = ETLA.load(VmThread.currentTLA());
+        final Pointer tail = SATB_QUEUE_TAIL.load(etla);
+        if (!tail.isZero()) {
+            enqueue(etla, tail, ref);
+        }
+    }
+
+    /**
+     * Indicates whether the queues are active, i.e., whether concurrent marking is in progress.
+     */
+    public static boolean isActive() {
+        return active;
+    }
+
+    private static final Pointer.Procedure activator = new Pointer.Procedure() {
+        public void run(Pointer tla) {
+            SATB_QUEUE_TAIL.store(ETLA.load(tla), SENTINEL);
+        }
+    };
+
+    private static final Pointer.Procedure deactivator = new Pointer.Procedure() {
+        public void run(Pointer tla) {
+            final Pointer etla = ETLA.load(tla);
+            final Pointer tail = SATB_QUEUE_TAIL.load(etla);
+            if (!tail.isZero()) {
+                complete(tail);
+                SATB_QUEUE_TAIL.store(etla, Address.zero());
+            }
+        }
+    };
+
+    /**
+     * Makes the pre-write barriers of all threads record overwritten references.
+     * Must be called by the VM operation thread, with all mutator threads stopped.
+     */
+    public static void activate() {
+        active = true;
+        VmThreadMap.ACTIVE.forAllThreadLocals(null, activator);
+    }
+
+    /**
+     * Disables the pre-write barriers and queues the buffers of all threads on the completed list.
+     * Must be called by the VM operation thread, with all mutator threads stopped.
+     */
+    public static void deactivate() {
+        active = false;
+        VmThreadMap.ACTIVE.forAllThreadLocals(null, deactivator);
+    }
+
+    /**
+     * Queues the buffer of the current thread, which is detaching from the VM, on the completed list.
+     */
+    public static void flushCurrentThread() {
+        final boolean wasDisabled = SafepointPoll.disable();
+        final Pointer etla = ETLA.load(VmThread.currentTLA());
+        final Pointer tail = SATB_QUEUE_TAIL.load(etla);
+        if (!tail.isZero()) {
+            complete(tail);
+            SATB_QUEUE_TAIL.store(etla, active ? SENTINEL : Address.zero());
+        }
+        if (!wasDisabled) {
+            SafepointPoll.enable();
+        }
+    }
+
+    /**
+     * Takes a buffer off the completed list. Must be called with safepoints disabled.
+     *
+     * @return a completed buffer, or zero if there is none
+     */
+    public static Address takeCompletedBuffer() {
+        lock();
+        final Address buffer = lists.completed;
+        if (!buffer.isZero()) {
+            lists.completed = next(buffer);
+        }
+        unlock();
+        return buffer;
+    }
+
+    /**
+     * Returns a buffer whose entries have been processed to the free list. Must be called with safepoints disabled.
+     */
+    public static void recycle(Address buffer) {
+        lock();
+        buffer.asPointer().setWord(0, lists.free);
+        lists.free = buffer;
+        unlock();
+    }
+
+    /**
+     * Runtime calls stubs of the compiled pre-write barrier.
+     */
+    @HOSTED_ONLY
+    private static final List<XirTemplate> stubs = new ArrayList<XirTemplate>();
+
+    @HOSTED_ONLY
+    private static XirTemplate flushStub;
+
+    /**
+     * Gets the stubs called by the compiled pre-write barriers. They must be compiled along the other XIR stubs.
+     */
+    @HOSTED_ONLY
+    public static List<XirTemplate> barrierStubs() {
+        return stubs;
+    }
+
+    @HOSTED_ONLY
+    private static XirTemplate flushStub(CiXirAssembler asm) {
+        if (flushStub == null) {
+            final CiXirAssembler stubAsm = asm.copy();
+            final XirOperand result = stubAsm.restart(WordUtil.archKind());
+            final XirParameter tail = stubAsm.createInputParameter("tail", WordUtil.archKind());
+            final ClassMethodActor flush = ClassActor.fromJava(SATBQueue.class).findLocalStaticMethodActor(SymbolTable.makeSymbol("flush"));
+            stubAsm.callRuntime(flush, result, tail);
+            flushStub = stubAsm.finishStub("stub-flushSATBQueue");
+            stubs.add(flushStub);
+        }
+        return flushStub;
+    }
+
+    /**
+     * Generates the part of the pre-write barrier that follows the load of the overwritten reference in {@code previous}.
+     */
+    @HOSTED_ONLY
+    private static void genEnqueue(CiXirAssembler asm, XirOperand etla, XirOperand tail, XirOperand previous, XirLabel done) {
+        final XirOperand offsetInBuffer = asm.createTemp("offsetInBuffer", WordUtil.archKind());
+        final XirLabel record = asm.createInlineLabel("recordInSATBBuffer");
+        final XirLabel flush = asm.createOutOfLineLabel("flushSATBBuffer");
+        asm.jeq(done, previous, asm.i(0));
+        asm.and(offsetInBuffer, tail, asm.i((int) BUFFER_OFFSET_MASK));
+        asm.jeq(flush, offsetInBuffer, asm.i(0));
+        asm.bindInline(record);
+        asm.pstore(WordUtil.archKind(), tail, asm.i(0), previous, false);
+        asm.add(tail, tail, asm.i(Word.size()));
+        asm.pstore(WordUtil.archKind(), etla, asm.i(SATB_QUEUE_TAIL.offset), tail, false);
+        asm.bindInline(done);
+        asm.bindOutOfLine(flush);
+        asm.callStub(flushStub(asm), tail, tail);
+        asm.jmp(record);
+    }
+
+    /**
+     * Loads the tail of the current thread's buffer and branches to {@code done} if the queues are inactive.
+     */
+    @HOSTED_ONLY
+    private static void genLoadTail(CiXirAssembler asm, XirOperand etla, XirOperand tail, XirLabel done) {
+        final XirOperand tla = asm.createRegisterTemp("TLA", WordUtil.archKind(), vm().registerConfigs.standard.getRegisterForRole(VMRegister.LATCH));
+        asm.pload(WordUtil.archKind(), etla, tla, asm.i(ETLA.offset), false);
+        asm.pload(WordUtil.archKind(), tail, etla, asm.i(SATB_QUEUE_TAIL.offset), false);
+        asm.jeq(done, tail, asm.i(0));
+    }
+
+    /**
+     * Generates the pre-write barrier of a store into a reference field.
+     * The overwritten reference is loaded as a word: it never is live across a safepoint.
+     *
+     * @param object the object being stored into
+     * @param fieldOffset the offset of the field from the object's origin
+     */
+    @HOSTED_ONLY
+    public static void genTuplePreWriteBarrier(CiXirAssembler asm, XirOperand object, XirOperand fieldOffset) {
+        final XirOperand etla = asm.createTemp("ETLA", WordUtil.archKind());
+        final XirOperand tail = asm.createTemp("satbTail", WordUtil.archKind());
+        final XirOperand previous = asm.createTemp("previous", WordUtil.archKind());
+        final XirLabel done = asm.createInlineLabel("satbDone");
+        genLoadTail(asm, etla, tail, done);
+        // The load performs the implicit null check of the store.
+        asm.pload(WordUtil.archKind(), previous, object, fieldOffset, true);
+        genEnqueue(asm, etla, tail, previous, done);
+    }
+
+    /**
+     * Generates the pre-write barrier of a store into a reference array element.
+     *
+     * @param array the array being stored into
+     * @param index the index of the element
+     */
+    @HOSTED_ONLY
+    public static void genArrayPreWriteBarrier(CiXirAssembler asm, XirOperand array, XirOperand index) {
+        final XirOperand etla = asm.createTemp("ETLA", WordUtil.archKind());
+        final XirOperand tail = asm.createTemp("satbTail", WordUtil.archKind());
+        final XirOperand previous = asm.createTemp("previous", WordUtil.archKind());
+        final XirLabel done = asm.createInlineLabel("satbDone");
+        final int disp = Layout.referenceArrayLayout().getElementOffsetFromOrigin(0).toInt();
+        genLoadTail(asm, etla, tail, done);
+        asm.pload(WordUtil.archKind(), previous, array, index, disp, Scale.fromInt(Word.size()), true);
+        genEnqueue(asm, etla, tail, previous, done);
+    }
+}
@@ -60,11 +60,52 @@ public abstract class TLABRefillPolicy {
      */
     public abstract boolean shouldRefill(Size size, Pointer allocationMark);
 
+    /**
+     * Return policy decision regarding whether the TLAB for the current thread should be refilled, given the end of the TLAB.
+     * By default, the end of the TLAB is ignored.
+     * @param size size of the allocation request that causes the request to refill the TLAB
+     * @param allocationMark allocation mark of the TLAB
+     * @param tlabEnd end of the TLAB
+     */
+    public boolean shouldRefill(Size size, Pointer allocationMark, Pointer tlabEnd) {
+        return shouldRefill(size, allocationMark);
+    }
+
     /**
      * Returns the size the TLAB should have on next refill.
      */
     public abstract Size nextTlabSize();
 
+    /**
+     * Notifies the policy that the TLAB was refilled.
+     * @param tlabSize size of the new TLAB
+     * @param leftover space left unused in the previous TLAB
+     */
+    public void notifyRefill(Size tlabSize, Size leftover) {
+    }
+
+    /**
+     * Notifies the policy that the TLAB was retired, typically before a GC. Called by the VM operation thread.
+     * @param leftover space left unused in the retired TLAB
+     */
+    public void notifyRetire(Size leftover) {
+    }
+
+    /**
+     * Notifies the policy that the TLAB was retired while the thread keeps allocating, e.g., at the start of a
+     * concurrent marking. Unlike {@link #notifyRetire(Size)}, this does not end an interval between two GCs.
+     * Called by the VM operation thread.
+     * @param leftover space left unused in the retired TLAB
+     */
+    public void notifyInterimRetire(Size leftover) {
+    }
+
+    /**
+     * Print the statistics gathered by the policy for the specified thread.
+     */
+    public void printStats(VmThread vmThread) {
+    }
+
     @INTRINSIC(UNSAFE_CAST)
     private static native TLABRefillPolicy asTLABRefillPolicy(Object object);
 
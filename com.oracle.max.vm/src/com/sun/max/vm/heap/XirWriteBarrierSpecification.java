@@ -22,6 +22,8 @@
  */
 package com.sun.max.vm.heap;
 
+import java.util.*;
+
 import com.sun.cri.xir.*;
 import com.sun.cri.xir.CiXirAssembler.XirOperand;
 import com.sun.max.util.*;
@@ -63,4 +65,10 @@ public interface XirWriteBarrierSpecification extends WriteBarrierSpecification
      * @param writeBarrierSpec a bit set encoding a write barrier specification.
      */
     XirWriteBarrierGenerator barrierGenerator(IntBitSet<WriteBarrierSpecification.WriteBarrierSpec> writeBarrierSpec);
+
+    /**
+     * Return the XIR stubs called by the write barriers generated so far, e.g., to call into the runtime on a slow path.
+     * These are compiled along with the other XIR stubs, once all templates are generated.
+     */
+    List<XirTemplate> barrierStubs();
 }
@@ -0,0 +1,439 @@
+/*
+ * Copyright (c) 2012, Oracle and/or its affiliates. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * Please contact Oracle, 500 Oracle Parkway, Redwood Shores, CA 94065 USA
+ * or visit www.oracle.com if you need additional information or have any
+ * questions.
+ */
+package com.sun.max.vm.heap.gcx;
+
+import static com.sun.max.vm.heap.gcx.TricolorHeapMarker.*;
+
+import com.sun.max.annotate.*;
+import com.sun.max.memory.*;
+import com.sun.max.unsafe.*;
+import com.sun.max.vm.*;
+import com.sun.max.vm.actor.holder.*;
+import com.sun.max.vm.heap.*;
+import com.sun.max.vm.layout.*;
+import com.sun.max.vm.monitor.modal.sync.*;
+import com.sun.max.vm.reference.*;
+import com.sun.max.vm.runtime.*;
+
+/**
+ * Snapshot-at-the-beginning marking of a region-based heap, traced by a daemon thread concurrently with the mutators.
+ * <p>
+ * Marking starts with a short pause, the initial mark, that marks the roots grey and activates the {@linkplain SATBQueue SATB queues}.
+ * From then on, the marker thread traces the heap from the roots while the pre-write barriers of the mutators record the
+ * references they overwrite, so that the marker eventually marks every object that was reachable at the initial mark.
+ * Objects allocated during marking are live by construction: the heap scheme {@linkplain #recordAllocation(Address, Size) records}
+ * the memory handed to the mutators and the cells allocated in it are marked black at the end of marking. Marking completes with a
+ * second pause, the remark, which drains the SATB buffers left by the mutators, processes special references, and is followed by sweeping.
+ * <p>
+ * The marker thread traces in small steps, each run with safepoints disabled, so that a VM operation waits for the current step to
+ * complete and always sees the marking state between two steps. Grey cells are pushed on a private marking stack, with the same
+ * atomic color map updates as {@linkplain ParallelMarking parallel marking}. A cell that overflows the marking stack stays grey in the
+ * color map and is recorded in a {@link RescanMap}, which is rescanned once the range of the roots has been scanned.
+ * <p>
+ * Subclasses decide when marking starts, and submit the initial mark and remark VM operations. The initial mark must
+ * call {@link #startMarking()} and the remark must complete marking with {@link FirstFitMarkSweepSpace#finishConcurrentMarking(ConcurrentMarker)}.
+ */
+public abstract class ConcurrentMarker extends Thread {
+    /**
+     * Number of cells popped off the marking stack in a step.
+     */
+    private static final int CELLS_PER_STEP = 64;
+
+    /**
+     * Number of words (i.e., start and end of a range) of the allocation log when first allocated.
+     */
+    private static final int INITIAL_ALLOCATION_LOG_LENGTH = 1024;
+
+    /**
+     * Period, in milliseconds, at which the marker thread checks whether to start marking.
+     */
+    private static final long POLL_PERIOD_MS = 10;
+
+    protected final TricolorHeapMarker heapMarker;
+
+    private static final Object lock = JavaMonitorManager.newVmLock("CONCURRENT_MARKER_LOCK");
+
+    private final CellVisitor cellVisitor = new CellVisitor();
+
+    private final WorkStealingMarkingStack markingStack = new WorkStealingMarkingStack();
+
+    /**
+     * Rescan map where cells overflowing the marking stack are recorded.
+     */
+    private RescanMap recordingMap = new RescanMap();
+
+    /**
+     * Rescan map being rescanned.
+     */
+    private RescanMap rescanningMap = new RescanMap();
+
+    /**
+     * Index of the next word of the color map to scan for grey cells.
+     */
+    private int nextBitmapWordIndex;
+
+    /**
+     * Index of the last word of the color map to scan for grey cells.
+     */
+    private int lastBitmapWordIndex;
+
+    /**
+     * Index of the next entry of the {@linkplain #rescanningMap rescanned map} to scan.
+     */
+    private int nextRescanEntry;
+
+    /**
+     * Index of the last entry of the {@linkplain #rescanningMap rescanned map} to scan.
+     */
+    private int lastRescanEntry;
+
+    /**
+     * Indicates whether marking is in progress. Only changed by VM operations.
+     */
+    private volatile boolean marking;
+
+    /**
+     * Allocation log: start and end of the memory ranges allocated by the mutators since marking started. Allocated off the C heap.
+     */
+    private Pointer allocationLog = Pointer.zero();
+
+    private int allocationLogLength;
+
+    private int allocationLogCount;
+
+    /**
+     * Spin lock serializing the recording of allocations.
+     */
+    private volatile int allocationLogLock;
+
+    @FOLD
+    private static int allocationLogLockOffset() {
+        return ClassActor.fromJava(ConcurrentMarker.class).findLocalInstanceFieldActor("allocationLogLock").offset();
+    }
+
+    protected ConcurrentMarker(TricolorHeapMarker heapMarker) {
+        super("concurrent-marker");
+        this.heapMarker = heapMarker;
+        setDaemon(true);
+    }
+
+    /**
+     * Allocate the marking stack and rescan maps of the marker. The color map of the heap marker must be initialized.
+     */
+    public void initialize() {
+        markingStack.initialize(heapMarker.markingStack.length().toInt());
+        recordingMap.initialize(heapMarker);
+        rescanningMap.initialize(heapMarker);
+    }
+
+    /**
+     * Indicates whether concurrent marking is in progress, i.e., whether an initial mark took place since the last remark.
+     */
+    public final boolean isMarking() {
+        return marking;
+    }
+
+    /**
+     * Determine whether the marker should start a new marking. Called periodically by the marker thread when marking isn't in progress.
+     */
+    protected abstract boolean shouldStartMarking();
+
+    /**
+     * Submit the VM operation that starts a marking by calling {@link #startMarking()}.
+     */
+    protected abstract void initialMark();
+
+    /**
+     * Submit the VM operation that completes marking and reclaims the space of unmarked objects.
+     */
+    protected abstract void remark();
+
+    @Override
+    public void run() {
+        while (true) {
+            synchronized (lock) {
+                try {
+                    lock.wait(POLL_PERIOD_MS);
+                } catch (InterruptedException e) {
+                }
+            }
+            if (!marking && shouldStartMarking()) {
+                initialMark();
+            }
+            while (marking && step()) {
+                // Keep on tracing until there is no work left.
+            }
+            if (marking) {
+                remark();
+            }
+        }
+    }
+
+    /**
+     * Run one step of marking with safepoints disabled, so that it isn't interrupted by a VM operation.
+     *
+     * @return false if there is no marking work left, or if marking has completed
+     */
+    private boolean step() {
+        final boolean wasDisabled = SafepointPoll.disable();
+        final boolean result = marking && doStep();
+        if (!wasDisabled) {
+            SafepointPoll.enable();
+        }
+        return result;
+    }
+
+    /**
+     * Do a bounded amount of marking work. In order: visit cells off the marking stack, scan a word of the color map,
+     * move on to the next range recorded for rescan, and mark the references recorded in an SATB buffer.
+     *
+     * @return false if there was no work to do
+     */
+    private boolean doStep() {
+        int count = 0;
+        Pointer cell = markingStack.pop();
+        while (!cell.isZero()) {
+            cellVisitor.visitCell(cell);
+            if (++count == CELLS_PER_STEP) {
+                return true;
+            }
+            cell = markingStack.pop();
+        }
+        if (count > 0) {
+            return true;
+        }
+        if (nextBitmapWordIndex <= lastBitmapWordIndex) {
+            cellVisitor.visitGreyCells(nextBitmapWordIndex++);
+            return true;
+        }
+        if (nextRescanEntry <= lastRescanEntry) {
+            final int firstBitmapWordIndex = rescanningMap.firstBitmapWordIndex(nextRescanEntry);
+            if (firstBitmapWordIndex >= 0) {
+                nextBitmapWordIndex = firstBitmapWordIndex;
+                lastBitmapWordIndex = rescanningMap.lastBitmapWordIndex(nextRescanEntry);
+            }
+            nextRescanEntry++;
+            return true;
+        }
+        if (!recordingMap.isEmpty()) {
+            // Rescan the recorded ranges. Overflows while rescanning are recorded in the other map.
+            final RescanMap rescannedMap = rescanningMap;
+            rescanningMap = recordingMap;
+            recordingMap = rescannedMap;
+            recordingMap.clear();
+            nextRescanEntry = rescanningMap.leftmostEntry();
+            lastRescanEntry = rescanningMap.rightmostEntry();
+            return true;
+        }
+        final Address buffer = SATBQueue.takeCompletedBuffer();
+        if (!buffer.isZero()) {
+            final Pointer end = SATBQueue.entriesEnd(buffer);
+            for (Pointer entry = SATBQueue.entriesStart(buffer); entry.lessThan(end); entry = entry.plus(Word.size())) {
+                cellVisitor.markRefGrey(Reference.fromOrigin(entry.getWord().asPointer()));
+            }
+            SATBQueue.recycle(buffer);
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Start a marking: mark the roots grey and activate the SATB queues. Must be called by a VM operation, with all
+     * mutator threads stopped, their TLABs retired and the heap left with no unswept regions.
+     */
+    public final void startMarking() {
+        FatalError.check(!marking, "Concurrent marking already in progress");
+        heapMarker.clearColorMap();
+        heapMarker.markRoots();
+        final RootCellVisitor rootCellVisitor = heapMarker.rootCellVisitor();
+        nextBitmapWordIndex = heapMarker.bitmapWordIndex(rootCellVisitor.leftmost);
+        lastBitmapWordIndex = rootCellVisitor.leftmost.greaterThan(rootCellVisitor.rightmost) ? -1 : heapMarker.bitmapWordIndex(rootCellVisitor.rightmost);
+        nextRescanEntry = 0;
+        lastRescanEntry = -1;
+        markingStack.reset();
+        recordingMap.clear();
+        rescanningMap.clear();
+        allocationLogCount = 0;
+        SATBQueue.activate();
+        marking = true;
+    }
+
+    /**
+     * Complete the marking. Called by the remark VM operation, with all mutator threads stopped and their TLABs retired.
+     *
+     * @param regionsRanges enumerate ranges of heap regions holding objects to trace
+     */
+    final void finishMarking(HeapRegionRangeIterable regionsRanges) {
+        FatalError.check(marking, "Concurrent marking not in progress");
+        SATBQueue.deactivate();
+        while (doStep()) {
+            // Drain the SATB buffers left by the mutators and trace what they reference.
+        }
+        markAllocatedCells();
+        heapMarker.finishConcurrentMarking(regionsRanges, heapMarker.lastMarkedCell());
+        marking = false;
+    }
+
+    /**
+     * Record memory handed to a mutator for allocation while marking is in progress, e.g., a TLAB chunk. Cells allocated in it
+     * are marked black when marking completes.
+     *
+     * @param start start of the memory
+     * @param size size of the memory
+     */
+    public final void recordAllocation(Address start, Size size) {
+        if (!marking) {
+            return;
+        }
+        final boolean wasDisabled = SafepointPoll.disable();
+        final Reference ref = Reference.fromJava(this);
+        while (ref.compareAndSwapInt(allocationLogLockOffset(), 0, 1) != 0) {
+            // spin: the lock is only held for a few instructions by threads that can't be stopped.
+        }
+        // Check again: marking may have completed while this thread was trying to stop.
+        if (marking) {
+            if (allocationLogCount + 2 > allocationLogLength) {
+                final int length = allocationLogLength == 0 ? INITIAL_ALLOCATION_LOG_LENGTH : allocationLogLength << 1;
+                final Size logSize = Size.fromInt(length).shiftedLeft(Word.widthValue().log2numberOfBytes);
+                final Pointer log = allocationLog.isZero() ? Memory.allocate(logSize) : Memory.reallocate(allocationLog, logSize);
+                if (log.isZero()) {
+                    FatalError.unexpected("Failed to allocate concurrent marking allocation log");
+                }
+                allocationLog = log;
+                allocationLogLength = length;
+            }
+            allocationLog.setWord(allocationLogCount++, start);
+            allocationLog.setWord(allocationLogCount++, start.plus(size));
+        }
+        allocationLogLock = 0;
+        if (!wasDisabled) {
+            SafepointPoll.enable();
+        }
+    }
+
+    /**
+     * Mark black the cells allocated in the memory recorded by {@link #recordAllocation(Address, Size)}. The recorded memory is
+     * parsable once the TLABs are retired: a cell with a zero hub is the start of memory that was never allocated.
+     */
+    private void markAllocatedCells() {
+        for (int i = 0; i < allocationLogCount; i += 2) {
+            Pointer cell = allocationLog.getWord(i).asPointer();
+            final Address end = allocationLog.getWord(i + 1).asAddress();
+            while (cell.lessThan(end)) {
+                final Pointer origin = Layout.cellToOrigin(cell);
+                final Word hubWord = origin.getWord();
+                if (hubWord.isZero()) {
+                    break;
+                }
+                if (HeapFreeChunk.isHeapFreeChunkOrigin(origin)) {
+                    cell = cell.plus(HeapFreeChunk.getFreechunkSize(cell));
+                    continue;
+                }
+                if (!DarkMatter.isDarkMatterHub(hubWord)) {
+                    heapMarker.markBlackIfWhite(cell);
+                }
+                cell = cell.plus(Layout.size(origin));
+            }
+        }
+        allocationLogCount = 0;
+    }
+
+    /**
+     * Marks cells reached from the cells it visits and visits the grey cells of the color map.
+     */
+    private final class CellVisitor extends PointerIndexVisitor {
+        @INLINE
+        void markRefGrey(Reference ref) {
+            final Pointer cell = Layout.originToCell(ref.toOrigin());
+            if (heapMarker.isCovered(cell) && heapMarker.markGreyIfWhiteAtomic(cell)) {
+                if (!markingStack.push(cell)) {
+                    // The cell stays grey in the color map. It will be found by rescanning the area recorded in the rescan map.
+                    recordingMap.recordCellForRescan(cell);
+                }
+            }
+        }
+
+        @Override
+        public void visit(Pointer pointer, int wordIndex) {
+            markRefGrey(pointer.getReference(wordIndex));
+        }
+
+        void visitCell(Pointer cell) {
+            if (!heapMarker.markBlackFromGreyAtomic(cell)) {
+                // Already visited.
+                return;
+            }
+            final Pointer origin = Layout.cellToOrigin(cell);
+            final Reference hubRef = Layout.readHubReference(origin);
+            markRefGrey(hubRef);
+            final Hub hub = UnsafeCast.asHub(hubRef.toJava());
+            final SpecificLayout specificLayout = hub.specificLayout;
+            if (specificLayout.isTupleLayout()) {
+                TupleReferenceMap.visitReferences(hub, origin, this);
+                if (hub.isJLRReference) {
+                    SpecialReferenceManager.discoverSpecialReference(cell);
+                }
+            } else if (specificLayout.isHybridLayout()) {
+                TupleReferenceMap.visitReferences(hub, origin, this);
+            } else if (specificLayout.isReferenceArrayLayout()) {
+                final int length = Layout.readArrayLength(origin);
+                for (int index = 0; index < length; index++) {
+                    markRefGrey(Layout.getReference(origin, index));
+                }
+            }
+        }
+
+        /**
+         * Visit the grey cells whose mark is in the specified word of the color map.
+         */
+        void visitGreyCells(int bitmapWordIndex) {
+            final Pointer colorMapBase = heapMarker.colorMapBase();
+            // Visiting a cell marks the cells it references, possibly in this word or at the last bit of the previous one.
+            // The word is therefore read once, before the words preceding it (see TricolorHeapMarker.isMarkAtLastBit).
+            // Cells marked grey after this read are on the marking stack or in the rescan map.
+            final long bitmapWord = colorMapBase.getLong(bitmapWordIndex);
+            if (bitmapWord == 0L) {
+                return;
+            }
+            final int firstBitIndex = bitmapWordIndex << Word.widthValue().log2numberOfBits;
+            // The first bit of the word is the grey bit of the mark at the last bit of the previous word, if any.
+            final boolean firstBitIsGrey = (bitmapWord & 1L) != 0L && bitmapWordIndex > 0 && heapMarker.isMarkAtLastBit(bitmapWordIndex - 1);
+            int bitIndexInWord = firstBitIsGrey ? 1 : 0;
+            while (bitIndexInWord < LAST_BIT_INDEX_IN_WORD) {
+                final long remainingBits = bitmapWord >>> bitIndexInWord;
+                final long greyMarksInWord = remainingBits & (remainingBits >>> 1);
+                if (greyMarksInWord == 0L) {
+                    break;
+                }
+                bitIndexInWord += Pointer.fromLong(greyMarksInWord).leastSignificantBitSet();
+                visitCell(heapMarker.addressOf(firstBitIndex + bitIndexInWord).asPointer());
+                bitIndexInWord += 2;
+            }
+            if (bitIndexInWord <= LAST_BIT_INDEX_IN_WORD && TricolorHeapMarker.isMarkAtLastBit(bitmapWord, firstBitIsGrey) &&
+                            (colorMapBase.getLong(bitmapWordIndex + 1) & 1L) != 0L) {
+                // Grey mark spanning two words.
+                visitCell(heapMarker.addressOf(firstBitIndex + LAST_BIT_INDEX_IN_WORD).asPointer());
+            }
+        }
+    }
+}
@@ -134,12 +134,25 @@ public class ContiguousHeapSpace extends MemoryRegion implements EvacuatingSpace
             FatalError.check(newCommittedEnd.greaterEqual(start()), "Cannot shrink more than committed space");
             FatalError.check(delta.isAligned(platform().pageSize), "Heap Growth must be page-aligned");
         }
-        final boolean committed = Heap.AvoidsAnonOperations || VirtualMemory.uncommitMemory(newCommittedEnd, delta, VirtualMemory.Type.HEAP);
-        if (committed) {
-            committedEnd = newCommittedEnd;
-            return true;
+        if (Heap.AvoidsAnonOperations) {
+            // Keep the space mapped, but give its memory back to the OS.
+            VirtualMemory.discardMemory(newCommittedEnd, delta, VirtualMemory.Type.HEAP);
+        } else if (!VirtualMemory.uncommitMemory(newCommittedEnd, delta, VirtualMemory.Type.HEAP)) {
+            return false;
+        }
+        committedEnd = newCommittedEnd;
+        return true;
+    }
+
+    /**
+     * Give the memory of the committed space back to the OS. The space remains committed, but its content is lost.
+     * The pages are backed again on first access.
+     */
+    public void discardCommittedSpace() {
+        final Size committedSize = committedSize();
+        if (!committedSize.isZero()) {
+            VirtualMemory.discardMemory(start, committedSize, VirtualMemory.Type.HEAP);
         }
-        return false;
     }
 
     public void walkCommittedSpace(CellVisitor cellVisitor) {
@@ -23,6 +23,7 @@
 package com.sun.max.vm.heap.gcx;
 
 import com.sun.max.annotate.*;
+import com.sun.max.profile.*;
 import com.sun.max.util.timer.*;
 import com.sun.max.vm.heap.*;
 
@@ -44,11 +45,54 @@ public final class EvacuationTimers {
 
     private boolean trackTime = false;
 
+    /**
+     * Time spent by each GC worker thread in the operations of a parallel evacuation, in nanoseconds,
+     * indexed by worker identifier then by operation ordinal. Null if evacuation is never parallel.
+     */
+    private long[][] workerTimes;
+
     public EvacuationTimers() {
     }
 
     public void resetTrackTime() {
         trackTime = Heap.logGCTime();
+        if (workerTimes != null) {
+            for (long[] times : workerTimes) {
+                for (int i = 0; i < times.length; i++) {
+                    times[i] = 0L;
+                }
+            }
+        }
+    }
+
+    /**
+     * Allocate the per-worker timers.
+     * @param maxWorkers maximum number of GC worker threads participating to a parallel evacuation
+     */
+    public void initializeWorkerTimes(int maxWorkers) {
+        workerTimes = new long[maxWorkers][TIMED_OPERATION.values().length];
+    }
+
+    /**
+     * Start timing an operation on the current GC worker thread.
+     * @return the start time to pass to {@link #stopWorker(int, TIMED_OPERATION, long)}
+     */
+    @INLINE
+    public long startWorker() {
+        return trackTime ? Clock.SYSTEM_NANOSECONDS.getTicks() : 0L;
+    }
+
+    public void stopWorker(int workerID, TIMED_OPERATION timedOp, long startTime) {
+        if (trackTime) {
+            workerTimes[workerID][timedOp.ordinal()] += Clock.SYSTEM_NANOSECONDS.getTicks() - startTime;
+        }
+    }
+
+    /**
+     * Time spent by a GC worker thread in an operation since the last {@link #resetTrackTime()}, in nanoseconds.
+     */
+    public long getWorkerTime(int workerID, TIMED_OPERATION timedOp) {
+        return workerTimes[workerID][timedOp.ordinal()];
     }
 
     @INLINE
@@ -75,6 +75,12 @@ public abstract class Evacuator extends PointerIndexVisitor implements CellVisit
 
     private boolean refDiscoveryEnabled = true;
 
+    /**
+     * Set when other evacuators may evacuate cells of the same evacuated area concurrently with this one.
+     * Forwarding references must then be installed atomically.
+     */
+    boolean evacuatingInParallel;
+
     private GCOperation currentGCOperation;
 
     private EvacuationTimers timers;
@@ -98,7 +104,7 @@ public abstract class Evacuator extends PointerIndexVisitor implements CellVisit
 
     private void updateSpecialReference(Pointer origin) {
         if (refDiscoveryEnabled) {
-            SpecialReferenceManager.discoverSpecialReference(origin);
+            discoverSpecialReference(origin);
         } else {
             // Treat referent as strong reference.
             if (traceEvacVisitedCell()) {
@@ -112,6 +118,14 @@ public abstract class Evacuator extends PointerIndexVisitor implements CellVisit
         }
     }
 
+    /**
+     * Record a special reference discovered while scanning cells. Evacuators running in parallel must serialize the discoveries.
+     * @param origin origin of a {@link java.lang.ref.Reference} object
+     */
+    protected void discoverSpecialReference(Pointer origin) {
+        SpecialReferenceManager.discoverSpecialReference(origin);
+    }
+
     final void enableSpecialRefDiscovery() {
         refDiscoveryEnabled = true;
     }
@@ -155,6 +169,10 @@ public abstract class Evacuator extends PointerIndexVisitor implements CellVisit
         this.timers = timers;
     }
 
+    EvacuationTimers timers() {
+        return timers;
+    }
+
     /**
      * Set the phase logger for this evacuator.
      * HeapScheme using multiple evacuator instances might have to share a single phase logger
@@ -188,6 +206,17 @@ public abstract class Evacuator extends PointerIndexVisitor implements CellVisit
     @NEVER_INLINE
     abstract Pointer evacuate(Pointer origin);
 
+    /**
+     * Evacuate the cell at the specified origin unless another evacuator already did, and atomically install the
+     * forwarding reference. Only used when {@link #evacuatingInParallel} is set.
+     *
+     * @param origin origin of the cell to evacuate
+     * @return a reference to the evacuated cell's new location, which may have been set by another evacuator
+     */
+    Reference evacuateAndForwardAtomic(Pointer origin) {
+        throw FatalError.unimplemented();
+    }
+
     /**
      * Remembered set updates to apply to a reference to an evacuated cell.
      * Default is to do nothing.
@@ -210,6 +239,9 @@ public abstract class Evacuator extends PointerIndexVisitor implements CellVisit
     protected final Reference getForwardRef(Pointer origin) {
         Reference forwardRef = Layout.readForwardRef(origin);
         if (forwardRef.isZero()) {
+            if (evacuatingInParallel) {
+                return evacuateAndForwardAtomic(origin);
+            }
             final Pointer toOrigin = evacuate(origin);
             forwardRef = Reference.fromOrigin(toOrigin);
             Layout.writeForwardRef(origin, forwardRef);
@@ -241,6 +273,10 @@ public abstract class Evacuator extends PointerIndexVisitor implements CellVisit
     protected final Reference getForwardRef(Pointer origin, Pointer at) {
         Reference forwardRef = Layout.readForwardRef(origin);
         if (forwardRef.isZero()) {
+            if (evacuatingInParallel) {
+                // Forwarding isn't logged when evacuating in parallel.
+                return evacuateAndForwardAtomic(origin);
+            }
             final Pointer toOrigin = evacuate(origin);
             forwardRef = Reference.fromOrigin(toOrigin);
             Layout.writeForwardRef(origin, forwardRef);
@@ -545,7 +581,7 @@ public abstract class Evacuator extends PointerIndexVisitor implements CellVisit
             phaseLogger.logScanningCode(VMLogger.Interval.END);
         }
 
-        if (Heap.logGCPhases()) {
+        if (logPhases) {
             phaseLogger.logScanningImmortalHeap(VMLogger.Interval.BEGIN);
         }
         currentEvacuationOperation = IMMORTAL_SCAN;
@@ -553,7 +589,7 @@ public abstract class Evacuator extends PointerIndexVisitor implements CellVisit
         evacuateFromImmortalHeap();
         timers.stop(IMMORTAL_SCAN);
         doAfterOperation(IMMORTAL_SCAN);
-        if (Heap.logGCPhases()) {
+        if (logPhases) {
             phaseLogger.logScanningImmortalHeap(VMLogger.Interval.END);
         }
 
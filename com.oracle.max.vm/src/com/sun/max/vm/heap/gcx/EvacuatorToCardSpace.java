@@ -28,12 +28,14 @@ import com.sun.max.annotate.*;
 import com.sun.max.memory.*;
 import com.sun.max.unsafe.*;
 import com.sun.max.vm.*;
+import com.sun.max.vm.actor.holder.*;
 import com.sun.max.vm.heap.gcx.EvacuatingSpace.SpaceBounds;
 import com.sun.max.vm.heap.gcx.EvacuationTimers.TIMED_OPERATION;
 import com.sun.max.vm.heap.gcx.rset.ctbl.*;
 import com.sun.max.vm.layout.*;
 import com.sun.max.vm.log.VMLog.Record;
 import com.sun.max.vm.log.hosted.*;
+import com.sun.max.vm.reference.*;
 import com.sun.max.vm.runtime.*;
 /**
  * A heap space evacuator that evacuates objects from one space to a card-table covered space.
@@ -41,6 +43,11 @@ import com.sun.max.vm.runtime.*;
  *
  * TODO: replace direct cfotable updates with proper use of the DeadSpaceListener interface implemented by the card table.
  * (see all fixme comments below). This would make allocation in survivor space independent of details of the card table RSet.
+ * <p>
+ * Several evacuators may evacuate the same area in parallel, each with its own evacuation buffer. Cells are then forwarded with
+ * a compare-and-swap, and copied cells are pushed on the evacuator's {@link #greyCells} instead of being tracked as survivor ranges.
+ * Evacuators scanning dirty cards must not parse the part of other evacuators' buffers where cells are being allocated:
+ * each evacuator publishes the bounds of that area, see {@link #skipUnparsableArea(Pointer)}.
  */
 public class EvacuatorToCardSpace extends Evacuator {
     @FOLD
@@ -151,6 +158,41 @@ public class EvacuatorToCardSpace extends Evacuator {
 
     private long [] opEvacuationMarks = new long[TIMED_OPERATION.values().length];
 
+    /**
+     * Cells copied by this evacuator whose references haven't been scanned yet, when evacuating in parallel.
+     * Other evacuators may steal cells from it. Null if the evacuator never evacuates in parallel.
+     */
+    WorkStealingMarkingStack greyCells;
+
+    /**
+     * Bounds of the area of the evacuation buffer where cells are being allocated when evacuating in parallel.
+     * Updated with a sequence lock protocol: the end is zeroed before the start is updated.
+     */
+    private volatile Address unparsableStart = Address.zero();
+    private volatile Address unparsableEnd = Address.zero();
+
+    /**
+     * Bounds of a cell allocated outside of the evacuation buffer and being copied, when evacuating in parallel.
+     */
+    private volatile Address copiedCellStart = Address.zero();
+    private volatile Address copiedCellEnd = Address.zero();
+
+    /**
+     * Set when the last allocation was satisfied outside of the evacuation buffer.
+     */
+    private boolean overflowAllocated;
+
+    /**
+     * Range of contiguous grey cells that didn't fit in {@link #greyCells} and are not yet recorded in the survivor ranges queue.
+     */
+    private Address overflowedGreyCellsStart = Address.zero();
+    private Address overflowedGreyCellsEnd = Address.zero();
+
+    /**
+     * Number of grey cells that overflowed {@link #greyCells} in the last parallel evacuation.
+     */
+    int greyCellsOverflows;
+
     @Override
     protected void doAfterOperation(TIMED_OPERATION op) {
         opEvacuationMarks[op.ordinal()] = ptop.toLong();
@@ -166,6 +208,26 @@ public class EvacuatorToCardSpace extends Evacuator {
         this.logger = new EvacuationLogger(name);
     }
 
+    /**
+     * Creates an evacuator that helps the specified evacuator to evacuate its area in parallel. The two evacuators share the same
+     * remembered set, evacuation buffer provider and logger.
+     *
+     * @param evacuator the evacuator to help
+     */
+    protected EvacuatorToCardSpace(EvacuatorToCardSpace evacuator) {
+        this.fromSpace = evacuator.fromSpace;
+        this.toSpace = evacuator.toSpace;
+        this.rset = evacuator.rset;
+        this.cfoTable = evacuator.cfoTable;
+        this.evacuationBufferProvider = evacuator.evacuationBufferProvider;
+        this.evacuatedAreaBounds = evacuator.evacuatedAreaBounds;
+        this.logger = evacuator.logger;
+        this.phaseLogger = evacuator.phaseLogger;
+        this.detailLogger = evacuator.detailLogger;
+        this.checkDarkMatterRefs = evacuator.checkDarkMatterRefs;
+        initialize(evacuator.survivorRanges.capacity(), evacuator.alwaysRefill, evacuator.minRefillThreshold, true);
+    }
+
     public void setEvacuationSpace(EvacuatingSpace fromSpace,  HeapSpace toSpace) {
         this.fromSpace = fromSpace;
         this.toSpace = toSpace;
@@ -215,12 +277,7 @@ public class EvacuatorToCardSpace extends Evacuator {
         lastOverflowAllocatedRangeEnd = Pointer.zero();
         debugRetired_ptop = Pointer.zero();
         if (ptop.isZero()) {
-            Address chunk = evacuationBufferProvider.refillEvacuationBuffer();
-            Size chunkSize = HeapFreeChunk.getFreechunkSize(chunk);
-            pnextChunk = HeapFreeChunk.getFreeChunkNext(chunk);
-            rset.notifyRefill(chunk, chunkSize);
-            ptop = chunk.asPointer();
-            pend = chunk.plus(chunkSize.minus(evacuationBufferHeadroom())).asPointer();
+            acquireEvacuationBuffer();
         }
         initialEvacuationMark = ptop;
         allocatedRangeStart = ptop;
@@ -230,6 +287,15 @@ public class EvacuatorToCardSpace extends Evacuator {
         }
     }
 
+    private void acquireEvacuationBuffer() {
+        Address chunk = evacuationBufferProvider.refillEvacuationBuffer();
+        Size chunkSize = HeapFreeChunk.getFreechunkSize(chunk);
+        pnextChunk = HeapFreeChunk.getFreeChunkNext(chunk);
+        rset.notifyRefill(chunk, chunkSize);
+        ptop = chunk.asPointer();
+        pend = chunk.plus(chunkSize.minus(evacuationBufferHeadroom())).asPointer();
+    }
+
     @Override
     protected void doAfterEvacuation() {
         survivorRanges.clear();
@@ -238,13 +304,22 @@ public class EvacuatorToCardSpace extends Evacuator {
         if (logger.enabled()) {
             logger.logEndEvacuation(limit);
         }
+        releaseEvacuationBuffer(retireAfterEvacuation);
+    }
+
+    /**
+     * Leave the space left in the evacuation buffer in an iterable format.
+     * @param retire if true, retire the evacuation buffer to its provider
+     */
+    private void releaseEvacuationBuffer(boolean retire) {
+        Pointer limit = pend.plus(evacuationBufferHeadroom());
         Size spaceLeft = limit.minus(ptop).asSize();
         if ((alwaysRefill && spaceLeft.greaterThan(minObjectSize())) || spaceLeft.greaterEqual(minRefillThreshold)) {
             // Leave remaining space in an iterable format.
             // Next evacuation will start from top again.
             HeapFreeChunk.format(ptop, spaceLeft);
             rset.notifyRetireFreeSpace(ptop, spaceLeft);
-            if (retireAfterEvacuation) {
+            if (retire) {
                 // Note: if an overflow occurred and the TLAB isn't in the toSpace but in some other space, the leftover will not be retired but simply formatted as dead object.
                 evacuationBufferProvider.retireEvacuationBuffer(ptop, limit);
                 // Will trigger refill in doBeforeEvacution on next GC
@@ -271,6 +346,10 @@ public class EvacuatorToCardSpace extends Evacuator {
             DarkMatter.checkNoDarkMatterRef(start, end);
         }
         evacuatedBytes = evacuatedBytes.plus(rangeSize);
+        if (evacuatingInParallel) {
+            // Cells copied when evacuating in parallel are tracked individually as grey cells.
+            return;
+        }
         survivorRanges.add(start, end);
         if (logger.enabled()) {
             logger.logUpdateSurvivorRange(start, end);
@@ -339,6 +418,10 @@ public class EvacuatorToCardSpace extends Evacuator {
                 FatalError.check(!chunk.isZero() && (alwaysRefill || HeapFreeChunk.getFreechunkSize(chunk).greaterEqual(minRefillThreshold)), "refill request should always succeed");
             }
             pnextChunk = HeapFreeChunk.getFreeChunkNext(chunk);
+            Size chunkSize = HeapFreeChunk.getFreechunkSize(chunk);
+            if (evacuatingInParallel) {
+                publishUnparsableArea(chunk, chunk.plus(chunkSize));
+            }
             if (!chunk.equals(limit)) {
                 recordRange(allocatedRangeStart, ptop);
                 allocatedRangeStart = chunk;
@@ -348,7 +431,6 @@ public class EvacuatorToCardSpace extends Evacuator {
                 Log.printRange(allocatedRangeStart, ptop, true);
                 FatalError.breakpoint();
             }
-            Size chunkSize = HeapFreeChunk.getFreechunkSize(chunk);
             rset.notifyRefill(chunk, chunkSize);
             ptop = chunk.asPointer();
             pend = chunk.plus(chunkSize.minus(evacuationBufferHeadroom())).asPointer();
@@ -357,6 +439,7 @@ public class EvacuatorToCardSpace extends Evacuator {
         }
         // Overflow allocate
         final Pointer cell = toSpace.allocate(size);
+        overflowAllocated = true;
         // Allocator must have already fire a notifySplitLive event to the space's DeadSpaceListener (i.e., the CardTableRSet in this case).
         if (!cell.equals(lastOverflowAllocatedRangeEnd)) {
             if (lastOverflowAllocatedRangeEnd.greaterThan(lastOverflowAllocatedRangeStart)) {
@@ -407,13 +490,214 @@ public class EvacuatorToCardSpace extends Evacuator {
         return toCell;
     }
 
+    /**
+     * Size of a cell computed from a hub read beforehand, as the hub reference of the cell may be overwritten
+     * by another evacuator at any time.
+     */
+    private static Size cellSize(Hub hub, Pointer origin) {
+        switch (hub.layoutCategory) {
+            case TUPLE:
+                return hub.tupleSize;
+            case ARRAY:
+                return Layout.getArraySize(hub.classActor.componentClassActor().kind, Layout.readArrayLength(origin));
+            case HYBRID:
+                return Layout.hybridLayout().getArraySize(Layout.readArrayLength(origin));
+        }
+        throw FatalError.unexpected("unknown layout category");
+    }
+
+    @Override
+    final Reference evacuateAndForwardAtomic(Pointer fromOrigin) {
+        // If the cell isn't forwarded after its hub reference is read, the hub reference is genuine.
+        final Reference hubRef = Layout.readHubReference(fromOrigin);
+        final Reference forwardRef = Layout.readForwardRef(fromOrigin);
+        if (!forwardRef.isZero()) {
+            return forwardRef;
+        }
+        final Size size = cellSize(UnsafeCast.asHub(hubRef.toJava()), fromOrigin);
+        overflowAllocated = false;
+        final Pointer toCell = allocate(size);
+        if (overflowAllocated) {
+            publishCopiedCell(toCell, toCell.plus(size));
+        }
+        Memory.copyBytes(Layout.originToCell(fromOrigin), toCell, size);
+        final Reference toRef = Reference.fromOrigin(Layout.cellToOrigin(toCell));
+        final Reference witness = Layout.compareAndSwapForwardRef(fromOrigin, hubRef, toRef);
+        if (overflowAllocated) {
+            publishCopiedCell(Address.zero(), Address.zero());
+        }
+        if (!witness.toOrigin().equals(hubRef.toOrigin())) {
+            // Another evacuator forwarded the cell first. Discard the copy.
+            if (overflowAllocated) {
+                DarkMatter.format(toCell, size);
+            } else {
+                // Stale FOT entries are updated by the next allocation or when the evacuation buffer is retired.
+                ptop = toCell;
+            }
+            return Layout.readForwardRef(fromOrigin);
+        }
+        pushGreyCell(toCell, size);
+        return toRef;
+    }
+
+    private void publishUnparsableArea(Address start, Address end) {
+        unparsableEnd = Address.zero();
+        unparsableStart = start;
+        unparsableEnd = end;
+    }
+
+    private void publishCopiedCell(Address start, Address end) {
+        copiedCellEnd = Address.zero();
+        copiedCellStart = start;
+        copiedCellEnd = end;
+    }
+
+    /**
+     * Determine whether a cell visited by an evacuator scanning dirty cards in parallel with this one is in an area where this evacuator
+     * is allocating cells, and that therefore cannot be parsed. Such areas only hold cells copied during the current evacuation, whose
+     * references are scanned by the evacuators that copied them.
+     *
+     * @param cell a pointer to a cell boundary in the to-space
+     * @return the end of the unparsable area the cell is in, or zero if the cell isn't in an unparsable area of this evacuator
+     */
+    final Pointer skipUnparsableArea(Pointer cell) {
+        Address start;
+        Address end;
+        do {
+            end = unparsableEnd;
+            start = unparsableStart;
+        } while (!end.equals(unparsableEnd));
+        if (cell.greaterEqual(start) && cell.lessThan(end)) {
+            return end.asPointer();
+        }
+        do {
+            end = copiedCellEnd;
+            start = copiedCellStart;
+        } while (!end.equals(copiedCellEnd));
+        if (cell.greaterEqual(start) && cell.lessThan(end)) {
+            return end.asPointer();
+        }
+        return Pointer.zero();
+    }
+
+    private void pushGreyCell(Pointer cell, Size size) {
+        if (greyCells.push(cell)) {
+            return;
+        }
+        greyCellsOverflows++;
+        if (!cell.equals(overflowedGreyCellsEnd)) {
+            flushOverflowedGreyCells();
+            overflowedGreyCellsStart = cell;
+        }
+        overflowedGreyCellsEnd = cell.plus(size);
+    }
+
+    private void flushOverflowedGreyCells() {
+        if (overflowedGreyCellsEnd.greaterThan(overflowedGreyCellsStart)) {
+            survivorRanges.add(overflowedGreyCellsStart, overflowedGreyCellsEnd);
+            overflowedGreyCellsStart = overflowedGreyCellsEnd;
+        }
+    }
+
+    /**
+     * Scan the grey cells of this evacuator, including those that overflowed its grey cells stack, until there are none left.
+     */
+    final void drainGreyCells() {
+        while (true) {
+            Pointer cell = greyCells.pop();
+            while (!cell.isZero()) {
+                scanCellForEvacuatees(cell);
+                cell = greyCells.pop();
+            }
+            flushOverflowedGreyCells();
+            if (survivorRanges.isEmpty()) {
+                return;
+            }
+            final Pointer start = survivorRanges.start();
+            final Pointer end = survivorRanges.end();
+            survivorRanges.remove();
+            evacuateRange(start, end);
+        }
+    }
+
+    /**
+     * Move the survivor ranges of this evacuator to the specified arrays, so that they can be shared by several evacuators.
+     *
+     * @return the number of ranges moved
+     */
+    final int transferSurvivorRanges(long[] starts, long[] ends) {
+        updateSurvivorRanges();
+        int numRanges = 0;
+        while (!survivorRanges.isEmpty()) {
+            starts[numRanges] = survivorRanges.start().toLong();
+            ends[numRanges] = survivorRanges.end().toLong();
+            survivorRanges.remove();
+            numRanges++;
+        }
+        return numRanges;
+    }
+
+    /**
+     * Account for the bytes evacuated by an evacuator that helped this one.
+     */
+    final void addEvacuatedBytes(Size bytes) {
+        evacuatedBytes = evacuatedBytes.plus(bytes);
+    }
+
+    int survivorRangesCapacity() {
+        return survivorRanges.capacity();
+    }
+
+    /**
+     * Prepare this evacuator to evacuate the area of the specified evacuator in parallel with it.
+     * Must be called by the VM operation thread for all evacuators before any starts evacuating in parallel.
+     *
+     * @param evacuator the evacuator whose area is evacuated, or this evacuator
+     */
+    void beginParallelEvacuation(EvacuatorToCardSpace evacuator) {
+        if (evacuator != this) {
+            fromSpace = evacuator.fromSpace;
+            toSpace = evacuator.toSpace;
+            evacuatedAreaBounds = evacuator.evacuatedAreaBounds;
+            evacuatedBytes = Size.zero();
+            lastOverflowAllocatedRangeStart = Pointer.zero();
+            lastOverflowAllocatedRangeEnd = Pointer.zero();
+            acquireEvacuationBuffer();
+            allocatedRangeStart = ptop;
+        }
+        greyCells.reset();
+        greyCellsOverflows = 0;
+        overflowedGreyCellsStart = Address.zero();
+        overflowedGreyCellsEnd = Address.zero();
+        publishUnparsableArea(ptop, pend.plus(evacuationBufferHeadroom()));
+        evacuatingInParallel = true;
+    }
+
+    /**
+     * Terminate a parallel evacuation. Must be called by the VM operation thread once all evacuators are done.
+     *
+     * @param retire if true, retire the evacuation buffer of this evacuator
+     */
+    void endParallelEvacuation(boolean retire) {
+        // Only accounts for the evacuated bytes.
+        updateSurvivorRanges();
+        evacuatingInParallel = false;
+        publishUnparsableArea(Address.zero(), Address.zero());
+        if (retire) {
+            releaseEvacuationBuffer(true);
+            ptop = Pointer.zero();
+            pend = Pointer.zero();
+            pnextChunk = Address.zero();
+        }
+    }
+
     private boolean checkDarkMatterRefs = false;
     public void enableDarkMatterRefCheck(boolean b) {
         checkDarkMatterRefs = MaxineVM.isDebug() && b;
     }
 
     @Override
-    final protected void evacuateReachables() {
+    protected void evacuateReachables() {
         updateSurvivorRanges();
         while (!survivorRanges.isEmpty()) {
             final Pointer start = survivorRanges.start();
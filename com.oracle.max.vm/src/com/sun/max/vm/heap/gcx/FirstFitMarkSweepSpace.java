@@ -24,6 +24,7 @@ package com.sun.max.vm.heap.gcx;
 
 import static com.sun.max.vm.heap.gcx.HeapRegionConstants.*;
 import static com.sun.max.vm.heap.gcx.HeapRegionInfo.*;
+import static com.sun.max.vm.heap.gcx.HeapRegionManager.*;
 import static com.sun.max.vm.heap.gcx.HeapRegionState.*;
 
 import com.sun.max.memory.*;
@@ -40,8 +41,18 @@ import com.sun.max.vm.runtime.*;
  * A region-based, mark-sweep heap space, with bump pointer allocation only.
  * Each partially occupied region has a list of addressed ordered free chunks, used to allocate TLAB refills.
  * An overflow allocator avoids refilling too frequently.
+ * <p>
+ * When GC worker threads are available, the regions to sweep are dealt in chunks of address-ordered regions to sweeping helpers, one per worker.
+ * Each helper sorts its swept regions in its own region lists, which are merged with the lists of the space once all regions are swept.
+ * <p>
+ * With lazy sweeping, regions are left in the {@link HeapRegionState#MARKED_NOT_SWEPT} states at the end of a collection, and are swept
+ * in address order when a refill finds no region with free space, or by a background sweeper thread. Regions left unswept are all swept
+ * before the next collection.
+ * <p>
+ * The space can be defragmented after a complete sweep by evacuating the live objects of its sparsest regions to empty regions of the space,
+ * see {@link #selectSparseRegions(int)} and {@link SparseRegionEvacuator}.
  */
-public final class FirstFitMarkSweepSpace<T extends HeapAccountOwner> extends HeapRegionSweeper implements HeapSpace, RegionProvider {
+public final class FirstFitMarkSweepSpace<T extends HeapAccountOwner> extends HeapRegionSweeper implements HeapSpace, RegionProvider, EvacuationBufferProvider {
     /* For simplicity at the moment. Should be able to allocate this in GC's own heap (i.e., the HeapRegionManager's allocator).
      */
     private static final OutOfMemoryError outOfMemoryError = new OutOfMemoryError();
@@ -132,6 +143,63 @@ public final class FirstFitMarkSweepSpace<T extends HeapAccountOwner> extends He
      */
     private Size minOverflowRefillSize;
 
+    /**
+     * Helpers sweeping disjoint subsets of the regions of this space when sweeping is shared with the {@link GCWorkerThreads}.
+     * One per GC worker, allocated in the immortal heap. Null if sweeping is always done by the VM operation thread alone.
+     */
+    private FirstFitMarkSweepSpace<T>[] sweepingHelpers;
+
+    private final ParallelSweep parallelSweep;
+
+    /**
+     * Heap marker whose color map is used to sweep the regions left in the {@link #sweepList} by the last collection.
+     * Null if no regions are waiting to be swept.
+     */
+    private TricolorHeapMarker lazySweepHeapMarker;
+
+    private boolean lazySweepImprecise;
+
+    /**
+     * Number of regions to sweep when the last sweep started.
+     */
+    private int numRegionsToSweep;
+
+    /**
+     * Free space found so far by the last sweep.
+     */
+    private Size sweptFreeSpace = Size.zero();
+
+    /**
+     * Percentage of the swept space found free by the last sweep that was completed. Used to estimate the free space in regions left unswept.
+     * Negative if no sweep was completed yet.
+     */
+    private int lastSweepFreeSpacePercent = -1;
+
+    /**
+     * Number of occupancy bands regions are selected for evacuation from, sparsest band first.
+     */
+    private static final int EVACUATION_SELECTION_BANDS = 4;
+
+    /**
+     * Regions whose live objects are being evacuated. Empty outside of an evacuation.
+     */
+    private HeapRegionList evacuatedRegions;
+
+    /**
+     * Empty regions reserved for the copies of the live objects of the evacuated regions. Empty outside of an evacuation.
+     */
+    private HeapRegionList evacuationReserve;
+
+    /**
+     * Regions holding the copies of evacuated objects, in the order they were used. Empty outside of an evacuation.
+     */
+    private HeapRegionList evacuationTargets;
+
+    /**
+     * Upper bound of the amount of live data in the regions selected for evacuation.
+     */
+    private long selectedLiveBytes;
+
     /**
      * Indicate whether a size is categorized as large. Request for large size must go to the large object allocator.
      * @param size size in words
@@ -294,7 +362,8 @@ public final class FirstFitMarkSweepSpace<T extends HeapAccountOwner> extends He
                 if (MaxineVM.isDebug()) {
                     checkForSuspisciousGC(gcCount++);
                 }
-            } while(Heap.collectGarbage()); // Always collect for at least one region.
+                // Contiguous empty regions may be found in regions left unswept. Otherwise, always collect for at least one region.
+            } while(finishLazySweep() || Heap.collectGarbage());
             // Not enough freed memory.
             throw outOfMemoryError;
         }
@@ -363,6 +432,28 @@ public final class FirstFitMarkSweepSpace<T extends HeapAccountOwner> extends He
                 return Address.zero();
             }
         };
+        parallelSweep = new ParallelSweep();
+    }
+
+    /**
+     * Create a sweeping helper for a space. The helper only uses the region lists and the sweeping state of a space.
+     */
+    private FirstFitMarkSweepSpace(FirstFitMarkSweepSpace<T> space) {
+        super(space);
+        heapAccount = space.heapAccount;
+        regionTag = space.regionTag;
+        tlabAllocator = space.tlabAllocator;
+        overflowAllocator = space.overflowAllocator;
+        regionsRangeIterable = null;
+        regionInfoIterable = null;
+        bounds = null;
+        parallelSweep = null;
+        minOverflowRefillSize = space.minOverflowRefillSize;
+        tlabAllocationRegions = HeapRegionList.RegionListUse.OWNERSHIP.createList();
+        allocationRegions = HeapRegionList.RegionListUse.OWNERSHIP.createList();
+        unavailableRegions = HeapRegionList.RegionListUse.OWNERSHIP.createList();
+        sweepList = HeapRegionList.RegionListUse.OWNERSHIP.createList();
+        allocationRegionsFreeSpace = Size.zero();
     }
 
     public HeapAccount<T> heapAccount() {
@@ -380,6 +471,9 @@ public final class FirstFitMarkSweepSpace<T extends HeapAccountOwner> extends He
         allocationRegions = HeapRegionList.RegionListUse.OWNERSHIP.createList();
         unavailableRegions = HeapRegionList.RegionListUse.OWNERSHIP.createList();
         sweepList = HeapRegionList.RegionListUse.OWNERSHIP.createList();
+        evacuatedRegions = HeapRegionList.RegionListUse.OWNERSHIP.createList();
+        evacuationReserve = HeapRegionList.RegionListUse.OWNERSHIP.createList();
+        evacuationTargets = HeapRegionList.RegionListUse.OWNERSHIP.createList();
 
         maxRegionsInSpace = numberOfRegions(maxSize);
         FatalError.check(maxRegionsInSpace <= heapAccount.reserve(), "under provisioned heap account");
@@ -410,6 +504,24 @@ public final class FirstFitMarkSweepSpace<T extends HeapAccountOwner> extends He
         // Initialize the tlab allocator with a first region.
         tlabAllocator.initialize(regionSize, regionSize);
         overflowAllocator.initialize(Address.zero(), Size.zero(), Size.zero());
+        initializeSweepingHelpers();
+    }
+
+    @SuppressWarnings("unchecked")
+    private void initializeSweepingHelpers() {
+        final int maxWorkers = GCWorkerThreads.maxWorkers();
+        if (maxWorkers == 1) {
+            return;
+        }
+        Heap.enableImmortalMemoryAllocation();
+        try {
+            sweepingHelpers = new FirstFitMarkSweepSpace[maxWorkers];
+            for (int i = 0; i < maxWorkers; i++) {
+                sweepingHelpers[i] = new FirstFitMarkSweepSpace<T>(this);
+            }
+        } finally {
+            Heap.disableImmortalMemoryAllocation();
+        }
     }
 
     public Pointer allocate(Size size) {
@@ -457,7 +569,17 @@ public final class FirstFitMarkSweepSpace<T extends HeapAccountOwner> extends He
     }
 
     public Size freeSpace() {
-        return allocationRegionsFreeSpace.plus(tlabAllocator.refillManager.freeSpace().plus(tlabAllocator.freeSpace().plus(overflowAllocator.freeSpace())));
+        return allocationRegionsFreeSpace.plus(tlabAllocator.refillManager.freeSpace().plus(tlabAllocator.freeSpace().plus(overflowAllocator.freeSpace()))).plus(unsweptFreeSpaceEstimate());
+    }
+
+    /**
+     * Estimate of the free space in regions left unswept, based on the ratio of free space found by the last complete sweep.
+     */
+    private Size unsweptFreeSpaceEstimate() {
+        if (lazySweepHeapMarker == null) {
+            return Size.zero();
+        }
+        return Size.fromInt(sweepList.size()).shiftedLeft(log2RegionSizeInBytes).times(lastSweepFreeSpacePercent).dividedBy(100);
     }
 
     public Size usedSpace() {
@@ -468,6 +590,8 @@ public final class FirstFitMarkSweepSpace<T extends HeapAccountOwner> extends He
         overflowAllocator.doBeforeGC();
         tlabAllocator.doBeforeGC();
         FatalError.check(tlabAllocator.refillManager.allocatingRegion() == INVALID_REGION_ID, "TLAB allocating region must have been retired");
+        // Regions left unswept must be swept with the color map of the previous marking.
+        finishLazySweep();
         // Move all regions to the sweep list. This tracks all the regions used by the space.
         sweepList.appendAndClear(unavailableRegions);
         sweepList.appendAndClear(allocationRegions);
@@ -477,6 +601,25 @@ public final class FirstFitMarkSweepSpace<T extends HeapAccountOwner> extends He
     }
 
     public void doAfterGC() {
+        if (theHeapRegionManager().releasesIdleRegions()) {
+            releaseIdleRegions();
+        }
+    }
+
+    /**
+     * Report the empty regions of the space to the heap region manager, which gives back to the OS the memory of those
+     * that stayed empty long enough. Empty regions are formatted as a single free chunk, which must be done again
+     * when their memory is given back.
+     */
+    private void releaseIdleRegions() {
+        final HeapRegionManager regionManager = theHeapRegionManager();
+        regionInfoIterable.initialize(allocationRegions);
+        regionInfoIterable.reset();
+        for (HeapRegionInfo rinfo : regionInfoIterable) {
+            if (rinfo.isEmpty() && regionManager.releaseIfIdle(rinfo)) {
+                HeapFreeChunk.format(rinfo.regionStart(), regionSizeInBytes);
+            }
+        }
     }
 
     public void mark(TricolorHeapMarker heapMarker) {
@@ -484,15 +627,386 @@ public final class FirstFitMarkSweepSpace<T extends HeapAccountOwner> extends He
         heapMarker.markAll(regionsRangeIterable);
     }
 
+    /**
+     * Complete the marking of the space started by a concurrent marker. Must be called after {@link #doBeforeGC()}.
+     *
+     * @param concurrentMarker the concurrent marker marking the space
+     */
+    public void finishConcurrentMarking(ConcurrentMarker concurrentMarker) {
+        regionsRangeIterable.reset();
+        concurrentMarker.finishMarking(regionsRangeIterable);
+    }
+
 
     public void sweep(TricolorHeapMarker heapMarker, boolean doImprecise) {
+        sweep(heapMarker, doImprecise, false);
+    }
+
+    /**
+     * Sweep the space after marking.
+     *
+     * @param heapMarker the heap marker that marked the space
+     * @param doImprecise whether to do imprecise sweeping
+     * @param lazy if true, leave the regions unswept until they are needed for allocation. The first sweep is always complete
+     * as it provides the basis for estimating the free space of unswept regions.
+     */
+    public void sweep(TricolorHeapMarker heapMarker, boolean doImprecise, boolean lazy) {
         if (MaxineVM.isDebug()) {
             sweepList.checkIsAddressOrdered();
         }
         allocationRegionsFreeSpace = Size.zero();
         csrIsLiveMultiRegionObjectTail = false;
-        heapMarker.sweep(this, doImprecise);
+        numRegionsToSweep = sweepList.size();
+        if (lazy && lastSweepFreeSpacePercent >= 0) {
+            regionInfoIterable.initialize(sweepList);
+            regionInfoIterable.reset();
+            for (HeapRegionInfo rinfo : regionInfoIterable) {
+                toMarkedNotSweptState(rinfo);
+            }
+            sweptFreeSpace = Size.zero();
+            lazySweepHeapMarker = heapMarker;
+            lazySweepImprecise = doImprecise;
+            return;
+        }
+        if (sweepingHelpers != null && GCWorkerThreads.availableWorkers() > 1) {
+            parallelSweep.sweep(heapMarker, doImprecise);
+        } else {
+            heapMarker.sweep(this, doImprecise);
+        }
         FatalError.check(sweepList.isEmpty(), "Sweeping list must be empty");
+        sweptFreeSpace = allocationRegionsFreeSpace;
+        completeSweep();
+    }
+
+    private void completeSweep() {
+        if (numRegionsToSweep > 0) {
+            lastSweepFreeSpacePercent = (int) (sweptFreeSpace.toLong() * 100 / Size.fromInt(numRegionsToSweep).shiftedLeft(log2RegionSizeInBytes).toLong());
+        }
+    }
+
+    /**
+     * Sweep the next regions left unswept by the last collection. Must be called with the refill lock held, or by the VM operation thread during GC.
+     *
+     * @return false if there was no region left unswept
+     */
+    private boolean sweepNextUnsweptRegion() {
+        if (lazySweepHeapMarker == null) {
+            return false;
+        }
+        final Size freeSpaceBefore = allocationRegionsFreeSpace;
+        // The sweeper's state spans the sweep of a region: the thread must not be stopped by a collection before it is done.
+        final boolean wasDisabled = SafepointPoll.disable();
+        lazySweepHeapMarker.sweepNextRegion(this, lazySweepImprecise);
+        if (!wasDisabled) {
+            SafepointPoll.enable();
+        }
+        sweptFreeSpace = sweptFreeSpace.plus(allocationRegionsFreeSpace.minus(freeSpaceBefore));
+        if (sweepList.isEmpty()) {
+            // Clean up the sweeper's state.
+            reachedRightmostLiveRegion();
+            lazySweepHeapMarker = null;
+            completeSweep();
+        }
+        return true;
+    }
+
+    /**
+     * Sweep all the regions left unswept by the last collection.
+     *
+     * @return true if any region was swept
+     */
+    private boolean finishLazySweep() {
+        if (lazySweepHeapMarker == null) {
+            return false;
+        }
+        while (sweepNextUnsweptRegion()) {
+            // Keep on sweeping.
+        }
+        return true;
+    }
+
+    /**
+     * Sweep all the regions left unswept by the last collection. Must be called by a VM operation, before the color map
+     * is reused for a new marking.
+     */
+    public void finishSweep() {
+        finishLazySweep();
+    }
+
+    /**
+     * Indicates whether some regions haven't been swept since the last collection.
+     */
+    public boolean hasUnsweptRegions() {
+        return lazySweepHeapMarker != null;
+    }
+
+    /**
+     * Sweep the next regions left unswept by the last collection, if any. Used by background sweeper threads.
+     *
+     * @return false if all regions are swept
+     */
+    public boolean sweepUnsweptRegion() {
+        synchronized (refillLock()) {
+            return sweepNextUnsweptRegion();
+        }
+    }
+
+    /**
+     * Number of empty regions guaranteed to hold copies of the specified amount of live data. Cells are copied in turn to empty regions,
+     * and a region is only retired when the next cell doesn't fit in the space left, so the copies in any two consecutive regions
+     * occupy more than a region.
+     */
+    private static int evacuationRegionsNeeded(long liveBytes) {
+        return 2 * (int) ((liveBytes + regionSizeInBytes - 1) >> log2RegionSizeInBytes) + 2;
+    }
+
+    /**
+     * Select the sparsest regions of the space for evacuation and reserve the empty regions needed to hold the copies of their live objects.
+     * Must be called after a complete sweep. Only regions with free chunks whose occupancy is below a percentage are selected, sparsest first,
+     * as long as the empty regions of the space can hold the copies of all the selected regions' live objects.
+     * The selected and reserved regions leave the allocation lists until {@link #finishEvacuation(TricolorHeapMarker)} is called.
+     *
+     * @param maxOccupancy maximum percentage of the space of a region unavailable for allocation for the region to be selected
+     * @return the number of regions selected for evacuation
+     */
+    public int selectSparseRegions(int maxOccupancy) {
+        FatalError.check(lazySweepHeapMarker == null, "Regions must all be swept before selecting regions for evacuation");
+        int numEmptyRegions = 0;
+        regionInfoIterable.initialize(allocationRegions);
+        regionInfoIterable.reset();
+        for (HeapRegionInfo rinfo : regionInfoIterable) {
+            if (rinfo.isEmpty()) {
+                numEmptyRegions++;
+            }
+        }
+        selectedLiveBytes = 0L;
+        for (int band = 1; band <= EVACUATION_SELECTION_BANDS; band++) {
+            final long maxUsedBytes = (long) regionSizeInBytes * maxOccupancy * band / (100 * EVACUATION_SELECTION_BANDS);
+            selectSparseRegions(allocationRegions, maxUsedBytes, numEmptyRegions);
+            selectSparseRegions(tlabAllocationRegions, maxUsedBytes, numEmptyRegions);
+        }
+        if (evacuatedRegions.isEmpty()) {
+            return 0;
+        }
+        int numRegionsToReserve = evacuationRegionsNeeded(selectedLiveBytes);
+        regionInfoIterable.initialize(allocationRegions);
+        regionInfoIterable.reset();
+        for (HeapRegionInfo rinfo : regionInfoIterable) {
+            if (rinfo.isEmpty()) {
+                regionInfoIterable.remove();
+                evacuationReserve.append(rinfo.toRegionID());
+                allocationRegionsFreeSpace = allocationRegionsFreeSpace.minus(regionSizeInBytes);
+                if (--numRegionsToReserve == 0) {
+                    break;
+                }
+            }
+        }
+        return evacuatedRegions.size();
+    }
+
+    private void selectSparseRegions(HeapRegionList regionList, long maxUsedBytes, int numEmptyRegions) {
+        regionInfoIterable.initialize(regionList);
+        regionInfoIterable.reset();
+        for (HeapRegionInfo rinfo : regionInfoIterable) {
+            if (!FREE_CHUNKS_REGION.isInState(rinfo)) {
+                continue;
+            }
+            // Dark matter is counted as live data: this over-estimates the space needed for the copies.
+            final int usedBytes = regionSizeInBytes - rinfo.freeBytesInChunks();
+            if (usedBytes > maxUsedBytes || evacuationRegionsNeeded(selectedLiveBytes + usedBytes) > numEmptyRegions) {
+                continue;
+            }
+            regionInfoIterable.remove();
+            allocationRegionsFreeSpace = allocationRegionsFreeSpace.minus(rinfo.freeBytesInChunks());
+            rinfo.clearFreeChunks();
+            EVACUATED_REGION.setState(rinfo);
+            evacuatedRegions.append(rinfo.toRegionID());
+            selectedLiveBytes += usedBytes;
+        }
+    }
+
+    /**
+     * Refill an evacuation buffer with one of the empty regions reserved by {@link #selectSparseRegions(int)}.
+     *
+     * @return the address of a free chunk spanning a whole region, or zero if the reserved regions are exhausted
+     */
+    public Address refillEvacuationBuffer() {
+        final int regionID = evacuationReserve.removeHead();
+        if (regionID == INVALID_REGION_ID) {
+            return Address.zero();
+        }
+        final HeapRegionInfo rinfo = fromRegionID(regionID);
+        toAllocatingState(rinfo);
+        evacuationTargets.append(regionID);
+        final Address chunk = rinfo.regionStart();
+        HeapFreeChunk.format(chunk, regionSizeInBytes);
+        return chunk;
+    }
+
+    /**
+     * Retire an evacuation buffer refilled with {@link #refillEvacuationBuffer()}. The space left is formatted as a free chunk if it is
+     * large enough, or as dark matter otherwise.
+     */
+    public void retireEvacuationBuffer(Address startOfSpaceLeft, Address endOfSpaceLeft) {
+        final HeapRegionInfo rinfo = fromInRegionAddress(endOfSpaceLeft.minusWords(1));
+        final Size spaceLeft = endOfSpaceLeft.minus(startOfSpaceLeft).asSize();
+        if (spaceLeft.lessThan(minReclaimableSpace)) {
+            if (!spaceLeft.isZero()) {
+                DarkMatter.format(startOfSpaceLeft, spaceLeft);
+                deadSpaceListener.notifyRetireDeadSpace(startOfSpaceLeft, spaceLeft);
+            }
+            toFullState(rinfo);
+        } else {
+            HeapFreeChunk.format(startOfSpaceLeft, spaceLeft);
+            deadSpaceListener.notifyRetireFreeSpace(startOfSpaceLeft, spaceLeft);
+            rinfo.setFreeChunks(startOfSpaceLeft, spaceLeft, 1);
+            toFreeChunkState(rinfo);
+        }
+    }
+
+    /**
+     * Visit the cells marked by the last marking in the regions of the space that are neither evacuated nor hold evacuated cells.
+     * Dead cells aren't visited as they may refer to reclaimed space.
+     *
+     * @param heapMarker the heap marker that marked the space
+     * @param visitor the visitor applied to the marked cells
+     */
+    void visitMarkedCells(TricolorHeapMarker heapMarker, CellVisitor visitor) {
+        visitMarkedCells(unavailableRegions, heapMarker, visitor);
+        visitMarkedCells(allocationRegions, heapMarker, visitor);
+        visitMarkedCells(tlabAllocationRegions, heapMarker, visitor);
+    }
+
+    private void visitMarkedCells(HeapRegionList regionList, TricolorHeapMarker heapMarker, CellVisitor visitor) {
+        regionInfoIterable.initialize(regionList);
+        regionInfoIterable.reset();
+        for (HeapRegionInfo rinfo : regionInfoIterable) {
+            if (!rinfo.isEmpty()) {
+                final Address regionStart = rinfo.regionStart();
+                heapMarker.visitBlackCells(regionStart, regionStart.plus(regionSizeInBytes), visitor);
+            }
+        }
+    }
+
+    /**
+     * Complete an evacuation of the regions selected by {@link #selectSparseRegions(int)}. The evacuated regions become empty, and are returned
+     * to the allocation lists with the regions holding the evacuated cells and the reserved regions left unused.
+     *
+     * @param heapMarker the heap marker that marked the space
+     */
+    void finishEvacuation(TricolorHeapMarker heapMarker) {
+        int regionID = evacuatedRegions.removeHead();
+        while (regionID != INVALID_REGION_ID) {
+            final HeapRegionInfo rinfo = fromRegionID(regionID);
+            final Address regionStart = rinfo.regionStart();
+            // Leave no marks on the region, as for the regions found empty by the sweeper.
+            heapMarker.clearColorMap(regionStart, regionStart.plus(regionSizeInBytes));
+            EMPTY_REGION.setState(rinfo);
+            HeapFreeChunk.format(regionStart, regionSizeInBytes);
+            rinfo.resetOccupancy();
+            allocationRegions.append(regionID);
+            allocationRegionsFreeSpace = allocationRegionsFreeSpace.plus(regionSizeInBytes);
+            regionID = evacuatedRegions.removeHead();
+        }
+        regionID = evacuationTargets.removeHead();
+        while (regionID != INVALID_REGION_ID) {
+            final HeapRegionInfo rinfo = fromRegionID(regionID);
+            if (rinfo.hasFreeChunks()) {
+                final int freeBytes = rinfo.freeBytesInChunks();
+                allocationRegionsFreeSpace = allocationRegionsFreeSpace.plus(freeBytes);
+                if (minOverflowRefillSize.lessEqual(freeBytes)) {
+                    allocationRegions.append(regionID);
+                } else {
+                    tlabAllocationRegions.append(regionID);
+                }
+            } else {
+                unavailableRegions.append(regionID);
+            }
+            regionID = evacuationTargets.removeHead();
+        }
+        regionID = evacuationReserve.removeHead();
+        while (regionID != INVALID_REGION_ID) {
+            allocationRegions.append(regionID);
+            allocationRegionsFreeSpace = allocationRegionsFreeSpace.plus(regionSizeInBytes);
+            regionID = evacuationReserve.removeHead();
+        }
+        allocationRegions.sort();
+        tlabAllocationRegions.sort();
+        unavailableRegions.sort();
+    }
+
+    /**
+     * Sweeping of the space shared between the VM operation thread and the GC worker threads.
+     */
+    private final class ParallelSweep extends GCWorkerThreads.GCTask {
+        /**
+         * Number of chunks of regions dealt to each worker. More chunks than workers evens out the sweeping costs
+         * of regions with different occupancy.
+         */
+        static final int CHUNKS_PER_WORKER = 4;
+
+        private TricolorHeapMarker heapMarker;
+        private boolean doImprecise;
+
+        void sweep(TricolorHeapMarker heapMarker, boolean doImprecise) {
+            this.heapMarker = heapMarker;
+            this.doImprecise = doImprecise;
+            GCWorkerThreads.runTask(this);
+            this.heapMarker = null;
+            for (FirstFitMarkSweepSpace<T> helper : sweepingHelpers) {
+                allocationRegions.appendAndClear(helper.allocationRegions);
+                tlabAllocationRegions.appendAndClear(helper.tlabAllocationRegions);
+                unavailableRegions.appendAndClear(helper.unavailableRegions);
+                allocationRegionsFreeSpace = allocationRegionsFreeSpace.plus(helper.allocationRegionsFreeSpace);
+            }
+            // Helpers were dealt interleaved chunks of regions. Restore the address order of the lists.
+            allocationRegions.sort();
+            tlabAllocationRegions.sort();
+            unavailableRegions.sort();
+            // Regions after the rightmost live region were left in the sweep list.
+            reachedRightmostLiveRegion();
+        }
+
+        /**
+         * Indicates whether a region must be swept by the same helper as the region preceding it.
+         */
+        private boolean continuesLargeObject(HeapRegionInfo rinfo) {
+            return rinfo.isLarge() && !rinfo.isHeadOfLargeObject();
+        }
+
+        @Override
+        protected void prepare(int numWorkers) {
+            final RegionTable regionTable = RegionTable.theRegionTable();
+            final Address endOfRightmostLiveObject = heapMarker.endOfRightmostLiveObject();
+            final int chunkSize = Math.max(1, sweepList.size() / (numWorkers * CHUNKS_PER_WORKER));
+            for (FirstFitMarkSweepSpace<T> helper : sweepingHelpers) {
+                helper.allocationRegionsFreeSpace = Size.zero();
+                helper.csrIsLiveMultiRegionObjectTail = false;
+            }
+            int worker = 0;
+            while (!sweepList.isEmpty() && regionTable.regionInfo(sweepList.head()).regionStart().lessThan(endOfRightmostLiveObject)) {
+                final HeapRegionList helperSweepList = sweepingHelpers[worker].sweepList;
+                int numRegions = 0;
+                HeapRegionInfo next;
+                do {
+                    helperSweepList.append(sweepList.removeHead());
+                    numRegions++;
+                    if (sweepList.isEmpty()) {
+                        break;
+                    }
+                    next = regionTable.regionInfo(sweepList.head());
+                    // Never split a multi-region object between chunks: the sweeping of its tail depends on that of its head.
+                } while (continuesLargeObject(next) || (numRegions < chunkSize && next.regionStart().lessThan(endOfRightmostLiveObject)));
+                worker = (worker + 1) % numWorkers;
+            }
+        }
+
+        @Override
+        protected void run(int workerID, int numWorkers) {
+            final FirstFitMarkSweepSpace<T> helper = sweepingHelpers[workerID];
+            heapMarker.sweepAll(helper, doImprecise);
+            helper.reachedRightmostLiveRegion();
+        }
     }
 
     private HeapRegionInfo nextRegionToSweep() {
@@ -559,6 +1073,9 @@ public final class FirstFitMarkSweepSpace<T extends HeapAccountOwner> extends He
                 }
                 while (!csrInfo.next().isTailOfLargeObject()) {
                     csrInfo =  nextRegionToSweep();
+                    if (csrInfo.isMarkedNotSwept()) {
+                        LARGE_BODY.setState(csrInfo);
+                    }
                     unavailableRegions.append(csrInfo.toRegionID());
                     if (TraceSweep) {
                         traceSweptRegion();
@@ -692,6 +1209,8 @@ public final class FirstFitMarkSweepSpace<T extends HeapAccountOwner> extends He
 
     @Override
     public void visit(CellRangeVisitor visitor) {
+        // Regions left unswept by lazy sweeping aren't iterable: sweep them so that their live objects are visited.
+        finishLazySweep();
         // Make allocating regions iterable first.
         tlabAllocator.unsafeMakeParsable();
         overflowAllocator.unsafeMakeParsable();
@@ -715,6 +1234,7 @@ public final class FirstFitMarkSweepSpace<T extends HeapAccountOwner> extends He
 
     @Override
     public void verify(AfterMarkSweepVerifier verifier) {
+        finishLazySweep();
         verifyHeapRegionsBalance();
         tlabAllocationRegions.checkIsAddressOrdered();
         allocationRegions.checkIsAddressOrdered();
@@ -734,7 +1254,10 @@ public final class FirstFitMarkSweepSpace<T extends HeapAccountOwner> extends He
     }
 
     public int getAllocatingRegion() {
-        final int regionID = tlabAllocationRegionList().removeHead();
+        int regionID = tlabAllocationRegionList().removeHead();
+        while (regionID == INVALID_REGION_ID && sweepNextUnsweptRegion()) {
+            regionID = tlabAllocationRegionList().removeHead();
+        }
         if (regionID != INVALID_REGION_ID) {
             final HeapRegionInfo regionInfo = fromRegionID(regionID);
             final int numFreeBytes = regionInfo.isEmpty() ?  regionSizeInBytes : regionInfo.freeBytesInChunks();
@@ -745,20 +1268,22 @@ public final class FirstFitMarkSweepSpace<T extends HeapAccountOwner> extends He
 
     public int getAllocatingRegion(Size minFreeBytes, int maxFreeChunks) {
         final int minFreeSpace = minFreeBytes.toInt();
-        regionInfoIterable.initialize(allocationRegions);
-        regionInfoIterable.reset();
-        for (HeapRegionInfo regionInfo : regionInfoIterable) {
-            if (regionInfo.isEmpty()) {
-                allocationRegionsFreeSpace = allocationRegionsFreeSpace.minus(regionSizeInBytes);
-            } else if (regionInfo.freeBytesInChunks() >= minFreeSpace && regionInfo.numFreeChunks() == maxFreeChunks) {
-                allocationRegionsFreeSpace = allocationRegionsFreeSpace.minus(regionInfo.freeBytesInChunks());
-            } else {
-                continue;
+        do {
+            regionInfoIterable.initialize(allocationRegions);
+            regionInfoIterable.reset();
+            for (HeapRegionInfo regionInfo : regionInfoIterable) {
+                if (regionInfo.isEmpty()) {
+                    allocationRegionsFreeSpace = allocationRegionsFreeSpace.minus(regionSizeInBytes);
+                } else if (regionInfo.freeBytesInChunks() >= minFreeSpace && regionInfo.numFreeChunks() == maxFreeChunks) {
+                    allocationRegionsFreeSpace = allocationRegionsFreeSpace.minus(regionInfo.freeBytesInChunks());
+                } else {
+                    continue;
+                }
+                // Found a refill.
+                regionInfoIterable.remove();
+                return  regionInfo.toRegionID();
             }
-            // Found a refill.
-            regionInfoIterable.remove();
-            return  regionInfo.toRegionID();
-        }
+        } while (sweepNextUnsweptRegion());
         return INVALID_REGION_ID;
     }
 
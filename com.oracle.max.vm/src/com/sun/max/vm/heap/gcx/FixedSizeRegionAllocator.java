@@ -38,6 +38,7 @@ import com.sun.max.vm.runtime.*;
  * Methods for allocating individual unit or contiguous ranges are provided.
  * Allocating a region means the range of virtual memory addresses corresponding to the region are reserved.
  * In order to use them, the underlying virtual memory needs to be committed.
+ * The physical memory of a committed region can also be discarded, i.e., given back to the OS while the region stays committed.
  */
 class FixedSizeRegionAllocator {
 
@@ -220,10 +221,20 @@ class FixedSizeRegionAllocator {
      */
     private final RegionBitSet committed;
 
+    /**
+     * Set of committed regions whose physical memory was discarded.
+     */
+    private final RegionBitSet discarded;
+
     /**
      * Number of regions that are committed.
      */
     private int committedSize;
+
+    /**
+     * Number of committed regions whose physical memory was discarded.
+     */
+    private int discardedSize;
     /**
      * Number of regions that aren't allocated.
      */
@@ -244,7 +255,9 @@ class FixedSizeRegionAllocator {
         backingStorage = new MemoryRegion(name);
         allocated = new RegionBitSet();
         committed = new RegionBitSet();
+        discarded = new RegionBitSet();
         committedSize = 0;
+        discardedSize = 0;
         numFreeRegions = 0;
     }
     /**
@@ -268,6 +281,7 @@ class FixedSizeRegionAllocator {
 
         allocated.initialize(new long[numWordsPerBitSet]);
         committed.initialize(new long[numWordsPerBitSet]);
+        discarded.initialize(new long[numWordsPerBitSet]);
 
         highestAllocated = INVALID_REGION_ID;
         residentRegions = numPreCommitted;
@@ -427,13 +441,65 @@ class FixedSizeRegionAllocator {
         if (isValidCommittedRange(firstRegionId, numRegions)) {
             final Size size = Size.fromInt(numRegions).shiftedLeft(log2RegionSizeInBytes);
             if (VirtualMemory.uncommitMemory(regionStart(firstRegionId), size, VirtualMemory.Type.HEAP)) {
-                committed.clear(firstRegionId, firstRegionId + numRegions);
+                final int end = firstRegionId + numRegions;
+                for (int regionId = firstRegionId; regionId < end; regionId++) {
+                    if (discarded.isSet(regionId)) {
+                        discardedSize--;
+                    }
+                }
+                discarded.clear(firstRegionId, end);
+                committed.clear(firstRegionId, end);
+                committedSize -= numRegions;
                 return true;
             }
         }
         return false;
     }
 
+    /**
+     * Give the physical memory of a committed region back to the OS. The region remains committed, and its memory is backed again
+     * on first access. The content of the region is lost.
+     *
+     * @param regionId identifier of an allocated and committed region
+     * @return true if the memory of the region was discarded
+     */
+    synchronized boolean discard(int regionId) {
+        if (discarded.isSet(regionId) || !isValidCommittedRange(regionId, 1)) {
+            return false;
+        }
+        if (VirtualMemory.discardMemory(regionStart(regionId), Size.fromInt(regionSizeInBytes), VirtualMemory.Type.HEAP)) {
+            discarded.set(regionId);
+            discardedSize++;
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Record that a region whose memory was discarded is used again. No action is needed to back the region with memory again,
+     * so this only updates the accounting of committed memory.
+     *
+     * @param regionId identifier of a region
+     */
+    synchronized void recommit(int regionId) {
+        if (discarded.isSet(regionId)) {
+            discarded.clear(regionId);
+            discardedSize--;
+        }
+    }
+
+    boolean isDiscarded(int regionId) {
+        return discarded.isSet(regionId);
+    }
+
+    /**
+     * Number of committed regions, excluding those whose memory was discarded.
+     * @return a number of regions
+     */
+    int numBackedRegions() {
+        return committedSize - discardedSize;
+    }
+
     MemoryRegion bounds() {
         return backingStorage;
     }
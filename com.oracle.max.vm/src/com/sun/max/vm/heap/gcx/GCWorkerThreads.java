@@ -0,0 +1,241 @@
+/*
+ * Copyright (c) 2012, Oracle and/or its affiliates. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * Please contact Oracle, 500 Oracle Parkway, Redwood Shores, CA 94065 USA
+ * or visit www.oracle.com if you need additional information or have any
+ * questions.
+ */
+package com.sun.max.vm.heap.gcx;
+
+import static com.sun.max.vm.VMOptions.*;
+
+import com.sun.max.annotate.*;
+import com.sun.max.vm.*;
+import com.sun.max.vm.heap.*;
+import com.sun.max.vm.monitor.modal.sync.*;
+import com.sun.max.vm.runtime.*;
+import com.sun.max.vm.thread.*;
+
+/**
+ * A pool of daemon threads that assist the {@link VmOperationThread} with the parallel phases of a garbage collection.
+ * <p>
+ * Between tasks, a worker thread is parked on a VM lock. Before parking, it prepares its own stack reference map,
+ * the same way the VM operation thread does before collecting, and flags itself as a
+ * {@linkplain VmThread#isParkedGCWorker() parked GC worker} so that {@link GCOperation}s do not freeze it. The VM
+ * operation thread can then wake up the workers in the middle of a collection to share a {@link GCTask} with them.
+ * A task completes when all the workers have parked again, so worker threads are always parked when mutator threads
+ * are thawed.
+ * <p>
+ * The number of threads participating to a task, including the VM operation thread, is set with the
+ * {@code -XX:ParallelGCThreads} option. The default of 1 means that all GC phases are run by the VM operation
+ * thread alone.
+ */
+public final class GCWorkerThreads {
+    private static final VMIntOption parallelGCThreadsOption =
+        register(new VMIntOption("-XX:ParallelGCThreads=", 1,
+                        "Number of threads performing the parallel phases of garbage collection, including the VM operation thread."),
+                        MaxineVM.Phase.PRISTINE);
+
+    /**
+     * A unit of GC work run concurrently by the VM operation thread and the GC worker threads.
+     */
+    public abstract static class GCTask {
+        /**
+         * Called by the VM operation thread before any participant starts running the task.
+         *
+         * @param numWorkers number of threads that will run the task
+         */
+        protected void prepare(int numWorkers) {
+        }
+
+        /**
+         * Run this task's share of work on the current thread.
+         *
+         * @param workerID identifier of the current participant, between 0 and {@code numWorkers - 1}. The VM operation thread is always worker 0.
+         * @param numWorkers number of threads running the task
+         */
+        protected abstract void run(int workerID, int numWorkers);
+    }
+
+    private GCWorkerThreads() {
+    }
+
+    private static final Object LOCK = JavaMonitorManager.newVmLock("GC_WORKER_THREADS_LOCK");
+
+    /**
+     * Worker threads. Allocated in the immortal heap.
+     */
+    private static Worker[] workers;
+
+    /**
+     * Task being run. Set by the VM operation thread while holding {@link #LOCK}.
+     */
+    private static GCTask currentTask;
+
+    private static int currentNumWorkers;
+
+    /**
+     * Sequence number of the last submitted task. Used by parked workers to detect that a new task is available.
+     */
+    private static int taskSequence;
+
+    /**
+     * Number of worker threads that haven't parked yet after running the current task.
+     */
+    private static int pendingWorkers;
+
+    /**
+     * Maximum number of threads that may participate to a GC task, including the VM operation thread.
+     */
+    public static int maxWorkers() {
+        final int n = parallelGCThreadsOption.getValue();
+        return n < 1 ? 1 : n;
+    }
+
+    /**
+     * Start the worker threads. Must be called once the VM can start threads.
+     */
+    static void start() {
+        final int numThreads = maxWorkers() - 1;
+        if (numThreads == 0 || workers != null) {
+            return;
+        }
+        // The worker threads are allocated in the immortal heap so they never move while they run a GC task.
+        Heap.enableImmortalMemoryAllocation();
+        try {
+            workers = new Worker[numThreads];
+            for (int i = 0; i < numThreads; i++) {
+                workers[i] = new Worker(i + 1);
+            }
+        } finally {
+            Heap.disableImmortalMemoryAllocation();
+        }
+        for (Worker worker : workers) {
+            worker.start();
+        }
+    }
+
+    /**
+     * Number of threads that would run a task submitted now.
+     * Worker threads participate to a task only if they are all parked, which is always the case during a collection
+     * but the first ones following their start.
+     */
+    public static int availableWorkers() {
+        if (workers == null) {
+            return 1;
+        }
+        for (Worker worker : workers) {
+            final VmThread vmThread = VmThread.fromJava(worker);
+            if (vmThread == null || !vmThread.isParkedGCWorker()) {
+                return 1;
+            }
+        }
+        return workers.length + 1;
+    }
+
+    /**
+     * Run a task with all the available worker threads and return once all of them have completed it.
+     * Must be called by the VM operation thread.
+     *
+     * @param task the task to run
+     */
+    public static void runTask(GCTask task) {
+        FatalError.check(VmThread.current().isVmOperationThread(), "GC tasks must be submitted by the VM operation thread");
+        final int numWorkers = availableWorkers();
+        task.prepare(numWorkers);
+        if (numWorkers > 1) {
+            synchronized (LOCK) {
+                currentTask = task;
+                currentNumWorkers = numWorkers;
+                pendingWorkers = numWorkers - 1;
+                taskSequence++;
+                LOCK.notifyAll();
+            }
+        }
+        task.run(0, numWorkers);
+        if (numWorkers > 1) {
+            synchronized (LOCK) {
+                while (pendingWorkers > 0) {
+                    try {
+                        LOCK.wait();
+                    } catch (InterruptedException e) {
+                    }
+                }
+                currentTask = null;
+            }
+        }
+    }
+
+    static final class Worker extends Thread {
+        final int workerID;
+
+        Worker(int workerID) {
+            super("gc-worker-" + workerID);
+            this.workerID = workerID;
+            setDaemon(true);
+        }
+
+        /**
+         * Park the current thread until a task other than the specified one is submitted. Must be called with {@link #LOCK} held.
+         * The stack reference map is prepared once, before the thread is flagged as parked: the guard is re-checked under
+         * the lock in a loop within this frame, so that neither a spurious wake-up nor a notification meant for the
+         * VM operation thread or another worker runs code that changes the stack of a thread flagged as parked.
+         * The reference map for this frame must be the same at the call of {@link VmThreadLocal#prepareCurrentStackReferenceMap()}
+         * and at each call of {@link Object#wait()}.
+         *
+         * @param sequence the sequence number of the last task run by the current thread
+         */
+        @NEVER_INLINE
+        private static void park(int sequence) {
+            VmThreadLocal.prepareCurrentStackReferenceMap();
+            VmThread.current().setParkedGCWorker(true);
+            while (taskSequence == sequence) {
+                try {
+                    LOCK.wait();
+                } catch (InterruptedException e) {
+                }
+            }
+            VmThread.current().setParkedGCWorker(false);
+        }
+
+        @Override
+        public void run() {
+            int sequence;
+            synchronized (LOCK) {
+                sequence = taskSequence;
+            }
+            boolean ranTask = false;
+            while (true) {
+                synchronized (LOCK) {
+                    if (ranTask && --pendingWorkers == 0) {
+                        // The VM operation thread is notified, but can only proceed once this thread is parked again.
+                        LOCK.notifyAll();
+                    }
+                    park(sequence);
+                    sequence = taskSequence;
+                }
+                try {
+                    currentTask.run(workerID, currentNumWorkers);
+                } catch (Throwable t) {
+                    FatalError.unexpected("GC worker thread failed", t);
+                }
+                ranTask = true;
+            }
+        }
+    }
+}
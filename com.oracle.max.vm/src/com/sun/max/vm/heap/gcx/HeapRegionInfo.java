@@ -68,7 +68,18 @@ public class HeapRegionInfo {
         /**
          * Region is the last region of a multi-regions object. Space after the end of the large object may be used for allocation.
          */
-        IS_TAIL;
+        IS_TAIL,
+        /**
+         * Region was traced by the last marking but hasn't been swept yet. Its free space is unknown and it may hold dead objects
+         * with references to reclaimed space, so the region isn't iterable. The other flags only retain the large object flags of the
+         * region before marking.
+         */
+        IS_MARKED_NOT_SWEPT,
+        /**
+         * Region is being evacuated. Its live objects are copied to other regions and forwarded, so the region isn't iterable.
+         * It is empty once evacuation completes.
+         */
+        IS_EVACUATED;
 
         private final int mask = 1 << ordinal();
 
@@ -172,6 +183,11 @@ public class HeapRegionInfo {
      */
     HeapAccountOwner owner;
 
+    /**
+     * Number of consecutive GCs the region was found empty at the end of. See {@link HeapRegionManager#releaseIfIdle(HeapRegionInfo)}.
+     */
+    int idleGCs;
+
     public final boolean isEmpty() {
         return flags == EMPTY_REGION.flags;
     }
@@ -204,6 +220,14 @@ public class HeapRegionInfo {
         return IS_TAIL.isSet(flags);
     }
 
+    public final boolean isMarkedNotSwept() {
+        return IS_MARKED_NOT_SWEPT.isSet(flags);
+    }
+
+    public final boolean isEvacuated() {
+        return IS_EVACUATED.isSet(flags);
+    }
+
     HeapRegionInfo() {
         // Not a class one can allocate. Allocation is the responsibility of the region table.
     }
@@ -43,8 +43,22 @@ import com.sun.max.vm.type.*;
  * heap accounts, return free space to it, and may grow or shrink their accounts.
  * The heap region manager may also request a heap account to trade or free some specific
  * regions.
+ * <p>
+ * With {@code -XX:ReleaseIdleRegionsAfter=N}, the physical memory of regions that heaps report empty at the end of
+ * N consecutive GCs is given back to the OS. The regions remain committed to their heap account and can be allocated
+ * at any time; the OS backs them with memory again on first access.
  */
 public final class HeapRegionManager implements HeapAccountOwner {
+    /**
+     * Number of consecutive GCs a region must be found empty at the end of before its memory is given back to the OS.
+     * Zero disables the release of idle regions.
+     */
+    private static int ReleaseIdleRegionsAfter = 0;
+    static {
+        VMOptions.addFieldOption("-XX:", "ReleaseIdleRegionsAfter", HeapRegionManager.class,
+                        "Give back to the OS the memory of regions left empty by that many consecutive GCs (0 to disable)", MaxineVM.Phase.PRISTINE);
+    }
+
     /**
      * The single instance of the heap region manager.
      */
@@ -337,6 +351,55 @@ public final class HeapRegionManager implements HeapAccountOwner {
         regionAllocator.uncommit(firstRegionId, numRegions);
     }
 
+    /**
+     * Indicate whether the memory of idle regions is given back to the OS. Heaps need not report their empty regions after GC otherwise.
+     * @return true if idle regions are released
+     */
+    public boolean releasesIdleRegions() {
+        return ReleaseIdleRegionsAfter > 0;
+    }
+
+    /**
+     * Record that a region was found empty at the end of a GC, and give back its memory to the OS if the region was found empty
+     * at the end of enough consecutive GCs. The region remains committed, but its content is lost.
+     *
+     * @param rinfo the region information of an empty region
+     * @return true if the memory of the region was given back to the OS, in which case the caller must re-format the region
+     */
+    public boolean releaseIfIdle(HeapRegionInfo rinfo) {
+        if (rinfo.idleGCs < ReleaseIdleRegionsAfter) {
+            rinfo.idleGCs++;
+            if (rinfo.idleGCs == ReleaseIdleRegionsAfter) {
+                return regionAllocator.discard(rinfo.toRegionID());
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Record that a region found empty at the end of a previous GC is used again.
+     * This is called on the transitions of a region to a non-empty state.
+     *
+     * @param rinfo the region information of a region that is no longer empty
+     */
+    public void notifyRegionInUse(HeapRegionInfo rinfo) {
+        if (rinfo.idleGCs != 0) {
+            if (rinfo.idleGCs >= ReleaseIdleRegionsAfter) {
+                regionAllocator.recommit(rinfo.toRegionID());
+            }
+            rinfo.idleGCs = 0;
+        }
+    }
+
+    /**
+     * Amount of memory committed to the regions, excluding regions whose memory was given back to the OS.
+     *
+     * @return a size in bytes
+     */
+    public Size committedSpace() {
+        return Size.fromInt(regionAllocator.numBackedRegions()).shiftedLeft(log2RegionSizeInBytes);
+    }
+
     /**
      * Verifies, in debug mode only (@see {@link MaxineVM#isDebug()}), that no references from this heap region manager's heap account escape.
      */
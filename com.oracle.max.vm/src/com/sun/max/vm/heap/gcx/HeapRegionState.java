@@ -38,7 +38,19 @@ public enum HeapRegionState {
     LARGE_BODY(IS_ITERABLE.or(IS_LARGE.or(0))),
     LARGE_FULL_TAIL(IS_ITERABLE.or(IS_LARGE.or(IS_TAIL.or(0)))),
     LARGE_TAIL(IS_ITERABLE.or(IS_LARGE.or(IS_TAIL.or(HAS_FREE_CHUNK.or(0))))),
-    LARGE_ALLOCATING_TAIL(IS_ALLOCATING.or(IS_LARGE.or(IS_TAIL.or(0))));
+    LARGE_ALLOCATING_TAIL(IS_ALLOCATING.or(IS_LARGE.or(IS_TAIL.or(0)))),
+    /**
+     * States of regions left unswept by a collection doing lazy sweeping. They keep the large object flags of the region so that the sweeper
+     * can recognize multi-region objects, and move to the state found by the sweeper when the region is eventually swept.
+     */
+    MARKED_NOT_SWEPT(IS_MARKED_NOT_SWEPT.or(0)),
+    MARKED_NOT_SWEPT_LARGE_HEAD(IS_MARKED_NOT_SWEPT.or(IS_LARGE.or(IS_HEAD.or(0)))),
+    MARKED_NOT_SWEPT_LARGE_BODY(IS_MARKED_NOT_SWEPT.or(IS_LARGE.or(0))),
+    MARKED_NOT_SWEPT_LARGE_TAIL(IS_MARKED_NOT_SWEPT.or(IS_LARGE.or(IS_TAIL.or(0)))),
+    /**
+     * State of a region whose live objects are being evacuated to other regions. The region becomes empty once evacuation completes.
+     */
+    EVACUATED_REGION(IS_EVACUATED.or(0));
 
     private static final boolean [][] validStateTransitions = new boolean[HeapRegionState.values().length][HeapRegionState.values().length];
     private static final IntHashMap<HeapRegionState> allValidStates = new IntHashMap<HeapRegionState>(values().length);
@@ -63,15 +75,20 @@ public enum HeapRegionState {
         // Initialize the valid state transitions.
         // FIXME: may want to introduce a special  "SWEPT" state to distinguish between valid empty->state transitions that correspond to sweeping transitions from the empty -> allocating
         // transitions.
-        initialize(EMPTY_REGION, new HeapRegionState [] {EMPTY_REGION, ALLOCATING_REGION, FULL_REGION, FREE_CHUNKS_REGION, LARGE_HEAD, LARGE_BODY, LARGE_FULL_TAIL, LARGE_TAIL});
+        initialize(EMPTY_REGION, new HeapRegionState [] {EMPTY_REGION, ALLOCATING_REGION, FULL_REGION, FREE_CHUNKS_REGION, LARGE_HEAD, LARGE_BODY, LARGE_FULL_TAIL, LARGE_TAIL, MARKED_NOT_SWEPT});
         initialize(ALLOCATING_REGION, new HeapRegionState [] {FULL_REGION, FREE_CHUNKS_REGION});
-        initialize(FULL_REGION, new HeapRegionState [] {EMPTY_REGION, FREE_CHUNKS_REGION});
-        initialize(FREE_CHUNKS_REGION, new HeapRegionState [] {EMPTY_REGION, ALLOCATING_REGION, FREE_CHUNKS_REGION});
-        initialize(LARGE_HEAD, new HeapRegionState [] {EMPTY_REGION, FREE_CHUNKS_REGION});
-        initialize(LARGE_BODY, new HeapRegionState [] {EMPTY_REGION, FREE_CHUNKS_REGION});
-        initialize(LARGE_FULL_TAIL, new HeapRegionState [] {EMPTY_REGION, FREE_CHUNKS_REGION, LARGE_TAIL});
-        initialize(LARGE_TAIL, new HeapRegionState [] {EMPTY_REGION, LARGE_ALLOCATING_TAIL});
+        initialize(FULL_REGION, new HeapRegionState [] {EMPTY_REGION, FREE_CHUNKS_REGION, MARKED_NOT_SWEPT});
+        initialize(FREE_CHUNKS_REGION, new HeapRegionState [] {EMPTY_REGION, ALLOCATING_REGION, FREE_CHUNKS_REGION, MARKED_NOT_SWEPT, EVACUATED_REGION});
+        initialize(LARGE_HEAD, new HeapRegionState [] {EMPTY_REGION, FREE_CHUNKS_REGION, MARKED_NOT_SWEPT_LARGE_HEAD});
+        initialize(LARGE_BODY, new HeapRegionState [] {EMPTY_REGION, FREE_CHUNKS_REGION, MARKED_NOT_SWEPT_LARGE_BODY});
+        initialize(LARGE_FULL_TAIL, new HeapRegionState [] {EMPTY_REGION, FREE_CHUNKS_REGION, LARGE_TAIL, MARKED_NOT_SWEPT_LARGE_TAIL});
+        initialize(LARGE_TAIL, new HeapRegionState [] {EMPTY_REGION, LARGE_ALLOCATING_TAIL, MARKED_NOT_SWEPT_LARGE_TAIL});
         initialize(LARGE_ALLOCATING_TAIL, new HeapRegionState [] {LARGE_FULL_TAIL, LARGE_TAIL});
+        initialize(MARKED_NOT_SWEPT, new HeapRegionState [] {EMPTY_REGION, FULL_REGION, FREE_CHUNKS_REGION});
+        initialize(MARKED_NOT_SWEPT_LARGE_HEAD, new HeapRegionState [] {EMPTY_REGION, LARGE_HEAD});
+        initialize(MARKED_NOT_SWEPT_LARGE_BODY, new HeapRegionState [] {EMPTY_REGION, LARGE_BODY});
+        initialize(MARKED_NOT_SWEPT_LARGE_TAIL, new HeapRegionState [] {EMPTY_REGION, FULL_REGION, FREE_CHUNKS_REGION, LARGE_FULL_TAIL, LARGE_TAIL});
+        initialize(EVACUATED_REGION, new HeapRegionState [] {EMPTY_REGION});
     }
 
     static public boolean isValidTransition(HeapRegionState from, HeapRegionState to) {
@@ -108,10 +125,24 @@ public enum HeapRegionState {
         }
     }
 
+    /**
+     * Reset the idle count of a region found empty by previous GCs that is used again.
+     * @see HeapRegionManager#releaseIfIdle(HeapRegionInfo)
+     */
+    @INLINE
+    private static void notifyInUse(HeapRegionInfo rinfo) {
+        if (rinfo.idleGCs != 0) {
+            HeapRegionManager.theHeapRegionManager().notifyRegionInUse(rinfo);
+        }
+    }
+
     public final void setState(HeapRegionInfo rinfo) {
         if (MaxineVM.isDebug()) {
             checkStateTransition(rinfo, this);
         }
+        if (this != EMPTY_REGION) {
+            notifyInUse(rinfo);
+        }
         rinfo.flags = flags;
     }
 
@@ -120,6 +151,7 @@ public enum HeapRegionState {
         if (MaxineVM.isDebug()) {
             checkStateTransition(rinfo, toHeapRegionState(flags));
         }
+        notifyInUse(rinfo);
         rinfo.flags = flags;
     }
 
@@ -131,6 +163,17 @@ public enum HeapRegionState {
         rinfo.flags = flags;
     }
 
+    /**
+     * Put a region that was just marked in the marked-not-swept state matching its state before marking.
+     */
+    public static void toMarkedNotSweptState(HeapRegionInfo rinfo) {
+        int flags = IS_MARKED_NOT_SWEPT.or(rinfo.flags & HeapRegionInfo.LARGE_REGION_FLAGS);
+        if (MaxineVM.isDebug()) {
+            checkStateTransition(rinfo, toHeapRegionState(flags));
+        }
+        rinfo.flags = flags;
+    }
+
     public static void toFreeChunkState(HeapRegionInfo rinfo) {
         int flags = IS_ITERABLE.or(HAS_FREE_CHUNK.or(IS_ALLOCATING.clear(rinfo.flags)));
         if (MaxineVM.isDebug()) {
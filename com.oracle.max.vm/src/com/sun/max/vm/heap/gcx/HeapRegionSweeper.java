@@ -107,6 +107,16 @@ public abstract class HeapRegionSweeper extends Sweeper {
         this.deadSpaceListener = deadSpaceListener;
     }
 
+    /**
+     * Create a sweeper with the same settings as another one, for sweeping a subset of its regions at run-time.
+     */
+    protected HeapRegionSweeper(HeapRegionSweeper sweeper) {
+        super(sweeper);
+        this.zapDeadReferences = sweeper.zapDeadReferences;
+        this.deadSpaceListener = sweeper.deadSpaceListener;
+        this.minReclaimableSpace = sweeper.minReclaimableSpace;
+    }
+
     final public int liveBytes() {
         return csrLiveBytes;
     }
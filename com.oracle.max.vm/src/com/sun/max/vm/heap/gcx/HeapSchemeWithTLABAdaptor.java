@@ -67,6 +67,10 @@ public abstract class HeapSchemeWithTLABAdaptor extends HeapSchemeWithTLAB {
     }
 
     class TLABFiller extends HeapSchemeWithTLAB.ResetTLAB {
+        TLABFiller(boolean beforeGC) {
+            super(beforeGC);
+        }
+
         @Override
         protected void doBeforeReset(Pointer etla, Pointer tlabMark, Pointer tlabTop) {
             if (MaxineVM.isDebug() && logTLABEvents(tlabMark)) {
@@ -75,7 +79,13 @@ public abstract class HeapSchemeWithTLABAdaptor extends HeapSchemeWithTLAB {
             fillTLABWithDeadObject(tlabMark, tlabTop);
         }
     }
-    protected final TLABFiller tlabFiller = new TLABFiller();
+    protected final TLABFiller tlabFiller = new TLABFiller(true);
+
+    /**
+     * Fills the TLABs retired while the mutators keep allocating, e.g., at the start of a concurrent marking.
+     */
+    protected final TLABFiller interimTlabFiller = new TLABFiller(false);
+
     public HeapSchemeWithTLABAdaptor() {
         super();
     }
@@ -101,6 +111,8 @@ public abstract class HeapSchemeWithTLABAdaptor extends HeapSchemeWithTLAB {
             heapStartupTime.start();
             allocateHeapAndGCStorage();
             heapStartupTime.stop();
+        } else if (phase == MaxineVM.Phase.STARTING) {
+            GCWorkerThreads.start();
         } else if (phase == MaxineVM.Phase.TERMINATING) {
             if (Heap.logGCTime()) {
                 heapStartupTime.report("allocateHeapAndGCStorage", Log.out);
@@ -50,6 +50,7 @@ public class NoAgingNurseryEvacuator extends EvacuatorToCardSpace {
      * we check if the visited cell boundary coincide with the first free bytes of the allocator, and skip it if it does.
      *
      * Note that the allocator that feed the promotion lab is kept in an iterable state.
+     * When evacuating in parallel, the allocating areas of all the evacuators are skipped.
      */
     final class DirtyCardEvacuationClosure implements CellVisitor, OverlappingCellVisitor,  CellRangeVisitor {
         private final CardTableRSet cachedRSet;
@@ -60,7 +61,12 @@ public class NoAgingNurseryEvacuator extends EvacuatorToCardSpace {
 
         @Override
         public Pointer visitCell(Pointer cell, Address start, Address end) {
-            if (cell.equals(ptop)) {
+            if (evacuatingInParallel) {
+                final Pointer next = parallelEvacuation.skipUnparsableArea(cell);
+                if (!next.isZero()) {
+                    return next;
+                }
+            } else if (cell.equals(ptop)) {
                 // Skip allocating area.
                 return pend;
             }
@@ -69,7 +75,12 @@ public class NoAgingNurseryEvacuator extends EvacuatorToCardSpace {
 
         @Override
         public Pointer visitCell(Pointer cell) {
-            if (cell.equals(ptop)) {
+            if (evacuatingInParallel) {
+                final Pointer next = parallelEvacuation.skipUnparsableArea(cell);
+                if (!next.isZero()) {
+                    return next;
+                }
+            } else if (cell.equals(ptop)) {
                 // Skip allocating area
                 return pend;
             }
@@ -113,12 +124,65 @@ public class NoAgingNurseryEvacuator extends EvacuatorToCardSpace {
     private final DirtyCardEvacuationClosure heapSpaceDirtyCardClosure;
     private final BootRegionDirtyCardEvacuationClosure bootRegionDirtyCardClosure;
 
+    /**
+     * Parallel evacuation of the cells reachable from the remembered set and the survivor ranges.
+     * Null if the evacuator only evacuates serially.
+     */
+    private ParallelNurseryEvacuation parallelEvacuation;
+
+    /**
+     * Indicates that dirty cards are scanned by the parallel evacuation of reachable cells instead of by {@link #evacuateFromRSets()}.
+     */
+    private boolean deferDirtyCardsScan;
+
     public NoAgingNurseryEvacuator(EvacuatingSpace fromSpace, HeapSpace toSpace, EvacuationBufferProvider evacuationBufferProvider, CardTableRSet rset, String name) {
         super(fromSpace, toSpace, evacuationBufferProvider, rset, name);
         this.heapSpaceDirtyCardClosure = new DirtyCardEvacuationClosure();
         this.bootRegionDirtyCardClosure = new BootRegionDirtyCardEvacuationClosure();
     }
 
+    /**
+     * Creates an evacuator helping the specified evacuator with parallel evacuation.
+     */
+    NoAgingNurseryEvacuator(NoAgingNurseryEvacuator evacuator, ParallelNurseryEvacuation parallelEvacuation) {
+        super(evacuator);
+        this.heapSpaceDirtyCardClosure = new DirtyCardEvacuationClosure();
+        this.bootRegionDirtyCardClosure = new BootRegionDirtyCardEvacuationClosure();
+        this.parallelEvacuation = parallelEvacuation;
+    }
+
+    /**
+     * Enable parallel evacuation with the {@linkplain GCWorkerThreads GC worker threads}, if more than one thread may run GC tasks.
+     * Must be called after {@link #initialize(int, boolean, Size, boolean)}.
+     *
+     * @param maxToSpaceRanges maximum number of discontiguous ranges of the to-space
+     */
+    public void initializeParallelEvacuation(int maxToSpaceRanges) {
+        final int maxWorkers = GCWorkerThreads.maxWorkers();
+        if (maxWorkers == 1) {
+            return;
+        }
+        // Evacuators and their data structures are used while the nursery is being evacuated. They must not be allocated in it.
+        Heap.enableImmortalMemoryAllocation();
+        try {
+            parallelEvacuation = new ParallelNurseryEvacuation(this, maxWorkers, maxToSpaceRanges);
+            if (timers() != null) {
+                timers().initializeWorkerTimes(maxWorkers);
+            }
+        } finally {
+            Heap.disableImmortalMemoryAllocation();
+        }
+    }
+
+    /**
+     * Log the statistics of each worker of the last parallel evacuation, if any.
+     */
+    public void reportLastParallelEvacuation() {
+        if (parallelEvacuation != null) {
+            parallelEvacuation.report();
+        }
+    }
+
     @Override
     public void setGCOperation(GCOperation gcOperation) {
         super.setGCOperation(gcOperation);
@@ -136,8 +200,48 @@ public class NoAgingNurseryEvacuator extends EvacuatorToCardSpace {
         bootHeapRegion.discoverSpecialReference();
     }
 
+    @Override
+    protected void doBeforeEvacuation() {
+        super.doBeforeEvacuation();
+        if (parallelEvacuation != null) {
+            deferDirtyCardsScan = parallelEvacuation.isEnabled();
+            if (!deferDirtyCardsScan) {
+                parallelEvacuation.clearStatistics();
+            }
+        }
+    }
+
+    @Override
+    protected void discoverSpecialReference(Pointer origin) {
+        if (evacuatingInParallel) {
+            parallelEvacuation.discoverSpecialReference(origin);
+        } else {
+            super.discoverSpecialReference(origin);
+        }
+    }
+
+    /**
+     * Evacuate the cells referenced from the dirty cards of the specified range of the to-space.
+     */
+    void evacuateFromDirtyCards(Address start, Address end) {
+        heapSpaceDirtyCardClosure.visitCells(start, end);
+    }
+
+    @Override
+    protected void evacuateReachables() {
+        if (deferDirtyCardsScan) {
+            deferDirtyCardsScan = false;
+            parallelEvacuation.evacuate();
+        }
+        super.evacuateReachables();
+    }
+
     @Override
     protected void evacuateFromRSets() {
+        if (deferDirtyCardsScan) {
+            // Dirty cards are scanned in parallel with the evacuation of the survivor ranges.
+            return;
+        }
         // Visit the dirty cards of the old gen (i.e., the toSpace).
         final boolean traceRSet = CardTableRSet.traceCardTableRSet();
         if (traceDirtyCardWalk()) {
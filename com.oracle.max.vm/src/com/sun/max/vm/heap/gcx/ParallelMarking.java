@@ -0,0 +1,532 @@
+/*
+ * Copyright (c) 2012, Oracle and/or its affiliates. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * Please contact Oracle, 500 Oracle Parkway, Redwood Shores, CA 94065 USA
+ * or visit www.oracle.com if you need additional information or have any
+ * questions.
+ */
+package com.sun.max.vm.heap.gcx;
+
+import static com.sun.max.vm.heap.gcx.TricolorHeapMarker.*;
+
+import com.sun.max.annotate.*;
+import com.sun.max.unsafe.*;
+import com.sun.max.vm.*;
+import com.sun.max.vm.actor.holder.*;
+import com.sun.max.vm.heap.*;
+import com.sun.max.vm.layout.*;
+import com.sun.max.vm.reference.*;
+import com.sun.max.vm.runtime.*;
+
+/**
+ * Parallel tracing of the objects marked grey by root marking, shared between the VM operation thread and the
+ * {@linkplain GCWorkerThreads GC worker threads}.
+ * <p>
+ * Unlike the forward scan, parallel marking doesn't use a finger: every object a worker marks grey is pushed on the
+ * worker's own {@link WorkStealingMarkingStack}. Workers mark white objects grey with a compare-and-swap on the color map
+ * word, so that a single worker pushes any given object. A worker claims a grey object before visiting it by atomically
+ * clearing its grey bit. This guarantees that every object is visited once even when it is reachable from both a
+ * marking stack and the color map.
+ * <p>
+ * Tracing proceeds in rounds, each run as a single {@link GCWorkerThreads.GCTask}. The first round distributes the range of
+ * the color map comprising the root marks in fixed-size chunks that workers claim dynamically. A worker that runs out of chunks
+ * and of cells on its marking stack steals cells from other workers' stacks. A worker whose marking stack is full records the
+ * overflowing cell in its own {@link RescanMap}. If any rescan map is non-empty when a round terminates, another round
+ * is started where the entries of the rescan maps are the chunks, so that workers rescan disjoint ranges of the color map. Each
+ * worker has two rescan maps that alternate between recording and rescanning from one round to the next.
+ */
+final class ParallelMarking extends GCWorkerThreads.GCTask {
+    /**
+     * Log 2 of the number of color map words in a chunk of the first round.
+     */
+    static final int LOG2_CHUNK_SIZE = 6;
+
+    final TricolorHeapMarker heapMarker;
+
+    /**
+     * Per-worker marking states. Allocated in the immortal heap. Null if parallel marking isn't enabled.
+     */
+    private MarkingWorker[] workers;
+
+    private int numWorkers;
+
+    /**
+     * Number of workers used in the last marking. For statistics purposes.
+     */
+    private int lastNumWorkers;
+
+    /**
+     * Current round of the marking.
+     */
+    private int round;
+
+    /**
+     * Index of the next chunk to claim in the current round.
+     */
+    private volatile int nextChunk;
+
+    private int lastChunk;
+
+    /**
+     * Index of the color map word holding the mark of the rightmost root.
+     */
+    private int lastBitmapWordIndex;
+
+    /**
+     * Number of workers that haven't offered termination of the current round.
+     */
+    private volatile int activeWorkers;
+
+    /**
+     * Serializes the discovery of special references.
+     */
+    private volatile int specialReferenceLock;
+
+    @FOLD
+    private static int nextChunkOffset() {
+        return ClassActor.fromJava(ParallelMarking.class).findLocalInstanceFieldActor("nextChunk").offset();
+    }
+
+    @FOLD
+    private static int activeWorkersOffset() {
+        return ClassActor.fromJava(ParallelMarking.class).findLocalInstanceFieldActor("activeWorkers").offset();
+    }
+
+    @FOLD
+    private static int specialReferenceLockOffset() {
+        return ClassActor.fromJava(ParallelMarking.class).findLocalInstanceFieldActor("specialReferenceLock").offset();
+    }
+
+    ParallelMarking(TricolorHeapMarker heapMarker) {
+        this.heapMarker = heapMarker;
+    }
+
+    /**
+     * Allocate the workers' marking states if more than one thread may take part to GC tasks.
+     * The color map of the heap marker must be initialized.
+     */
+    void initialize() {
+        final int maxWorkers = GCWorkerThreads.maxWorkers();
+        if (maxWorkers == 1 || workers != null) {
+            return;
+        }
+        Heap.enableImmortalMemoryAllocation();
+        try {
+            workers = new MarkingWorker[maxWorkers];
+            for (int i = 0; i < maxWorkers; i++) {
+                workers[i] = new MarkingWorker(this, i);
+            }
+        } finally {
+            Heap.disableImmortalMemoryAllocation();
+        }
+        final int markingStackLength = heapMarker.markingStack.length().toInt();
+        for (MarkingWorker worker : workers) {
+            worker.initialize(markingStackLength);
+        }
+    }
+
+    /**
+     * Determines whether the next marking can be done in parallel.
+     */
+    boolean isEnabled() {
+        return workers != null && GCWorkerThreads.availableWorkers() > 1;
+    }
+
+    @INLINE
+    private int atomicIncrement(int offset, int increment) {
+        final Reference ref = Reference.fromJava(this);
+        int oldValue;
+        do {
+            oldValue = ref.readInt(offset);
+        } while (ref.compareAndSwapInt(offset, oldValue, oldValue + increment) != oldValue);
+        return oldValue;
+    }
+
+    /**
+     * Claim the next chunk of work of the current round.
+     * @return the index of a chunk, or -1 if all the chunks have been claimed
+     */
+    private int claimChunk() {
+        if (nextChunk > lastChunk) {
+            return -1;
+        }
+        final int chunk = atomicIncrement(nextChunkOffset(), 1);
+        return chunk <= lastChunk ? chunk : -1;
+    }
+
+    void discoverSpecialReference(Pointer cell) {
+        final Reference ref = Reference.fromJava(this);
+        while (ref.compareAndSwapInt(specialReferenceLockOffset(), 0, 1) != 0) {
+            Thread.yield();
+        }
+        SpecialReferenceManager.discoverSpecialReference(cell);
+        specialReferenceLock = 0;
+    }
+
+    /**
+     * Trace, in parallel, all objects reachable from the objects marked grey by root marking.
+     *
+     * @param leftmost leftmost cell marked grey by root marking
+     * @param rightmost rightmost cell marked grey by root marking
+     * @return the rightmost cell marked
+     */
+    Address mark(Address leftmost, Address rightmost) {
+        for (MarkingWorker worker : workers) {
+            worker.resetStatistics();
+            worker.rightmost = rightmost;
+        }
+        if (leftmost.greaterThan(rightmost)) {
+            // No roots.
+            lastNumWorkers = 1;
+            return rightmost;
+        }
+        round = 0;
+        lastBitmapWordIndex = heapMarker.bitmapWordIndex(rightmost);
+        nextChunk = heapMarker.bitmapWordIndex(leftmost) >> LOG2_CHUNK_SIZE;
+        lastChunk = lastBitmapWordIndex >> LOG2_CHUNK_SIZE;
+        GCWorkerThreads.runTask(this);
+        lastNumWorkers = numWorkers;
+
+        while (setupRescanRound()) {
+            GCWorkerThreads.runTask(this);
+        }
+
+        Address result = rightmost;
+        for (MarkingWorker worker : workers) {
+            if (worker.rightmost.greaterThan(result)) {
+                result = worker.rightmost;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Set up the next round to rescan the color map ranges recorded in the workers' rescan map.
+     * @return false if no worker overflowed its marking stack during the last round
+     */
+    private boolean setupRescanRound() {
+        int leftmostEntry = Integer.MAX_VALUE;
+        int rightmostEntry = -1;
+        for (MarkingWorker worker : workers) {
+            final RescanMap rescanMap = worker.recordingMap;
+            if (!rescanMap.isEmpty()) {
+                if (rescanMap.leftmostEntry() < leftmostEntry) {
+                    leftmostEntry = rescanMap.leftmostEntry();
+                }
+                if (rescanMap.rightmostEntry() > rightmostEntry) {
+                    rightmostEntry = rescanMap.rightmostEntry();
+                }
+            }
+        }
+        if (rightmostEntry < 0) {
+            return false;
+        }
+        round++;
+        nextChunk = leftmostEntry;
+        lastChunk = rightmostEntry;
+        return true;
+    }
+
+    @Override
+    protected void prepare(int numWorkers) {
+        this.numWorkers = numWorkers;
+        activeWorkers = numWorkers;
+        for (MarkingWorker worker : workers) {
+            // The map to record into in this round was rescanned two rounds ago.
+            worker.recordingMap = worker.rescanMaps[round & 1];
+            worker.recordingMap.clear();
+            worker.rescanningMap = worker.rescanMaps[(round + 1) & 1];
+            worker.markingStack.reset();
+        }
+    }
+
+    @Override
+    protected void run(int workerID, int numWorkers) {
+        final MarkingWorker worker = workers[workerID];
+        do {
+            worker.drain();
+            int chunk = claimChunk();
+            while (chunk >= 0) {
+                worker.chunks++;
+                if (round == 0) {
+                    final int firstBitmapWordIndex = chunk << LOG2_CHUNK_SIZE;
+                    final int lastChunkBitmapWordIndex = firstBitmapWordIndex + (1 << LOG2_CHUNK_SIZE) - 1;
+                    worker.visitGreyObjects(firstBitmapWordIndex, lastChunkBitmapWordIndex < lastBitmapWordIndex ? lastChunkBitmapWordIndex : lastBitmapWordIndex);
+                } else {
+                    worker.rescan(chunk);
+                }
+                chunk = claimChunk();
+            }
+        } while (!worker.stealOrTerminate());
+    }
+
+    /**
+     * Determine if any of the workers' marking stack other than the specified one has cells.
+     */
+    private boolean hasWorkToSteal(MarkingWorker thief) {
+        for (int i = 0; i < numWorkers; i++) {
+            final MarkingWorker worker = workers[i];
+            if (worker != thief && !worker.markingStack.isEmpty()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Print the statistics of the last marking for each worker.
+     */
+    void reportStatistics() {
+        Log.print("parallel marking (");
+        Log.print(lastNumWorkers);
+        Log.print(" workers, ");
+        Log.print(round);
+        Log.print(" rescan rounds):");
+        for (int i = 0; i < lastNumWorkers; i++) {
+            workers[i].reportStatistics();
+        }
+    }
+
+    /**
+     * Marking state of a parallel marking worker.
+     */
+    static final class MarkingWorker extends PointerIndexVisitor {
+        final ParallelMarking parallelMarking;
+        final TricolorHeapMarker heapMarker;
+        final int workerID;
+        final WorkStealingMarkingStack markingStack;
+        final RescanMap[] rescanMaps;
+
+        /**
+         * Rescan map where overflowing cells are recorded during the current round.
+         */
+        RescanMap recordingMap;
+
+        /**
+         * Rescan map of this worker being rescanned by all workers during the current round.
+         */
+        RescanMap rescanningMap;
+
+        /**
+         * Rightmost cell marked by this worker.
+         */
+        Address rightmost;
+
+        // Statistics.
+        long visitedCells;
+        int chunks;
+        int stealAttempts;
+        int steals;
+        int overflows;
+
+        MarkingWorker(ParallelMarking parallelMarking, int workerID) {
+            this.parallelMarking = parallelMarking;
+            this.heapMarker = parallelMarking.heapMarker;
+            this.workerID = workerID;
+            markingStack = new WorkStealingMarkingStack();
+            rescanMaps = new RescanMap[] {new RescanMap(), new RescanMap()};
+        }
+
+        void initialize(int markingStackLength) {
+            markingStack.initialize(markingStackLength);
+            rescanMaps[0].initialize(heapMarker);
+            rescanMaps[1].initialize(heapMarker);
+            recordingMap = rescanMaps[0];
+            rescanningMap = rescanMaps[1];
+        }
+
+        void resetStatistics() {
+            visitedCells = 0L;
+            chunks = 0;
+            stealAttempts = 0;
+            steals = 0;
+            overflows = 0;
+        }
+
+        @INLINE
+        private void markRefGrey(Reference ref) {
+            final Pointer cell = Layout.originToCell(ref.toOrigin());
+            if (heapMarker.isCovered(cell) && heapMarker.markGreyIfWhiteAtomic(cell)) {
+                if (cell.greaterThan(rightmost)) {
+                    rightmost = cell;
+                }
+                if (!markingStack.push(cell)) {
+                    // The cell stays grey in the color map. It will be found by rescanning the area recorded in the rescan map.
+                    overflows++;
+                    recordingMap.recordCellForRescan(cell);
+                }
+            }
+        }
+
+        @Override
+        public void visit(Pointer pointer, int wordIndex) {
+            markRefGrey(pointer.getReference(wordIndex));
+        }
+
+        /**
+         * Claim a grey cell and visit its references if this worker won the claim.
+         */
+        private void visitCell(Pointer cell) {
+            if (!heapMarker.markBlackFromGreyAtomic(cell)) {
+                // Already claimed by another worker.
+                return;
+            }
+            visitedCells++;
+            final Pointer origin = Layout.cellToOrigin(cell);
+            final Reference hubRef = Layout.readHubReference(origin);
+            markRefGrey(hubRef);
+            final Hub hub = UnsafeCast.asHub(hubRef.toJava());
+            if (MaxineVM.isDebug() && (hub == null || hub == HeapFreeChunk.heapFreeChunkHub())) {
+                heapMarker.traceMark(cell, GREY, " *** invalid hub for grey cell\n");
+                FatalError.unexpected("Invalid hub for grey cell");
+            }
+            final SpecificLayout specificLayout = hub.specificLayout;
+            if (specificLayout.isTupleLayout()) {
+                TupleReferenceMap.visitReferences(hub, origin, this);
+                if (hub.isJLRReference) {
+                    parallelMarking.discoverSpecialReference(cell);
+                }
+            } else if (specificLayout.isHybridLayout()) {
+                TupleReferenceMap.visitReferences(hub, origin, this);
+            } else if (specificLayout.isReferenceArrayLayout()) {
+                final int length = Layout.readArrayLength(origin);
+                for (int index = 0; index < length; index++) {
+                    markRefGrey(Layout.getReference(origin, index));
+                }
+            }
+        }
+
+        void drain() {
+            Pointer cell = markingStack.pop();
+            while (!cell.isZero()) {
+                visitCell(cell);
+                cell = markingStack.pop();
+            }
+        }
+
+        /**
+         * Visit all grey objects whose mark is within the specified range of words of the color map, draining the marking stack after each visited object.
+         */
+        void visitGreyObjects(int firstBitmapWordIndex, int lastBitmapWordIndex) {
+            final Pointer colorMapBase = heapMarker.colorMapBase();
+            for (int bitmapWordIndex = firstBitmapWordIndex; bitmapWordIndex <= lastBitmapWordIndex; bitmapWordIndex++) {
+                // Other workers mark cells while the word is decoded. The word is read once, before the words preceding it
+                // (see TricolorHeapMarker.isMarkAtLastBit). Cells marked grey after this read are on the marking stack or
+                // in the rescan map of the worker that marked them.
+                final long bitmapWord = colorMapBase.getLong(bitmapWordIndex);
+                if (bitmapWord == 0L) {
+                    continue;
+                }
+                final int firstBitIndex = bitmapWordIndex << Word.widthValue().log2numberOfBits;
+                // The first bit of the word is the grey bit of the mark at the last bit of the previous word, if any.
+                final boolean firstBitIsGrey = (bitmapWord & 1L) != 0L && bitmapWordIndex > 0 && heapMarker.isMarkAtLastBit(bitmapWordIndex - 1);
+                int bitIndexInWord = firstBitIsGrey ? 1 : 0;
+                while (bitIndexInWord < LAST_BIT_INDEX_IN_WORD) {
+                    final long remainingBits = bitmapWord >>> bitIndexInWord;
+                    final long greyMarksInWord = remainingBits & (remainingBits >>> 1);
+                    if (greyMarksInWord == 0L) {
+                        break;
+                    }
+                    bitIndexInWord += Pointer.fromLong(greyMarksInWord).leastSignificantBitSet();
+                    visitCell(heapMarker.addressOf(firstBitIndex + bitIndexInWord).asPointer());
+                    drain();
+                    bitIndexInWord += 2;
+                }
+                if (bitIndexInWord <= LAST_BIT_INDEX_IN_WORD && TricolorHeapMarker.isMarkAtLastBit(bitmapWord, firstBitIsGrey) &&
+                                (colorMapBase.getLong(bitmapWordIndex + 1) & 1L) != 0L) {
+                    // Grey mark spanning two words.
+                    visitCell(heapMarker.addressOf(firstBitIndex + LAST_BIT_INDEX_IN_WORD).asPointer());
+                    drain();
+                }
+            }
+        }
+
+        /**
+         * Rescan the color map ranges recorded by all workers in the specified entry of their rescan map.
+         */
+        void rescan(int entryIndex) {
+            final MarkingWorker[] workers = parallelMarking.workers;
+            for (MarkingWorker worker : workers) {
+                final RescanMap rescanMap = worker.rescanningMap;
+                final int firstBitmapWordIndex = rescanMap.firstBitmapWordIndex(entryIndex);
+                if (firstBitmapWordIndex >= 0) {
+                    visitGreyObjects(firstBitmapWordIndex, rescanMap.lastBitmapWordIndex(entryIndex));
+                }
+            }
+        }
+
+        private boolean steal() {
+            final MarkingWorker[] workers = parallelMarking.workers;
+            final int numWorkers = parallelMarking.numWorkers;
+            for (int i = 1; i < numWorkers; i++) {
+                final MarkingWorker victim = workers[(workerID + i) % numWorkers];
+                if (!victim.markingStack.isEmpty()) {
+                    stealAttempts++;
+                    final Pointer cell = victim.markingStack.steal();
+                    if (!cell.isZero()) {
+                        steals++;
+                        visitCell(cell);
+                        return true;
+                    }
+                }
+            }
+            return false;
+        }
+
+        /**
+         * Called when this worker has run out of work. Steal work from another worker, or wait until all workers have run out of work.
+         *
+         * @return true if all workers have run out of work, false if this worker stole work.
+         */
+        boolean stealOrTerminate() {
+            if (steal()) {
+                return false;
+            }
+            final int offset = activeWorkersOffset();
+            parallelMarking.atomicIncrement(offset, -1);
+            while (parallelMarking.activeWorkers != 0) {
+                if (parallelMarking.hasWorkToSteal(this)) {
+                    parallelMarking.atomicIncrement(offset, 1);
+                    if (steal()) {
+                        return false;
+                    }
+                    parallelMarking.atomicIncrement(offset, -1);
+                } else {
+                    Thread.yield();
+                }
+            }
+            return true;
+        }
+
+        void reportStatistics() {
+            Log.print(" [");
+            Log.print(workerID);
+            Log.print(": visited=");
+            Log.print(visitedCells);
+            Log.print(", chunks=");
+            Log.print(chunks);
+            Log.print(", steals=");
+            Log.print(steals);
+            Log.print("/");
+            Log.print(stealAttempts);
+            Log.print(", overflows=");
+            Log.print(overflows);
+            Log.print("]");
+        }
+    }
+}
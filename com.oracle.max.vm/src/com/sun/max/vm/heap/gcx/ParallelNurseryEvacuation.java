@@ -0,0 +1,398 @@
+/*
+ * Copyright (c) 2012, Oracle and/or its affiliates. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * Please contact Oracle, 500 Oracle Parkway, Redwood Shores, CA 94065 USA
+ * or visit www.oracle.com if you need additional information or have any
+ * questions.
+ */
+package com.sun.max.vm.heap.gcx;
+
+import static com.sun.max.vm.heap.gcx.EvacuationTimers.TIMED_OPERATION.*;
+
+import com.sun.max.annotate.*;
+import com.sun.max.unsafe.*;
+import com.sun.max.vm.*;
+import com.sun.max.vm.actor.holder.*;
+import com.sun.max.vm.heap.*;
+import com.sun.max.vm.reference.*;
+import com.sun.max.vm.runtime.*;
+
+/**
+ * Parallel evacuation of the cells of a nursery reachable from the survivor ranges and the dirty cards of the old space,
+ * shared between the VM operation thread and the {@linkplain GCWorkerThreads GC worker threads}.
+ * <p>
+ * Each worker owns a {@link NoAgingNurseryEvacuator} with its own evacuation buffer. Worker 0 is the evacuator of the heap scheme,
+ * which has already evacuated the cells directly reachable from the roots when the parallel evacuation starts.
+ * Cells are forwarded with a compare-and-swap: the worker that wins the race for a cell pushes its copy on its
+ * {@link WorkStealingMarkingStack} of grey cells, whereas losers discard their copy. Workers first claim the survivor ranges
+ * left by the serial phases, then fixed-size stripes of the old space whose dirty cards they scan, and steal grey cells from
+ * each other once they run out of work.
+ */
+final class ParallelNurseryEvacuation extends GCWorkerThreads.GCTask {
+    /**
+     * Log 2 of the size in bytes of a stripe of the old space. Stripes are card-aligned.
+     */
+    static final int LOG2_STRIPE_SIZE = 16;
+
+    /**
+     * Number of entries of a worker's stack of grey cells.
+     */
+    static final int GREY_CELLS_STACK_LENGTH = 1 << 15;
+
+    final NoAgingNurseryEvacuator evacuator;
+
+    /**
+     * Per-worker evacuators. Allocated in the immortal heap. The first one is {@link #evacuator}.
+     */
+    private final NoAgingNurseryEvacuator[] workers;
+
+    private int numWorkers;
+
+    /**
+     * Number of workers used in the last evacuation. For statistics purposes.
+     */
+    private int lastNumWorkers;
+
+    /**
+     * Survivor ranges left by the serial phases of the evacuation.
+     */
+    private final long[] survivorRangeStarts;
+    private final long[] survivorRangeEnds;
+    private int numSurvivorRanges;
+    private volatile int nextSurvivorRange;
+
+    /**
+     * Ranges of the old space whose dirty cards are scanned, and index of the first stripe of each range.
+     */
+    private final long[] oldSpaceRangeStarts;
+    private final long[] oldSpaceRangeEnds;
+    private final int[] oldSpaceRangeFirstStripes;
+    private int numOldSpaceRanges;
+    private int numStripes;
+    private volatile int nextStripe;
+
+    /**
+     * Number of workers that haven't offered termination.
+     */
+    private volatile int activeWorkers;
+
+    /**
+     * Serializes the discovery of special references.
+     */
+    private volatile int specialReferenceLock;
+
+    /**
+     * Per-worker statistics of the last evacuation.
+     */
+    private final int[] stripes;
+    private final int[] steals;
+    private final int[] stealAttempts;
+    private final long[] evacuatedBytes;
+
+    private final CellRangeVisitor oldSpaceRangeRecorder = new CellRangeVisitor() {
+        public void visitCells(Address start, Address end) {
+            FatalError.check(numOldSpaceRanges < oldSpaceRangeStarts.length, "too many old space ranges");
+            oldSpaceRangeStarts[numOldSpaceRanges] = start.toLong();
+            oldSpaceRangeEnds[numOldSpaceRanges] = end.toLong();
+            oldSpaceRangeFirstStripes[numOldSpaceRanges] = numStripes;
+            numOldSpaceRanges++;
+            numStripes += (int) ((end.minus(1).toLong() >>> LOG2_STRIPE_SIZE) - (start.toLong() >>> LOG2_STRIPE_SIZE)) + 1;
+        }
+    };
+
+    @FOLD
+    private static int nextSurvivorRangeOffset() {
+        return ClassActor.fromJava(ParallelNurseryEvacuation.class).findLocalInstanceFieldActor("nextSurvivorRange").offset();
+    }
+
+    @FOLD
+    private static int nextStripeOffset() {
+        return ClassActor.fromJava(ParallelNurseryEvacuation.class).findLocalInstanceFieldActor("nextStripe").offset();
+    }
+
+    @FOLD
+    private static int activeWorkersOffset() {
+        return ClassActor.fromJava(ParallelNurseryEvacuation.class).findLocalInstanceFieldActor("activeWorkers").offset();
+    }
+
+    @FOLD
+    private static int specialReferenceLockOffset() {
+        return ClassActor.fromJava(ParallelNurseryEvacuation.class).findLocalInstanceFieldActor("specialReferenceLock").offset();
+    }
+
+    /**
+     * Creates the parallel evacuation of the area of the specified evacuator. Must be allocated in the immortal heap.
+     *
+     * @param evacuator the evacuator of the heap scheme, which must be initialized
+     * @param maxWorkers maximum number of threads taking part to the evacuation
+     * @param maxOldSpaceRanges maximum number of discontiguous ranges of the old space
+     */
+    ParallelNurseryEvacuation(NoAgingNurseryEvacuator evacuator, int maxWorkers, int maxOldSpaceRanges) {
+        this.evacuator = evacuator;
+        workers = new NoAgingNurseryEvacuator[maxWorkers];
+        workers[0] = evacuator;
+        for (int i = 1; i < maxWorkers; i++) {
+            workers[i] = new NoAgingNurseryEvacuator(evacuator, this);
+        }
+        for (NoAgingNurseryEvacuator worker : workers) {
+            worker.greyCells = new WorkStealingMarkingStack();
+            worker.greyCells.initialize(GREY_CELLS_STACK_LENGTH);
+        }
+        final int maxSurvivorRanges = evacuator.survivorRangesCapacity();
+        survivorRangeStarts = new long[maxSurvivorRanges];
+        survivorRangeEnds = new long[maxSurvivorRanges];
+        oldSpaceRangeStarts = new long[maxOldSpaceRanges];
+        oldSpaceRangeEnds = new long[maxOldSpaceRanges];
+        oldSpaceRangeFirstStripes = new int[maxOldSpaceRanges];
+        stripes = new int[maxWorkers];
+        steals = new int[maxWorkers];
+        stealAttempts = new int[maxWorkers];
+        evacuatedBytes = new long[maxWorkers];
+    }
+
+    /**
+     * Determines whether the next evacuation can be done in parallel.
+     */
+    boolean isEnabled() {
+        return GCWorkerThreads.availableWorkers() > 1;
+    }
+
+    @INLINE
+    private int atomicIncrement(int offset, int increment) {
+        final Reference ref = Reference.fromJava(this);
+        int oldValue;
+        do {
+            oldValue = ref.readInt(offset);
+        } while (ref.compareAndSwapInt(offset, oldValue, oldValue + increment) != oldValue);
+        return oldValue;
+    }
+
+    /**
+     * Claim the next item of work.
+     * @param offset offset of the index of the next item to claim
+     * @param numItems number of items
+     * @return the index of an item, or -1 if all the items have been claimed
+     */
+    private int claim(int offset, int numItems) {
+        if (Reference.fromJava(this).readInt(offset) >= numItems) {
+            return -1;
+        }
+        final int item = atomicIncrement(offset, 1);
+        return item < numItems ? item : -1;
+    }
+
+    void discoverSpecialReference(Pointer origin) {
+        final Reference ref = Reference.fromJava(this);
+        while (ref.compareAndSwapInt(specialReferenceLockOffset(), 0, 1) != 0) {
+            Thread.yield();
+        }
+        SpecialReferenceManager.discoverSpecialReference(origin);
+        specialReferenceLock = 0;
+    }
+
+    /**
+     * @see EvacuatorToCardSpace#skipUnparsableArea(Pointer)
+     * @return the end of the unparsable area of any worker the cell is in, or zero if the cell isn't in any
+     */
+    Pointer skipUnparsableArea(Pointer cell) {
+        for (int i = 0; i < numWorkers; i++) {
+            final Pointer end = workers[i].skipUnparsableArea(cell);
+            if (!end.isZero()) {
+                return end;
+            }
+        }
+        return Pointer.zero();
+    }
+
+    /**
+     * Evacuate, in parallel, all the cells reachable from the survivor ranges of the heap scheme's evacuator and from the dirty cards of its to-space.
+     * Must be called by the VM operation thread.
+     */
+    void evacuate() {
+        numSurvivorRanges = evacuator.transferSurvivorRanges(survivorRangeStarts, survivorRangeEnds);
+        final Size serialEvacuatedBytes = evacuator.evacuatedBytes();
+        nextSurvivorRange = 0;
+        numOldSpaceRanges = 0;
+        numStripes = 0;
+        evacuator.toSpace.visit(oldSpaceRangeRecorder);
+        nextStripe = 0;
+        GCWorkerThreads.runTask(this);
+        lastNumWorkers = numWorkers;
+        evacuator.endParallelEvacuation(false);
+        evacuatedBytes[0] = evacuator.evacuatedBytes().minus(serialEvacuatedBytes).toLong();
+        for (int i = 1; i < numWorkers; i++) {
+            final NoAgingNurseryEvacuator worker = workers[i];
+            worker.endParallelEvacuation(true);
+            evacuatedBytes[i] = worker.evacuatedBytes().toLong();
+            evacuator.addEvacuatedBytes(worker.evacuatedBytes());
+        }
+    }
+
+    @Override
+    protected void prepare(int numWorkers) {
+        this.numWorkers = numWorkers;
+        activeWorkers = numWorkers;
+        // All evacuation buffers must be published before any worker scans dirty cards.
+        for (int i = 0; i < numWorkers; i++) {
+            workers[i].beginParallelEvacuation(evacuator);
+            stripes[i] = 0;
+            steals[i] = 0;
+            stealAttempts[i] = 0;
+        }
+    }
+
+    @Override
+    protected void run(int workerID, int numWorkers) {
+        final NoAgingNurseryEvacuator worker = workers[workerID];
+        final EvacuationTimers timers = evacuator.timers();
+        final long startTime = timers.startWorker();
+        do {
+            int range = claim(nextSurvivorRangeOffset(), numSurvivorRanges);
+            while (range >= 0) {
+                worker.evacuateRange(Pointer.fromLong(survivorRangeStarts[range]), Pointer.fromLong(survivorRangeEnds[range]));
+                worker.drainGreyCells();
+                range = claim(nextSurvivorRangeOffset(), numSurvivorRanges);
+            }
+            int stripe = claim(nextStripeOffset(), numStripes);
+            while (stripe >= 0) {
+                final long stripeStartTime = timers.startWorker();
+                stripes[workerID]++;
+                evacuateStripe(worker, stripe);
+                worker.drainGreyCells();
+                timers.stopWorker(workerID, RSET_SCAN, stripeStartTime);
+                stripe = claim(nextStripeOffset(), numStripes);
+            }
+        } while (!stealOrTerminate(workerID));
+        timers.stopWorker(workerID, COPY, startTime);
+    }
+
+    private void evacuateStripe(NoAgingNurseryEvacuator worker, int stripe) {
+        // Binary search of the old space range comprising the stripe.
+        int low = 0;
+        int high = numOldSpaceRanges - 1;
+        while (low < high) {
+            final int mid = (low + high + 1) >>> 1;
+            if (oldSpaceRangeFirstStripes[mid] <= stripe) {
+                low = mid;
+            } else {
+                high = mid - 1;
+            }
+        }
+        final long rangeStart = oldSpaceRangeStarts[low];
+        final long rangeEnd = oldSpaceRangeEnds[low];
+        final long stripeStart = ((rangeStart >>> LOG2_STRIPE_SIZE) + stripe - oldSpaceRangeFirstStripes[low]) << LOG2_STRIPE_SIZE;
+        final long stripeEnd = stripeStart + (1L << LOG2_STRIPE_SIZE);
+        worker.evacuateFromDirtyCards(Address.fromLong(stripeStart > rangeStart ? stripeStart : rangeStart),
+                        Address.fromLong(stripeEnd < rangeEnd ? stripeEnd : rangeEnd));
+    }
+
+    /**
+     * Determine if any of the workers' stack of grey cells other than the specified one has cells.
+     */
+    private boolean hasWorkToSteal(int thiefID) {
+        for (int i = 0; i < numWorkers; i++) {
+            if (i != thiefID && !workers[i].greyCells.isEmpty()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private boolean steal(int thiefID) {
+        final NoAgingNurseryEvacuator thief = workers[thiefID];
+        for (int i = 1; i < numWorkers; i++) {
+            final NoAgingNurseryEvacuator victim = workers[(thiefID + i) % numWorkers];
+            if (!victim.greyCells.isEmpty()) {
+                stealAttempts[thiefID]++;
+                final Pointer cell = victim.greyCells.steal();
+                if (!cell.isZero()) {
+                    steals[thiefID]++;
+                    thief.scanCellForEvacuatees(cell);
+                    thief.drainGreyCells();
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Called when a worker has run out of work. Steal work from another worker, or wait until all workers have run out of work.
+     *
+     * @return true if all workers have run out of work, false if the worker stole work.
+     */
+    private boolean stealOrTerminate(int workerID) {
+        if (steal(workerID)) {
+            return false;
+        }
+        final int offset = activeWorkersOffset();
+        atomicIncrement(offset, -1);
+        while (activeWorkers != 0) {
+            if (hasWorkToSteal(workerID)) {
+                atomicIncrement(offset, 1);
+                if (steal(workerID)) {
+                    return false;
+                }
+                atomicIncrement(offset, -1);
+            } else {
+                Thread.yield();
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Record that the last evacuation wasn't parallel.
+     */
+    void clearStatistics() {
+        lastNumWorkers = 0;
+    }
+
+    /**
+     * Print the statistics of the last evacuation for each worker, if it was parallel.
+     */
+    void report() {
+        if (lastNumWorkers == 0) {
+            return;
+        }
+        final EvacuationTimers timers = evacuator.timers();
+        Log.print("parallel evacuation (");
+        Log.print(lastNumWorkers);
+        Log.print(" workers):");
+        for (int i = 0; i < lastNumWorkers; i++) {
+            Log.print(" [");
+            Log.print(i);
+            Log.print(": total=");
+            Log.print(timers.getWorkerTime(i, COPY) / 1000L);
+            Log.print("us, rset=");
+            Log.print(timers.getWorkerTime(i, RSET_SCAN) / 1000L);
+            Log.print("us, evacuated=");
+            Log.print(evacuatedBytes[i]);
+            Log.print(", stripes=");
+            Log.print(stripes[i]);
+            Log.print(", steals=");
+            Log.print(steals[i]);
+            Log.print("/");
+            Log.print(stealAttempts[i]);
+            Log.print(", overflows=");
+            Log.print(workers[i].greyCellsOverflows);
+            Log.print("]");
+        }
+        Log.println();
+    }
+}
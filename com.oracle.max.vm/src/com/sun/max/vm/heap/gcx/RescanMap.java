@@ -211,6 +211,55 @@ public class RescanMap {
     RescanMap() {
     }
 
+    /**
+     * Index to the leftmost entry of the rescan map that contains grey objects, or the number of entries of the map if it is empty.
+     */
+    int leftmostEntry() {
+        return leftmostEntry;
+    }
+
+    /**
+     * Index to the rightmost entry of the rescan map that contains grey objects.
+     */
+    int rightmostEntry() {
+        return rightmostEntry;
+    }
+
+    /**
+     * Returns the index to the leftmost word of the mark bitmap recorded by the specified entry of the rescan map.
+     * Used by parallel marking to rescan disjoint ranges of entries of the rescan map.
+     *
+     * @param entryIndex index of an entry of the rescan map
+     * @return index to a word of the mark bitmap, or -1 if the entry doesn't record any grey mark
+     */
+    int firstBitmapWordIndex(int entryIndex) {
+        final int rescanMapEntry = ArrayAccess.getInt(rescanMapTable, entryIndex);
+        if (rescanMapEntry == 0) {
+            return -1;
+        }
+        return (entryIndex << log2NumWordsPerRescanRegion) + leftBound(rescanMapEntry);
+    }
+
+    /**
+     * Returns the index to the rightmost word of the mark bitmap recorded by the specified entry of the rescan map.
+     *
+     * @param entryIndex index of an entry of the rescan map recording grey marks
+     * @return index to a word of the mark bitmap
+     */
+    int lastBitmapWordIndex(int entryIndex) {
+        return (entryIndex << log2NumWordsPerRescanRegion) + rightBound(ArrayAccess.getInt(rescanMapTable, entryIndex)) - 1;
+    }
+
+    /**
+     * Clear all the entries of the rescan map.
+     */
+    void clear() {
+        for (int i = leftmostEntry; i <= rightmostEntry; i++) {
+            ArrayAccess.setInt(rescanMapTable, i, 0);
+        }
+        resetRescanBound();
+    }
+
     void resetRescanBound() {
         leftmostEntry = rescanMapTable.length;
         rightmostEntry = 0;
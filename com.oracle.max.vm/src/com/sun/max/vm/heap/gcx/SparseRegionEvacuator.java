@@ -0,0 +1,203 @@
+/*
+ * Copyright (c) 2012, Oracle and/or its affiliates. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * Please contact Oracle, 500 Oracle Parkway, Redwood Shores, CA 94065 USA
+ * or visit www.oracle.com if you need additional information or have any
+ * questions.
+ */
+package com.sun.max.vm.heap.gcx;
+
+import static com.sun.max.vm.heap.HeapSchemeAdaptor.*;
+
+import com.sun.max.annotate.*;
+import com.sun.max.memory.*;
+import com.sun.max.unsafe.*;
+import com.sun.max.vm.layout.*;
+import com.sun.max.vm.runtime.*;
+
+/**
+ * Evacuates the live objects of the sparsest regions of a {@link FirstFitMarkSweepSpace} to empty regions of the same space, right after the
+ * space was marked and swept, so as to defragment it.
+ * <p>
+ * The space has no remembered set: references to the evacuated regions are found by scanning the cells of the other regions of the space
+ * that the last marking found live, in addition to the usual roots. Dead cells are never scanned, as they may refer to reclaimed space.
+ * Evacuated cells are marked black so that the color map describes the heap after evacuation.
+ * The referents of the special references were all processed by the marking, so they are treated as strong references.
+ */
+public final class SparseRegionEvacuator extends Evacuator {
+    @FOLD
+    private static Size evacuationBufferHeadroom() {
+        return minObjectSize();
+    }
+
+    /**
+     * Space whose regions are evacuated. Also provides the regions the evacuated cells are copied to.
+     */
+    private final FirstFitMarkSweepSpace<?> space;
+
+    /**
+     * The heap marker that marked the space.
+     */
+    private final TricolorHeapMarker heapMarker;
+
+    /**
+     * Queue of ranges of evacuated cells whose references haven't been scanned yet.
+     */
+    private SurvivorRangesQueue survivorRanges;
+
+    /**
+     * Allocation hand in the current evacuation buffer. Zero if the evacuator has no buffer.
+     */
+    private Pointer ptop = Pointer.zero();
+
+    /**
+     * End of the current evacuation buffer, minus the headroom needed to format the space left.
+     */
+    private Pointer pend = Pointer.zero();
+
+    /**
+     * Start of the range of evacuated cells not recorded in the survivor ranges yet.
+     */
+    private Address allocatedRangeStart = Address.zero();
+
+    /**
+     * Amount of evacuated bytes.
+     */
+    private Size evacuatedBytes = Size.zero();
+
+    public SparseRegionEvacuator(FirstFitMarkSweepSpace<?> space, TricolorHeapMarker heapMarker) {
+        this.space = space;
+        this.heapMarker = heapMarker;
+    }
+
+    /**
+     * Initialize the evacuator.
+     *
+     * @param maxSurvivorRanges maximum number of discontinuous ranges of evacuated cells the evacuator may have to keep track of
+     */
+    public void initialize(int maxSurvivorRanges) {
+        survivorRanges = new SurvivorRangesQueue(maxSurvivorRanges);
+    }
+
+    /**
+     * Number of bytes evacuated in the last evacuation.
+     * @return a number of bytes
+     */
+    public Size evacuatedBytes() {
+        return evacuatedBytes;
+    }
+
+    @INLINE
+    @Override
+    boolean inEvacuatedArea(Pointer origin) {
+        return HeapRegionInfo.fromAddress(origin).isEvacuated();
+    }
+
+    private void acquireEvacuationBuffer() {
+        final Address chunk = space.refillEvacuationBuffer();
+        FatalError.check(!chunk.isZero(), "refill request should always succeed");
+        ptop = chunk.asPointer();
+        pend = chunk.plus(HeapFreeChunk.getFreechunkSize(chunk).minus(evacuationBufferHeadroom())).asPointer();
+        allocatedRangeStart = ptop;
+    }
+
+    private void releaseEvacuationBuffer() {
+        recordRange(allocatedRangeStart, ptop);
+        space.retireEvacuationBuffer(ptop, pend.plus(evacuationBufferHeadroom()));
+        ptop = Pointer.zero();
+        pend = Pointer.zero();
+        allocatedRangeStart = Address.zero();
+    }
+
+    private void recordRange(Address start, Address end) {
+        if (end.greaterThan(start)) {
+            survivorRanges.add(start, end);
+        }
+    }
+
+    private void updateSurvivorRanges() {
+        recordRange(allocatedRangeStart, ptop);
+        allocatedRangeStart = ptop;
+    }
+
+    /**
+     * Allocate space for an evacuated cell in the evacuation buffer, and move to a new buffer if the cell doesn't fit in the space left.
+     */
+    private Pointer allocate(Size size) {
+        Pointer cell = ptop;
+        Pointer newTop = cell.plus(size);
+        if (newTop.greaterThan(pend) && (cell.isZero() || !newTop.equals(pend.plus(evacuationBufferHeadroom())))) {
+            if (!cell.isZero()) {
+                releaseEvacuationBuffer();
+            }
+            acquireEvacuationBuffer();
+            cell = ptop;
+            newTop = cell.plus(size);
+            FatalError.check(newTop.lessEqual(pend) || newTop.equals(pend.plus(evacuationBufferHeadroom())), "evacuated cell must fit in an empty region");
+        }
+        ptop = newTop;
+        return cell;
+    }
+
+    @Override
+    Pointer evacuate(Pointer fromOrigin) {
+        final Pointer fromCell = Layout.originToCell(fromOrigin);
+        final Size size = Layout.size(fromOrigin);
+        final Pointer toCell = allocate(size);
+        Memory.copyBytes(fromCell, toCell, size);
+        heapMarker.markBlackIfWhite(toCell);
+        evacuatedBytes = evacuatedBytes.plus(size);
+        return Layout.cellToOrigin(toCell);
+    }
+
+    @Override
+    protected void doBeforeEvacuation() {
+        evacuatedBytes = Size.zero();
+        // Referents still set after marking are live. The discovery is enabled back by the special references phase of the evacuation.
+        disableSpecialRefDiscovery();
+    }
+
+    /**
+     * Update the references to the evacuated regions in the cells of the other regions of the space found live by the last marking.
+     */
+    @Override
+    protected void evacuateFromRSets() {
+        space.visitMarkedCells(heapMarker, this);
+    }
+
+    @Override
+    protected void evacuateReachables() {
+        updateSurvivorRanges();
+        while (!survivorRanges.isEmpty()) {
+            final Pointer start = survivorRanges.start();
+            final Pointer end = survivorRanges.end();
+            survivorRanges.remove();
+            evacuateRange(start, end);
+            updateSurvivorRanges();
+        }
+    }
+
+    @Override
+    protected void doAfterEvacuation() {
+        if (!ptop.isZero()) {
+            releaseEvacuationBuffer();
+        }
+        survivorRanges.clear();
+        space.finishEvacuation(heapMarker);
+    }
+}
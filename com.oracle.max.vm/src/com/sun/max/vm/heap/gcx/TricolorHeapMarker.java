@@ -88,6 +88,9 @@ import com.sun.max.vm.type.*;
  * color-oriented operations (i.e., searching grey or black mark, etc.). It provides fast and slow variant of
  * operations, wherein the fast variant assumes that a color never span a bitmap word. The GC is responsible for
  * guaranteeing this property when it uses the fast variant.
+ * <p>
+ * When more than one {@linkplain GCWorkerThreads GC worker thread} is available, tracing from the roots is done by
+ * {@link ParallelMarking} instead of the forward scan. Parallel marking updates the color map with atomic operations only.
  *
  */
 public class TricolorHeapMarker implements MarkingStack.OverflowHandler, HeapManagementMemoryRequirement{
@@ -315,6 +318,16 @@ public class TricolorHeapMarker implements MarkingStack.OverflowHandler, HeapMan
      */
     final MarkingStack markingStack;
 
+    /**
+     * Parallel tracing of the heap. Null in the inspector.
+     */
+    final ParallelMarking parallelMarking;
+
+    /**
+     * Indicates whether the last marking used {@link #parallelMarking}. For statistics purposes.
+     */
+    private boolean lastMarkingWasParallel;
+
     private final TimerMetric rootScanTimer = new TimerMetric(new SingleUseTimer(HeapScheme.GC_TIMING_CLOCK));
     private final TimerMetric bootHeapScanTimer = new TimerMetric(new SingleUseTimer(HeapScheme.GC_TIMING_CLOCK));
     private final TimerMetric codeScanTimer = new TimerMetric(new SingleUseTimer(HeapScheme.GC_TIMING_CLOCK));
@@ -443,6 +456,10 @@ public class TricolorHeapMarker implements MarkingStack.OverflowHandler, HeapMan
         Log.print(recoveryScanTimer.getElapsedTime());
         Log.print(", weak refs=");
         Log.print(weakRefTimer.getLastElapsedTime());
+        if (lastMarkingWasParallel) {
+            Log.print(", ");
+            parallelMarking.reportStatistics();
+        }
     }
 
     public void reportTotalElapsedTimes() {
@@ -520,6 +537,7 @@ public class TricolorHeapMarker implements MarkingStack.OverflowHandler, HeapMan
         bitmapWordBoundaryMask = Address.fromInt(1).shiftedLeft(log2BytesCoveredPerBit + Word.widthValue().log2numberOfBits).minus(1).not();
         colorMap = new MemoryRegion("Mark Bitmap");
         markingStack = null;
+        parallelMarking = null;
         rootCellVisitor = null;
         heapRootsScanner = null;
         overflowLinearScanState = null;
@@ -539,6 +557,7 @@ public class TricolorHeapMarker implements MarkingStack.OverflowHandler, HeapMan
         colorMap = new MemoryRegion("Mark Bitmap");
         markingStack = new MarkingStack();
         markingStack.setOverflowHandler(this);
+        parallelMarking = new ParallelMarking(this);
         this.rootCellVisitor = rootCellVisitor;
         rootCellVisitor.initialize(this);
         heapRootsScanner = new SequentialHeapRootsScanner(rootCellVisitor);
@@ -583,6 +602,7 @@ public class TricolorHeapMarker implements MarkingStack.OverflowHandler, HeapMan
                 overflowScanState = overflowLinearScanState;
             }
             overflowScanState.initialize();
+            parallelMarking.initialize();
         }
     }
 
@@ -741,6 +761,103 @@ public class TricolorHeapMarker implements MarkingStack.OverflowHandler, HeapMan
         markBlackFromGrey(bitIndex);
     }
 
+    /**
+     * Paint grey a white cell with atomic updates of the color map, so that a single one of multiple threads marking the
+     * same cell concurrently succeeds.
+     *
+     * @param cell a cell
+     * @return true if the cell was white and the current thread painted it grey
+     */
+    final boolean markGreyIfWhiteAtomic(Pointer cell) {
+        final int bitIndex = bitIndexOf(cell);
+        final Pointer basePointer = base.asPointer();
+        final int wordIndex = bitmapWordIndex(bitIndex);
+        final Pointer wordPointer = basePointer.plus(wordIndex << Word.widthValue().log2numberOfBytes);
+        final long mark = bitmaskFor(bitIndex);
+        final long color = colorSpanWords(bitIndex) ? mark : (GREY << bitIndexInWord(bitIndex));
+        long word;
+        do {
+            word = wordPointer.readLong(0);
+            if ((word & mark) != 0L) {
+                return false;
+            }
+        } while (wordPointer.compareAndSwapLong(0, word, word | color) != word);
+        if (colorSpanWords(bitIndex)) {
+            // The grey bit is in the next word. The bits of that word may be concurrently updated for other cells.
+            final Pointer nextWordPointer = wordPointer.plus(Word.size());
+            do {
+                word = nextWordPointer.readLong(0);
+            } while (nextWordPointer.compareAndSwapLong(0, word, word | 1L) != word);
+        }
+        traceGreyMark(cell, bitIndex);
+        return true;
+    }
+
+    /**
+     * Paint black a grey cell with an atomic update of the color map.
+     * Threads concurrently tracing the heap call this to claim a grey cell before visiting it.
+     *
+     * @param cell a cell
+     * @return true if the cell was grey and the current thread painted it black
+     */
+    final boolean markBlackFromGreyAtomic(Pointer cell) {
+        final int greyBitIndex = bitIndexOf(cell) + 1;
+        final Pointer wordPointer = base.asPointer().plus(bitmapWordIndex(greyBitIndex) << Word.widthValue().log2numberOfBytes);
+        final long greyBit = bitmaskFor(greyBitIndex);
+        long word;
+        do {
+            word = wordPointer.readLong(0);
+            if ((word & greyBit) == 0L) {
+                return false;
+            }
+        } while (wordPointer.compareAndSwapLong(0, word, word & ~greyBit) != word);
+        return true;
+    }
+
+    /**
+     * Determine whether the last bit of a color map word is the mark of a cell, as opposed to the grey bit of a cell
+     * marked at the bit before it. The bits set in a color map alternate between mark and grey bits, starting with a mark,
+     * so this is the case iff the run of set bits ending at the last bit has an odd length.
+     * <p>
+     * The words of the color map are read from the specified one down. As a mark is always set before its grey bit,
+     * this order sees a consistent sequence of marks and grey bits even if other threads concurrently
+     * {@linkplain #markGreyIfWhiteAtomic(Pointer) mark} cells. A word read before this method is called can therefore be
+     * decoded using its result, whereas a word read after it cannot: its first bit may be the grey bit of a cell marked
+     * at the last bit of the specified word in the meantime.
+     *
+     * @param bitmapWordIndex index of a word of the color map
+     * @return true if the last bit of the word is set and is the mark of a cell
+     */
+    final boolean isMarkAtLastBit(int bitmapWordIndex) {
+        final Pointer basePointer = base.asPointer();
+        int runLength = 0;
+        int wordIndex = bitmapWordIndex;
+        int n;
+        do {
+            n = Long.numberOfLeadingZeros(~basePointer.getLong(wordIndex));
+            runLength += n;
+            wordIndex--;
+        } while (n == Word.width() && wordIndex >= 0);
+        return (runLength & 1) != 0;
+    }
+
+    /**
+     * Determine whether the last bit of a given value of a color map word is the mark of a cell.
+     *
+     * @param bitmapWord a value read from the color map
+     * @param firstBitIsGrey indicates if the first bit of {@code bitmapWord} is the grey bit of a mark at the last bit
+     *            of the previous word
+     * @return true if the last bit of {@code bitmapWord} is set and is the mark of a cell
+     */
+    static boolean isMarkAtLastBit(long bitmapWord, boolean firstBitIsGrey) {
+        final int runLength = Long.numberOfLeadingZeros(~bitmapWord);
+        if (runLength == Word.width()) {
+            // The run starts at the first bit, with a grey bit if firstBitIsGrey, and has an even length.
+            return firstBitIsGrey;
+        }
+        return (runLength & 1) != 0;
+    }
+
     final boolean isGrey(int bitIndex) {
         int bitIndexInWord = bitIndexInWord(bitIndex);
         if (bitIndexInWord == LAST_BIT_INDEX_IN_WORD) {
@@ -850,10 +967,97 @@ public class TricolorHeapMarker implements MarkingStack.OverflowHandler, HeapMan
     /**
      * Clear the color map, i.e., turn all bits to white.
      */
-    private void clearColorMap() {
+    void clearColorMap() {
         Memory.clearWords(colorMapBase(), colorMap.size().minus(markBitmapHeaderSize()).toInt() >> Word.widthValue().log2numberOfBytes);
     }
 
+    /**
+     * Clear the part of the color map covering a range of the covered area, i.e., turn its bits to white.
+     * The bounds of the range must be aligned to the area covered by a word of the color map.
+     *
+     * @param start start of the range
+     * @param end end of the range
+     */
+    void clearColorMap(Address start, Address end) {
+        final int firstBitmapWordIndex = bitmapWordIndex(start);
+        final int numBitmapWords = bitmapWordIndex(end) - firstBitmapWordIndex;
+        Memory.clearWords(base.asPointer().plus(firstBitmapWordIndex << Word.widthValue().log2numberOfBytes), numBitmapWords);
+    }
+
+    /**
+     * Paint black a white cell without visiting its references. Used by the {@link ConcurrentMarker} to mark cells
+     * allocated during concurrent marking, which only hold references that were live at the start of marking or that
+     * were stored after it.
+     * Not thread-safe: must only be used by a single marking thread.
+     *
+     * @param cell a cell
+     */
+    final void markBlackIfWhite(Pointer cell) {
+        final int bitIndex = bitIndexOf(cell);
+        if (isWhite(bitIndex)) {
+            traceBlackMark(cell, bitIndex);
+            final Pointer basePointer = base.asPointer();
+            final int wordIndex = bitmapWordIndex(bitIndex);
+            basePointer.setLong(wordIndex, basePointer.getLong(wordIndex) | bitmaskFor(bitIndex));
+        }
+    }
+
+    /**
+     * Find the rightmost marked cell by scanning the color map backward from the end of the covered area.
+     * Only used when tracing is completed, when there are no grey cells left.
+     *
+     * @return the address of the rightmost marked cell, or the start of the covered area if no cells are marked
+     */
+    final Address lastMarkedCell() {
+        final Pointer basePointer = base.asPointer();
+        final int firstWordIndex = bitmapWordIndex(coveredAreaStart);
+        for (int wordIndex = bitmapWordIndex(coveredAreaEnd.minusWords(1)); wordIndex >= firstWordIndex; wordIndex--) {
+            final long bitmapWord = basePointer.getLong(wordIndex);
+            if (bitmapWord != 0L) {
+                final int bitIndexInWord = LAST_BIT_INDEX_IN_WORD - Long.numberOfLeadingZeros(bitmapWord);
+                return addressOf((wordIndex << Word.widthValue().log2numberOfBits) + bitIndexInWord);
+            }
+        }
+        return coveredAreaStart;
+    }
+
+    /**
+     * Visit the cells marked black in a range of the covered area, in address order, without visiting the dead cells in between.
+     * Only used when tracing is completed, when there are no grey cells left.
+     * The next black mark is searched from the end of the visited cell returned by the visitor, so a cell overlapping the end of the range
+     * is visited if it starts in the range.
+     *
+     * @param start start of the range
+     * @param end end of the range
+     * @param visitor the visitor applied to the black cells
+     */
+    final void visitBlackCells(Address start, Address end, CellVisitor visitor) {
+        final Pointer colorMapBase = base.asPointer();
+        final int lastBitIndex = bitIndexOf(end.minusWords(1));
+        final int lastBitmapWordIndex = bitmapWordIndex(lastBitIndex);
+        int bitIndex = bitIndexOf(start);
+        while (bitIndex <= lastBitIndex) {
+            int bitmapWordIndex = bitmapWordIndex(bitIndex);
+            // Ignore the marks of the bitmap word that are left of the bit index.
+            long bitmapWord = colorMapBase.getLong(bitmapWordIndex) & (-1L << bitIndexInWord(bitIndex));
+            while (bitmapWord == 0L) {
+                if (++bitmapWordIndex > lastBitmapWordIndex) {
+                    return;
+                }
+                bitmapWord = colorMapBase.getLong(bitmapWordIndex);
+            }
+            final int bitIndexOfCell = (bitmapWordIndex << Word.widthValue().log2numberOfBits) + Pointer.fromLong(bitmapWord).leastSignificantBitSet();
+            if (bitIndexOfCell > lastBitIndex) {
+                return;
+            }
+            final Pointer endOfCell = visitor.visitCell(addressOf(bitIndexOfCell).asPointer());
+            if (endOfCell.greaterEqual(end)) {
+                return;
+            }
+            bitIndex = bitIndexOf(endOfCell);
+        }
+    }
+
     private final RootCellVisitor rootCellVisitor;
 
     public RootCellVisitor rootCellVisitor() {
@@ -1495,6 +1699,7 @@ public class TricolorHeapMarker implements MarkingStack.OverflowHandler, HeapMan
      */
     void visitGreyObjectsAfterRootMarking(HeapRegionRangeIterable regionsRanges) {
         initAfterRootMarking();
+        lastMarkingWasParallel = false;
         visitGreyObjects(regionsRanges);
     }
 
@@ -1503,6 +1708,12 @@ public class TricolorHeapMarker implements MarkingStack.OverflowHandler, HeapMan
      */
     void visitGreyObjectsAfterRootMarking() {
         initAfterRootMarking();
+        lastMarkingWasParallel = parallelMarking.isEnabled();
+        if (lastMarkingWasParallel) {
+            forwardScanState.rightmost = parallelMarking.mark(rootCellVisitor.leftmost, rootCellVisitor.rightmost);
+            forwardScanState.finger = forwardScanState.rightmost;
+            return;
+        }
         visitGreyObjects();
     }
 
@@ -1647,6 +1858,38 @@ public class TricolorHeapMarker implements MarkingStack.OverflowHandler, HeapMan
         regionsSweeper.reachedRightmostLiveRegion();
     }
 
+    /**
+     * Sweep all the regions of a heap region sweeper. Unlike {@link #sweep(HeapRegionSweeper, boolean)}, this doesn't stop at
+     * the rightmost live region: the caller is responsible for giving the sweeper only regions that need sweeping. Several threads may
+     * call this concurrently with sweepers of disjoint sets of regions.
+     */
+    void sweepAll(HeapRegionSweeper regionsSweeper, boolean doImprecise) {
+        while (regionsSweeper.hasNextSweepingRegion()) {
+            sweepNextRegion(regionsSweeper, doImprecise);
+        }
+    }
+
+    /**
+     * Sweep the next region of a heap region sweeper (and the body regions of a multi-region object if the region is its head).
+     * The color map must not have changed since the last marking.
+     */
+    void sweepNextRegion(HeapRegionSweeper regionsSweeper, boolean doImprecise) {
+        regionsSweeper.beginSweep();
+        if (doImprecise) {
+            impreciseRegionSweep(regionsSweeper);
+        } else {
+            preciseRegionSweep(regionsSweeper);
+        }
+        regionsSweeper.endSweep();
+    }
+
+    /**
+     * Address immediately after the rightmost object marked by the last marking.
+     */
+    Address endOfRightmostLiveObject() {
+        return endOfCell(forwardScanState.rightmost);
+    }
+
     /**
      * Return the pointer immediately after the last word of the cell.
      *
@@ -1848,6 +2091,46 @@ public class TricolorHeapMarker implements MarkingStack.OverflowHandler, HeapMan
         }
     }
 
+    /**
+     * Complete a marking done concurrently with the mutators by a {@link ConcurrentMarker}.
+     * The color map holds no grey cells on entry: the concurrent marker has traced everything reachable from the
+     * snapshot taken at the start of marking. This processes special references and marks what they keep alive,
+     * leaving the marker in the same state as {@link #markAll(HeapRegionRangeIterable)} for the sweeper.
+     *
+     * @param regionsRanges enumerate ranges of heap regions holding objects to trace
+     * @param rightmost the rightmost marked cell
+     */
+    void finishConcurrentMarking(HeapRegionRangeIterable regionsRanges, Address rightmost) {
+        final boolean traceGCPhases = Heap.logGCPhases();
+        traceGCTimes = Heap.logGCTime();
+        if (traceGCTimes) {
+            recoveryScanTimer.reset();
+        }
+        markingStack.reset();
+        overflowScanState.setHeapRegionsRanges(regionsRanges);
+        forwardScanState.rightmost = rightmost;
+        forwardScanState.finger = rightmost;
+        forwardScanState.numMarkinkgStackOverflow = 0;
+        overflowScanState.numMarkinkgStackOverflow = 0;
+        lastMarkingWasParallel = false;
+
+        markPhase = MARK_PHASE.SPECIAL_REF;
+        markPhase.traceBegin(traceGCPhases);
+        startTimer(weakRefTimer);
+        SpecialReferenceManager.processDiscoveredSpecialReferences(forwardScanState);
+        // All marked cells are left of the finger: new grey cells are on the marking stack or past the finger.
+        regionsRanges.reset();
+        visitGreyObjects(regionsRanges);
+        stopTimer(weakRefTimer);
+        markPhase.traceEnd(traceGCPhases);
+        FatalError.check(markingStack.isEmpty(), "Marking Stack must be empty after special references are processed.");
+        if (VerifyAfterMarking || VerifyGreyLessAreas) {
+            regionsRanges.reset();
+            verifyHasNoGreyMarks(regionsRanges, forwardScanState.endOfRightmostVisitedObject());
+        }
+        markPhase = MARK_PHASE.DONE;
+    }
+
     /**
      * Mark all live objects that resides in the heap regions enumerated by the iterable region range.
      * @param regionsRanges enumerate ranges of heap regions holding objects to trace
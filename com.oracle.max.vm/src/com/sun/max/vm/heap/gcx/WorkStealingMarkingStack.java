@@ -0,0 +1,157 @@
+/*
+ * Copyright (c) 2012, Oracle and/or its affiliates. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * Please contact Oracle, 500 Oracle Parkway, Redwood Shores, CA 94065 USA
+ * or visit www.oracle.com if you need additional information or have any
+ * questions.
+ */
+package com.sun.max.vm.heap.gcx;
+
+import com.sun.max.annotate.*;
+import com.sun.max.memory.*;
+import com.sun.max.unsafe.*;
+import com.sun.max.vm.*;
+import com.sun.max.vm.actor.holder.*;
+import com.sun.max.vm.reference.*;
+
+/**
+ * Fixed size stack of grey cells owned by one parallel GC worker, from which other workers can steal cells.
+ * Used by {@link ParallelMarking} and {@link ParallelNurseryEvacuation}.
+ * This is the double-ended queue of Arora, Blumofe and Plaxton (SPAA 1998): the owner pushes and pops cells at the bottom
+ * end without synchronization but when contending with thieves for the last cell, whereas thieves take cells from the top end
+ * with a compare-and-swap of the {@link #age} word, which packs the index of the top cell with a tag to avoid ABA problems.
+ * <p>
+ * The stack doesn't handle overflow itself: {@link #push(Pointer)} returns false when the stack is full and the caller
+ * is responsible for recording the cell elsewhere.
+ */
+final class WorkStealingMarkingStack {
+    /**
+     * Index of the top cell in the low 32 bits, tag in the high 32 bits.
+     */
+    private volatile long age;
+
+    /**
+     * Index of the slot following the bottom cell. Only updated by the owner.
+     */
+    private volatile int bottom;
+
+    private Address base;
+
+    private int capacity;
+
+    @FOLD
+    private static int ageOffset() {
+        return ClassActor.fromJava(WorkStealingMarkingStack.class).findLocalInstanceFieldActor("age").offset();
+    }
+
+    @INLINE
+    private static int top(long age) {
+        return (int) age;
+    }
+
+    @INLINE
+    private static long tag(long age) {
+        return age >>> 32;
+    }
+
+    @INLINE
+    private static long age(long tag, int top) {
+        return (tag << 32) | (top & 0xFFFFFFFFL);
+    }
+
+    WorkStealingMarkingStack() {
+    }
+
+    void initialize(int length) {
+        final Size size = Size.fromInt(length).shiftedLeft(Word.widthValue().log2numberOfBytes);
+        base = Memory.allocate(size);
+        if (base.isZero()) {
+            MaxineVM.reportPristineMemoryFailure("work stealing stack", "allocate", size);
+        }
+        capacity = length;
+    }
+
+    @INLINE
+    boolean isEmpty() {
+        return bottom <= top(age);
+    }
+
+    void reset() {
+        bottom = 0;
+        age = 0L;
+    }
+
+    /**
+     * Push a cell on the stack. Only called by the owner of the stack.
+     * @param cell a cell marked grey
+     * @return false if the stack is full
+     */
+    boolean push(Pointer cell) {
+        final int b = bottom;
+        if (b == capacity) {
+            return false;
+        }
+        base.asPointer().setWord(b, cell);
+        bottom = b + 1;
+        return true;
+    }
+
+    /**
+     * Pop a cell from the bottom of the stack. Only called by the owner of the stack.
+     * @return a cell, or zero if the stack is empty
+     */
+    Pointer pop() {
+        int b = bottom;
+        if (b == 0) {
+            return Pointer.zero();
+        }
+        b--;
+        bottom = b;
+        final Pointer cell = base.asPointer().getWord(b).asPointer();
+        final long oldAge = age;
+        final int t = top(oldAge);
+        if (b > t) {
+            return cell;
+        }
+        // At most one cell left, possibly contended by thieves. Reset the stack whatever the outcome.
+        bottom = 0;
+        final long newAge = age(tag(oldAge) + 1, 0);
+        if (b == t && Reference.fromJava(this).compareAndSwapLong(ageOffset(), oldAge, newAge) == oldAge) {
+            return cell;
+        }
+        age = newAge;
+        return Pointer.zero();
+    }
+
+    /**
+     * Steal a cell from the top of the stack. Called by any worker other than the owner.
+     * @return a cell, or zero if the stack is empty or another worker won the race for the top cell
+     */
+    Pointer steal() {
+        final long oldAge = age;
+        final int t = top(oldAge);
+        if (bottom <= t) {
+            return Pointer.zero();
+        }
+        final Pointer cell = base.asPointer().getWord(t).asPointer();
+        if (Reference.fromJava(this).compareAndSwapLong(ageOffset(), oldAge, age(tag(oldAge), t + 1)) == oldAge) {
+            return cell;
+        }
+        return Pointer.zero();
+    }
+}
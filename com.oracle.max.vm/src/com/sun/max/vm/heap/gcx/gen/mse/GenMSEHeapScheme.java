@@ -27,6 +27,8 @@ import static com.sun.max.vm.heap.gcx.HeapRegionManager.*;
 import static com.sun.max.vm.heap.gcx.gen.mse.GenMSEHeapScheme.GenMSEHeapRegionTag.*;
 import static com.sun.max.vm.intrinsics.MaxineIntrinsicIDs.*;
 
+import java.util.*;
+
 import com.sun.cri.xir.*;
 import com.sun.cri.xir.CiXirAssembler.XirOperand;
 import com.sun.max.annotate.*;
@@ -104,6 +106,8 @@ final public class GenMSEHeapScheme extends HeapSchemeWithTLABAdaptor  implement
      */
     private final NoAgingNurseryEvacuator youngSpaceEvacuator;
 
+    private final EvacuationTimers evacTimers = new EvacuationTimers();
+
     /**
      * Operation to submit to the {@link VmOperationThread} to perform a generational collection.
      */
@@ -134,6 +138,7 @@ final public class GenMSEHeapScheme extends HeapSchemeWithTLABAdaptor  implement
 
         oldSpace = new FirstFitMarkSweepSpace<GenMSEHeapScheme>(heapAccount, tlabAllocator, overflowAllocator, true, cardTableRSet, OLD.tag());
         youngSpaceEvacuator = new NoAgingNurseryEvacuator(youngSpace, oldSpace, this, cardTableRSet, "Young");
+        youngSpaceEvacuator.setTimers(evacTimers);
         noYoungReferencesVerifier = new NoEvacuatedSpaceReferenceVerifier(cardTableRSet, youngSpace);
         fotVerifier = new FOTVerifier(cardTableRSet);
         genCollection = new GenCollection();
@@ -152,12 +157,11 @@ final public class GenMSEHeapScheme extends HeapSchemeWithTLABAdaptor  implement
      */
     @Override
     public void initializeCoverage(Address coveredAreaStart, Size coveredAreaSize) {
-        final int pageSize = Platform.platform().pageSize;
         final Address endOfCoveredArea = coveredAreaStart.plus(coveredAreaSize);
         final Size cardTableCoveredAreaSize = endOfCoveredArea.minus(Heap.bootHeapRegion.start()).asSize();
 
         // Allocate Card Table Data at the end of the covered area (i.e., space reserved to the heap regions).
-        final Address cardTableDataStart =  endOfCoveredArea.roundedUpBy(pageSize);
+        final Address cardTableDataStart =  endOfCoveredArea.roundedUpBy(VirtualMemory.largePageAlignment());
 
         // We want the card table to cover not just the dynamic heap, but also the boot image and code cache to avoid testing
         // for boundaries in the write barrier. Note that covering these with the card table doesn't mean we will iterate over these
@@ -167,6 +171,8 @@ final public class GenMSEHeapScheme extends HeapSchemeWithTLABAdaptor  implement
             if (!VirtualMemory.commitMemory(cardTableDataStart, cardTableDataSize,  VirtualMemory.Type.DATA)) {
                 MaxineVM.reportPristineMemoryFailure("card table space", "commit", cardTableDataSize);
             }
+        } else {
+            VirtualMemory.backWithLargePages(cardTableDataStart, cardTableDataSize, VirtualMemory.Type.DATA, true);
         }
         cardTableRSet.initialize(Heap.bootHeapRegion.start(), cardTableCoveredAreaSize, cardTableDataStart, cardTableDataSize);
     }
@@ -204,7 +210,7 @@ final public class GenMSEHeapScheme extends HeapSchemeWithTLABAdaptor  implement
             final Size heapMarkerDatasize = heapMarker.memoryRequirement(heapBounds.size());
 
             // Heap Marker Data are allocated after the remembered set's.
-            final Address heapMarkerDataStart = cardTableRSet.memory().end().roundedUpBy(pageSize);
+            final Address heapMarkerDataStart = cardTableRSet.memory().end().roundedUpBy(VirtualMemory.largePageAlignment());
 
             // Address to the first reserved byte unused by the heap scheme.
             Address unusedReservedSpaceStart = heapMarkerDataStart.plus(heapMarkerDatasize).roundedUpBy(pageSize);
@@ -243,6 +249,7 @@ final public class GenMSEHeapScheme extends HeapSchemeWithTLABAdaptor  implement
             // worst case evacuation and the number of fragments of old space available for allocation.
             // Same with the lab size. In non parallel evacuators, this should be all the space available for allocation in a region.
             youngSpaceEvacuator.initialize(1000, false, oldSpace.minReclaimableSpace(), false);
+            youngSpaceEvacuator.initializeParallelEvacuation(heapAccount().reserve());
 
             if (HeapRangeDumper.DumpOnError) {
                 MemoryRegion dumpingCoverage = new MemoryRegion();
@@ -329,11 +336,15 @@ final public class GenMSEHeapScheme extends HeapSchemeWithTLABAdaptor  implement
             if (Heap.verbose()) {
                 Log.println("--Begin nursery evacuation");
             }
+            evacTimers.resetTrackTime();
             youngSpaceEvacuator.setGCOperation(this);
             HeapScheme.Inspect.notifyHeapPhaseChange(HeapPhase.ANALYZING);
             youngSpaceEvacuator.evacuate(Heap.logGCPhases());
             HeapScheme.Inspect.notifyHeapPhaseChange(HeapPhase.RECLAIMING);
             youngSpaceEvacuator.setGCOperation(null);
+            if (Heap.logGCTime()) {
+                youngSpaceEvacuator.reportLastParallelEvacuation();
+            }
             if (Heap.verbose()) {
                 Log.println("--End nursery evacuation");
             }
@@ -415,6 +426,12 @@ final public class GenMSEHeapScheme extends HeapSchemeWithTLABAdaptor  implement
         cardTableRSet.record(ref, displacement, index);
     }
 
+    @INLINE
+    @Override
+    public void postBulkWriteBarrier(Reference ref, Offset offset, int numberOfSlots) {
+        cardTableRSet.record(ref, offset, numberOfSlots);
+    }
+
     /**
      * Allocate a chunk of memory of the specified size and refill a thread's TLAB with it.
      * @param etla the thread whose TLAB will be refilled
@@ -444,7 +461,7 @@ final public class GenMSEHeapScheme extends HeapSchemeWithTLABAdaptor  implement
             allocateAndRefillTLAB(etla, tlabSize);
             // Let's do a bit of meta-circularity. The TLAB is refilled, and no-one except the current thread can use it.
             // So the TLAB allocation is going to succeed here
-            TLABRefillPolicy.setForCurrentThread(etla, new SimpleTLABRefillPolicy(tlabSize));
+            TLABRefillPolicy.setForCurrentThread(etla, newTLABRefillPolicy(tlabSize));
             // Now, address the initial request. Note that we may recurse down to handleTLABOverflow again here if the
             // request is larger than the TLAB size. However, this second call will succeed and allocate outside of the TLAB.
             return tlabAllocate(size);
@@ -456,7 +473,7 @@ final public class GenMSEHeapScheme extends HeapSchemeWithTLABAdaptor  implement
             // always return zero for the next TLAB size.
             return youngSpace.allocate(size);
         }
-        if (!refillPolicy.shouldRefill(size, tlabMark)) {
+        if (!refillPolicy.shouldRefill(size, tlabMark, tlabEnd)) {
             // Size would fit in a new tlab, but the policy says we shouldn't refill the TLAB yet, so allocate directly in the young generation.
             return youngSpace.allocate(size);
         }
@@ -495,6 +512,11 @@ final public class GenMSEHeapScheme extends HeapSchemeWithTLABAdaptor  implement
         return XirWriteBarrierSpecification.NULL_WRITE_BARRIER_GEN;
     }
 
+    @HOSTED_ONLY
+    public List<XirTemplate> barrierStubs() {
+        return Collections.emptyList();
+    }
+
     @Override
     public PhaseLogger phaseLogger() {
         return HeapSchemeLoggerAdaptor.phaseLogger;
@@ -26,19 +26,31 @@ import static com.sun.max.vm.VMConfiguration.*;
 import static com.sun.max.vm.heap.gcx.HeapRegionManager.*;
 import static com.sun.max.vm.intrinsics.MaxineIntrinsicIDs.*;
 
+import java.lang.management.MemoryManagerMXBean;
+import java.lang.management.MemoryType;
+import java.lang.management.MemoryUsage;
+import java.util.List;
+
+import com.sun.cri.xir.*;
+import com.sun.cri.xir.CiXirAssembler.XirOperand;
+import com.sun.management.GarbageCollectorMXBean;
 import com.sun.max.annotate.*;
 import com.sun.max.memory.*;
 import com.sun.max.platform.*;
 import com.sun.max.program.*;
 import com.sun.max.unsafe.*;
+import com.sun.max.util.*;
 import com.sun.max.util.timer.*;
 import com.sun.max.vm.*;
 import com.sun.max.vm.MaxineVM.Phase;
 import com.sun.max.vm.code.*;
 import com.sun.max.vm.heap.*;
+import com.sun.max.vm.heap.debug.*;
 import com.sun.max.vm.heap.gcx.*;
 import com.sun.max.vm.heap.gcx.rset.*;
 import com.sun.max.vm.layout.*;
+import com.sun.max.vm.management.*;
+import com.sun.max.vm.monitor.modal.sync.*;
 import com.sun.max.vm.reference.*;
 import com.sun.max.vm.runtime.*;
 import com.sun.max.vm.thread.*;
@@ -46,16 +58,40 @@ import com.sun.max.vm.thread.*;
 /**
  * Region-based Mark Sweep + Evacuation-based defragmentation Heap Scheme.
  * Used for testing region-based support.
+ * <p>
+ * With {@code -XX:+ConcurrentMarking}, the heap is marked by a {@link ConcurrentMarker} thread, concurrently with the mutators,
+ * once its occupancy reaches {@code -XX:ConcurrentMarkingOccupancy} percent. The collection that follows only completes marking
+ * and sweeps. A collection requested while marking is in progress completes the marking started concurrently.
+ * The compiled code of reference stores always includes the SATB pre-write barrier, which only tests a thread local when
+ * concurrent marking is disabled.
+ * <p>
+ * With {@code -XX:+EvacuateSparseRegions}, the regions whose occupancy after sweeping is below {@code -XX:SparseRegionOccupancy} percent
+ * are evacuated to empty regions by a {@link SparseRegionEvacuator}, and become empty. Sweeping is then never lazy, and objects
+ * cannot be pinned.
  */
-public final class MSEHeapScheme extends HeapSchemeWithTLABAdaptor implements HeapAccountOwner {
+public final class MSEHeapScheme extends HeapSchemeWithTLABAdaptor implements HeapAccountOwner, XirWriteBarrierSpecification {
     private static final int WORDS_COVERED_PER_BIT = 1;
     static boolean DumpFragStatsAfterGC = false;
     static boolean DumpFragStatsAtGCFailure = false;
     static boolean DoImpreciseSweep = false;
+    static boolean LazySweep = false;
+    static boolean BackgroundSweep = false;
+    static boolean ConcurrentMarking = false;
+    static int ConcurrentMarkingOccupancy = 45;
+    static boolean EvacuateSparseRegions = false;
+    static int SparseRegionOccupancy = 30;
     static {
         VMOptions.addFieldOption("-XX:", "DumpFragStatsAfterGC", MSEHeapScheme.class, "Dump region fragmentation stats after GC", Phase.PRISTINE);
         VMOptions.addFieldOption("-XX:", "DumpFragStatsAtGCFailure", MSEHeapScheme.class, "Dump region fragmentation when GC failed to reclaim enough space", Phase.PRISTINE);
         VMOptions.addFieldOption("-XX:", "DoImpreciseSweep", MSEHeapScheme.class, "Control whether to do precise or imprecise sweep", Phase.PRISTINE);
+        VMOptions.addFieldOption("-XX:", "LazySweep", MSEHeapScheme.class, "Sweep regions on demand when allocating instead of during GC", Phase.PRISTINE);
+        VMOptions.addFieldOption("-XX:", "BackgroundSweep", MSEHeapScheme.class, "Sweep regions left unswept by lazy sweeping in a background thread", Phase.PRISTINE);
+        VMOptions.addFieldOption("-XX:", "ConcurrentMarking", MSEHeapScheme.class, "Mark the heap concurrently with the mutators", Phase.PRISTINE);
+        VMOptions.addFieldOption("-XX:", "ConcurrentMarkingOccupancy", MSEHeapScheme.class,
+                        "Percentage of heap occupancy that starts a concurrent marking", Phase.PRISTINE);
+        VMOptions.addFieldOption("-XX:", "EvacuateSparseRegions", MSEHeapScheme.class, "Evacuate the sparsest regions after sweeping to defragment the heap", Phase.PRISTINE);
+        VMOptions.addFieldOption("-XX:", "SparseRegionOccupancy", MSEHeapScheme.class,
+                        "Percentage of region occupancy below which a region may be evacuated", Phase.PRISTINE);
     }
 
     /**
@@ -68,6 +104,15 @@ public final class MSEHeapScheme extends HeapSchemeWithTLABAdaptor implements He
      */
     private final FirstFitMarkSweepSpace<MSEHeapScheme> markSweepSpace;
 
+    /**
+     * Evacuator of the sparsest regions of the mark-sweep space. Only used when evacuation of sparse regions is enabled.
+     */
+    private final SparseRegionEvacuator sparseRegionEvacuator;
+
+    private final EvacuationTimers evacTimers = new EvacuationTimers();
+
+    private final DebugHeap.DetailLogger detailLogger = new DebugHeap.DetailLogger();
+
     private final AtomicPinCounter pinnedCounter = MaxineVM.isDebug() ? new AtomicPinCounter() : null;
 
     final MarkSweepCollection collect = new MarkSweepCollection();
@@ -80,6 +125,16 @@ public final class MSEHeapScheme extends HeapSchemeWithTLABAdaptor implements He
 
     private HeapRegionStatistics fragmentationStats;
 
+    /**
+     * Thread sweeping the regions left unswept after a GC when both lazy and background sweeping are enabled. Null otherwise.
+     */
+    private BackgroundSweeper backgroundSweeper;
+
+    /**
+     * Thread marking the heap concurrently with the mutators when concurrent marking is enabled. Null otherwise.
+     */
+    private MSEConcurrentMarker concurrentMarker;
+
     /**
      * The application heap. Currently, where all dynamic allocation takes place.
      */
@@ -96,12 +151,146 @@ public final class MSEHeapScheme extends HeapSchemeWithTLABAdaptor implements He
         markSweepSpace = new FirstFitMarkSweepSpace<MSEHeapScheme>(heapAccount, tlabAllocator, overflowAllocator, false, NullDeadSpaceListener.nullDeadSpaceListener(), 0);
         heapMarker = new TricolorHeapMarker(WORDS_COVERED_PER_BIT, new HeapAccounRootCellVisitor(this));
         afterGCVerifier = new AfterMarkSweepVerifier(heapMarker, markSweepSpace, AfterMarkSweepBootHeapVerifier.makeVerifier(heapMarker, this));
+        sparseRegionEvacuator = new SparseRegionEvacuator(markSweepSpace, heapMarker);
+        sparseRegionEvacuator.setTimers(evacTimers);
+        if (MaxineVM.isDebug()) {
+            sparseRegionEvacuator.setDetailLogger(detailLogger);
+        }
         pinningSupportFlags = PIN_SUPPORT_FLAG.makePinSupportFlags(true, false, true);
     }
 
     @Override
     public void initialize(MaxineVM.Phase phase) {
         super.initialize(phase);
+        if (phase == MaxineVM.Phase.STARTING && LazySweep && BackgroundSweep && !EvacuateSparseRegions) {
+            backgroundSweeper = new BackgroundSweeper(markSweepSpace);
+            backgroundSweeper.start();
+        }
+        if (phase == MaxineVM.Phase.STARTING && ConcurrentMarking) {
+            concurrentMarker = new MSEConcurrentMarker(heapMarker);
+            concurrentMarker.initialize();
+            concurrentMarker.start();
+        }
+    }
+
+    /**
+     * Concurrent marker of the mark-sweep space. Starts marking when the occupancy of the space reaches the
+     * threshold set by {@code -XX:ConcurrentMarkingOccupancy}.
+     */
+    private final class MSEConcurrentMarker extends ConcurrentMarker {
+        private final InitialMark initialMark = new InitialMark();
+
+        MSEConcurrentMarker(TricolorHeapMarker heapMarker) {
+            super(heapMarker);
+        }
+
+        @Override
+        protected boolean shouldStartMarking() {
+            final Size totalSpace = markSweepSpace.totalSpace();
+            return markSweepSpace.usedSpace().times(100).greaterEqual(totalSpace.times(ConcurrentMarkingOccupancy));
+        }
+
+        @Override
+        protected void initialMark() {
+            if (Heap.gcDisabled()) {
+                return;
+            }
+            // Serialize with the collections requested by the mutators.
+            Heap.lock();
+            try {
+                initialMark.submit();
+            } finally {
+                Heap.unlock();
+            }
+        }
+
+        @Override
+        protected void remark() {
+            final GCRequest gcRequest = GCRequest.clearedGCRequest();
+            gcRequest.explicit = true;
+            Heap.collectGarbage();
+        }
+    }
+
+    /**
+     * The pause that starts a concurrent marking. Retires the TLABs, so that all subsequent allocations are recorded by the
+     * concurrent marker, and sweeps the regions left unswept, as their sweeping needs the color map of the previous marking.
+     */
+    final class InitialMark extends GCOperation {
+        InitialMark() {
+            super("InitialMark");
+        }
+
+        @Override
+        protected void collect(int invocationCount) {
+            VmThreadMap.ACTIVE.forAllThreadLocals(null, interimTlabFiller);
+            markSweepSpace.finishSweep();
+            concurrentMarker.startMarking();
+        }
+    }
+
+    /**
+     * Record memory given to a mutator for allocation if concurrent marking is in progress.
+     */
+    @INLINE
+    private void recordAllocation(Address start, Size size) {
+        if (concurrentMarker != null) {
+            concurrentMarker.recordAllocation(start, size);
+        }
+    }
+
+    /**
+     * Allocate directly in the mark-sweep space.
+     */
+    private Pointer allocateInSpace(Size size) {
+        final Pointer cell = markSweepSpace.allocate(size);
+        recordAllocation(cell, size);
+        return cell;
+    }
+
+    /**
+     * Daemon thread sweeping the regions left unswept by the last GC, concurrently with the mutator threads.
+     * Each region is swept while holding the refill lock of the space, so mutators needing a refill either
+     * get a region already swept by the background sweeper or sweep the next region themselves.
+     */
+    private static final class BackgroundSweeper extends Thread {
+        private static final Object lock = JavaMonitorManager.newVmLock("BACKGROUND_SWEEPER_LOCK");
+        private final FirstFitMarkSweepSpace<MSEHeapScheme> space;
+        private boolean pending;
+
+        BackgroundSweeper(FirstFitMarkSweepSpace<MSEHeapScheme> space) {
+            super("background-sweeper");
+            this.space = space;
+            setDaemon(true);
+        }
+
+        /**
+         * Notify the sweeper that a GC has completed. Must not be called by the VM operation thread.
+         */
+        void wakeUp() {
+            synchronized (lock) {
+                pending = true;
+                lock.notifyAll();
+            }
+        }
+
+        @Override
+        public void run() {
+            while (true) {
+                synchronized (lock) {
+                    while (!pending) {
+                        try {
+                            lock.wait();
+                        } catch (InterruptedException e) {
+                        }
+                    }
+                    pending = false;
+                }
+                while (space.sweepUnsweptRegion()) {
+                    // Keep on sweeping until all regions are swept or a refill swept the last ones.
+                }
+            }
+        }
     }
 
     /**
@@ -137,7 +326,7 @@ public final class MSEHeapScheme extends HeapSchemeWithTLABAdaptor implements He
             final Size heapMarkerDatasize = heapMarker.memoryRequirement(heapBounds.size());
 
             // Heap Marker Data are allocated at end of the space reserved to the heap regions.
-            final Address heapMarkerDataStart = heapBounds.end().roundedUpBy(pageSize);
+            final Address heapMarkerDataStart = heapBounds.end().roundedUpBy(VirtualMemory.largePageAlignment());
             // Address to the first reserved byte unused by the heap scheme.
             final Address unusedReservedSpaceStart = heapMarkerDataStart.plus(heapMarkerDatasize).roundedUpBy(pageSize);
 
@@ -154,6 +343,9 @@ public final class MSEHeapScheme extends HeapSchemeWithTLABAdaptor implements He
                 MaxineVM.reportPristineMemoryFailure("heapMarkerDataStart", "commit", heapMarkerDatasize);
             }
             heapMarker.initialize(heapBounds.start(), heapBounds.end(), heapMarkerDataStart, heapMarkerDatasize);
+            if (EvacuateSparseRegions) {
+                sparseRegionEvacuator.initialize(HeapRegionConstants.numberOfRegions(applicationHeapMaxSize));
+            }
 
             if (DumpFragStatsAfterGC || DumpFragStatsAtGCFailure) {
                 fragmentationStats = new HeapRegionStatistics(markSweepSpace.minReclaimableSpace());
@@ -217,10 +409,12 @@ public final class MSEHeapScheme extends HeapSchemeWithTLABAdaptor implements He
         if (gcRequest.explicit) {
             // This is a forced GC.
             collect.submit();
+            wakeUpBackgroundSweeper();
             reportFragmentationStats(true);
             return true;
         }
         collect.submit();
+        wakeUpBackgroundSweeper();
         if (MaxineVM.isDebug()) {
             usedSpaceAfterLastGC = markSweepSpace.usedSpace().toLong();
         }
@@ -229,6 +423,12 @@ public final class MSEHeapScheme extends HeapSchemeWithTLABAdaptor implements He
         return result;
     }
 
+    private void wakeUpBackgroundSweeper() {
+        if (backgroundSweeper != null) {
+            backgroundSweeper.wakeUp();
+        }
+    }
+
     public boolean contains(Address address) {
         return  theHeapRegionManager().contains(address);
     }
@@ -241,9 +441,46 @@ public final class MSEHeapScheme extends HeapSchemeWithTLABAdaptor implements He
         return markSweepSpace.usedSpace();
     }
 
+    @Override
+    public GarbageCollectorMXBean getGarbageCollectorMXBean() {
+        return new MSEGarbageCollectorMXBean();
+    }
+
+    private final class MSEGarbageCollectorMXBean extends GarbageCollectorMXBeanAdaptor {
+        private MSEGarbageCollectorMXBean() {
+            super("MSE");
+            add(new MSEMemoryPoolMXBean(this));
+        }
+    }
+
+    /**
+     * Memory pool covering the regions managed by the heap region manager. Regions whose memory was given back to the OS
+     * aren't counted as committed.
+     */
+    private final class MSEMemoryPoolMXBean extends MemoryPoolMXBeanAdaptor {
+        MSEMemoryPoolMXBean(MemoryManagerMXBean manager) {
+            super(MemoryType.HEAP, theHeapRegionManager().bounds(), manager);
+        }
+
+        @Override
+        public MemoryUsage getUsage() {
+            final long committed = theHeapRegionManager().committedSpace().toLong();
+            final long used = Math.min(markSweepSpace.usedSpace().toLong(), committed);
+            return new MemoryUsage(-1L, used, committed, region.size().toLong());
+        }
+    }
+
+    @Override
+    public boolean supportsPinning(PIN_SUPPORT_FLAG flag) {
+        return !EvacuateSparseRegions && super.supportsPinning(flag);
+    }
+
     @INLINE
     public boolean pin(Object object) {
-        // Objects never relocate. So this is always safe.
+        if (EvacuateSparseRegions) {
+            return false;
+        }
+        // Objects never relocate unless sparse regions are evacuated. So this is always safe.
         if (MaxineVM.isDebug()) {
             pinnedCounter.increment();
         }
@@ -261,6 +498,55 @@ public final class MSEHeapScheme extends HeapSchemeWithTLABAdaptor implements He
     public void writeBarrier(Reference from, Reference to) {
     }
 
+    @INLINE
+    @Override
+    public boolean needsBarrier(IntBitSet<WriteBarrierSpecification.WriteBarrierSpec> writeBarrierSpec) {
+        return ConcurrentMarking && writeBarrierSpec.isSet(WriteBarrierSpec.PRE_WRITE);
+    }
+
+    @INLINE
+    @Override
+    public void preWriteBarrier(Reference ref, Offset offset, Reference value) {
+        SATBQueue.preWrite(ref, offset);
+    }
+
+    @INLINE
+    @Override
+    public void preWriteBarrier(Reference ref,  int displacement, int index, Reference value) {
+        SATBQueue.preWrite(ref, displacement, index);
+    }
+
+    @Override
+    public void notifyCurrentThreadDetach() {
+        super.notifyCurrentThreadDetach();
+        SATBQueue.flushCurrentThread();
+    }
+
+    @HOSTED_ONLY
+    public XirWriteBarrierGenerator barrierGenerator(IntBitSet<WriteBarrierSpecification.WriteBarrierSpec> writeBarrierSpec) {
+        if (writeBarrierSpec.equals(TUPLE_PRE_BARRIER)) {
+            return new XirWriteBarrierGenerator() {
+                @Override
+                public void genWriteBarrier(CiXirAssembler asm, XirOperand ... operands) {
+                    SATBQueue.genTuplePreWriteBarrier(asm, operands[0], operands[1]);
+                }
+            };
+        } else if (writeBarrierSpec.equals(ARRAY_PRE_BARRIER)) {
+            return new XirWriteBarrierGenerator() {
+                @Override
+                public void genWriteBarrier(CiXirAssembler asm, XirOperand ... operands) {
+                    SATBQueue.genArrayPreWriteBarrier(asm, operands[0], operands[1]);
+                }
+            };
+        }
+        return XirWriteBarrierSpecification.NULL_WRITE_BARRIER_GEN;
+    }
+
+    @HOSTED_ONLY
+    public List<XirTemplate> barrierStubs() {
+        return SATBQueue.barrierStubs();
+    }
+
     /**
      * Class implementing the garbage collection routine.
      * This is the {@link VmOperationThread}'s entry point to garbage collection.
@@ -271,6 +557,7 @@ public final class MSEHeapScheme extends HeapSchemeWithTLABAdaptor implements He
         }
 
         private final TimerMetric reclaimTimer = new TimerMetric(new SingleUseTimer(HeapScheme.GC_TIMING_CLOCK));
+        private final TimerMetric evacuationTimer = new TimerMetric(new SingleUseTimer(HeapScheme.GC_TIMING_CLOCK));
         private final TimerMetric totalPauseTime = new TimerMetric(new SingleUseTimer(HeapScheme.GC_TIMING_CLOCK));
 
         private boolean traceGCTimes = false;
@@ -291,6 +578,10 @@ public final class MSEHeapScheme extends HeapSchemeWithTLABAdaptor implements He
             heapMarker.reportLastElapsedTimes();
             Log.print(", sweeping=");
             Log.print(reclaimTimer.getLastElapsedTime());
+            if (EvacuateSparseRegions) {
+                Log.print(", evacuation=");
+                Log.print(evacuationTimer.getLastElapsedTime());
+            }
             Log.print(", total=");
             Log.println(totalPauseTime.getLastElapsedTime());
             Log.unlock(lockDisabledSafepoints);
@@ -301,11 +592,45 @@ public final class MSEHeapScheme extends HeapSchemeWithTLABAdaptor implements He
             heapMarker.reportTotalElapsedTimes();
             Log.print(", sweeping=");
             Log.print(reclaimTimer.getElapsedTime());
+            if (EvacuateSparseRegions) {
+                Log.print(", evacuation=");
+                Log.print(evacuationTimer.getElapsedTime());
+            }
             Log.print(", total=");
             Log.println(totalPauseTime.getElapsedTime());
             Log.unlock(lockDisabledSafepoints);
         }
 
+        /**
+         * Evacuate the sparsest regions of the mark-sweep space, if the space has enough empty regions to evacuate them to.
+         * Must be called after a complete sweep of the space.
+         */
+        private void evacuateSparseRegions(boolean traceGCPhases) {
+            final int numSparseRegions = markSweepSpace.selectSparseRegions(SparseRegionOccupancy);
+            if (numSparseRegions == 0) {
+                return;
+            }
+            if (traceGCPhases) {
+                final boolean lockDisabledSafepoints = Log.lock();
+                Log.print("BEGIN: Evacuating ");
+                Log.print(numSparseRegions);
+                Log.println(" sparse regions");
+                Log.unlock(lockDisabledSafepoints);
+            }
+            startTimer(evacuationTimer);
+            evacTimers.resetTrackTime();
+            sparseRegionEvacuator.setGCOperation(this);
+            sparseRegionEvacuator.evacuate(false);
+            sparseRegionEvacuator.setGCOperation(null);
+            stopTimer(evacuationTimer);
+            if (traceGCPhases) {
+                final boolean lockDisabledSafepoints = Log.lock();
+                Log.print("END: Evacuating sparse regions, evacuated bytes=");
+                Log.println(sparseRegionEvacuator.evacuatedBytes().toLong());
+                Log.unlock(lockDisabledSafepoints);
+            }
+        }
+
         private HeapResizingPolicy heapResizingPolicy = new HeapResizingPolicy();
 
         @Override
@@ -323,7 +648,11 @@ public final class MSEHeapScheme extends HeapSchemeWithTLABAdaptor implements He
 
             theHeapRegionManager().checkOutgoingReferences();
 
-            markSweepSpace.mark(heapMarker);
+            if (concurrentMarker != null && concurrentMarker.isMarking()) {
+                markSweepSpace.finishConcurrentMarking(concurrentMarker);
+            } else {
+                markSweepSpace.mark(heapMarker);
+            }
 
             HeapScheme.Inspect.notifyHeapPhaseChange(HeapPhase.RECLAIMING);
 
@@ -331,13 +660,18 @@ public final class MSEHeapScheme extends HeapSchemeWithTLABAdaptor implements He
                 Log.println("BEGIN: Sweeping");
             }
             startTimer(reclaimTimer);
-            markSweepSpace.sweep(heapMarker, DoImpreciseSweep);
-            Size freeSpaceAfterGC = markSweepSpace.freeSpace();
+            // Evacuation needs all regions swept.
+            markSweepSpace.sweep(heapMarker, DoImpreciseSweep, LazySweep && !EvacuateSparseRegions);
             stopTimer(reclaimTimer);
             if (traceGCPhases) {
                 Log.println("END: Sweeping");
             }
 
+            if (EvacuateSparseRegions) {
+                evacuateSparseRegions(traceGCPhases);
+            }
+            final Size freeSpaceAfterGC = markSweepSpace.freeSpace();
+
             if (VerifyAfterGC) {
                 afterGCVerifier.run();
             }
@@ -368,6 +702,7 @@ public final class MSEHeapScheme extends HeapSchemeWithTLABAdaptor implements He
         // Zap chunk data to leave allocation area clean.
         Memory.clearWords(chunk, effectiveSize.unsignedShiftedRight(Word.widthValue().log2numberOfBytes).toInt());
         chunk.plus(effectiveSize).setWord(nextChunk);
+        recordAllocation(chunk, chunkSize);
         return effectiveSize;
     }
 
@@ -393,7 +728,7 @@ public final class MSEHeapScheme extends HeapSchemeWithTLABAdaptor implements He
         Size chunkSize =  HeapFreeChunk.getFreechunkSize(chunk);
         if (size.greaterThan(chunkSize.minus(minObjectSize())))  {
             // Don't bother with searching another TLAB chunk that fits. Allocate directly in the heap.
-            return markSweepSpace.allocate(size);
+            return allocateInSpace(size);
         }
         // Otherwise, the chunk can accommodate the request AND
         // we'll have enough room left in the chunk to format a dead object or to store the next chunk pointer.
@@ -404,6 +739,7 @@ public final class MSEHeapScheme extends HeapSchemeWithTLABAdaptor implements He
         // Zap chunk data to leave allocation area clean.
         Memory.clearWords(chunk, effectiveSize.unsignedShiftedRight(Word.widthValue().log2numberOfBytes).toInt());
         chunk.plus(effectiveSize).setWord(nextChunk);
+        recordAllocation(chunk, chunkSize);
         fastRefillTLAB(etla, chunk, effectiveSize);
         return tlabAllocate(size);
     }
@@ -442,14 +778,14 @@ public final class MSEHeapScheme extends HeapSchemeWithTLABAdaptor implements He
             if (!usesTLAB()) {
                 // We're not using TLAB. So let's assign the never refill tlab policy.
                 TLABRefillPolicy.setForCurrentThread(etla, NEVER_REFILL_TLAB);
-                return markSweepSpace.allocate(size);
+                return allocateInSpace(size);
             }
             // Allocate an initial TLAB and a refill policy. For simplicity, this one is allocated from the TLAB (see comment below).
             final Size tlabSize = initialTlabSize();
             allocateAndRefillTLAB(etla, tlabSize);
             // Let's do a bit of dirty meta-circularity. The TLAB is refilled, and no-one except the current thread can use it.
             // So the tlab allocation is going to succeed here
-            TLABRefillPolicy.setForCurrentThread(etla, new SimpleTLABRefillPolicy(tlabSize));
+            TLABRefillPolicy.setForCurrentThread(etla, newTLABRefillPolicy(tlabSize));
             // Now, address the initial request. Note that we may recurse down to handleTLABOverflow again here if the
             // request is larger than the TLAB size. However, this second call will succeed and allocate outside of the tlab.
             return tlabAllocate(size);
@@ -458,7 +794,7 @@ public final class MSEHeapScheme extends HeapSchemeWithTLABAdaptor implements He
         final Size nextTLABSize = refillPolicy.nextTlabSize();
         if (size.greaterThan(nextTLABSize)) {
             // This couldn't be allocated in a TLAB, so go directly to direct allocation routine.
-            return markSweepSpace.allocate(size);
+            return allocateInSpace(size);
         }
         // TLAB may have been wiped out by a previous direct allocation routine.
         if (!tlabEnd.isZero()) {
@@ -483,9 +819,9 @@ public final class MSEHeapScheme extends HeapSchemeWithTLABAdaptor implements He
                 return changeTLABChunkOrAllocate(etla, tlabMark, hardLimit, nextChunk, size);
             }
 
-            if (!refillPolicy.shouldRefill(size, tlabMark)) {
+            if (!refillPolicy.shouldRefill(size, tlabMark, tlabEnd)) {
                 // Size would fit in a new tlab, but the policy says we shouldn't refill the tlab yet, so allocate directly in the heap.
-                return markSweepSpace.allocate(size);
+                return allocateInSpace(size);
             }
         }
         if (MaxineVM.isDebug() && RegionTable.inDebuggedRegion(tlabMark)) {
@@ -96,6 +96,15 @@ public final class CardTable extends  Log2RegionToByteMapTable {
         unsafeSet(coveredAddress, DIRTY_CARD.value());
     }
 
+    /**
+     * Dirty the entries in the card table corresponding to the cards overlapping a range of covered heap addresses.
+     * @param start start of the range (inclusive)
+     * @param end end of the range (exclusive)
+     */
+    void dirtyCovered(Address start, Address end) {
+        unsafeFill(start, end, DIRTY_CARD.value());
+    }
+
     /**
      * Find the first card set to the specified card state in the specified range of entries in the table .
      * @param start index of the first card in the range (inclusive)
@@ -291,6 +291,17 @@ public final class CardTableRSet extends DeadSpaceListener implements HeapManage
         cardTable.dirtyCovered(ref.toOrigin().plus(Address.fromInt(index).shiftedLeft(Word.widthValue().log2numberOfBytes).plus(displacement)));
     }
 
+    /**
+     * Record update to contiguous reference slots of a cell.
+     * @param ref the cell whose references are updated
+     * @param offset the offset from the origin of the cell to the first updated reference
+     * @param numberOfSlots number of updated references
+     */
+    public void record(Reference ref, Offset offset, int numberOfSlots) {
+        final Pointer first = ref.toOrigin().plus(offset);
+        cardTable.dirtyCovered(first, first.plus(Address.fromInt(numberOfSlots).shiftedLeft(Word.widthValue().log2numberOfBytes)));
+    }
+
     /**
      * Visit the cells that overlap a card.
      *
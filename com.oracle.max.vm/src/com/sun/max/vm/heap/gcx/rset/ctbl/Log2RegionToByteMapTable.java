@@ -25,6 +25,7 @@ package com.sun.max.vm.heap.gcx.rset.ctbl;
 import java.util.*;
 
 import com.sun.max.annotate.*;
+import com.sun.max.memory.*;
 import com.sun.max.unsafe.*;
 import com.sun.max.vm.*;
 import com.sun.max.vm.actor.holder.*;
@@ -236,6 +237,19 @@ public class Log2RegionToByteMapTable {
         byteAddressFor(coveredAddress).setByte(value);
     }
 
+    /**
+     * Set the bytes in the table corresponding to the regions overlapping a range of addresses that the caller guarantees is covered by the table.
+     * @param start start of the range (inclusive)
+     * @param end end of the range (exclusive)
+     * @param value a byte value
+     */
+    @NO_SAFEPOINT_POLLS("used by write barriers")
+    final void unsafeFill(Address start, Address end, byte value) {
+        final Pointer first = byteAddressFor(start);
+        final Pointer last = byteAddressFor(end.minus(1));
+        Memory.setBytes(first, last.plus(1).minus(first).asSize(), value);
+    }
+
     /**
      * Get the byte in the table corresponding to an address that the caller guarantees is covered by the table.
      * Passing an uncovered address here result in returning an random value or a memory access violation.
@@ -25,6 +25,7 @@ import static com.sun.max.vm.heap.gcx.EvacuationTimers.TIMED_OPERATION.*;
 import static com.sun.max.vm.intrinsics.MaxineIntrinsicIDs.*;
 
 import java.lang.management.*;
+import java.util.*;
 
 import com.sun.cri.xir.*;
 import com.sun.cri.xir.CiXirAssembler.XirOperand;
@@ -62,6 +63,7 @@ public final class GenSSHeapScheme extends HeapSchemeWithTLABAdaptor implements
     static private int BreakAfterGCCount;
     static private Size LargeObjectSizeThreshold = Size.K.times(512);
     public static boolean OldSpaceDirtyCardsStats;
+    static boolean DiscardOldFromSpace;
 
     /**
      * Expected default percentage of survivors. Used to estimate old generation growth at minor collection and decide when to trigger a full GC.
@@ -75,6 +77,7 @@ public final class GenSSHeapScheme extends HeapSchemeWithTLABAdaptor implements
         VMOptions.addFieldOption("-XX:", "OldSpaceDirtyCardsStats", GenSSHeapScheme.class, "Print stats on old space dirty cards", Phase.PRISTINE);
         VMOptions.addFieldOption("-XX:", "BreakAfterGCCount", GenSSHeapScheme.class, "Break at every GC after GC count", Phase.PRISTINE);
         VMOptions.addFieldOption("-XX:", "LargeObjectSizeThreshold", GenSSHeapScheme.class, "Threshold for being treated as a large object", Phase.PRISTINE);
+        VMOptions.addFieldOption("-XX:", "DiscardOldFromSpace", GenSSHeapScheme.class, "Give the memory of the old generation's from-space back to the OS after full GC", Phase.PRISTINE);
     }
 
     static final class GenSSGCRequest  extends GCRequest {
@@ -790,6 +793,10 @@ public final class GenSSHeapScheme extends HeapSchemeWithTLABAdaptor implements
             if (VerifyAfterGC) {
                 verifyAfterFullCollection();
             }
+            if (DiscardOldFromSpace) {
+                // The old from-space holds nothing until the next full GC, unless a minor collection overflows to it.
+                oldSpace.fromSpace.discardCommittedSpace();
+            }
             final GenSSGCRequest gcRequest = genCollection.gcRequest();
             final Size oldSpaceRequestedBytes = gcRequest.oldGenOverflow ?  gcRequest.requestedBytes : Size.zero();
             if (resizingPolicy.resizeAfterFullGC(estimatedEvac, oldSpace.freeSpace(), oldSpaceMutatorOverflow, oldSpaceRequestedBytes)) {
@@ -892,6 +899,12 @@ public final class GenSSHeapScheme extends HeapSchemeWithTLABAdaptor implements
         cardTableRSet.record(ref, displacement, index);
     }
 
+    @INLINE
+    @Override
+    public void postBulkWriteBarrier(Reference ref, Offset offset, int numberOfSlots) {
+        cardTableRSet.record(ref, offset, numberOfSlots);
+    }
+
     @Override
     public long maxObjectInspectionAge() {
         return System.currentTimeMillis() - lastFullGCTime;
@@ -1021,7 +1034,7 @@ public final class GenSSHeapScheme extends HeapSchemeWithTLABAdaptor implements
             allocateAndRefillTLAB(etla, tlabSize);
             // Let's do a bit of meta-circularity. The TLAB is refilled, and no-one except the current thread can use it.
             // So the TLAB allocation is going to succeed here
-            TLABRefillPolicy.setForCurrentThread(etla, new SimpleTLABRefillPolicy(tlabSize));
+            TLABRefillPolicy.setForCurrentThread(etla, newTLABRefillPolicy(tlabSize));
             // Now, address the initial request. Note that we may recurse down to handleTLABOverflow again here if the
             // request is larger than the TLAB size. However, this second call will succeed and allocate outside of the TLAB.
             return tlabAllocate(size);
@@ -1033,7 +1046,7 @@ public final class GenSSHeapScheme extends HeapSchemeWithTLABAdaptor implements
             // always return zero for the next TLAB size.
             return youngSpace.allocate(size);
         }
-        if (!refillPolicy.shouldRefill(size, tlabMark)) {
+        if (!refillPolicy.shouldRefill(size, tlabMark, tlabEnd)) {
             // Size would fit in a new tlab, but the policy says we shouldn't refill the TLAB yet, so allocate directly in the young generation.
             return youngSpace.allocate(size);
         }
@@ -1054,12 +1067,11 @@ public final class GenSSHeapScheme extends HeapSchemeWithTLABAdaptor implements
      */
     @Override
     public void initializeCoverage(Address coveredAreaStart, Size coveredAreaSize) {
-        final int pageSize = Platform.platform().pageSize;
         final Address endOfCoveredArea = coveredAreaStart.plus(coveredAreaSize);
         final Size cardTableCoveredAreaSize = endOfCoveredArea.minus(Heap.bootHeapRegion.start()).asSize();
 
         // Allocate Card Table Data at the end of the covered area (i.e., space reserved to the heap regions).
-        final Address cardTableDataStart =  endOfCoveredArea.roundedUpBy(pageSize);
+        final Address cardTableDataStart =  endOfCoveredArea.roundedUpBy(VirtualMemory.largePageAlignment());
 
         // We want the card table to cover not just the dynamic heap, but also the boot image and code cache to avoid testing
         // for boundaries in the write barrier. Note that covering these with the card table doesn't mean we will iterate over these
@@ -1069,6 +1081,8 @@ public final class GenSSHeapScheme extends HeapSchemeWithTLABAdaptor implements
             if (!VirtualMemory.commitMemory(cardTableDataStart, cardTableDataSize,  VirtualMemory.Type.DATA)) {
                 MaxineVM.reportPristineMemoryFailure("card table space", "commit", cardTableDataSize);
             }
+        } else {
+            VirtualMemory.backWithLargePages(cardTableDataStart, cardTableDataSize, VirtualMemory.Type.DATA, true);
         }
         cardTableRSet.initialize(Heap.bootHeapRegion.start(), cardTableCoveredAreaSize, cardTableDataStart, cardTableDataSize);
     }
@@ -1093,6 +1107,11 @@ public final class GenSSHeapScheme extends HeapSchemeWithTLABAdaptor implements
         return XirWriteBarrierSpecification.NULL_WRITE_BARRIER_GEN;
     }
 
+    @HOSTED_ONLY
+    public List<XirTemplate> barrierStubs() {
+        return Collections.emptyList();
+    }
+
     @Override
     public GarbageCollectorMXBean getGarbageCollectorMXBean() {
         return new GenSSGarbageCollectorMXBean();
@@ -1101,15 +1120,28 @@ public final class GenSSHeapScheme extends HeapSchemeWithTLABAdaptor implements
     private final class GenSSGarbageCollectorMXBean extends HeapSchemeAdaptor.GarbageCollectorMXBeanAdaptor {
         private GenSSGarbageCollectorMXBean() {
             super("GenSS");
-            add(new GenSSMemoryPoolMXBean(oldSpace.space, this));
-            add(new GenSSMemoryPoolMXBean(oldSpace.fromSpace, this));
-            add(new GenSSMemoryPoolMXBean(youngSpace.space, this));
+            add(new GenSSMemoryPoolMXBean(oldSpace.space, oldSpace, this));
+            add(new GenSSMemoryPoolMXBean(oldSpace.fromSpace, null, this));
+            add(new GenSSMemoryPoolMXBean(youngSpace.space, youngSpace, this));
         }
     }
 
     private final class GenSSMemoryPoolMXBean extends MemoryPoolMXBeanAdaptor {
-        GenSSMemoryPoolMXBean(MemoryRegion region, MemoryManagerMXBean manager) {
+        /**
+         * The heap space allocating in the pool's region, or null if the region holds no allocated objects between GCs.
+         */
+        private final HeapSpace heapSpace;
+
+        GenSSMemoryPoolMXBean(ContiguousHeapSpace region, HeapSpace heapSpace, MemoryManagerMXBean manager) {
             super(MemoryType.HEAP, region, manager);
+            this.heapSpace = heapSpace;
+        }
+
+        @Override
+        public MemoryUsage getUsage() {
+            final long committed = ((ContiguousHeapSpace) region).committedSize().toLong();
+            final long used = heapSpace == null ? 0L : Math.min(heapSpace.usedSpace().toLong(), committed);
+            return new MemoryUsage(-1L, used, committed, region.size().toLong());
         }
     }
 
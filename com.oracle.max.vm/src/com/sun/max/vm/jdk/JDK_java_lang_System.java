@@ -22,20 +22,27 @@ package com.sun.max.vm.jdk;
 
 import com.sun.max.annotate.*;
 import com.sun.max.lang.Strings;
+import com.sun.max.memory.Memory;
 import com.sun.max.platform.OS;
 import com.sun.max.platform.Platform;
 import com.sun.max.program.ProgramError;
 import com.sun.max.unsafe.CString;
+import com.sun.max.unsafe.Offset;
 import com.sun.max.unsafe.Pointer;
+import com.sun.max.unsafe.Size;
 import com.sun.max.unsafe.Word;
 import com.sun.max.util.Utf8Exception;
 import com.sun.max.vm.*;
 import com.sun.max.vm.MaxineVM.NativeProperty;
 import com.sun.max.vm.actor.holder.ClassActor;
 import com.sun.max.vm.actor.holder.Hub;
+import com.sun.max.vm.heap.WriteBarrierSpecification;
+import com.sun.max.vm.layout.ArrayLayout;
 import com.sun.max.vm.object.ArrayAccess;
 import com.sun.max.vm.object.ObjectAccess;
+import com.sun.max.vm.reference.Reference;
 import com.sun.max.vm.runtime.FatalError;
+import com.sun.max.vm.runtime.SafepointPoll;
 import com.sun.max.vm.type.BootClassLoader;
 import com.sun.max.vm.type.Kind;
 import sun.misc.Launcher;
@@ -295,6 +302,81 @@ public final class JDK_java_lang_System {
         }
     }
 
+    /**
+     * Determines if elements of a given kind can be copied by {@link #arrayCopyBulk}. References can only be copied in bulk if
+     * the heap scheme doesn't need a pre-write barrier.
+     */
+    @INLINE
+    private static boolean canCopyBulk(Kind kind) {
+        return !MaxineVM.isHosted() && (kind != Kind.REFERENCE || !vmConfig().heapScheme().needsBarrier(WriteBarrierSpecification.ARRAY_PRE_BARRIER));
+    }
+
+    /**
+     * Number of bytes copied by {@link #arrayCopyBulk} between two safepoint polls.
+     */
+    private static final int BULK_COPY_CHUNK_SIZE = 64 * 1024;
+
+    /**
+     * Performs an array copy as a sequence of raw memory moves of at most {@link #BULK_COPY_CHUNK_SIZE} bytes, with a
+     * safepoint poll between two moves so that copying a huge array doesn't delay a safepoint. When the source and
+     * destination ranges of the same array overlap with the destination above the source, the chunks are moved from the end.
+     *
+     * @param layout the layout of the arrays
+     * @param kind the element kind
+     * @param fromArray the source array
+     * @param fromIndex the start index in the source array
+     * @param toArray the destination array
+     * @param toIndex the start index in the destination array
+     * @param length the number of elements to copy
+     */
+    private static void arrayCopyBulk(ArrayLayout layout, Kind kind, Object fromArray, int fromIndex, Object toArray, int toIndex, int length) {
+        final int chunkLength = BULK_COPY_CHUNK_SIZE >> kind.width.log2numberOfBytes;
+        if (fromArray == toArray && fromIndex < toIndex) {
+            int remaining = length;
+            while (remaining > chunkLength) {
+                remaining -= chunkLength;
+                arrayCopyChunk(layout, kind, fromArray, fromIndex + remaining, toArray, toIndex + remaining, chunkLength);
+                SafepointPoll.safepointPoll();
+            }
+            arrayCopyChunk(layout, kind, fromArray, fromIndex, toArray, toIndex, remaining);
+        } else {
+            int copied = 0;
+            while (length - copied > chunkLength) {
+                arrayCopyChunk(layout, kind, fromArray, fromIndex + copied, toArray, toIndex + copied, chunkLength);
+                copied += chunkLength;
+                SafepointPoll.safepointPoll();
+            }
+            arrayCopyChunk(layout, kind, fromArray, fromIndex + copied, toArray, toIndex + copied, length - copied);
+        }
+    }
+
+    /**
+     * Performs a chunk of an array copy as a raw memory move, in the forward or backward direction depending on how the source and
+     * destination ranges overlap. No store check is performed. A single {@linkplain com.sun.max.vm.heap.HeapScheme#postBulkWriteBarrier bulk write barrier}
+     * is applied to the destination range of a reference array.
+     *
+     * @param layout the layout of the arrays
+     * @param kind the element kind
+     * @param fromArray the source array
+     * @param fromIndex the start index in the source array
+     * @param toArray the destination array
+     * @param toIndex the start index in the destination array
+     * @param length the number of elements to copy
+     */
+    @NO_SAFEPOINT_POLLS("the arrays must not move between the computation of the element addresses and the end of the copy")
+    private static void arrayCopyChunk(ArrayLayout layout, Kind kind, Object fromArray, int fromIndex, Object toArray, int toIndex, int length) {
+        if (length == 0) {
+            return;
+        }
+        final Reference toReference = Reference.fromJava(toArray);
+        final Offset toOffset = layout.getElementOffsetFromOrigin(toIndex);
+        final Pointer from = Reference.fromJava(fromArray).toOrigin().plus(layout.getElementOffsetFromOrigin(fromIndex));
+        Memory.moveBytes(from, toReference.toOrigin().plus(toOffset), Size.fromLong((long) length * kind.width.numberOfBytes), kind.width.numberOfBytes);
+        if (kind.isReference) {
+            vmConfig().heapScheme().postBulkWriteBarrier(toReference, toOffset, length);
+        }
+    }
+
     /**
      * Copies a portion of an array from one array to another (possibly the same) array.
      *
@@ -321,11 +403,19 @@ public final class JDK_java_lang_System {
                 if (fromIndex < 0 || length < 0 || toIndex + length > ArrayAccess.readArrayLength(fromArray)) {
                     throw new IndexOutOfBoundsException();
                 }
+                if (canCopyBulk(kind)) {
+                    arrayCopyBulk((ArrayLayout) fromHub.specificLayout, kind, fromArray, fromIndex, fromArray, toIndex, length);
+                    return;
+                }
                 arrayCopyBackward(kind, fromArray, fromIndex, fromArray, toIndex, length);
             } else if (fromIndex != toIndex) {
                 if (toIndex < 0 || length < 0 || fromIndex + length > ArrayAccess.readArrayLength(fromArray)) {
                     throw new IndexOutOfBoundsException();
                 }
+                if (canCopyBulk(kind)) {
+                    arrayCopyBulk((ArrayLayout) fromHub.specificLayout, kind, fromArray, fromIndex, fromArray, toIndex, length);
+                    return;
+                }
                 arrayCopyForward(kind, fromArray, fromIndex, fromArray, toIndex, length, null);
             }
             return;
@@ -337,6 +427,10 @@ public final class JDK_java_lang_System {
                     toIndex + length > ArrayAccess.readArrayLength(toArray)) {
                 throw new IndexOutOfBoundsException();
             }
+            if (canCopyBulk(kind)) {
+                arrayCopyBulk((ArrayLayout) fromHub.specificLayout, kind, fromArray, fromIndex, toArray, toIndex, length);
+                return;
+            }
             arrayCopyForward(kind, fromArray, fromIndex, toArray, toIndex, length, null);
         } else {
             final ClassActor toArrayClassActor = toHub.classActor;
@@ -352,6 +446,11 @@ public final class JDK_java_lang_System {
                     toIndex + length > ArrayAccess.readArrayLength(toArray)) {
                 throw new IndexOutOfBoundsException();
             }
+            if (toComponentClassActor.isAssignableFrom(fromArrayClassActor.componentClassActor()) && canCopyBulk(kind)) {
+                // No element of the source array can fail the store check.
+                arrayCopyBulk((ArrayLayout) toHub.specificLayout, kind, fromArray, fromIndex, toArray, toIndex, length);
+                return;
+            }
             arrayCopyForward(kind, fromArray, fromIndex, toArray, toIndex, length, toComponentClassActor);
         }
     }
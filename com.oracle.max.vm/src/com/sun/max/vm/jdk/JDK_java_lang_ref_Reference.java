@@ -26,6 +26,7 @@ import static com.sun.max.vm.intrinsics.MaxineIntrinsicIDs.*;
 import java.lang.ref.*;
 
 import com.sun.max.annotate.*;
+import com.sun.max.vm.heap.*;
 import com.sun.max.vm.type.*;
 
 import sun.misc.*;
@@ -48,12 +49,32 @@ public final class JDK_java_lang_ref_Reference {
     @ALIAS(declaringClass = java.lang.ref.Reference.class)
     public volatile java.lang.ref.ReferenceQueue queue;
 
+    @ALIAS(declaringClass = java.lang.ref.Reference.class)
+    private         Object                       referent;
+
     @INTRINSIC(UNSAFE_CAST)
     public static native JDK_java_lang_ref_Reference asJLRRAlias(Object o);
 
     @INTRINSIC(UNSAFE_CAST)
     public static native Cleaner asCleaner(Object o);
 
+    /**
+     * Substitute of java.lang.ref.Reference.get.
+     * <p>
+     * A referent obtained while a concurrent marking is in progress is recorded in the SATB queue of the current thread,
+     * as it may otherwise be stored in an object the marker has already visited without having been marked.
+     *
+     * @return the referent of this reference
+     */
+    @SUBSTITUTE
+    public Object get() {
+        final Object referent = asJLRRAlias(this).referent;
+        if (referent != null) {
+            SATBQueue.keepAlive(com.sun.max.vm.reference.Reference.fromJava(referent));
+        }
+        return referent;
+    }
+
     /**
      * Substitute of java.lang.ref.Reference.tryHandlePending.
      * <p>
@@ -0,0 +1,68 @@
+/*
+ * Copyright (c) 2012, Oracle and/or its affiliates. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * Please contact Oracle, 500 Oracle Parkway, Redwood Shores, CA 94065 USA
+ * or visit www.oracle.com if you need additional information or have any
+ * questions.
+ */
+package com.sun.max.vm.jdk;
+
+import static com.sun.max.vm.intrinsics.MaxineIntrinsicIDs.*;
+
+import java.io.*;
+import java.net.*;
+
+import com.sun.max.annotate.*;
+import com.sun.max.vm.thread.*;
+
+/**
+ * Method substitutions for {@code java.net.SocketInputStream} that unmount a {@linkplain Fiber fiber} reading
+ * from a socket until the socket is readable, instead of blocking its carrier in native code.
+ * In JDK 7, where reads call the native method directly, reading from a socket blocks the carrier.
+ */
+@METHOD_SUBSTITUTIONS(className = "java.net.SocketInputStream")
+final class JDK_java_net_SocketInputStream {
+
+    private JDK_java_net_SocketInputStream() {
+    }
+
+    @INTRINSIC(UNSAFE_CAST)
+    private static native JDK_java_net_SocketInputStream asThis(Object socketInputStream);
+
+    @ALIAS(declaringClassName = "java.net.SocketInputStream")
+    private native int socketRead0(FileDescriptor fd, byte[] b, int off, int len, int timeout) throws IOException;
+
+    @SUBSTITUTE(optional = true) // Not available in JDK 7
+    private int socketRead(FileDescriptor fd, byte[] b, int off, int len, int timeout) throws IOException {
+        if (fd != null) {
+            final int socket = asFileDescriptorAlias(fd).fd;
+            if (socket >= 0 && !FiberPoller.awaitReadable(socket, timeout)) {
+                throw new SocketTimeoutException("Read timed out");
+            }
+        }
+        return asThis(this).socketRead0(fd, b, off, len, timeout);
+    }
+
+    @INTRINSIC(UNSAFE_CAST)
+    private static native FileDescriptorAlias asFileDescriptorAlias(Object fd);
+
+    static class FileDescriptorAlias {
+        @ALIAS(declaringClass = FileDescriptor.class)
+        int fd;
+    }
+}
@@ -482,6 +482,12 @@ public final class Layout {
         generalLayout().writeForwardRef(origin, forwardRef);
     }
 
+    @ACCESSOR(Pointer.class)
+    @INLINE
+    public static Reference compareAndSwapForwardRef(Pointer origin, Reference suspectedRef, Reference forwardRef) {
+        return generalLayout().compareAndSwapForwardRef(origin, suspectedRef, forwardRef);
+    }
+
     /**
      * Access to <strong>byte array object</strong> layout information in the
      * context of the current {@linkplain VMConfiguration VM configuration}.
@@ -32,7 +32,8 @@ import com.sun.max.memory.*;
  * Adaptor class for the Maxine implementations of MemoryPoolMXBean.
  * Each instance has an associated MemoryRegion and an associated manager (MemoryManagerMXBean).
  * The management API supports multiple managers for a given memory pool but we don't exploit that currently.
- *
+ * The usage of the pool is the usage reported by its region. Subclasses whose region doesn't report its usage, or whose
+ * committed memory differs from the region's, override {@link #getUsage()}.
  */
 
 public class MemoryPoolMXBeanAdaptor implements MemoryPoolMXBean {
@@ -46,6 +47,7 @@ public class MemoryPoolMXBeanAdaptor implements MemoryPoolMXBean {
     public MemoryPoolMXBeanAdaptor(MemoryType type, MemoryRegion region, MemoryManagerMXBean manager) {
         this.type = type;
         this.region = region;
+        this.manager = manager;
     }
 
     public MemoryUsage getCollectionUsage() {
@@ -77,7 +79,13 @@ public class MemoryPoolMXBeanAdaptor implements MemoryPoolMXBean {
     }
 
     public MemoryUsage getUsage() {
-        return region.getUsage();
+        final MemoryUsage usage = region.getUsage();
+        if (usage != null) {
+            return usage;
+        }
+        // The region doesn't track its usage: report it entirely used and committed.
+        final long size = region.size().toLong();
+        return new MemoryUsage(size, size, size, size);
     }
 
     public long getUsageThreshold() {
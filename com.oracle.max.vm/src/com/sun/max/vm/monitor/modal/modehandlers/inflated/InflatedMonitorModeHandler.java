@@ -85,6 +85,10 @@ public abstract class InflatedMonitorModeHandler extends AbstractModeHandler {
         assert hashword.isZero() || Platform.target().arch.is32bit() : " Hashword != null in 64 bit mode ";
         final JavaMonitor monitor = Platform.target().arch.is64bit() ? lockword.getBoundMonitor() : hashword.getBoundMonitor();
         assert monitor != null  : "null monitor in makeboundHashCode";
+        if (!JavaMonitorManager.pinBinding(object, monitor)) {
+            // The monitor was deflated concurrently.
+            return 0;
+        }
         final HashableLockword64 swappedLockword = Platform.target().arch.is64bit() ? HashableLockword64.from(monitor.displacedMisc()) : HashableLockword64.from(monitor.displacedHash());
         int hashcode = swappedLockword.getHashcode();
         if (hashcode == 0) {
@@ -96,6 +100,7 @@ public abstract class InflatedMonitorModeHandler extends AbstractModeHandler {
                 hashcode = answer.getHashcode();
             }
         }
+        JavaMonitorManager.unpinBinding(monitor);
         return hashcode;
     }
 
@@ -151,6 +156,10 @@ public abstract class InflatedMonitorModeHandler extends AbstractModeHandler {
                     ObjectAccess.writeMisc(object, preBindingMiscWord);
                 }
 
+                public Word unboundMiscWord(Word preBindingMiscWord) {
+                    return preBindingMiscWord;
+                }
+
                 public void writeUnboundHashWord(Object object, Word hashWord) {
                     ObjectAccess.writeHash(object, hashWord);
                 }
@@ -161,6 +170,7 @@ public abstract class InflatedMonitorModeHandler extends AbstractModeHandler {
         public void initialize(MaxineVM.Phase phase) {
             if (MaxineVM.isHosted() && phase == Phase.BOOTSTRAPPING) {
                 JavaMonitorManager.setRequireProxyAcquirableMonitors(false);
+                JavaMonitorManager.enableConcurrentDeflation();
             }
         }
 
@@ -186,7 +196,12 @@ public abstract class InflatedMonitorModeHandler extends AbstractModeHandler {
             final InflatedMonitorLockword64 hashword = Platform.target().arch.is64bit() ? InflatedMonitorLockword64.from(Word.zero()) : InflatedMonitorLockword64.from(ObjectAccess.readHash(object));
 
             if (lockword.isBound()) {
-                return makeBoundHashCode(object, lockword, hashword);
+                final int hashcode = makeBoundHashCode(object, lockword, hashword);
+                if (hashcode != 0) {
+                    return hashcode;
+                }
+                // The monitor was deflated concurrently. Try again.
+                return makeHashCode(object);
             }
             int hashcode = Platform.target().arch.is64bit() ? lockword.getHashcode() : hashword.getHashcode();
             if (hashcode == 0) {
@@ -224,10 +239,18 @@ public abstract class InflatedMonitorModeHandler extends AbstractModeHandler {
                     if (monitor != null) {
                         monitor.monitorExit();
                         JavaMonitorManager.unbindMonitor(monitor);
+                        monitor = null;
                     }
                     final JavaMonitor boundMonitor = Platform.target().arch.is64bit() ? lockword.getBoundMonitor() : hashword.getBoundMonitor();
-                    boundMonitor.monitorEnter();
-                    return;
+                    if (JavaMonitorManager.pinBinding(object, boundMonitor)) {
+                        boundMonitor.monitorEnter();
+                        JavaMonitorManager.unpinBinding(boundMonitor);
+                        return;
+                    }
+                    // The monitor was deflated concurrently. Try again.
+                    lockword = readMiscAndProtectBinding(object);
+                    hashword = Platform.target().arch.is64bit() ? InflatedMonitorLockword64.from(Word.zero()) : InflatedMonitorLockword64.from(ObjectAccess.readHash(object));
+                    continue;
                 } else if (monitor == null) {
                     monitor = JavaMonitorManager.bindMonitor(object);
                     monitor.monitorEnter();
@@ -339,7 +362,12 @@ public abstract class InflatedMonitorModeHandler extends AbstractModeHandler {
                 return false;
             }
             final JavaMonitor monitor = Platform.target().arch.is64bit() ? inflatedLockword.getBoundMonitor() : InflatedMonitorLockword64.from(ObjectAccess.readHash(object)).getBoundMonitor();
+            if (!JavaMonitorManager.pinBinding(object, monitor)) {
+                // The monitor was deflated concurrently.
+                return false;
+            }
             monitor.monitorEnter();
+            JavaMonitorManager.unpinBinding(monitor);
             return true;
         }
 
@@ -391,7 +419,11 @@ public abstract class InflatedMonitorModeHandler extends AbstractModeHandler {
             super(new UnboundMiscWordWriter() {
 
                 public void writeUnboundMiscWord(Object object, Word preBindingMiscWord) {
-                    ObjectAccess.writeMisc(object, ThinLockword64.from(preBindingMiscWord).asUnlocked());
+                    ObjectAccess.writeMisc(object, unboundMiscWord(preBindingMiscWord));
+                }
+
+                public Word unboundMiscWord(Word preBindingMiscWord) {
+                    return ThinLockword64.from(preBindingMiscWord).asUnlocked();
                 }
 
                 public void writeUnboundHashWord(Object object, Word hashWord) {
@@ -404,6 +436,7 @@ public abstract class InflatedMonitorModeHandler extends AbstractModeHandler {
         public void initialize(MaxineVM.Phase phase) {
             if (MaxineVM.isHosted() && phase == Phase.BOOTSTRAPPING) {
                 JavaMonitorManager.setRequireProxyAcquirableMonitors(true);
+                JavaMonitorManager.enableConcurrentDeflation();
             }
         }
 
@@ -456,7 +489,11 @@ public abstract class InflatedMonitorModeHandler extends AbstractModeHandler {
             super(new UnboundMiscWordWriter() {
 
                 public void writeUnboundMiscWord(Object object, Word preBindingMiscWord) {
-                    ObjectAccess.writeMisc(object, BiasedLockword64.from(preBindingMiscWord).asAnonBiased());
+                    ObjectAccess.writeMisc(object, unboundMiscWord(preBindingMiscWord));
+                }
+
+                public Word unboundMiscWord(Word preBindingMiscWord) {
+                    return BiasedLockword64.from(preBindingMiscWord).asAnonBiased();
                 }
 
                 public void writeUnboundHashWord(Object object, Word hashWord) {
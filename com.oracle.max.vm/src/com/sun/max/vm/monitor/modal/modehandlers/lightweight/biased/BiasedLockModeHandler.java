@@ -96,15 +96,18 @@ public abstract class BiasedLockModeHandler extends AbstractModeHandler implemen
         }
     }
 
+    /**
+     * Revokes the bias of an object in a handshake with the bias owner, so that only the bias owner is stopped.
+     */
     class RevokeBiasOperation extends VmOperation {
         final Object object;
         ModalLockword64 newLockword;
         RevokeBiasOperation(VmThread thread, Object object) {
-            super("RevokeBias", thread, Mode.Safepoint, false);
+            super("RevokeBias", thread, Mode.Handshake, false);
             this.object = object;
         }
         @Override
-        protected void doIt() {
+        protected void doThread(VmThread vmThread, Pointer ip, Pointer sp, Pointer fp) {
             newLockword = revokeBias(object);
         }
     }
@@ -54,6 +54,21 @@ abstract class AbstractJavaMonitor implements ManagedMonitor {
     // Support for direct linked lists of JavaMonitors.
     private ManagedMonitor next;
 
+    /**
+     * Value of {@link #pins} while this monitor is being deflated.
+     */
+    private static final int DEFLATING = Integer.MIN_VALUE;
+
+    /**
+     * Number of threads that have pinned the binding of this monitor, or {@link #DEFLATING}.
+     */
+    private final AtomicInteger pins = new AtomicInteger();
+
+    /**
+     * Set when the binding of this monitor is pinned, and cleared by the deflation passes of {@link JavaMonitorManager}.
+     */
+    private boolean usedSinceDeflationPass;
+
     protected AbstractJavaMonitor() {
         bindingProtection = BindingProtection.PRE_ACQUIRE;
     }
@@ -109,6 +124,38 @@ abstract class AbstractJavaMonitor implements ManagedMonitor {
         preGCLockword = Word.zero();
         preGCMiscword = Word.zero();
         bindingProtection = BindingProtection.PRE_ACQUIRE;
+        usedSinceDeflationPass = true;
+    }
+
+    public final boolean pin() {
+        while (true) {
+            final int pinCount = pins.get();
+            if (pinCount == DEFLATING) {
+                return false;
+            }
+            if (pins.compareAndSet(pinCount, pinCount + 1)) {
+                usedSinceDeflationPass = true;
+                return true;
+            }
+        }
+    }
+
+    public final void unpin() {
+        pins.getAndAdd(-1);
+    }
+
+    public final boolean startDeflation() {
+        return pins.compareAndSet(0, DEFLATING);
+    }
+
+    public final void endDeflation() {
+        pins.set(0);
+    }
+
+    public final boolean clearUsedSinceDeflationPass() {
+        final boolean used = usedSinceDeflationPass;
+        usedSinceDeflationPass = false;
+        return used;
     }
 
     public final void setBoundObject(Object object) {
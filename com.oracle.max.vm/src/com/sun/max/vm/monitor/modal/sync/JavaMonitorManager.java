@@ -25,11 +25,13 @@ import static com.sun.max.vm.intrinsics.MaxineIntrinsicIDs.*;
 import java.util.*;
 
 import com.sun.max.annotate.*;
+import com.sun.max.atomic.*;
 import com.sun.max.platform.*;
 import com.sun.max.unsafe.*;
 import com.sun.max.vm.*;
 import com.sun.max.vm.actor.holder.*;
 import com.sun.max.vm.monitor.*;
+import com.sun.max.vm.monitor.modal.modehandlers.inflated.*;
 import com.sun.max.vm.monitor.modal.sync.JavaMonitorManager.ManagedMonitor.*;
 import com.sun.max.vm.monitor.modal.sync.nat.*;
 import com.sun.max.vm.object.*;
@@ -47,6 +49,16 @@ import com.sun.max.vm.thread.*;
  * lockwords is delegated to an {@link UnboundMiscWordWriter} object (most likely the inflated mode handler of the ModalMonitorScheme).
  * This allows unbinding to be a transition to any other locking mode.
  * <p>
+ * Unowned monitors can also be unbound without stopping the mutator threads ("deflated"): by a daemon thread
+ * every {@code -XX:MonitorDeflationInterval} milliseconds, for the monitors that were idle since the previous
+ * deflation pass, and by threads running short of unbound monitors. A thread about to operate on a monitor it
+ * does not own {@linkplain #pinBinding(Object, JavaMonitor) pins} the binding of the monitor first; a monitor
+ * is only deflated if no thread has pinned its binding. Concurrent deflation is only enabled by the inflated
+ * mode handlers that retry operations on deflated monitors, on 64-bit targets.
+ * <p>
+ * Unbound monitors are kept on a global list and in small per-thread caches. Threads refill their cache from
+ * the global list with {@link #LOCK} held, and monitors are added to the global list without locking.
+ * <p>
  * GC considerations:
  * <p>
  * 1) As all monitors are GC reachable, so are their bound objects (as this is just a field in the monitor).
@@ -82,9 +94,15 @@ public class JavaMonitorManager {
     private static int unboundListGrowQty = 50;
 
     /**
-     * The current number of unbound monitors available.
+     * The number of unbound monitors moved from the global list to the cache of a thread when the cache is empty.
+     * A thread's cache holds at most twice as many monitors.
+     */
+    private static final int THREAD_CACHE_REFILL_QTY = 8;
+
+    /**
+     * The current number of unbound monitors available on the global list.
      */
-    private static int numberOfUnboundMonitors = 0;
+    private static final AtomicInteger numberOfUnboundMonitors = new AtomicInteger();
 
     /**
      * The unbound monitors high water mark.
@@ -94,9 +112,11 @@ public class JavaMonitorManager {
     private static int unboundMonitorsHwm;
 
     /**
-     * The head of the list of unbound monitors.
+     * The head of the global list of unbound monitors. Monitors are pushed on the list without locking, but only
+     * one thread at a time takes monitors from it: a thread holding {@link #LOCK}, or the GC at a global safepoint.
+     * Hence a monitor never leaves and re-enters the list while a thread is taking it, and CAS on the head is immune to ABA.
      */
-    private static ManagedMonitor unboundList;
+    private static final AtomicReference unboundList = new AtomicReference();
 
     /**
      * The pool of monitors that can be bound to objects.
@@ -121,6 +141,11 @@ public class JavaMonitorManager {
     public interface UnboundMiscWordWriter {
         void writeUnboundMiscWord(Object object, Word preBindingMiscWord);
         void writeUnboundHashWord(Object object, Word preBindingMiscWord);
+
+        /**
+         * Gets the misc word written by {@link #writeUnboundMiscWord(Object, Word)}.
+         */
+        Word unboundMiscWord(Word preBindingMiscWord);
     }
 
     @CONSTANT_WHEN_NOT_ZERO
@@ -129,6 +154,29 @@ public class JavaMonitorManager {
     @CONSTANT_WHEN_NOT_ZERO
     private static boolean requireProxyAcquirableMonitors;
 
+    @CONSTANT_WHEN_NOT_ZERO
+    private static boolean concurrentDeflation;
+
+    private static int MonitorDeflationInterval = 1000;
+    private static boolean PrintMonitorPoolStats;
+    static {
+        VMOptions.addFieldOption("-XX:", "MonitorDeflationInterval", JavaMonitorManager.class,
+                        "Period, in milliseconds, at which a daemon thread deflates the inflated monitors that were idle for a whole period (0 to disable).", MaxineVM.Phase.PRISTINE);
+        VMOptions.addFieldOption("-XX:", "PrintMonitorPoolStats", JavaMonitorManager.class,
+                        "Print the size of the pool of inflated monitors and the number of inflations and deflations at end of program.", MaxineVM.Phase.PRISTINE);
+    }
+
+    /*
+     * Monitor pool statistics. Bindings and cancelled bindings (i.e. bindings that lost the race to inflate an object)
+     * are only counted with -XX:+PrintMonitorPoolStats. The other counters are updated with LOCK held or at a global safepoint.
+     */
+    private static final AtomicInteger bindings = new AtomicInteger();
+    private static final AtomicInteger cancelledBindings = new AtomicInteger();
+    private static int deflations;
+    private static int deflationPasses;
+    private static int gcUnbindings;
+    private static int expansions;
+
     /**
      * Performs any initialization necessary for the given phase.
      *
@@ -182,6 +230,9 @@ public class JavaMonitorManager {
             }
         } else if (phase == MaxineVM.Phase.STARTING) {
             assert numberOfBindableMonitors <= bindableMonitors.length;
+            if (concurrentDeflation && MonitorDeflationInterval > 0) {
+                new MonitorDeflater().start();
+            }
             if (Monitor.TraceMonitors && stickyMonitors.length > 0) {
                 final boolean lockDisabledSafepoints = Log.lock();
                 Log.println("Sticky monitors:");
@@ -195,6 +246,57 @@ public class JavaMonitorManager {
                 }
                 Log.unlock(lockDisabledSafepoints);
             }
+        } else if (phase == MaxineVM.Phase.TERMINATING) {
+            if (StandardJavaMonitor.PrintMonitorContention) {
+                final boolean lockDisabledSafepoints = Log.lock();
+                Log.println("Contended monitors:");
+                for (ManagedMonitor monitor : stickyMonitors) {
+                    logContention(monitor);
+                }
+                for (int i = 0; i < numberOfBindableMonitors; i++) {
+                    logContention(bindableMonitors[i]);
+                }
+                StandardJavaMonitor.logContentionTotals();
+                Log.unlock(lockDisabledSafepoints);
+            }
+            if (PrintMonitorPoolStats) {
+                printPoolStats();
+            }
+        }
+    }
+
+    private static void printPoolStats() {
+        int bound = 0;
+        for (int i = 0; i < numberOfBindableMonitors; i++) {
+            if (bindableMonitors[i].isBound()) {
+                bound++;
+            }
+        }
+        final boolean lockDisabledSafepoints = Log.lock();
+        Log.print("Monitor pool: size=");
+        Log.print(numberOfBindableMonitors);
+        Log.print(", bound=");
+        Log.print(bound);
+        Log.print(", unbound (global list)=");
+        Log.print(numberOfUnboundMonitors.get());
+        Log.print(", expansions=");
+        Log.println(expansions);
+        Log.print("Monitor inflations=");
+        Log.print(bindings.get() - cancelledBindings.get());
+        Log.print(", cancelled inflations=");
+        Log.print(cancelledBindings.get());
+        Log.print(", concurrent deflations=");
+        Log.print(deflations);
+        Log.print(" in ");
+        Log.print(deflationPasses);
+        Log.print(" passes, unbindings at GC=");
+        Log.println(gcUnbindings);
+        Log.unlock(lockDisabledSafepoints);
+    }
+
+    private static void logContention(ManagedMonitor monitor) {
+        if (monitor instanceof StandardJavaMonitor) {
+            ((StandardJavaMonitor) monitor).logContention();
         }
     }
 
@@ -211,6 +313,18 @@ public class JavaMonitorManager {
         JavaMonitorManager.requireProxyAcquirableMonitors = requireProxyAcquirableMonitors;
     }
 
+    /**
+     * Notifies this JavaMonitorManager that the inflated mode handler of the current MonitorScheme pins the binding
+     * of the monitors it operates on without owning them, and retries the operation if pinning fails.
+     * Monitors are then deflated concurrently with the mutator threads, if the target is 64-bit.
+     *
+     * @see #pinBinding(Object, JavaMonitor)
+     */
+    @HOSTED_ONLY
+    public static void enableConcurrentDeflation() {
+        concurrentDeflation = Platform.target().arch.is64bit();
+    }
+
     /**
      * Binds the given monitor to the given object at VM image build time.
      * The binding will never be unbound. This is useful for monitors that are known to be
@@ -303,20 +417,98 @@ public class JavaMonitorManager {
         bindableMonitors[numberOfBindableMonitors++] = monitor;
     }
 
+    /**
+     * Takes a monitor from the global list of unbound monitors.
+     * Must be called with {@link #LOCK} held, or at a global safepoint.
+     */
+    @NO_SAFEPOINT_POLLS("the GC takes monitors from the unbound list")
     private static ManagedMonitor takeFromUnboundList() {
-        // No safe points in here, so safe to touch the free list.
-        final ManagedMonitor monitor = unboundList;
-        unboundList = unboundList.next();
+        while (true) {
+            final ManagedMonitor monitor = (ManagedMonitor) unboundList.get();
+            if (unboundList.compareAndSet(monitor, monitor.next())) {
+                monitor.setNext(null);
+                numberOfUnboundMonitors.getAndAdd(-1);
+                return monitor;
+            }
+        }
+    }
+
+    @NO_SAFEPOINT_POLLS("the GC takes monitors from the unbound list")
+    private static void addToUnboundList(ManagedMonitor monitor) {
+        while (true) {
+            final ManagedMonitor head = (ManagedMonitor) unboundList.get();
+            monitor.setNext(head);
+            if (unboundList.compareAndSet(head, monitor)) {
+                numberOfUnboundMonitors.getAndAdd(1);
+                return;
+            }
+        }
+    }
+
+    /**
+     * Takes a monitor from the cache of unbound monitors of the current thread, refilling the cache if it is empty.
+     */
+    private static ManagedMonitor takeFromThreadCache(VmThread thread) {
+        ManagedMonitor monitor = (ManagedMonitor) thread.freeMonitors;
+        if (monitor == null) {
+            refillThreadCache(thread);
+            monitor = (ManagedMonitor) thread.freeMonitors;
+        }
+        thread.freeMonitors = monitor.next();
+        thread.numberOfFreeMonitors--;
         monitor.setNext(null);
-        numberOfUnboundMonitors--;
         return monitor;
     }
 
-    private static void addToUnboundList(ManagedMonitor monitor) {
-        // No safe points in here, so safe to touch the free list.
-        monitor.setNext(unboundList);
-        unboundList = monitor;
-        numberOfUnboundMonitors++;
+    private static void addToThreadCache(VmThread thread, ManagedMonitor monitor) {
+        if (thread.numberOfFreeMonitors >= 2 * THREAD_CACHE_REFILL_QTY) {
+            addToUnboundList(monitor);
+            return;
+        }
+        monitor.setNext((ManagedMonitor) thread.freeMonitors);
+        thread.freeMonitors = monitor;
+        thread.numberOfFreeMonitors++;
+    }
+
+    /**
+     * Moves unbound monitors from the global list to the empty cache of the current thread. If the global list runs short,
+     * unowned monitors are deflated first, then a GC is requested, and the pool of monitors is expanded if neither
+     * freed enough monitors to get at least midway between the minimum and the high water mark.
+     */
+    private static void refillThreadCache(VmThread thread) {
+        synchronized (LOCK) {
+            final int midway = (unboundMonitorsHwm + UNBOUNDLIST_MIN_QTY) >> 1;
+            if (numberOfUnboundMonitors.get() < midway && concurrentDeflation) {
+                deflateMonitors(false);
+            }
+            if (numberOfUnboundMonitors.get() < UNBOUNDLIST_MIN_QTY + THREAD_CACHE_REFILL_QTY) {
+                System.gc();
+            }
+            if (numberOfUnboundMonitors.get() < midway) {
+                expandUnboundList();
+            }
+            // Leave the minimum number of monitors on the global list for the GC.
+            final int qty = numberOfUnboundMonitors.get() - UNBOUNDLIST_MIN_QTY >= THREAD_CACHE_REFILL_QTY ? THREAD_CACHE_REFILL_QTY : 1;
+            for (int i = 0; i < qty; i++) {
+                addToThreadCache(thread, takeFromUnboundList());
+            }
+        }
+    }
+
+    /**
+     * Moves the unbound monitors cached by a terminating thread to the global list.
+     *
+     * @param thread a thread that will not acquire any monitor anymore
+     */
+    public static void releaseThreadCache(VmThread thread) {
+        ManagedMonitor monitor = (ManagedMonitor) thread.freeMonitors;
+        thread.freeMonitors = null;
+        thread.numberOfFreeMonitors = 0;
+        while (monitor != null) {
+            final ManagedMonitor next = monitor.next();
+            addToUnboundList(monitor);
+            monitor = next;
+        }
     }
 
     /**
@@ -341,19 +533,12 @@ public class JavaMonitorManager {
         if (inGlobalSafepoint) {
             monitor = takeFromUnboundList();
         } else {
-            synchronized (LOCK) {
-                if (numberOfUnboundMonitors < UNBOUNDLIST_MIN_QTY) {
-                    System.gc();
-                }
-
-                // If we didn't free up enough such that we are at least midway between min and hwm, expand
-                if (numberOfUnboundMonitors < (unboundMonitorsHwm + UNBOUNDLIST_MIN_QTY) >> 1) {
-                    expandUnboundList();
-                }
-                monitor = takeFromUnboundList();
-            }
+            monitor = takeFromThreadCache(VmThread.current());
         }
         monitor.setBoundObject(object);
+        if (PrintMonitorPoolStats) {
+            bindings.getAndAdd(1);
+        }
         if (Monitor.TraceMonitors) {
             final boolean lockDisabledSafepoints = Log.lock();
             Log.print("Bound monitor: ");
@@ -376,12 +561,13 @@ public class JavaMonitorManager {
     public static void unbindMonitor(JavaMonitor monitor) {
         final ManagedMonitor bindableMonitor = (ManagedMonitor) monitor;
         bindableMonitor.reset();
+        if (PrintMonitorPoolStats) {
+            cancelledBindings.getAndAdd(1);
+        }
         if (inGlobalSafepoint) {
             addToUnboundList(bindableMonitor);
         } else {
-            synchronized (LOCK) {
-                addToUnboundList(bindableMonitor);
-            }
+            addToThreadCache(VmThread.current(), bindableMonitor);
         }
     }
 
@@ -404,9 +590,10 @@ public class JavaMonitorManager {
 
     /**
      * Expands the list of unbound monitors by allocating and adding {@link #unboundListGrowQty} new
-     * monitors to the list.
+     * monitors to the list. Must be called with {@link #LOCK} held.
      */
     private static void expandUnboundList() {
+        expansions++;
         ManagedMonitor newUnboundList = null;
         final ManagedMonitor[] newAllBindable = new ManagedMonitor[bindableMonitors.length + unboundListGrowQty];
 
@@ -450,6 +637,118 @@ public class JavaMonitorManager {
         current.protectedMonitor = monitor;
     }
 
+    /**
+     * Prevents the given monitor from being deflated until {@link #unpinBinding(JavaMonitor)} is called, if the monitor
+     * is still bound to the given object. A thread must pin the binding of a monitor it does not own before operating on it,
+     * after {@linkplain #protectBinding(JavaMonitor) protecting} the binding.
+     *
+     * @param object the object whose misc word was found bound to {@code monitor}
+     * @param monitor the monitor to pin
+     * @return true if the binding is pinned; false if the monitor was deflated, in which case the operation must be retried
+     */
+    public static boolean pinBinding(Object object, JavaMonitor monitor) {
+        if (!concurrentDeflation) {
+            return true;
+        }
+        final ManagedMonitor managedMonitor = (ManagedMonitor) monitor;
+        if (managedMonitor.pin()) {
+            if (ObjectAccess.readMisc(object).equals(InflatedMonitorLockword64.boundFromMonitor(monitor))) {
+                return true;
+            }
+            managedMonitor.unpin();
+        }
+        return false;
+    }
+
+    /**
+     * Releases a binding pinned by {@link #pinBinding(Object, JavaMonitor)}.
+     */
+    public static void unpinBinding(JavaMonitor monitor) {
+        if (concurrentDeflation) {
+            ((ManagedMonitor) monitor).unpin();
+        }
+    }
+
+    /**
+     * Deflates the hard-bound monitors that no thread owns, waits on or has pinned the binding of,
+     * without stopping the mutator threads. Must be called with {@link #LOCK} held.
+     *
+     * @param idleOnly only deflate the monitors whose binding wasn't pinned since the previous pass
+     * @return the number of monitors deflated
+     */
+    private static int deflateMonitors(boolean idleOnly) {
+        int deflated = 0;
+        for (int i = 0; i < numberOfBindableMonitors; i++) {
+            final ManagedMonitor monitor = bindableMonitors[i];
+            final boolean used = monitor.clearUsedSinceDeflationPass();
+            if (!(idleOnly && used) && deflate(monitor)) {
+                deflated++;
+            }
+        }
+        deflations += deflated;
+        deflationPasses++;
+        return deflated;
+    }
+
+    private static boolean deflate(ManagedMonitor monitor) {
+        if (!monitor.isHardBound()) {
+            return false;
+        }
+        boolean deflated = false;
+        // The GC must not unbind the monitor while it is being deflated.
+        SafepointPoll.disable();
+        if (monitor.startDeflation()) {
+            // No thread can start operating on the monitor anymore. The monitor can't become owned either,
+            // since it is hard-bound and no thread is entering it.
+            if (monitor.isHardBound() && monitor.bindingProtection() == BindingProtection.UNPROTECTED) {
+                final Object object = monitor.boundObject();
+                final Word boundMisc = InflatedMonitorLockword64.boundFromMonitor(monitor);
+                final Word unboundMisc = unboundMiscWordWriter.unboundMiscWord(monitor.displacedMisc());
+                if (ObjectAccess.compareAndSwapMisc(object, boundMisc, unboundMisc).equals(boundMisc)) {
+                    if (Monitor.TraceMonitors) {
+                        final boolean lockDisabledSafepoints = Log.lock();
+                        Log.print("Deflating monitor: ");
+                        monitor.log();
+                        Log.println();
+                        Log.unlock(lockDisabledSafepoints);
+                    }
+                    monitor.reset();
+                    deflated = true;
+                }
+            }
+            monitor.endDeflation();
+            if (deflated) {
+                addToUnboundList(monitor);
+            }
+        }
+        SafepointPoll.enable();
+        return deflated;
+    }
+
+    /**
+     * Daemon thread deflating the monitors that stayed idle for a whole {@code -XX:MonitorDeflationInterval}.
+     */
+    private static final class MonitorDeflater extends Thread {
+
+        MonitorDeflater() {
+            super("monitor-deflater");
+            setDaemon(true);
+        }
+
+        @Override
+        public void run() {
+            while (true) {
+                try {
+                    Thread.sleep(MonitorDeflationInterval);
+                } catch (InterruptedException e) {
+                }
+                synchronized (LOCK) {
+                    deflateMonitors(true);
+                }
+            }
+        }
+    }
+
     /**
      * Registers the given UnboundMiscWordWriter as the lock word rewriter
      * for when unbinding objects from monitors.
@@ -519,6 +818,7 @@ public class JavaMonitorManager {
                     unboundMiscWordWriter.writeUnboundHashWord(monitor.boundObject(), monitor.displacedHash());
                 }
                 monitor.reset();
+                gcUnbindings++;
                 // Put the monitor back on the unbound list.
                 // This is thread-safe as mutator thread access to the free-list is
                 // atomic with respect to safepointing.
@@ -647,6 +947,31 @@ public class JavaMonitorManager {
          */
         void preGCPrepare();
 
+        /**
+         * Prevents this monitor from being deflated until {@link #unpin()} is called.
+         *
+         * @return false if this monitor is being deflated
+         */
+        boolean pin();
+
+        void unpin();
+
+        /**
+         * Prevents the binding of this monitor from being pinned until {@link #endDeflation()} is called.
+         *
+         * @return false if the binding of this monitor is pinned
+         */
+        boolean startDeflation();
+
+        void endDeflation();
+
+        /**
+         * Clears the flag recording that the binding of this monitor was pinned, or that this monitor was reset.
+         *
+         * @return the previous value of the flag
+         */
+        boolean clearUsedSinceDeflationPass();
+
         /**
          * Direct linked-list support. Returns the next monitor in the list.
          *
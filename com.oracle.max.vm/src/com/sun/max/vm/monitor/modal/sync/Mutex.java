@@ -50,6 +50,13 @@ public abstract class Mutex {
       */
     public abstract boolean lock();
 
+    /**
+     * Causes the current thread to lock the mutex if no other thread holds it, without blocking.
+     *
+     * @return true if the current thread locked the mutex; false if the mutex is held by another thread
+     */
+    public abstract boolean tryLock();
+
      /**
       * Causes the current thread to perform an unlock on the mutex.
       *
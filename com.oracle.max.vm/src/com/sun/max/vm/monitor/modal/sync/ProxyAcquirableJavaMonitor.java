@@ -104,6 +104,7 @@ class ProxyAcquirableJavaMonitor extends StandardJavaMonitor {
         if (!ownerAcquired) {
             if (currentThread == ownerThread) {
                 mutex.lock();
+                currentThread.heldMonitorMutexes++;
                 ownerAcquired = true;
                 proxyVar.threadNotify(true);
             } else {
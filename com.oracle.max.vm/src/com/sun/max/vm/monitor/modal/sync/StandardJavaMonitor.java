@@ -23,6 +23,7 @@ package com.sun.max.vm.monitor.modal.sync;
 import com.sun.cri.bytecode.*;
 import com.sun.max.unsafe.*;
 import com.sun.max.vm.*;
+import com.sun.max.vm.MaxineVM.Phase;
 import com.sun.max.vm.runtime.*;
 import com.sun.max.vm.thread.*;
 
@@ -54,12 +55,64 @@ import com.sun.max.vm.thread.*;
  * thread A because thread A was removed from the wait set when its timeout expired. So the notify wakes up thread B and
  * all threads can continue. With this implementation, the notify can hit thread A since it could not re-acquire the
  * lock between the timeout and the notify (remember that thread C holds the lock). So the notify does not wake up
- * thread B, and it sleeps forever - thread B remains blocked forever.
+ * thread B, and it sleeps forever - thread B remains blocked forever. <br>
+ * <br>
+ * A thread that finds the monitor held spins for a while before blocking on the mutex, unless {@code -XX:-UseAdaptiveSpinning}
+ * is specified. The duration of the spin is learned from the time the monitor was held for by its recent owners. Spinning
+ * is worthless if the monitor is held longer than it takes to block and be woken up, or if the owner isn't running.
  */
 public class StandardJavaMonitor extends AbstractJavaMonitor {
 
+    private static boolean UseAdaptiveSpinning = true;
+    private static int MonitorMaxSpinNanos = 20000;
+    static boolean PrintMonitorContention;
+    static {
+        VMOptions.addFieldOption("-XX:", "UseAdaptiveSpinning", StandardJavaMonitor.class,
+                        "Spin before blocking on a contended inflated monitor, for a duration learned from the hold times of the monitor.", Phase.PRISTINE);
+        VMOptions.addFieldOption("-XX:", "MonitorMaxSpinNanos", StandardJavaMonitor.class,
+                        "Maximum time a thread spins on a contended inflated monitor before blocking (in nanoseconds).", Phase.PRISTINE);
+        VMOptions.addFieldOption("-XX:", "PrintMonitorContention", StandardJavaMonitor.class,
+                        "Print the contention counters of inflated monitors at end of program.", Phase.PRISTINE);
+    }
+
+    /**
+     * Maximum number of pause instructions between two attempts to lock the mutex while spinning.
+     */
+    private static final int MAX_SPIN_PAUSES = 64;
+
     protected final Mutex mutex;
 
+    /**
+     * Time at which the current owner acquired the monitor, as given by {@link System#nanoTime()}.
+     * Zero if the hold time of the current owner isn't measured. It is only measured for owners that found the
+     * monitor held or that returned from a wait, so that uncontended enters don't read the clock.
+     */
+    private long ownedSince;
+
+    /**
+     * Moving average of the time the monitor was held for by its recent owners, in nanoseconds.
+     * Updated by the owner, and read without synchronization by spinning threads.
+     */
+    private volatile int averageHoldNanos;
+
+    /*
+     * Contention counters. They are only updated by the owner of the monitor, and count, over all the bindings of the
+     * monitor: the acquisitions of the monitor by a thread not holding it already, the acquisitions that found the
+     * monitor held, and, among the latter, the ones that succeeded by spinning and the ones that blocked on the mutex.
+     */
+    private long enters;
+    private long contendedEnters;
+    private long spinningEnters;
+    private long blockingEnters;
+
+    /*
+     * Totals of the contention counters of all the monitors, only computed when the VM terminates.
+     */
+    private static long totalEnters;
+    private static long totalContendedEnters;
+    private static long totalSpinningEnters;
+    private static long totalBlockingEnters;
+
     /**
      * The list of threads waiting on this monitor as a result of a call to {@link #monitorWait(long)}. A thread is
      * responsible for adding/removing itself to/from this list on either side of the call to
@@ -95,15 +148,82 @@ public class StandardJavaMonitor extends AbstractJavaMonitor {
             traceEndMonitorEnter(currentThread);
             return;
         }
-        currentThread.setState(Thread.State.BLOCKED);
-        mutex.lock();
-        currentThread.setState(Thread.State.RUNNABLE);
-        ownerThread = currentThread;
+        if (mutex.tryLock()) {
+            ownerThread = currentThread;
+        } else {
+            currentThread.setState(Thread.State.BLOCKED);
+            final boolean acquiredBySpinning = UseAdaptiveSpinning && spinLock();
+            if (!acquiredBySpinning) {
+                mutex.lock();
+            }
+            currentThread.setState(Thread.State.RUNNABLE);
+            ownerThread = currentThread;
+            contendedEnters++;
+            if (acquiredBySpinning) {
+                spinningEnters++;
+            } else {
+                blockingEnters++;
+            }
+            if (UseAdaptiveSpinning) {
+                ownedSince = System.nanoTime();
+            }
+        }
+        currentThread.heldMonitorMutexes++;
+        enters++;
         setBindingProtection(BindingProtection.PROTECTED);
         recursionCount = 1;
         traceEndMonitorEnter(currentThread);
     }
 
+    /**
+     * Spins until the mutex can be locked, for about twice the average hold time of the monitor and at most
+     * {@code -XX:MonitorMaxSpinNanos}. The number of pause instructions between two attempts to lock the mutex
+     * doubles after each attempt. Gives up without spinning if the monitor is held longer than that on average,
+     * and as soon as the owner is found blocked, waiting or sleeping, as it won't release the monitor any time soon.
+     *
+     * @return true if the mutex was locked, false if the current thread must block on it
+     */
+    private boolean spinLock() {
+        final int averageHold = averageHoldNanos;
+        if (averageHold > MonitorMaxSpinNanos) {
+            return false;
+        }
+        final long spinNanos = Math.min(MonitorMaxSpinNanos, Math.max(2L * averageHold, MonitorMaxSpinNanos >> 3));
+        final long deadline = System.nanoTime() + spinNanos;
+        int pauses = 1;
+        while (true) {
+            final VmThread owner = ownerThread;
+            if (owner != null && owner.state() != Thread.State.RUNNABLE) {
+                return false;
+            }
+            for (int i = 0; i < pauses; i++) {
+                Intrinsics.pause();
+            }
+            if (pauses < MAX_SPIN_PAUSES) {
+                pauses <<= 1;
+            }
+            if (ownerThread == null && mutex.tryLock()) {
+                return true;
+            }
+            if (System.nanoTime() - deadline > 0) {
+                return false;
+            }
+        }
+    }
+
+    /**
+     * Accounts the time the current owner has held the monitor for in the average hold time of the monitor.
+     */
+    private void recordHoldTime() {
+        if (ownedSince != 0L) {
+            final long held = System.nanoTime() - ownedSince;
+            final int heldNanos = held > Integer.MAX_VALUE ? Integer.MAX_VALUE : (int) held;
+            final int averageHold = averageHoldNanos;
+            averageHoldNanos = averageHold + ((heldNanos - averageHold) >> 2);
+            ownedSince = 0L;
+        }
+    }
+
     @Override
     public void monitorExit() {
         final VmThread currentThread = VmThread.current();
@@ -112,6 +232,7 @@ public class StandardJavaMonitor extends AbstractJavaMonitor {
             raiseIllegalMonitorStateException(ownerThread);
         }
         if (--recursionCount == 0) {
+            recordHoldTime();
             ownerThread = null;
             if (waitingThreads == null && notifiedThreads == 0) {
                 setBindingProtection(BindingProtection.UNPROTECTED);
@@ -121,6 +242,7 @@ public class StandardJavaMonitor extends AbstractJavaMonitor {
                 // then this monitor must stay protected.
             }
             traceEndMonitorExit(currentThread);
+            currentThread.heldMonitorMutexes--;
             mutex.unlock();
         }
     }
@@ -143,6 +265,7 @@ public class StandardJavaMonitor extends AbstractJavaMonitor {
         final ConditionVariable waitingCondition = ownerThread.waitingCondition().init();
         ownerThread.nextWaitingThread = waitingThreads;
         waitingThreads = ownerThread;
+        recordHoldTime();
         this.ownerThread = null;
         final boolean interrupted;
         if (ownerThread.isInterrupted(true)) {
@@ -154,6 +277,9 @@ public class StandardJavaMonitor extends AbstractJavaMonitor {
         }
 
         this.ownerThread = ownerThread;
+        if (UseAdaptiveSpinning) {
+            ownedSince = System.nanoTime();
+        }
         checkProtection();
         final boolean timedOut = ownerThread.state() == Thread.State.TIMED_WAITING && !interrupted;
         ownerThread.setState(Thread.State.RUNNABLE);
@@ -256,6 +382,49 @@ public class StandardJavaMonitor extends AbstractJavaMonitor {
         mutex.init();
     }
 
+    @Override
+    public void reset() {
+        super.reset();
+        ownedSince = 0L;
+        averageHoldNanos = 0;
+    }
+
+    /**
+     * Logs the contention counters of this monitor if it was ever found held, and adds them to the totals
+     * logged by {@link #logContentionTotals()}. Must only be called once per monitor, by a single thread, when the VM terminates.
+     */
+    void logContention() {
+        totalEnters += enters;
+        totalContendedEnters += contendedEnters;
+        totalSpinningEnters += spinningEnters;
+        totalBlockingEnters += blockingEnters;
+        if (contendedEnters != 0) {
+            Log.print("  ");
+            log();
+            logCounters(enters, contendedEnters, spinningEnters, blockingEnters);
+            Log.print(" averageHold=");
+            Log.print(averageHoldNanos);
+            Log.println("ns");
+        }
+    }
+
+    static void logContentionTotals() {
+        Log.print("  total:");
+        logCounters(totalEnters, totalContendedEnters, totalSpinningEnters, totalBlockingEnters);
+        Log.println();
+    }
+
+    private static void logCounters(long enters, long contendedEnters, long spinningEnters, long blockingEnters) {
+        Log.print(" enters=");
+        Log.print(enters);
+        Log.print(" contended=");
+        Log.print(contendedEnters);
+        Log.print(" spinning=");
+        Log.print(spinningEnters);
+        Log.print(" blocking=");
+        Log.print(blockingEnters);
+    }
+
     @Override
     public void log() {
         super.log();
@@ -88,8 +88,10 @@ public class MethodInstrumentation {
     }
 
     @INLINE
-    public static void recordBackwardBranch(MethodProfile mpo) {
-        mpo.entryBackedgeCount--;
+    public static void recordBackwardBranch(MethodProfile mpo, int bci) {
+        if (--mpo.entryBackedgeCount <= 0) {
+            CompilationBroker.backedgeCounterOverflow(mpo, bci);
+        }
     }
 
     @INLINE
@@ -27,6 +27,7 @@ import java.util.*;
 
 import com.sun.max.annotate.*;
 import com.sun.max.program.*;
+import com.sun.max.vm.*;
 import com.sun.max.vm.actor.holder.ClassIDManager;
 import com.sun.max.vm.compiler.target.*;
 
@@ -72,6 +73,18 @@ public class MethodProfile {
     public static final int DEOPTIMIZATION_REASONS_NUM           = 14;
     public static final int UNDEFINED_DEOPTIMIZATION_REASON_ID   = -1;
 
+    /**
+     * Deoptimization reason recorded when optimized code reaches a branch that the profile showed as never taken.
+     * Same identifier as Graal's {@code DeoptimizationReason.UnreachedCode}.
+     */
+    public static final int UNREACHED_CODE_REASON_ID             = 5;
+
+    /**
+     * Deoptimization reason recorded when the receiver of a call inlined for its profiled type has another type.
+     * Same identifier as Graal's {@code DeoptimizationReason.TypeCheckedInliningViolated}.
+     */
+    public static final int TYPE_CHECKED_INLINING_VIOLATED_REASON_ID = 6;
+
     public static final int UNDEFINED_TYPE_ID                    = ClassIDManager.NULL_CLASS_ID;
     public static final int UNDEFINED_METHOD_ID                  = -1;
 
@@ -90,6 +103,13 @@ public class MethodProfile {
      */
     public int entryBackedgeCount;
 
+    /**
+     * The value {@link #entryBackedgeCount} was last {@linkplain #armEntryBackedgeCount(int) armed} with, and when.
+     * The time is 0 if the counter was armed while bootstrapping.
+     */
+    private int armedCount;
+    private long armedNanos;
+
     /**
      * Records actual counts of a count entry.
      */
@@ -568,6 +588,27 @@ public class MethodProfile {
         return infoAt(index) >>> 16;
     }
 
+    /**
+     * Sets the {@linkplain #entryBackedgeCount invocation and backward branch counter}, recording the time at which it
+     * is set so that the {@linkplain #entryBackedgeRate() rate} at which the counter expires can be derived.
+     */
+    public void armEntryBackedgeCount(int count) {
+        entryBackedgeCount = count;
+        armedCount = count;
+        armedNanos = MaxineVM.isHosted() ? 0L : System.nanoTime();
+    }
+
+    /**
+     * Gets the number of invocations and backward branches per second counted since the counter was last
+     * {@linkplain #armEntryBackedgeCount(int) armed}, or since VM startup if it was armed while bootstrapping.
+     * The hotter a method, the higher its rate.
+     */
+    public long entryBackedgeRate() {
+        final long start = armedNanos != 0L ? armedNanos : MaxineVM.getStartupTimeNano();
+        final long elapsedNanos = Math.max(1L, System.nanoTime() - start);
+        return Math.max(0L, (long) armedCount - entryBackedgeCount) * 1000000000L / elapsedNanos;
+    }
+
     public boolean protectedEntryCount() {
         return entryBackedgeCount <= MethodInstrumentation.protectionThreshold;
     }
@@ -585,7 +626,7 @@ public class MethodProfile {
         public static final byte UNDEFINED_POS = -1;
 
         public void addEntryBackedgeCounter(int initialValue) {
-            mpo.entryBackedgeCount = initialValue;
+            mpo.armEntryBackedgeCount(initialValue);
         }
 
         public int addGotoCounter(int bci) {
@@ -0,0 +1,530 @@
+/*
+ * Copyright (c) 2012, Oracle and/or its affiliates. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * Please contact Oracle, 500 Oracle Parkway, Redwood Shores, CA 94065 USA
+ * or visit www.oracle.com if you need additional information or have any
+ * questions.
+ */
+package com.sun.max.vm.profilers.sampling;
+
+import static com.sun.max.vm.intrinsics.Infopoints.*;
+
+import java.lang.ref.WeakReference;
+import java.util.*;
+
+import com.sun.max.annotate.*;
+import com.sun.max.unsafe.*;
+import com.sun.max.vm.*;
+import com.sun.max.vm.actor.holder.*;
+import com.sun.max.vm.compiler.target.*;
+import com.sun.max.vm.heap.*;
+import com.sun.max.vm.layout.*;
+import com.sun.max.vm.object.*;
+import com.sun.max.vm.reference.*;
+import com.sun.max.vm.runtime.*;
+import com.sun.max.vm.stack.*;
+import com.sun.max.vm.thread.*;
+
+/**
+ * Allocation sampler. Unlike the {@link HeapSamplingProfiler}, which stops all the threads to record the stack of
+ * an allocating thread, each thread records its own samples from the slow path of {@linkplain HeapSchemeWithTLAB TLAB}
+ * allocation, without synchronizing with any other thread.
+ * <p>
+ * Each thread counts the bytes it allocated since its last sample: the bytes bumped in its TLAB since its previous
+ * slow path plus the size of the current request. When the count exceeds a threshold drawn from an exponential
+ * distribution whose mean is the sampling interval, the object being allocated is sampled and stands for all the
+ * bytes counted since the previous sample. The type, size and stack of the sample are {@linkplain BufferedSampler buffered}
+ * by the thread, and the object is recorded as the referent of a weak reference preallocated for the slot: as the
+ * sample is taken between the allocation of the cell and the planting of its header, with safepoints disabled,
+ * the slow path neither allocates, locks, nor exposes the unformatted cell to the garbage collector.
+ * <p>
+ * The sampler counts the samples and bytes of each distinct allocation site (type and stack), and keeps the weak
+ * references of the sampled objects in a bounded live set.
+ * When the set is full, samples whose object was collected are dropped first, then a random sample is replaced.
+ * At VM termination, the allocation sites and the sites of the live samples are printed, sorted by estimated bytes.
+ * <p>
+ * Since samples are only taken on the slow path, the effective interval is at least the size of a TLAB, and the
+ * sampled objects are those crossing TLAB boundaries, which are chosen with a probability proportional to their size.
+ * Enabled with {@code -Xallocprof[:interval=<bytes>,depth=<frames>,live=<samples>]}.
+ */
+public final class AllocationSampler extends BufferedSampler<AllocationSampler.ThreadSamples> {
+
+    /**
+     * The default mean number of bytes allocated by a thread between two samples.
+     */
+    private static final int DEFAULT_INTERVAL = 512 * 1024;
+
+    /**
+     * The default maximum number of frames recorded per sample, not counting the frames of the allocation path.
+     */
+    private static final int DEFAULT_DEPTH = 16;
+
+    /**
+     * The default maximum number of samples kept in the live set.
+     */
+    private static final int DEFAULT_LIVE = 1024;
+
+    /**
+     * The maximum number of frames of the allocation path (heap scheme, runtime calls and stubs) recorded on top of
+     * the frames of a sample. They are removed when the sample is drained.
+     */
+    private static final int MAX_ALLOCATION_FRAMES = 8;
+
+    private static final double LN2 = 0.6931471805599453;
+
+    /**
+     * The sampler, or {@code null} if allocation sampling is not enabled.
+     */
+    private static AllocationSampler sampler;
+
+    private long interval = DEFAULT_INTERVAL;
+
+    private int maxDepth = DEFAULT_DEPTH;
+
+    private int liveCapacity = DEFAULT_LIVE;
+
+    /**
+     * The allocation sites sampled so far, indexed by type and stack. Only accessed when holding the
+     * {@link #buffers} lock, as are the live set and the sample count.
+     */
+    private final HashMap<String, Site> sites = new HashMap<String, Site>();
+
+    private final StringBuilder siteBuilder = new StringBuilder();
+
+    private LiveSample[] liveSamples;
+
+    private int liveCount;
+
+    private final Random random = new Random();
+
+    private long sampleCount;
+
+    private AllocationSampler(String optionPrefix) {
+        super("AllocationSampler", optionPrefix, "interval=i,depth=d,live=l");
+    }
+
+    /**
+     * Creates and starts the sampler with the options given by {@code optionValue}, and samples the current thread.
+     *
+     * @param optionValue a string of the form {@code :interval=i,depth=d,live=l} where any element may be omitted
+     */
+    public static AllocationSampler create(String optionPrefix, String optionValue) {
+        final AllocationSampler allocationSampler = new AllocationSampler(optionPrefix);
+        allocationSampler.parseOptions(optionValue);
+        if (allocationSampler.interval <= 0 || allocationSampler.maxDepth <= 0 || allocationSampler.liveCapacity < 0) {
+            allocationSampler.usage();
+        }
+        allocationSampler.liveSamples = new LiveSample[allocationSampler.liveCapacity];
+        allocationSampler.isSampling = true;
+        sampler = allocationSampler;
+        allocationSampler.start();
+        threadStarted(VmThread.current());
+        return allocationSampler;
+    }
+
+    @Override
+    protected boolean parseOption(String option) {
+        if (option.startsWith("interval")) {
+            interval = getIntOption(option);
+        } else if (option.startsWith("depth")) {
+            maxDepth = getIntOption(option);
+        } else if (option.startsWith("live")) {
+            liveCapacity = getIntOption(option);
+        } else {
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Determines if allocation sampling is enabled.
+     */
+    @INLINE
+    public static boolean isEnabled() {
+        return sampler != null;
+    }
+
+    /**
+     * Starts sampling the allocations of a thread that is about to run its {@link Runnable}. Called on the thread itself.
+     */
+    public static void threadStarted(VmThread vmThread) {
+        final AllocationSampler allocationSampler = sampler;
+        if (allocationSampler == null || !allocationSampler.samples(vmThread)) {
+            return;
+        }
+        final ThreadSamples samples = new ThreadSamples(vmThread, allocationSampler.interval, allocationSampler.maxDepth + MAX_ALLOCATION_FRAMES);
+        allocationSampler.addBuffer(samples);
+        vmThread.setAllocationSamples(samples);
+    }
+
+    /**
+     * Stops sampling the allocations of a thread that has finished running its {@link Runnable}. Called on the thread
+     * itself. The samples it buffered are drained by the sampler thread.
+     */
+    public static void threadTerminated(VmThread vmThread) {
+        final ThreadSamples samples = vmThread.allocationSamples();
+        if (samples != null) {
+            samples.closed = true;
+        }
+    }
+
+    /**
+     * Accounts for an allocation that took the slow path of TLAB allocation, and samples it if the current thread
+     * has allocated enough bytes since its last sample. Called by the heap scheme after the cell was allocated and
+     * before its header is planted: this must not allocate, lock nor reach a safepoint.
+     *
+     * @param oldAllocationMark the allocation mark of the TLAB when the slow path was entered
+     * @param allocationMark the allocation mark of the TLAB after the cell was allocated
+     * @param cell the allocated cell
+     * @param size the size of the cell
+     * @param hub the hub of the object that will be planted in the cell
+     */
+    @NO_SAFEPOINT_POLLS("object allocation and initialization must be atomic")
+    public static void allocated(Pointer oldAllocationMark, Pointer allocationMark, Pointer cell, Size size, Hub hub) {
+        final ThreadSamples samples = VmThread.current().allocationSamples();
+        if (samples == null || samples.closed || samples.busy) {
+            return;
+        }
+        samples.busy = true;
+        samples.allocated(oldAllocationMark, allocationMark, cell, size, hub);
+        samples.busy = false;
+    }
+
+    @FOLD
+    private static int referentOffset() {
+        return ClassActor.fromJava(java.lang.ref.Reference.class).findLocalInstanceFieldActor("referent").offset();
+    }
+
+    /**
+     * The allocation samples of one thread. The weak reference of a slot is replaced by a fresh one when its sample is drained.
+     */
+    public static final class ThreadSamples extends BufferedSampler.SampleBuffer {
+
+        final long interval;
+
+        final Hub[] hubs;
+
+        final long[] sizes;
+
+        /**
+         * The number of bytes allocated by the thread that each sample stands for.
+         */
+        final long[] weights;
+
+        /**
+         * The weak references of the slots. The referent of a reference is only set once, when the sample of its slot
+         * is taken: the sampler thread replaces it with a fresh reference when draining the sample.
+         */
+        final WeakReference<Object>[] objects;
+
+        /**
+         * The allocation mark of the TLAB when the thread last left the allocation slow path.
+         */
+        private Address lastAllocationMark = Address.zero();
+
+        /**
+         * The number of bytes allocated since the last sample.
+         */
+        private long allocatedBytes;
+
+        /**
+         * The number of bytes to allocate before the next sample.
+         */
+        private long threshold;
+
+        private long seed;
+
+        final VmStackFrameWalker walker;
+
+        /**
+         * @param maxFrames the maximum number of frames recorded per sample, including the frames of the allocation path
+         */
+        @SuppressWarnings("unchecked")
+        ThreadSamples(VmThread thread, long interval, int maxFrames) {
+            super(thread, maxFrames, false);
+            this.interval = interval;
+            this.hubs = new Hub[SAMPLES_PER_THREAD];
+            this.sizes = new long[SAMPLES_PER_THREAD];
+            this.weights = new long[SAMPLES_PER_THREAD];
+            this.objects = new WeakReference[SAMPLES_PER_THREAD];
+            for (int i = 0; i < SAMPLES_PER_THREAD; i++) {
+                objects[i] = new WeakReference<Object>(null);
+            }
+            this.walker = new VmStackFrameWalker(thread.tla());
+            this.seed = System.nanoTime() ^ (thread.id() * 0x9E3779B97F4A7C15L);
+            if (seed == 0) {
+                seed = 1;
+            }
+            this.threshold = nextThreshold();
+        }
+
+        @NO_SAFEPOINT_POLLS("object allocation and initialization must be atomic")
+        void allocated(Pointer oldAllocationMark, Pointer allocationMark, Pointer cell, Size size, Hub hub) {
+            long bytes = size.toLong();
+            if (!lastAllocationMark.isZero() && lastAllocationMark.lessEqual(oldAllocationMark)) {
+                // Bytes allocated in the TLAB since the last slow path
+                bytes += oldAllocationMark.minus(lastAllocationMark).toLong();
+            }
+            lastAllocationMark = allocationMark;
+            allocatedBytes += bytes;
+            if (allocatedBytes < threshold) {
+                return;
+            }
+            record(cell, size, hub, allocatedBytes);
+            allocatedBytes = 0;
+            threshold = nextThreshold();
+        }
+
+        @NO_SAFEPOINT_POLLS("object allocation and initialization must be atomic")
+        private void record(Pointer cell, Size size, Hub hub, long weight) {
+            final int slot = beginSample();
+            if (slot < 0) {
+                return;
+            }
+            // The stack walk reaches safepoint polls, where a garbage collection would find the cell without a header.
+            // Safepoints are disabled while sampling. The caller plants the header without polling safepoints.
+            final boolean wasDisabled = SafepointPoll.disable();
+            try {
+                if (!walker.isInUse()) {
+                    walker.inspect(Pointer.fromLong(here()), VMRegister.getCpuStackPointer(), VMRegister.getCpuFramePointer(), recorder);
+                }
+                hubs[slot] = hub;
+                sizes[slot] = size.toLong();
+                weights[slot] = weight;
+                TupleAccess.writeObject(objects[slot], referentOffset(), Reference.fromOrigin(Layout.cellToOrigin(cell)).toJava());
+                endSample(slot);
+            } finally {
+                if (!wasDisabled) {
+                    SafepointPoll.enable();
+                }
+            }
+        }
+
+        /**
+         * Draws the number of bytes to allocate before the next sample from an exponential distribution whose mean
+         * is the sampling interval. The logarithm is computed here rather than by {@link Math#log}, which may call
+         * native code and thus let a garbage collection see the cell being allocated.
+         */
+        @NO_SAFEPOINT_POLLS("object allocation and initialization must be atomic")
+        private long nextThreshold() {
+            long x = seed;
+            x ^= x << 13;
+            x ^= x >>> 7;
+            x ^= x << 17;
+            seed = x;
+            // u = r / 2^53 is uniform in (0, 1), and ln(r) = k ln(2) + ln(m) with m = r / 2^k in [1, 2)
+            final long r = (x >>> 11) | 1L;
+            final int k = 63 - Long.numberOfLeadingZeros(r);
+            final double m = (double) r / (double) (1L << k);
+            final double t = (m - 1.0) / (m + 1.0);
+            final double t2 = t * t;
+            final double lnm = 2.0 * t * (1.0 + t2 * (1.0 / 3.0 + t2 * (1.0 / 5.0 + t2 * (1.0 / 7.0))));
+            final double lnu = (k - 53) * LN2 + lnm;
+            return Math.max(1L, (long) (-lnu * interval));
+        }
+    }
+
+    /**
+     * An allocation site: a type allocated from a stack.
+     */
+    static final class Site {
+        final String type;
+        final String[] frames;
+        final boolean truncated;
+        long samples;
+        long bytes;
+        long liveSamples;
+        long liveBytes;
+
+        Site(String type, String[] frames, boolean truncated) {
+            this.type = type;
+            this.frames = frames;
+            this.truncated = truncated;
+        }
+    }
+
+    /**
+     * A sampled object kept in the live set.
+     */
+    static final class LiveSample {
+        final WeakReference<Object> object;
+        final Site site;
+        final long weight;
+
+        LiveSample(WeakReference<Object> object, Site site, long weight) {
+            this.object = object;
+            this.site = site;
+            this.weight = weight;
+        }
+    }
+
+    @Override
+    protected void drainSample(ThreadSamples samples, int slot) {
+        final int start = slot * samples.maxFrames;
+        final int end = start + Math.abs(samples.depths[slot]);
+        int first = start;
+        while (first < end && isAllocationFrame(samples.frames[first])) {
+            first++;
+        }
+        final int depth = Math.min(end - first, maxDepth);
+        final boolean truncated = samples.depths[slot] < 0 || end - first > maxDepth;
+        final String type = samples.hubs[slot].classActor.javaSignature(true);
+
+        siteBuilder.setLength(0);
+        siteBuilder.append(type);
+        final String[] frames = new String[depth];
+        for (int i = 0; i < depth; i++) {
+            frames[i] = frameName(samples.frames[first + i]);
+            siteBuilder.append(';').append(frames[i]);
+        }
+        if (truncated) {
+            siteBuilder.append(";...");
+        }
+        final String key = siteBuilder.toString();
+        Site site = sites.get(key);
+        if (site == null) {
+            site = new Site(type, frames, truncated);
+            sites.put(key, site);
+        }
+        site.samples++;
+        site.bytes += samples.weights[slot];
+        sampleCount++;
+
+        addLiveSample(new LiveSample(samples.objects[slot], site, samples.weights[slot]));
+        samples.objects[slot] = new WeakReference<Object>(null);
+        samples.hubs[slot] = null;
+    }
+
+    /**
+     * Determines if a frame belongs to the allocation path rather than to the code allocating an object.
+     */
+    private static boolean isAllocationFrame(TargetMethod targetMethod) {
+        if (targetMethod.classMethodActor == null) {
+            // stubs
+            return true;
+        }
+        final ClassActor holder = targetMethod.classMethodActor.holder();
+        if (holder == ClassActor.fromJava(AllocationSampler.class) || holder == ClassActor.fromJava(ThreadSamples.class) ||
+            holder == ClassActor.fromJava(Heap.class) || ClassActor.fromJava(HeapScheme.class).isAssignableFrom(holder)) {
+            return true;
+        }
+        // runtime entry points of the compilers
+        final String name = holder.name.string;
+        return name.endsWith("RuntimeCalls") || name.endsWith("T1XRuntime");
+    }
+
+    private void addLiveSample(LiveSample liveSample) {
+        if (liveCapacity == 0 || liveSample.object.get() == null) {
+            return;
+        }
+        if (liveCount == liveCapacity) {
+            purgeLiveSamples();
+        }
+        if (liveCount < liveCapacity) {
+            liveSamples[liveCount++] = liveSample;
+        } else {
+            liveSamples[random.nextInt(liveCapacity)] = liveSample;
+        }
+    }
+
+    /**
+     * Removes the samples whose object was collected from the live set.
+     */
+    private void purgeLiveSamples() {
+        int count = 0;
+        for (int i = 0; i < liveCount; i++) {
+            if (liveSamples[i].object.get() != null) {
+                liveSamples[count++] = liveSamples[i];
+            }
+        }
+        Arrays.fill(liveSamples, count, liveCount, null);
+        liveCount = count;
+    }
+
+    @Override
+    protected String formatFrameName(TargetMethod targetMethod) {
+        return targetMethod.classMethodActor != null ? targetMethod.classMethodActor.format("%H.%n(%p)") : targetMethod.regionName();
+    }
+
+    /**
+     * Stops sampling and prints the allocation sites and the sites of the live samples. Called at VM termination.
+     */
+    public void terminate() {
+        stopSampling();
+        synchronized (buffers) {
+            purgeLiveSamples();
+            for (int i = 0; i < liveCount; i++) {
+                final LiveSample liveSample = liveSamples[i];
+                liveSample.site.liveSamples++;
+                liveSample.site.liveBytes += liveSample.weight;
+            }
+
+            final ArrayList<Site> allocationSites = new ArrayList<Site>(sites.values());
+            Collections.sort(allocationSites, new Comparator<Site>() {
+                public int compare(Site a, Site b) {
+                    return a.bytes < b.bytes ? 1 : a.bytes > b.bytes ? -1 : 0;
+                }
+            });
+            final ArrayList<Site> liveSites = new ArrayList<Site>();
+            for (Site site : allocationSites) {
+                if (site.liveSamples > 0) {
+                    liveSites.add(site);
+                }
+            }
+            Collections.sort(liveSites, new Comparator<Site>() {
+                public int compare(Site a, Site b) {
+                    return a.liveBytes < b.liveBytes ? 1 : a.liveBytes > b.liveBytes ? -1 : 0;
+                }
+            });
+
+            final boolean lockDisabledSafepoints = Log.lock();
+            Log.print("Allocation sampler: ");
+            Log.print(sampleCount);
+            Log.print(" samples, ");
+            Log.print(droppedSamples);
+            Log.print(" dropped, interval ");
+            Log.print(interval);
+            Log.println(" bytes");
+            Log.println("Allocation sites:");
+            for (Site site : allocationSites) {
+                printSite(site, site.samples, site.bytes);
+            }
+            Log.println("Live samples:");
+            for (Site site : liveSites) {
+                printSite(site, site.liveSamples, site.liveBytes);
+            }
+            Log.unlock(lockDisabledSafepoints);
+        }
+    }
+
+    private static void printSite(Site site, long samples, long bytes) {
+        Log.print("  ");
+        Log.print(bytes / 1024);
+        Log.print("KB in ");
+        Log.print(samples);
+        Log.print(" samples of ");
+        Log.println(site.type);
+        for (String frame : site.frames) {
+            Log.print("    at ");
+            Log.println(frame);
+        }
+        if (site.truncated) {
+            Log.println("    ...");
+        }
+    }
+}
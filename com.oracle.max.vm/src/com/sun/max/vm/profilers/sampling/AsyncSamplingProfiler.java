@@ -0,0 +1,353 @@
+/*
+ * Copyright (c) 2012, Oracle and/or its affiliates. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * Please contact Oracle, 500 Oracle Parkway, Redwood Shores, CA 94065 USA
+ * or visit www.oracle.com if you need additional information or have any
+ * questions.
+ */
+package com.sun.max.vm.profilers.sampling;
+
+import static com.sun.max.vm.MaxineVM.*;
+import static com.sun.max.vm.thread.VmThreadLocal.*;
+
+import java.io.*;
+import java.util.*;
+
+import com.sun.max.annotate.*;
+import com.sun.max.unsafe.*;
+import com.sun.max.vm.*;
+import com.sun.max.vm.code.*;
+import com.sun.max.vm.compiler.target.*;
+import com.sun.max.vm.runtime.*;
+import com.sun.max.vm.stack.*;
+import com.sun.max.vm.thread.*;
+
+/**
+ * Asynchronous CPU sampling profiler. Unlike the {@link CPUSamplingProfiler}, which stops all the threads at a
+ * safepoint to gather their stacks and thus only ever sees safepoint positions, each profiled thread is sent a
+ * {@code SIGPROF} signal by a timer measuring its own CPU time, and records its stack wherever it was interrupted.
+ * <p>
+ * The native signal handler redirects the thread to the {@linkplain Stubs#trapStub trap stub} with the
+ * {@link Trap.Number#PROFILE_SAMPLE} trap number. The sample is then taken by {@link #sample(Pointer)} in the
+ * trap handler, with a stack walker dedicated to the thread, and {@linkplain BufferedSampler buffered} until the
+ * profiler drains it. The distinct stacks are counted and written in the collapsed format read by flame graph tools
+ * at VM termination: one line per stack, with frames from the root to the leaf separated by {@code ;}, followed by
+ * the sample count.
+ * <p>
+ * As the top frame of a sample may not be completely set up, a stack whose caller of the top frame can't be found only
+ * contains the top frame, below a {@code [truncated]} root. Samples taken while the thread is executing native code
+ * only contain a {@code [native]} frame, as its Java frames may be concurrently scanned by the garbage collector.
+ * <p>
+ * Per-thread CPU timers are only available on Linux; on other platforms no sample is taken.
+ * Enabled with {@code -Xasyncprof[:interval=<microseconds>,depth=<frames>,file=<path>,threads]}.
+ */
+public final class AsyncSamplingProfiler extends BufferedSampler<AsyncSamplingProfiler.ThreadSamples> {
+
+    /**
+     * The default sampling interval, in microseconds of CPU time of a thread.
+     * At this interval, a thread fills its buffer in no less than 640 milliseconds of CPU time.
+     */
+    private static final int DEFAULT_INTERVAL = 10000;
+
+    /**
+     * The default maximum number of frames recorded per sample.
+     */
+    private static final int DEFAULT_DEPTH = 64;
+
+    private static final String DEFAULT_FILE = "asyncprof.collapsed";
+
+    /**
+     * The profiler, or {@code null} if profiling is not enabled.
+     */
+    private static AsyncSamplingProfiler profiler;
+
+    private long intervalNanos = DEFAULT_INTERVAL * 1000L;
+
+    private int maxDepth = DEFAULT_DEPTH;
+
+    private String fileName = DEFAULT_FILE;
+
+    private boolean perThread;
+
+    /**
+     * The number of occurrences of each distinct stack, in collapsed format. Only accessed when holding
+     * the {@link #buffers} lock.
+     */
+    private final HashMap<String, long[]> stacks = new HashMap<String, long[]>();
+
+    private final StringBuilder stackBuilder = new StringBuilder();
+
+    private AsyncSamplingProfiler(String optionPrefix) {
+        super("AsyncSamplingProfiler", optionPrefix, "interval=i,depth=d,file=f,threads");
+    }
+
+    /**
+     * Creates and starts the profiler with the options given by {@code optionValue}, and profiles the current thread.
+     *
+     * @param optionValue a string of the form {@code :interval=i,depth=d,file=f,threads} where any element may be omitted
+     */
+    public static AsyncSamplingProfiler create(String optionPrefix, String optionValue) {
+        final AsyncSamplingProfiler asyncSamplingProfiler = new AsyncSamplingProfiler(optionPrefix);
+        asyncSamplingProfiler.parseOptions(optionValue);
+        if (asyncSamplingProfiler.intervalNanos <= 0 || asyncSamplingProfiler.maxDepth <= 0) {
+            asyncSamplingProfiler.usage();
+        }
+        nativeProfileSignalHandlerInstall();
+        asyncSamplingProfiler.isSampling = true;
+        profiler = asyncSamplingProfiler;
+        asyncSamplingProfiler.start();
+        threadStarted(VmThread.current());
+        return asyncSamplingProfiler;
+    }
+
+    @Override
+    protected boolean parseOption(String option) {
+        if (option.startsWith("interval")) {
+            intervalNanos = getIntOption(option) * 1000L;
+        } else if (option.startsWith("depth")) {
+            maxDepth = getIntOption(option);
+        } else if (option.startsWith("file")) {
+            fileName = getOptionValue(option);
+        } else if (option.startsWith("threads")) {
+            perThread = true;
+        } else {
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Starts profiling a thread that is about to run its {@link Runnable}. Called on the thread itself.
+     */
+    public static void threadStarted(VmThread vmThread) {
+        final AsyncSamplingProfiler asyncSamplingProfiler = profiler;
+        if (asyncSamplingProfiler == null || !asyncSamplingProfiler.samples(vmThread)) {
+            return;
+        }
+        final ThreadSamples samples = new ThreadSamples(vmThread, asyncSamplingProfiler.maxDepth);
+        asyncSamplingProfiler.addBuffer(samples);
+        vmThread.setAsyncSamples(samples);
+        samples.timer = nativeProfileTimerCreate(asyncSamplingProfiler.intervalNanos);
+    }
+
+    /**
+     * Stops profiling a thread that has finished running its {@link Runnable}. Called on the thread itself.
+     * The samples it buffered are drained by the profiler thread.
+     */
+    public static void threadTerminated(VmThread vmThread) {
+        final ThreadSamples samples = vmThread.asyncSamples();
+        if (samples == null) {
+            return;
+        }
+        samples.closed = true;
+        nativeProfileTimerDelete(samples.timer);
+        samples.timer = Address.zero();
+    }
+
+    /**
+     * Records the stack of the current thread, interrupted by a profiling timer tick.
+     * Called from {@link Trap#handleTrap}: this must not allocate, lock nor reach a safepoint.
+     *
+     * @param trapFrame the trap frame holding the state of the interrupted code
+     */
+    @NO_SAFEPOINT_POLLS("executes inside a native signal handler")
+    public static void sample(Pointer trapFrame) {
+        final ThreadSamples samples = VmThread.current().asyncSamples();
+        if (samples == null || samples.closed || samples.busy) {
+            return;
+        }
+        samples.busy = true;
+        samples.record(trapFrame);
+        samples.busy = false;
+    }
+
+    /**
+     * The CPU samples of one thread.
+     */
+    public static final class ThreadSamples extends BufferedSampler.SampleBuffer {
+
+        /**
+         * The native timer sending the profiling ticks to the thread.
+         */
+        Address timer = Address.zero();
+
+        final SampleStackFrameWalker walker;
+
+        ThreadSamples(VmThread thread, int maxDepth) {
+            super(thread, maxDepth, true);
+            this.walker = new SampleStackFrameWalker();
+        }
+
+        @NO_SAFEPOINT_POLLS("executes inside a native signal handler")
+        void record(Pointer trapFrame) {
+            final int slot = beginSample();
+            if (slot < 0) {
+                return;
+            }
+            final Pointer tla = VmThread.currentTLA();
+            if (inJava(tla) && !walker.isInUse()) {
+                final TrapFrameAccess tfa = vm().trapFrameAccess;
+                walker.start(tla, tfa.getSP(trapFrame));
+                walker.inspect(tfa.getPC(trapFrame), tfa.getSP(trapFrame), tfa.getFP(trapFrame), recorder);
+            }
+            endSample(slot);
+        }
+    }
+
+    /**
+     * A stack walker that only reads the stack of the current thread between the stack pointer of the interrupted
+     * code and the highest stack slot: a frame that is not completely set up may otherwise lead to reading
+     * unmapped memory.
+     */
+    static final class SampleStackFrameWalker extends StackFrameWalker {
+
+        private Pointer tla;
+
+        private Address lowestSlot;
+
+        private Address highestSlot;
+
+        void start(Pointer tla, Pointer sp) {
+            this.tla = tla;
+            this.lowestSlot = sp;
+            this.highestSlot = HIGHEST_STACK_SLOT_ADDRESS.load(tla);
+        }
+
+        @INLINE
+        private boolean isInStack(Address address, int offset, int size) {
+            final Address a = address.plus(offset);
+            return a.greaterEqual(lowestSlot) && a.plus(size).lessEqual(highestSlot);
+        }
+
+        @Override
+        public TargetMethod targetMethodFor(Pointer instructionPointer) {
+            return Code.codePointerToTargetMethod(instructionPointer);
+        }
+
+        @Override
+        public Word readWord(Address address, int offset) {
+            if (!isInStack(address, offset, Word.size())) {
+                return Word.zero();
+            }
+            return address.asPointer().readWord(offset);
+        }
+
+        @Override
+        public byte readByte(Address address, int offset) {
+            if (!isInStack(address, offset, 1)) {
+                return 0;
+            }
+            return address.asPointer().readByte(offset);
+        }
+
+        @Override
+        public int readInt(Address address, int offset) {
+            if (!isInStack(address, offset, 4)) {
+                return 0;
+            }
+            return address.asPointer().readInt(offset);
+        }
+
+        @Override
+        public Pointer readPointer(VmThreadLocal tl) {
+            return tl.load(ETLA.load(tla));
+        }
+    }
+
+    @Override
+    protected void drainSample(ThreadSamples samples, int slot) {
+        final int start = slot * samples.maxFrames;
+        final int depth = Math.abs(samples.depths[slot]);
+        stackBuilder.setLength(0);
+        if (perThread) {
+            stackBuilder.append('[').append(samples.thread.getName()).append("];");
+        }
+        if (samples.depths[slot] < 0) {
+            stackBuilder.append("[truncated];");
+        }
+        if (depth == 0) {
+            stackBuilder.append("[native]");
+        }
+        for (int i = start + depth - 1; i >= start; i--) {
+            stackBuilder.append(frameName(samples.frames[i]));
+            if (i > start) {
+                stackBuilder.append(';');
+            }
+        }
+        final String stack = stackBuilder.toString();
+        final long[] count = stacks.get(stack);
+        if (count == null) {
+            stacks.put(stack, new long[] {1});
+        } else {
+            count[0]++;
+        }
+    }
+
+    @Override
+    protected String formatFrameName(TargetMethod targetMethod) {
+        final String name = targetMethod.classMethodActor != null ? targetMethod.classMethodActor.format("%H.%n") : targetMethod.regionName();
+        // ';' and ' ' are separators in the collapsed format
+        return name.replace(';', '_').replace(' ', '_');
+    }
+
+    /**
+     * Stops profiling and writes the stacks sampled so far. Called at VM termination.
+     */
+    public void terminate() {
+        stopSampling();
+        long total = 0;
+        synchronized (buffers) {
+            try {
+                final Writer out = new BufferedWriter(new FileWriter(fileName));
+                try {
+                    for (Map.Entry<String, long[]> entry : stacks.entrySet()) {
+                        out.write(entry.getKey());
+                        out.write(' ');
+                        out.write(Long.toString(entry.getValue()[0]));
+                        out.write('\n');
+                        total += entry.getValue()[0];
+                    }
+                } finally {
+                    out.close();
+                }
+            } catch (IOException e) {
+                Log.println("Error writing " + fileName + ": " + e);
+                return;
+            }
+        }
+        Log.print("Async sampling profiler: ");
+        Log.print(total);
+        Log.print(" samples written to ");
+        Log.print(fileName);
+        Log.print(", ");
+        Log.print(droppedSamples);
+        Log.println(" dropped");
+    }
+
+    /**
+     * Installs the handler of the {@code SIGPROF} signal, which the VM only handles when the profiler is enabled.
+     */
+    @C_FUNCTION
+    private static native void nativeProfileSignalHandlerInstall();
+
+    @C_FUNCTION
+    private static native Address nativeProfileTimerCreate(long periodNanos);
+
+    @C_FUNCTION
+    private static native void nativeProfileTimerDelete(Address timer);
+}
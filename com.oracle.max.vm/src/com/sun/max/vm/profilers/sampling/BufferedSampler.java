@@ -0,0 +1,378 @@
+/*
+ * Copyright (c) 2012, Oracle and/or its affiliates. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * Please contact Oracle, 500 Oracle Parkway, Redwood Shores, CA 94065 USA
+ * or visit www.oracle.com if you need additional information or have any
+ * questions.
+ */
+package com.sun.max.vm.profilers.sampling;
+
+import java.util.*;
+
+import com.sun.max.annotate.*;
+import com.sun.max.unsafe.*;
+import com.sun.max.vm.*;
+import com.sun.max.vm.compiler.target.*;
+import com.sun.max.vm.stack.*;
+import com.sun.max.vm.thread.*;
+
+/**
+ * Base class of the samplers whose samples are recorded by the sampled threads themselves, at points where they must
+ * neither allocate, lock nor reach a safepoint. Each thread writes the frames of its samples in a {@link SampleBuffer},
+ * a ring buffer only written by the thread, and the sampler, a daemon thread, periodically drains the buffers of all
+ * the sampled threads. Threads of the {@linkplain VmThread#systemThreadGroup system thread group} are not sampled.
+ * <p>
+ * The sampler is enabled with an option of the form {@code <prefix>:name=value,flag,...}, each element of which is
+ * handed to {@link #parseOption(String)}. Frames are attributed to the compiled method of their instruction pointer:
+ * methods inlined in it don't appear in the samples.
+ *
+ * @param <B> the type of the buffers of the sampled threads
+ */
+abstract class BufferedSampler<B extends BufferedSampler.SampleBuffer> extends Thread {
+
+    /**
+     * The number of samples each thread can buffer before the sampler drains them.
+     */
+    static final int SAMPLES_PER_THREAD = 64;
+
+    private static final long DRAIN_PERIOD_MS = 100;
+
+    private final String optionPrefix;
+
+    private final String optionSyntax;
+
+    /**
+     * The buffers of the sampled threads. Also serves as the lock protecting itself and the state of the subclasses
+     * updated when draining samples.
+     */
+    protected final ArrayList<B> buffers = new ArrayList<B>();
+
+    private final IdentityHashMap<TargetMethod, String> frameNames = new IdentityHashMap<TargetMethod, String>();
+
+    /**
+     * The number of samples dropped because a buffer was full.
+     */
+    protected long droppedSamples;
+
+    protected volatile boolean isSampling;
+
+    /**
+     * @param name the name of the sampler thread
+     * @param optionPrefix the option enabling the sampler
+     * @param optionSyntax the elements of the option value, printed in the usage message
+     */
+    protected BufferedSampler(String name, String optionPrefix, String optionSyntax) {
+        super(VmThread.systemThreadGroup, name);
+        setDaemon(true);
+        this.optionPrefix = optionPrefix;
+        this.optionSyntax = optionSyntax;
+    }
+
+    /**
+     * Parses the value of the option enabling the sampler, and exits the VM with a usage message if it is malformed.
+     *
+     * @param optionValue a string of the form {@code :e1,e2,...}, or the empty string
+     */
+    protected final void parseOptions(String optionValue) {
+        if (optionValue.length() == 0) {
+            return;
+        }
+        if (optionValue.charAt(0) != ':') {
+            usage();
+        }
+        for (String option : optionValue.substring(1).split(",")) {
+            if (!parseOption(option)) {
+                usage();
+            }
+        }
+    }
+
+    /**
+     * Parses an element of the option value.
+     *
+     * @return false if {@code option} is not a valid element
+     */
+    protected abstract boolean parseOption(String option);
+
+    protected final void usage() {
+        System.err.println("usage: " + optionPrefix + ":" + optionSyntax);
+        MaxineVM.native_exit(1);
+    }
+
+    /**
+     * Gets the value of an element of the form {@code name=value}.
+     */
+    protected final String getOptionValue(String option) {
+        final int index = option.indexOf('=');
+        if (index < 0) {
+            usage();
+        }
+        return option.substring(index + 1);
+    }
+
+    protected final int getIntOption(String option) {
+        return Integer.parseInt(getOptionValue(option));
+    }
+
+    /**
+     * Determines if a thread about to run its {@link Runnable} is to be sampled.
+     */
+    protected final boolean samples(VmThread vmThread) {
+        return isSampling && vmThread.javaThread().getThreadGroup() != VmThread.systemThreadGroup;
+    }
+
+    /**
+     * Adds the buffer of a thread to the buffers drained by the sampler.
+     */
+    protected final void addBuffer(B buffer) {
+        synchronized (buffers) {
+            buffers.add(buffer);
+        }
+    }
+
+    @Override
+    public void run() {
+        while (isSampling) {
+            try {
+                Thread.sleep(DRAIN_PERIOD_MS);
+            } catch (InterruptedException e) {
+            }
+            drain();
+        }
+    }
+
+    /**
+     * Drains the samples buffered by all the sampled threads, and forgets the threads that have terminated.
+     */
+    protected final void drain() {
+        synchronized (buffers) {
+            final Iterator<B> iterator = buffers.iterator();
+            while (iterator.hasNext()) {
+                final B buffer = iterator.next();
+                final boolean closed = buffer.closed;
+                drain(buffer);
+                if (closed) {
+                    droppedSamples += buffer.dropped;
+                    iterator.remove();
+                }
+            }
+        }
+    }
+
+    private void drain(B buffer) {
+        final long head = buffer.head;
+        for (long n = buffer.tail; n < head; n++) {
+            final int slot = (int) (n % SAMPLES_PER_THREAD);
+            drainSample(buffer, slot);
+            final int start = slot * buffer.maxFrames;
+            Arrays.fill(buffer.frames, start, start + Math.abs(buffer.depths[slot]), null);
+            buffer.tail = n + 1;
+        }
+    }
+
+    /**
+     * Accounts for a sample. The frames of the sample are cleared from the buffer afterwards.
+     *
+     * @param buffer the buffer holding the sample
+     * @param slot the slot of the sample in {@code buffer}
+     */
+    protected abstract void drainSample(B buffer, int slot);
+
+    /**
+     * Stops sampling and drains the samples buffered so far. Called at VM termination.
+     */
+    protected final void stopSampling() {
+        isSampling = false;
+        drain();
+        synchronized (buffers) {
+            for (B buffer : buffers) {
+                droppedSamples += buffer.dropped;
+            }
+        }
+    }
+
+    /**
+     * Gets the name of a frame in the output of the sampler.
+     */
+    protected final String frameName(TargetMethod targetMethod) {
+        String name = frameNames.get(targetMethod);
+        if (name == null) {
+            name = formatFrameName(targetMethod);
+            frameNames.put(targetMethod, name);
+        }
+        return name;
+    }
+
+    protected abstract String formatFrameName(TargetMethod targetMethod);
+
+    /**
+     * The samples of one thread, in a ring buffer written by the thread and read by the sampler.
+     * A sample is published by incrementing {@link #head} after it has been written, and its slot
+     * is released by incrementing {@link #tail} after it has been read: no other synchronization is needed.
+     */
+    abstract static class SampleBuffer {
+
+        final VmThread thread;
+
+        /**
+         * The maximum number of frames recorded per sample.
+         */
+        final int maxFrames;
+
+        /**
+         * The frames of the samples, from the leaf to the root. Sample {@code n} uses the {@link #maxFrames} entries
+         * starting at {@code (n % SAMPLES_PER_THREAD) * maxFrames}.
+         */
+        final TargetMethod[] frames;
+
+        /**
+         * The number of frames of each sample in the buffer, negated if the stack was truncated.
+         */
+        final int[] depths;
+
+        /**
+         * The number of samples written by the thread.
+         */
+        volatile long head;
+
+        /**
+         * The number of samples read by the sampler.
+         */
+        volatile long tail;
+
+        /**
+         * The number of samples dropped because the buffer was full.
+         */
+        long dropped;
+
+        /**
+         * Set while the thread records a sample, to ignore the events caused by the sampling itself.
+         */
+        boolean busy;
+
+        /**
+         * Set when the thread terminates.
+         */
+        volatile boolean closed;
+
+        final SampleRecorder recorder;
+
+        /**
+         * @param checkTopFrame specifies if the top frame of a sample may not be completely set up (see {@link SampleRecorder})
+         */
+        SampleBuffer(VmThread thread, int maxFrames, boolean checkTopFrame) {
+            this.thread = thread;
+            this.maxFrames = maxFrames;
+            this.frames = new TargetMethod[SAMPLES_PER_THREAD * maxFrames];
+            this.depths = new int[SAMPLES_PER_THREAD];
+            this.recorder = new SampleRecorder(this, checkTopFrame);
+        }
+
+        /**
+         * Starts recording a sample, whose frames are then visited with {@link #recorder}.
+         *
+         * @return the slot of the sample, or -1 if the buffer is full
+         */
+        @NO_SAFEPOINT_POLLS("called while sampling a thread")
+        final int beginSample() {
+            final long h = head;
+            if (h - tail >= SAMPLES_PER_THREAD) {
+                dropped++;
+                return -1;
+            }
+            final int slot = (int) (h % SAMPLES_PER_THREAD);
+            recorder.start(slot * maxFrames);
+            return slot;
+        }
+
+        /**
+         * Publishes the sample started by {@link #beginSample()}.
+         */
+        @NO_SAFEPOINT_POLLS("called while sampling a thread")
+        final void endSample(int slot) {
+            depths[slot] = recorder.truncated ? -recorder.depth : recorder.depth;
+            head = head + 1;
+        }
+    }
+
+    /**
+     * Records the frames visited by a stack walk in the buffer of the current thread.
+     * <p>
+     * A thread interrupted at an arbitrary instruction may not have set up (or may have already torn down) the frame
+     * of its top method. When checking the top frame, the walk therefore only goes past it if the return address found
+     * in it is the return position of a call in a compiled method; otherwise the sample is truncated after the top frame.
+     */
+    static final class SampleRecorder extends RawStackFrameVisitor {
+
+        private final SampleBuffer buffer;
+
+        private final boolean checkTopFrame;
+
+        private int start;
+
+        int depth;
+
+        boolean truncated;
+
+        SampleRecorder(SampleBuffer buffer, boolean checkTopFrame) {
+            this.buffer = buffer;
+            this.checkTopFrame = checkTopFrame;
+        }
+
+        void start(int start) {
+            this.start = start;
+            this.depth = 0;
+            this.truncated = false;
+        }
+
+        @Override
+        public boolean visitFrame(StackFrameCursor current, StackFrameCursor callee) {
+            final TargetMethod targetMethod = current.targetMethod();
+            if (targetMethod == null) {
+                // Native code: either the thread was interrupted in a C function, or the walk reached its entry point.
+                return false;
+            }
+            if (checkTopFrame && !current.isTopFrame() && callee.isTopFrame() && !isCallReturn(targetMethod, current.vmIP())) {
+                // The top frame was not completely set up: its caller can't be found.
+                truncated = true;
+                return false;
+            }
+            buffer.frames[start + depth] = targetMethod;
+            depth++;
+            if (targetMethod.classMethodActor != null && targetMethod.classMethodActor.isVmEntryPoint()) {
+                return false;
+            }
+            if (depth == buffer.maxFrames) {
+                truncated = true;
+                return false;
+            }
+            return true;
+        }
+
+        /**
+         * Determines if an instruction pointer is the return position of a call in a compiled method.
+         */
+        private static boolean isCallReturn(TargetMethod targetMethod, CodePointer ip) {
+            if (targetMethod.classMethodActor == null || targetMethod.safepoints() == null) {
+                return false;
+            }
+            final int index = targetMethod.findSafepointIndex(ip);
+            return index >= 0 && Safepoints.isCall(targetMethod.safepoints().safepointAt(index));
+        }
+    }
+}
@@ -30,6 +30,8 @@ import com.sun.max.vm.MaxineVM.Phase;
 import com.sun.max.vm.actor.holder.ClassActor;
 import com.sun.max.vm.actor.member.MethodActor;
 import com.sun.max.vm.actor.member.StaticMethodActor;
+import com.sun.max.vm.classfile.constant.SymbolTable;
+import com.sun.max.vm.code.PerfMapWriter;
 import com.sun.max.vm.compiler.deopt.Deoptimization;
 import com.sun.max.vm.heap.Heap;
 import com.sun.max.vm.hosted.CompiledPrototype;
@@ -94,6 +96,10 @@ public class JavaRunScheme extends AbstractVMScheme implements RunScheme {
         "-Xprof", false, null, "run CPU sampling profiler"), MaxineVM.Phase.STARTING);
     private static final VMStringOption hprofOption = register(new VMStringOption(
         "-Xhprof", false, null, "run heap sampling profiler"), MaxineVM.Phase.STARTING);
+    private static final VMStringOption asyncprofOption = register(new VMStringOption(
+        "-Xasyncprof", false, null, "run signal-based CPU sampling profiler writing collapsed stacks"), MaxineVM.Phase.STARTING);
+    private static final VMStringOption allocprofOption = register(new VMStringOption(
+        "-Xallocprof", false, null, "run allocation sampler recording allocation sites and live samples"), MaxineVM.Phase.STARTING);
 
     /**
      * List of classes to explicitly reinitialise in the {@link Phase#STARTING} phase.
@@ -102,6 +108,8 @@ public class JavaRunScheme extends AbstractVMScheme implements RunScheme {
     private static List<String> reinitClasses = new LinkedList<String>();
     private static CPUSamplingProfiler cpuSamplingProfiler;
     private static HeapSamplingProfiler heapSamplingProfiler;
+    private static AsyncSamplingProfiler asyncSamplingProfiler;
+    private static AllocationSampler allocationSampler;
     private static String mainClassName;
 
     @HOSTED_ONLY
@@ -180,6 +188,12 @@ public class JavaRunScheme extends AbstractVMScheme implements RunScheme {
         if (heapSamplingProfiler != null) {
             heapSamplingProfiler.terminate();
         }
+        if (asyncSamplingProfiler != null) {
+            asyncSamplingProfiler.terminate();
+        }
+        if (allocationSampler != null) {
+            allocationSampler.terminate();
+        }
     }
 
     public static void restartProfilers() {
@@ -244,11 +258,20 @@ public class JavaRunScheme extends AbstractVMScheme implements RunScheme {
                     final String heapProfOptionPrefix = hprofOption.toString();
                     heapSamplingProfiler = new HeapSamplingProfiler(heapProfOptionPrefix, heapProfOptionValue);
                 }
+                final String asyncProfOptionValue = asyncprofOption.getValue();
+                if (asyncProfOptionValue != null) {
+                    asyncSamplingProfiler = AsyncSamplingProfiler.create(asyncprofOption.toString(), asyncProfOptionValue);
+                }
+                final String allocProfOptionValue = allocprofOption.getValue();
+                if (allocProfOptionValue != null) {
+                    allocationSampler = AllocationSampler.create(allocprofOption.toString(), allocProfOptionValue);
+                }
                 break;
             }
 
             case TERMINATING: {
                 JniFunctions.printJniFunctionTimers();
+                SymbolTable.printStats();
                 terminateProfilers();
                 break;
             }
@@ -277,6 +300,7 @@ public class JavaRunScheme extends AbstractVMScheme implements RunScheme {
             if (Deoptimization.DeoptimizeALot != 0 && Deoptimization.UseDeopt) {
                 new DeoptimizeALot(Deoptimization.DeoptimizeALot).start();
             }
+            PerfMapWriter.startIfEnabled();
             // Install the signal handler for dumping threads when SIGHUP is received
             Signal.handle(new Signal("QUIT"), new PrintThreads(false));
         }
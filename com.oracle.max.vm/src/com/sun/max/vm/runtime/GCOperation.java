@@ -50,6 +50,14 @@ public abstract class GCOperation extends VmOperation {
         return true;
     }
 
+    /**
+     * GC worker threads parked awaiting a GC task assist the VM operation thread during the collection and so are not frozen.
+     */
+    @Override
+    protected boolean operateOnThread(VmThread thread) {
+        return !thread.isParkedGCWorker();
+    }
+
     /**
      * Stops the current mutator thread for a garbage collection. Just before stopping, the
      * thread prepares its own stack reference map up to the trap frame. The remainder of the
@@ -36,6 +36,7 @@ import com.sun.max.vm.*;
 import com.sun.max.vm.code.*;
 import com.sun.max.vm.compiler.*;
 import com.sun.max.vm.compiler.target.*;
+import com.sun.max.vm.profilers.sampling.*;
 import com.sun.max.vm.reference.*;
 import com.sun.max.vm.thread.*;
 
@@ -83,6 +84,7 @@ public abstract class Trap {
         public static final int ASYNC_INTERRUPT = 4;
         public static final int NULL_POINTER_EXCEPTION = 5;
         public static final int SAFEPOINT = 6;
+        public static final int PROFILE_SAMPLE = 7;
 
         public static String toExceptionName(int trapNumber) {
             switch (trapNumber) {
@@ -98,6 +100,8 @@ public abstract class Trap {
                     return "NULL_POINTER_EXCEPTION";
                 case SAFEPOINT:
                     return "SAFEPOINT";
+                case PROFILE_SAMPLE:
+                    return "PROFILE_SAMPLE";
                 default:
                     return "unknown";
             }
@@ -207,6 +211,11 @@ public abstract class Trap {
             return;
         }
 
+        if (trapNumber == PROFILE_SAMPLE) {
+            AsyncSamplingProfiler.sample(trapFrame);
+            return;
+        }
+
         final TrapFrameAccess tfa = vm().trapFrameAccess;
         final Pointer pc = tfa.getPC(trapFrame);
         final Object origin = checkTrapOrigin(trapNumber, trapFrame, faultAddress, pc);
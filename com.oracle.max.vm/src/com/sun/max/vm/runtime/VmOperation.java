@@ -99,6 +99,13 @@ import com.sun.max.vm.thread.*;
  * except that {@link VmOperation}s can freeze a partial set of the running threads as Maxine implements
  * per-thread safepoints (HotSpot doesn't).</li>
  * <p>
+ * An operation whose {@link #mode} is {@link Mode#Handshake} doesn't keep its targeted threads frozen for its whole
+ * duration. Instead, it {@linkplain #handshake() handshakes} with each of them: a targeted thread is frozen on its own
+ * as soon as it is in native code (which is where a thread trapping for the handshake waits), operated on, and thawed
+ * right away. Threads that aren't targeted are never stopped, and a targeted thread is only stopped while it is
+ * being operated on. This suits operations that act on each thread independently, such as walking or patching
+ * its stack.
+ * <p>
  *
  * Implementation note:
  * It is simplest for a mutator thread to be blocked this way. Only under this condition can the
@@ -204,13 +211,22 @@ public class VmOperation {
          * and that the thread {@linkplain VmOperation#submit() submitting} the operation is
          * not blocked until the operation completes.
          */
-        AsyncSafepoint;
+        AsyncSafepoint,
+
+        /**
+         * Denotes that an operation performs a {@linkplain VmOperation#handshake() handshake} with each of the
+         * targeted threads: a targeted thread is synchronized at a safepoint on its own, and thawed as soon as
+         * the operation is done with it, while the other threads keep running.
+         * The thread {@linkplain VmOperation#submit() submitting} the operation is
+         * blocked until the operation completes.
+         */
+        Handshake;
 
         /**
          * Determines if this mode denotes that an operation requires its targeted threads to be synchronized at a safepoint.
          */
         public boolean requiresSafepoint() {
-            return this == Safepoint || this == AsyncSafepoint;
+            return this == Safepoint || this == AsyncSafepoint || this == Handshake;
         }
 
         /**
@@ -218,7 +234,7 @@ public class VmOperation {
          * blocked until the operation completes.
          */
         public boolean isBlocking() {
-            return this == Safepoint;
+            return this == Safepoint || this == Handshake;
         }
     }
 
@@ -280,8 +296,12 @@ public class VmOperation {
         // Now re-enable the ability to call native code
         Snippets.enableNativeCallsForCurrentThread();
 
-        synchronized (VmThreadMap.THREAD_LOCK) {
-            // block on the thread lock which is held by VM operation thread
+        if (handshaking) {
+            waitForHandshake(tla);
+        } else {
+            synchronized (VmThreadMap.THREAD_LOCK) {
+                // block on the thread lock which is held by VM operation thread
+            }
         }
 
         doAtSafepointAfterBlocking(trapFrame);
@@ -294,6 +314,27 @@ public class VmOperation {
         }
     }
 
+    /**
+     * Blocks the current thread, which trapped for this handshake, until the VM operation thread is done with it.
+     * The thread repeatedly yields, so that it is mostly in native code, where it can be frozen. It doesn't block on
+     * the thread lock, as it would then stay blocked until the end of the round of the handshake that thawed it.
+     *
+     * @param tla the thread locals of the current thread
+     */
+    private void waitForHandshake(Pointer tla) {
+        final Pointer etla = ETLA.load(tla);
+        while (VM_OPERATION.loadRef(etla).toJava() == this) {
+            if (!handshaking) {
+                // The handshake completed without this thread, which was removed from the
+                // thread list after being triggered.
+                SAFEPOINT_LATCH.store(etla, etla);
+                VM_OPERATION.store(etla, Reference.zero());
+                return;
+            }
+            VmThread.yield();
+        }
+    }
+
     /**
      * Called on the current thread (which just hit a safepoint) before it is frozen.
      *
@@ -473,6 +514,28 @@ public class VmOperation {
      */
     private static boolean atSafepoint;
 
+    /**
+     * Denotes whether this operation is {@linkplain #handshake() handshaking} with its targeted threads.
+     */
+    private volatile boolean handshaking;
+
+    /**
+     * The thread frozen for the handshake in progress, if any.
+     */
+    private VmThread handshakeTarget;
+
+    /**
+     * Number of triggered threads found by the current round of the handshake in progress,
+     * and number of them the round handshaked with.
+     */
+    private int pendingHandshakes;
+    private int completedHandshakes;
+
+    /**
+     * The first error thrown by {@link #doThread} during the handshake in progress.
+     */
+    private Throwable handshakeError;
+
     /**
      * Creates a VM operation.
      *
@@ -525,7 +588,7 @@ public class VmOperation {
     }
 
     public boolean requiresGlobalSafepoint() {
-        return singleThread == null && mode.requiresSafepoint();
+        return singleThread == null && mode.requiresSafepoint() && mode != Mode.Handshake;
     }
 
     /**
@@ -536,7 +599,11 @@ public class VmOperation {
         assert VmThread.current().isVmOperationThread();
         assert singleThread == null || !singleThread.isVmOperationThread();
 
-        if (mode.requiresSafepoint()) {
+        if (mode == Mode.Handshake && enclosing == null) {
+            handshake();
+        } else if (mode.requiresSafepoint()) {
+            // A handshake nested in another operation is run like a safepoint operation, as
+            // the enclosing operation may keep its targeted threads frozen.
             Throwable error = null;
             synchronized (VmThreadMap.THREAD_LOCK) {
 
@@ -602,6 +669,128 @@ public class VmOperation {
         doIt();
     }
 
+    /**
+     * Performs this operation as a handshake with each of its targeted threads. All the targeted threads are
+     * triggered at once. Then the VM operation thread repeatedly looks for triggered threads in native code.
+     * Each one found is frozen on its own, operated on by {@link #doThread} and thawed right away. The thread
+     * lock is released between two rounds so that a handshaked thread that returns from native code while frozen,
+     * and thus blocks on the thread lock, can proceed at the end of the round.
+     * <p>
+     * {@link #doIt()} is not called for a handshake.
+     */
+    private void handshake() {
+        synchronized (VmThreadMap.THREAD_LOCK) {
+            if (singleThread != null && singleThread.tla().isZero()) {
+                tracePhase("Aborting handshake with single, non-running thread");
+                return;
+            }
+
+            tracePhase("-- Begin --");
+
+            handshaking = true;
+            handshakeError = null;
+            freeze();
+
+            // Ensures updates to safepoint-related control variables are visible to all threads
+            // before the VM operation thread reads them
+            MemoryBarriers.barrier(MemoryBarriers.STORE_LOAD);
+        }
+
+        tracePhase("Handshaking with thread(s)");
+        int steps = 0;
+        while (true) {
+            synchronized (VmThreadMap.THREAD_LOCK) {
+                pendingHandshakes = 0;
+                completedHandshakes = 0;
+                VmThreadMap.ACTIVE.forAllThreadLocals(handshakePredicate, handshakeProcedure);
+            }
+            if (completedHandshakes == pendingHandshakes) {
+                break;
+            }
+            if (completedHandshakes == 0) {
+                waitForThreadFreezePause(singleThread, steps);
+                steps++;
+            } else {
+                steps = 0;
+            }
+        }
+        handshaking = false;
+
+        tracePhase("-- End --");
+
+        final Throwable error = handshakeError;
+        if (error != null) {
+            handshakeError = null;
+            if (error instanceof RuntimeException) {
+                throw (RuntimeException) error;
+            } else if (error instanceof Error) {
+                throw (Error) error;
+            } else {
+                throw (InternalError) new InternalError().initCause(error);
+            }
+        }
+    }
+
+    /**
+     * Selects the threads triggered by the handshake in progress that the VM operation thread hasn't handshaked with yet.
+     */
+    private final Pointer.Predicate handshakePredicate = new Pointer.Predicate() {
+        @Override
+        public boolean evaluate(Pointer tla) {
+            return VM_OPERATION.loadRef(ETLA.load(tla)).toJava() == VmOperation.this;
+        }
+    };
+
+    private final Pointer.Procedure handshakeProcedure = new Pointer.Procedure() {
+        @Override
+        public void run(Pointer tla) {
+            pendingHandshakes++;
+            final Pointer etla = ETLA.load(tla);
+            final boolean frozen;
+            if (UseCASBasedThreadFreezing) {
+                frozen = etla.compareAndSwapWord(MUTATOR_STATE.offset, THREAD_IN_NATIVE, THREAD_IS_FROZEN).equals(THREAD_IN_NATIVE);
+            } else {
+                frozen = !MUTATOR_STATE.load(etla).equals(THREAD_IN_JAVA);
+            }
+            if (frozen) {
+                handshakeThread(VmThread.fromTLA(tla));
+                completedHandshakes++;
+            }
+        }
+    };
+
+    /**
+     * Operates on a thread frozen for the handshake in progress, and thaws it.
+     *
+     * @param thread a thread frozen on its own
+     */
+    private void handshakeThread(VmThread thread) {
+        handshakeTarget = thread;
+        doAfterFrozen(thread);
+
+        if (TraceVmOperations) {
+            boolean lockDisabledSafepoints = Log.lock();
+            Log.print("VmOperation[");
+            Log.print(name);
+            Log.print("]: Handshaking with ");
+            Log.printThread(thread, false);
+            Log.println(TRAP_INSTRUCTION_POINTER.load(thread.tla()).isZero() ? " in native code" : " at safepoint");
+            Log.unlock(lockDisabledSafepoints);
+        }
+
+        try {
+            callDoThread(thread.tla());
+        } catch (Throwable t) {
+            // Errors are propagated once the handshake is complete
+            // otherwise triggered threads will never be thawed
+            if (handshakeError == null) {
+                handshakeError = t;
+            }
+        }
+        thawThread(thread);
+        handshakeTarget = null;
+    }
+
     private final Pointer.Procedure freezeThreadProcedure = new Pointer.Procedure() {
         @Override
         public void run(Pointer tla) {
@@ -635,7 +824,13 @@ public class VmOperation {
 
         // spin until the VM_OPERATION variable is null
         while (true) {
-            if (VM_OPERATION.loadRef(etla).isZero()) {
+            final Reference operation = VM_OPERATION.loadRef(etla);
+            if (enclosing != null && enclosing.handshaking && operation.toJava() == enclosing) {
+                // The thread was triggered by the enclosing handshake already. It waits for the
+                // handshake in native code when it traps, where it is frozen for this operation as well.
+                return;
+            }
+            if (operation.isZero()) {
                 if (etla.compareAndSwapReference(VM_OPERATION.offset, null, Reference.fromJava(this)).isZero()) {
                     /*
                      * Set the value of the safepoint latch in the safepoints-enabled VM
@@ -716,7 +911,7 @@ public class VmOperation {
      * @param thread a thread to test
      */
     private boolean frozenByEnclosing(VmThread thread) {
-        if (enclosing != null && enclosing.operateOnThread(thread)) {
+        if (enclosing != null && (enclosing.handshaking ? thread == enclosing.handshakeTarget : enclosing.operateOnThread(thread))) {
             Pointer etla = ETLA.load(thread.tla());
             // This is a nested operation that operates on 'thread' -> the enclosing operation must have 'thread'
             if (UseCASBasedThreadFreezing) {
@@ -841,9 +1036,12 @@ public class VmOperation {
          * are once again triggered.
          */
         Pointer etla = ETLA.load(tla);
-        SAFEPOINT_LATCH.store(etla, ETLA.load(tla));
+        if (enclosing == null || !enclosing.handshaking || VM_OPERATION.loadRef(etla).toJava() != enclosing) {
+            SAFEPOINT_LATCH.store(etla, ETLA.load(tla));
 
-        VM_OPERATION.store(etla, Reference.zero());
+            VM_OPERATION.store(etla, Reference.zero());
+        }
+        // else the thread is left triggered as the enclosing handshake is yet to handshake with it
 
         if (UseCASBasedThreadFreezing) {
             MUTATOR_STATE.store(etla, THREAD_IN_NATIVE);
@@ -901,13 +1099,13 @@ public class VmOperation {
         protected final VmThread singleVmThread;
 
         private SuspendResumeThreadSet(String opName, Set<VmThread> threadSet) {
-            super(opName, null, Mode.Safepoint);
+            super(opName, null, Mode.Handshake);
             this.threadSet = threadSet;
             this.singleVmThread = null;
         }
 
         protected SuspendResumeThreadSet(String opName, VmThread singleVmThread) {
-            super(opName, singleVmThread, Mode.Safepoint);
+            super(opName, singleVmThread, Mode.Handshake);
             this.threadSet = null;
             this.singleVmThread = singleVmThread;
         }
@@ -919,7 +1117,7 @@ public class VmOperation {
     }
 
     /**
-     * A {@link VmOperation} that forces a set of Java threads to a safepoint, and marks them
+     * A {@link VmOperation} that handshakes with a set of Java threads, and marks them
      * for suspend. When they continue from the safepoint, the {@link VmThreadLocal#SUSPEND} flag
      * will be checked in the native code epilogue and they will actually suspend.
      * It is legal for the current thread to be in the set.
@@ -951,8 +1149,8 @@ public class VmOperation {
 
     /**
      * Resume previously suspended threads.
-     * We do this as a {@link VmOperation} to ensure that any threads
-     * returning from native code while this operation is proceeding
+     * We do this as a {@link VmOperation} handshake to ensure that a thread
+     * returning from native code while it is being resumed
      * will freeze before reading {@link VmThreadLocal#SUSPEND}.
      */
     public static class ResumeThreadSet extends SuspendResumeThreadSet {
@@ -0,0 +1,307 @@
+/*
+ * Copyright (c) 2012, Oracle and/or its affiliates. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * Please contact Oracle, 500 Oracle Parkway, Redwood Shores, CA 94065 USA
+ * or visit www.oracle.com if you need additional information or have any
+ * questions.
+ */
+package com.sun.max.vm.thread;
+
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+import com.sun.max.vm.monitor.modal.sync.*;
+
+/**
+ * A fiber is a {@link Thread} run by a {@linkplain VmContinuation continuation} that the {@linkplain FiberScheduler
+ * fiber scheduler} mounts on one of its carrier threads whenever the fiber is ready to run. A fiber has no native
+ * thread of its own, so it is much cheaper to start and to block than a thread.
+ * <p>
+ * A fiber unmounts itself from its carrier, which then runs other fibers, when it blocks in {@link Thread#sleep(long)},
+ * in {@link Object#wait()}, in {@link java.util.concurrent.locks.LockSupport#park()} (and thus in the locks and
+ * synchronizers of {@code java.util.concurrent}) and when it reads from a socket. It blocks its carrier instead:
+ * <ul>
+ * <li>while it holds an inflated monitor, whose native mutex is owned by the carrier (the fiber is pinned)</li>
+ * <li>when it blocks entering a contended monitor</li>
+ * <li>when it blocks in native code, including file I/O and the socket operations other than reads</li>
+ * </ul>
+ * Fibers are daemon threads and are not members of their thread group.
+ */
+public class Fiber extends Thread {
+
+    /*
+     * The states of a fiber once started. A fiber is RUNNING while it runs or is scheduled to run.
+     * It is PARKING from the time it decides to park until its carrier finds it unmounted.
+     */
+    private static final int RUNNING = 0;
+    private static final int PARKING = 1;
+    private static final int PARKED = 2;
+    private static final int TERMINATED = 3;
+
+    private final AtomicInteger fiberState = new AtomicInteger(RUNNING);
+
+    /**
+     * Set when the fiber is unparked, consumed when it parks.
+     */
+    private final AtomicBoolean permit = new AtomicBoolean();
+
+    private VmFiber vmFiber;
+
+    private final Runnable runContinuation = new Runnable() {
+        public void run() {
+            runContinuation();
+        }
+    };
+
+    private final Runnable unparker = new Runnable() {
+        public void run() {
+            unparkFiber();
+        }
+    };
+
+    public Fiber(Runnable task) {
+        super(task);
+        setDaemon(true);
+    }
+
+    public Fiber(Runnable task, String name) {
+        super(task, name);
+        setDaemon(true);
+    }
+
+    /**
+     * Gets the fiber run by the current thread.
+     *
+     * @return null if the current thread is not a fiber
+     */
+    public static Fiber current() {
+        final VmThread current = VmThread.current();
+        return current instanceof VmFiber ? ((VmFiber) current).fiber : null;
+    }
+
+    /**
+     * Gets the fiber run by the current thread, if it can be unmounted from its carrier.
+     *
+     * @return null if the current thread is not a fiber or if it is pinned to its carrier
+     */
+    static Fiber currentUnpinned() {
+        final VmThread current = VmThread.current();
+        if (current instanceof VmFiber && current.heldMonitorMutexes == 0) {
+            return ((VmFiber) current).fiber;
+        }
+        return null;
+    }
+
+    /**
+     * Causes this fiber to begin execution on a carrier thread.
+     *
+     * @throws IllegalThreadStateException if this fiber was already started
+     */
+    @Override
+    public synchronized void start() {
+        if (vmFiber != null) {
+            throw new IllegalThreadStateException();
+        }
+        vmFiber = new VmFiber(this);
+        vmFiber.startContinuation(FiberScheduler.stackSize());
+        FiberScheduler.submit(runContinuation);
+    }
+
+    /**
+     * Mounts this fiber on the current carrier until it parks or terminates.
+     */
+    private void runContinuation() {
+        if (vmFiber.continuation().run()) {
+            fiberState.set(TERMINATED);
+            return;
+        }
+        fiberState.set(PARKED);
+        // The fiber was unparked before it was found parked
+        if (permit.get() && fiberState.compareAndSet(PARKED, RUNNING)) {
+            FiberScheduler.submit(runContinuation);
+        }
+    }
+
+    /**
+     * Unmounts this fiber, which must be the current thread, until it is {@linkplain #unparkFiber() unparked},
+     * unless it was unparked since it last parked. The fiber may return spuriously.
+     *
+     * @param timeoutNanos the maximum time to park for, or 0 to park until unparked
+     */
+    final void parkFiber(long timeoutNanos) {
+        if (permit.getAndSet(false)) {
+            return;
+        }
+        final Future<?> timeout = timeoutNanos > 0 ? FiberScheduler.schedule(unparker, timeoutNanos) : null;
+        fiberState.set(PARKING);
+        VmContinuation.yield();
+        permit.set(false);
+        if (timeout != null) {
+            timeout.cancel(false);
+        }
+    }
+
+    /**
+     * Makes this fiber ready to run if it is parked, or makes its next park return immediately.
+     */
+    final void unparkFiber() {
+        if (!permit.getAndSet(true) && fiberState.compareAndSet(PARKED, RUNNING)) {
+            FiberScheduler.submit(runContinuation);
+        }
+    }
+
+    /**
+     * The VM thread of a fiber.
+     */
+    private static final class VmFiber extends VmThread {
+
+        final Fiber fiber;
+
+        VmFiber(Fiber fiber) {
+            super(fiber);
+            this.fiber = fiber;
+            setWaitingCondition(new WaitingCondition(this));
+        }
+
+        @Override
+        protected boolean sleep0(long numberOfMilliSeconds) {
+            if (heldMonitorMutexes > 0) {
+                return ((WaitingCondition) waitingCondition()).sleepPinned(numberOfMilliSeconds);
+            }
+            final long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(numberOfMilliSeconds);
+            while (!isInterrupted(false)) {
+                final long remaining = deadline - System.nanoTime();
+                if (remaining <= 0) {
+                    return false;
+                }
+                fiber.parkFiber(remaining);
+            }
+            return true;
+        }
+
+        @Override
+        protected void interruptBlockedThread() {
+            final ConditionVariable waitingCondition = waitingCondition();
+            if (waitingCondition != null) {
+                ((WaitingCondition) waitingCondition).interrupt();
+            }
+        }
+    }
+
+    /**
+     * The condition variable a fiber {@linkplain Object#wait() waits} on. The fiber is unmounted while it waits,
+     * unless it is pinned by the native mutex of another monitor, in which case it blocks its carrier on a
+     * native condition variable.
+     */
+    private static final class WaitingCondition extends ConditionVariable {
+
+        private final VmFiber thread;
+
+        private final ConditionVariable pinnedCondition = ConditionVariableFactory.create();
+
+        /**
+         * The mutex of {@link #pinnedCondition} when a pinned fiber {@linkplain #sleepPinned(long) sleeps}.
+         */
+        private final Mutex pinnedMutex = MutexFactory.create();
+
+        private volatile boolean pinnedInitialized;
+
+        WaitingCondition(VmFiber thread) {
+            this.thread = thread;
+        }
+
+        @Override
+        public ConditionVariable init() {
+            return this;
+        }
+
+        /**
+         * Only called by the fiber itself.
+         */
+        private void initPinned() {
+            if (!pinnedInitialized) {
+                pinnedCondition.init();
+                pinnedMutex.init();
+                pinnedInitialized = true;
+            }
+        }
+
+        @Override
+        public boolean threadWait(Mutex mutex, long timeoutMilliSeconds) {
+            // The mutex of the monitor waited on is released while waiting
+            if (thread.heldMonitorMutexes > 1) {
+                if (!pinnedInitialized) {
+                    initPinned();
+                }
+                return pinnedCondition.threadWait(mutex, timeoutMilliSeconds);
+            }
+            thread.heldMonitorMutexes--;
+            mutex.unlock();
+            thread.fiber.parkFiber(TimeUnit.MILLISECONDS.toNanos(timeoutMilliSeconds));
+            mutex.lock();
+            thread.heldMonitorMutexes++;
+            return true;
+        }
+
+        @Override
+        public boolean threadNotify(boolean all) {
+            thread.fiber.unparkFiber();
+            if (pinnedInitialized) {
+                return pinnedCondition.threadNotify(all);
+            }
+            return true;
+        }
+
+        /**
+         * Sleeps without unmounting the fiber.
+         *
+         * @return true if the sleep was interrupted
+         */
+        boolean sleepPinned(long numberOfMilliSeconds) {
+            if (!pinnedInitialized) {
+                initPinned();
+            }
+            final long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(numberOfMilliSeconds);
+            boolean interrupted;
+            pinnedMutex.lock();
+            while (!(interrupted = thread.isInterrupted(false))) {
+                final long remaining = deadline - System.nanoTime();
+                if (remaining <= 0) {
+                    break;
+                }
+                pinnedCondition.threadWait(pinnedMutex, Math.max(1L, TimeUnit.NANOSECONDS.toMillis(remaining)));
+            }
+            pinnedMutex.unlock();
+            return interrupted;
+        }
+
+        void interrupt() {
+            thread.fiber.unparkFiber();
+            if (pinnedInitialized) {
+                pinnedMutex.lock();
+                pinnedCondition.threadNotify(true);
+                pinnedMutex.unlock();
+            }
+        }
+
+        @Override
+        public long logId() {
+            return pinnedCondition.logId();
+        }
+    }
+}
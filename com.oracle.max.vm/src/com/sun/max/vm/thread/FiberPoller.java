@@ -0,0 +1,215 @@
+/*
+ * Copyright (c) 2012, Oracle and/or its affiliates. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * Please contact Oracle, 500 Oracle Parkway, Redwood Shores, CA 94065 USA
+ * or visit www.oracle.com if you need additional information or have any
+ * questions.
+ */
+package com.sun.max.vm.thread;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+import com.sun.max.annotate.*;
+import com.sun.max.lang.*;
+import com.sun.max.memory.*;
+import com.sun.max.unsafe.*;
+
+/**
+ * Unmounts the {@linkplain Fiber fibers} that would block reading from a file descriptor until the file
+ * descriptor is readable. A single daemon thread, started when the first fiber waits, polls the file
+ * descriptors the fibers wait on, along with a pipe that wakes it up when fibers start or stop waiting.
+ */
+public final class FiberPoller implements Runnable {
+
+    /**
+     * A fiber waiting for a file descriptor.
+     */
+    private static final class Waiter {
+        final int fd;
+        final Fiber fiber;
+        volatile boolean ready;
+        volatile boolean cancelled;
+
+        Waiter(int fd, Fiber fiber) {
+            this.fd = fd;
+            this.fiber = fiber;
+        }
+    }
+
+    /**
+     * The maximum time, in milliseconds, the poller waits before polling again after a failed poll.
+     */
+    private static final long MAX_POLL_FAILURE_BACKOFF_MS = 1000;
+
+    private static FiberPoller instance;
+
+    private final ConcurrentLinkedQueue<Waiter> newWaiters = new ConcurrentLinkedQueue<Waiter>();
+
+    private final int wakeupReadFd;
+    private final int wakeupWriteFd;
+
+    private FiberPoller(int wakeupReadFd, int wakeupWriteFd) {
+        this.wakeupReadFd = wakeupReadFd;
+        this.wakeupWriteFd = wakeupWriteFd;
+    }
+
+    private static synchronized FiberPoller poller() {
+        if (instance == null) {
+            final Pointer fds = Memory.mustAllocate(2 * Ints.SIZE);
+            try {
+                if (nativeOpenWakeupPipe(fds) != 0) {
+                    return null;
+                }
+                instance = new FiberPoller(fds.getInt(0), fds.getInt(1));
+            } finally {
+                Memory.deallocate(fds);
+            }
+            final Thread thread = new Thread(instance, "Fiber Poller");
+            thread.setDaemon(true);
+            thread.start();
+        }
+        return instance;
+    }
+
+    /**
+     * Unmounts the current thread until a file descriptor is readable, if the current thread is a fiber that can be
+     * unmounted. Returns immediately otherwise, in which case reading from the file descriptor blocks the carrier.
+     *
+     * @param fd a file descriptor
+     * @param timeoutMilliSeconds the maximum time to wait, or 0 to wait until {@code fd} is readable
+     * @return false if the timeout expired before {@code fd} became readable, true otherwise
+     */
+    public static boolean awaitReadable(int fd, long timeoutMilliSeconds) {
+        final Fiber fiber = Fiber.currentUnpinned();
+        if (fiber == null || nativeIsReadable(fd)) {
+            return true;
+        }
+        final FiberPoller poller = poller();
+        if (poller == null) {
+            return true;
+        }
+        final Waiter waiter = new Waiter(fd, fiber);
+        poller.newWaiters.add(waiter);
+        nativeWakeup(poller.wakeupWriteFd);
+        final long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMilliSeconds);
+        while (!waiter.ready) {
+            long timeoutNanos = 0L;
+            if (timeoutMilliSeconds > 0) {
+                timeoutNanos = deadline - System.nanoTime();
+                if (timeoutNanos <= 0) {
+                    waiter.cancelled = true;
+                    nativeWakeup(poller.wakeupWriteFd);
+                    return waiter.ready;
+                }
+            }
+            fiber.parkFiber(timeoutNanos);
+        }
+        return true;
+    }
+
+    public void run() {
+        final ArrayList<Waiter> waiters = new ArrayList<Waiter>();
+        int capacity = 0;
+        Pointer fds = Pointer.zero();
+        Pointer revents = Pointer.zero();
+        long backoffMilliSeconds = 0;
+        while (true) {
+            Waiter waiter;
+            while ((waiter = newWaiters.poll()) != null) {
+                waiters.add(waiter);
+            }
+            for (int i = waiters.size() - 1; i >= 0; i--) {
+                if (waiters.get(i).cancelled) {
+                    removeWaiter(waiters, i);
+                }
+            }
+
+            // The wake up pipe is polled first
+            final int count = waiters.size() + 1;
+            if (count > capacity) {
+                capacity = Math.max(count, capacity * 2);
+                if (!fds.isZero()) {
+                    Memory.deallocate(fds);
+                    Memory.deallocate(revents);
+                }
+                fds = Memory.mustAllocate(capacity * Ints.SIZE);
+                revents = Memory.mustAllocate(capacity * Ints.SIZE);
+            }
+            fds.setInt(0, wakeupReadFd);
+            for (int i = 0; i < waiters.size(); i++) {
+                fds.setInt(i + 1, waiters.get(i).fd);
+            }
+
+            if (nativePoll(fds, revents, count) < 0) {
+                // Let the waiting fibers find out what the problem is by reading
+                for (int i = waiters.size() - 1; i >= 0; i--) {
+                    wakeUp(waiters, i);
+                }
+                // Back off exponentially rather than spin while polling keeps failing (e.g., out of memory).
+                // Fibers that start waiting in the meantime are woken up by the next poll or failure.
+                backoffMilliSeconds = Math.min(Math.max(1, backoffMilliSeconds * 2), MAX_POLL_FAILURE_BACKOFF_MS);
+                try {
+                    Thread.sleep(backoffMilliSeconds);
+                } catch (InterruptedException e) {
+                }
+                continue;
+            }
+            backoffMilliSeconds = 0;
+            if (revents.getInt(0) != 0) {
+                nativeDrainWakeupPipe(wakeupReadFd);
+            }
+            for (int i = waiters.size() - 1; i >= 0; i--) {
+                if (revents.getInt(i + 1) != 0) {
+                    wakeUp(waiters, i);
+                }
+            }
+        }
+    }
+
+    private static void wakeUp(ArrayList<Waiter> waiters, int index) {
+        final Waiter waiter = removeWaiter(waiters, index);
+        waiter.ready = true;
+        waiter.fiber.unparkFiber();
+    }
+
+    /**
+     * Removes a waiter from a list in constant time, by moving the last waiter of the list in its place.
+     */
+    private static Waiter removeWaiter(ArrayList<Waiter> waiters, int index) {
+        final Waiter last = waiters.remove(waiters.size() - 1);
+        if (index == waiters.size()) {
+            return last;
+        }
+        return waiters.set(index, last);
+    }
+
+    @C_FUNCTION
+    private static native int nativeOpenWakeupPipe(Pointer fds);
+
+    @C_FUNCTION
+    private static native boolean nativeIsReadable(int fd);
+
+    @C_FUNCTION
+    private static native void nativeWakeup(int fd);
+
+    @C_FUNCTION
+    private static native void nativeDrainWakeupPipe(int fd);
+
+    private static native int nativePoll(Pointer fds, Pointer revents, int count);
+}
@@ -0,0 +1,97 @@
+/*
+ * Copyright (c) 2012, Oracle and/or its affiliates. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * Please contact Oracle, 500 Oracle Parkway, Redwood Shores, CA 94065 USA
+ * or visit www.oracle.com if you need additional information or have any
+ * questions.
+ */
+package com.sun.max.vm.thread;
+
+import static com.sun.max.vm.VMOptions.*;
+
+import java.util.concurrent.*;
+
+import com.sun.max.unsafe.*;
+import com.sun.max.vm.*;
+
+/**
+ * Runs the {@linkplain VmContinuation continuations} of {@linkplain Fiber fibers} on the worker threads of a
+ * {@link ForkJoinPool}, the carriers, and wakes up the fibers whose timed park expired. Both are created when
+ * the first fiber is started.
+ * <p>
+ * The pool is in asynchronous mode: fibers that are ready to run are taken in the order they became ready.
+ */
+final class FiberScheduler {
+
+    private static int FiberParallelism;
+    static {
+        VMOptions.addFieldOption("-XX:", "FiberParallelism", FiberScheduler.class,
+            "Number of carrier threads running fibers (0 means the number of available processors).", MaxineVM.Phase.PRISTINE);
+    }
+
+    private static final VMSizeOption fiberStackSizeOption = register(new VMSizeOption("-XX:FiberStackSize=", Size.K.times(256),
+        "Stack size of fibers, stack guard zones included."), MaxineVM.Phase.PRISTINE);
+
+    private static volatile ForkJoinPool carriers;
+
+    private static volatile ScheduledThreadPoolExecutor timer;
+
+    private FiberScheduler() {
+    }
+
+    static Size stackSize() {
+        return fiberStackSizeOption.getValue();
+    }
+
+    private static synchronized void start() {
+        if (carriers == null) {
+            final ScheduledThreadPoolExecutor t = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+                public Thread newThread(Runnable r) {
+                    final Thread thread = new Thread(r, "Fiber Timer");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+            t.setRemoveOnCancelPolicy(true);
+            timer = t;
+            final int parallelism = FiberParallelism > 0 ? FiberParallelism : Runtime.getRuntime().availableProcessors();
+            carriers = new ForkJoinPool(parallelism, ForkJoinPool.defaultForkJoinWorkerThreadFactory, null, true);
+        }
+    }
+
+    /**
+     * Schedules a fiber to be mounted on a carrier.
+     *
+     * @param runContinuation the task running the continuation of the fiber
+     */
+    static void submit(Runnable runContinuation) {
+        ForkJoinPool pool = carriers;
+        if (pool == null) {
+            start();
+            pool = carriers;
+        }
+        pool.execute(runContinuation);
+    }
+
+    /**
+     * Runs a task after a delay on the timer thread.
+     */
+    static Future<?> schedule(Runnable task, long delayNanos) {
+        return timer.schedule(task, delayNanos, TimeUnit.NANOSECONDS);
+    }
+}
@@ -0,0 +1,112 @@
+/*
+ * Copyright (c) 2012, Oracle and/or its affiliates. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * Please contact Oracle, 500 Oracle Parkway, Redwood Shores, CA 94065 USA
+ * or visit www.oracle.com if you need additional information or have any
+ * questions.
+ */
+package com.sun.max.vm.thread;
+
+import com.sun.max.annotate.*;
+import com.sun.max.unsafe.*;
+import com.sun.max.vm.runtime.*;
+
+/**
+ * A continuation runs a {@link VmThread} on a stack of its own, but without a native thread of its own. The
+ * continuation is run by the native thread that {@linkplain #run() mounts} it, its carrier, until it
+ * {@linkplain #yield() unmounts} itself. It can then be mounted again, on any native thread, and resumes
+ * where it yielded.
+ * <p>
+ * The thread of a continuation is in the {@linkplain VmThreadMap#ACTIVE thread list} from its first mount until
+ * it terminates. An unmounted continuation is in native code, with its frame anchor set up: GC and
+ * {@linkplain VmOperation VM operations} handle it like any thread blocked in native code, and scan its stack
+ * with its own stack reference map. Safepoints are not blocked by the carrier either, as the carrier is in
+ * native code while a continuation is mounted.
+ * <p>
+ * A native mutex is owned by the native thread that locked it. The thread of a continuation must not yield
+ * while it holds one (see {@link VmThread#heldMonitorMutexes}).
+ * <p>
+ * Continuations and their threads are identified by the IDs of VM threads. The number of live continuations
+ * and threads is thus limited by the number of thread IDs that fit in a {@linkplain
+ * com.sun.max.vm.monitor.modal.modehandlers.lightweight.LightweightLockword64 lock word}.
+ */
+public final class VmContinuation {
+
+    private final VmThread thread;
+
+    /**
+     * The native data structure of this continuation, zero once the continuation terminated.
+     */
+    private Address handle;
+
+    VmContinuation(Address handle, VmThread thread) {
+        this.handle = handle;
+        this.thread = thread;
+    }
+
+    /**
+     * Gets the thread run by this continuation.
+     */
+    public VmThread thread() {
+        return thread;
+    }
+
+    public boolean isTerminated() {
+        return handle.isZero();
+    }
+
+    /**
+     * Runs this continuation on the current thread until the continuation yields or terminates. The stack and
+     * thread locals of a terminated continuation are released before this method returns.
+     * This method must not be called on more than one thread at a time.
+     *
+     * @return true if the continuation terminated, false if it yielded
+     */
+    public boolean run() {
+        FatalError.check(VmThread.current().continuation() == null, "Continuations must be mounted on a native thread");
+        FatalError.check(!handle.isZero(), "Cannot run a terminated continuation");
+        if (nativeMount(handle)) {
+            nativeContinuationDestroy(handle);
+            handle = Address.zero();
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Unmounts the continuation running the current thread, which returns from its {@link #run()} method.
+     * This method returns when the continuation is mounted again.
+     */
+    public static void yield() {
+        final VmThread current = VmThread.current();
+        final VmContinuation continuation = current.continuation();
+        FatalError.check(continuation != null, "Only the thread of a continuation can yield");
+        FatalError.check(current.heldMonitorMutexes == 0, "Cannot yield while holding a native mutex");
+        nativeUnmount(continuation.handle);
+    }
+
+    @C_FUNCTION
+    static native Address nativeContinuationCreate(int id, Size stackSize);
+
+    @C_FUNCTION
+    private static native void nativeContinuationDestroy(Address handle);
+
+    private static native boolean nativeMount(Address handle);
+
+    private static native void nativeUnmount(Address handle);
+}
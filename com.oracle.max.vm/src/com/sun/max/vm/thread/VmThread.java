@@ -50,6 +50,7 @@ import com.sun.max.vm.jni.*;
 import com.sun.max.vm.log.*;
 import com.sun.max.vm.monitor.modal.sync.*;
 import com.sun.max.vm.object.*;
+import com.sun.max.vm.profilers.sampling.*;
 import com.sun.max.vm.reference.*;
 import com.sun.max.vm.runtime.*;
 import com.sun.max.vm.stack.*;
@@ -94,8 +95,17 @@ import sun.misc.*;
 public class VmThread {
 
     static boolean TraceThreads;
+
+    /**
+     * Maximum number of native threads kept, along with their stacks and thread locals blocks, to run new threads
+     * once the thread they ran has terminated. Reusing a native thread saves creating it, mapping its stack and
+     * setting up its guard pages and thread locals.
+     */
+    static int ThreadPoolSize;
     static {
         VMOptions.addFieldOption("-XX:", "TraceThreads",  VmThread.class, "Trace thread start-up and shutdown.", MaxineVM.Phase.PRISTINE);
+        VMOptions.addFieldOption("-XX:", "ThreadPoolSize",  VmThread.class,
+            "Maximum number of terminated threads whose native thread, stack and thread locals are kept to start new threads faster.", MaxineVM.Phase.PRISTINE);
     }
 
     private static final Size DEFAULT_STACK_SIZE = Size.K.times(256);
@@ -273,6 +283,10 @@ public class VmThread {
     @CONSTANT_WHEN_NOT_ZERO
     private VmStackFrameWalker samplingProfilerStackFrameWalker;
 
+    private AsyncSamplingProfiler.ThreadSamples asyncSamples;
+
+    private AllocationSampler.ThreadSamples allocationSamples;
+
     private final StackReferenceMapPreparer stackReferenceMapPreparer = new StackReferenceMapPreparer(true, true);
 
     private final StackReferenceMapPreparer stackReferenceMapVerifier = new StackReferenceMapPreparer(true, false);
@@ -281,8 +295,26 @@ public class VmThread {
 
     public JavaMonitor protectedMonitor;
 
+    /**
+     * The unbound monitors cached by this thread, and their number. Only accessed by the {@link JavaMonitorManager}.
+     */
+    public JavaMonitor freeMonitors;
+    public int numberOfFreeMonitors;
+
     private ConditionVariable waitingCondition = ConditionVariableFactory.create();
 
+    /**
+     * Number of inflated monitors owned by this thread whose native mutex is held by the native thread running it.
+     * A native mutex is owned by a native thread, so a {@linkplain Fiber fiber} that holds any cannot be unmounted
+     * from its carrier. Only updated by the monitor scheme.
+     */
+    public int heldMonitorMutexes;
+
+    /**
+     * The continuation running this thread if it is a {@linkplain Fiber fiber}, null otherwise.
+     */
+    private VmContinuation continuation;
+
     public final HeapScheme.GCRequest gcRequest = VMConfiguration.vmConfig().heapScheme().createThreadLocalGCRequest(this);
 
     /**
@@ -295,6 +327,12 @@ public class VmThread {
      */
     private boolean jvmtiAgent;
 
+    /**
+     * Denotes a GC worker thread that is parked awaiting a GC task. A parked GC worker has prepared its own
+     * stack reference map before parking and is not stopped by {@linkplain GCOperation GC operations}.
+     */
+    private volatile boolean parkedGCWorker;
+
     /**
      * Holds the exception object for the exception currently being raised. This value will only be
      * non-null during the unwinding process between calls to {@link #storeExceptionForHandler(Throwable, TargetMethod, int)}
@@ -462,6 +500,9 @@ public class VmThread {
     @C_FUNCTION
     protected static native Word nativeThreadCreate(int id, Size stackSize, int priority);
 
+    @C_FUNCTION
+    private static native void nativeSetThreadPoolSize(int size);
+
     /**
      * Gets the current {@linkplain VmThreadLocal TLA}.
      *
@@ -508,6 +549,8 @@ public class VmThread {
                 vmConfig().runScheme().run();
             } else {
                 VMTI.handler().threadStart(vmThread);
+                AsyncSamplingProfiler.threadStarted(vmThread);
+                AllocationSampler.threadStarted(vmThread);
                 vmThread.javaThread.run();
             }
         } finally {
@@ -668,6 +711,8 @@ public class VmThread {
 
             vmConfig().initializeSchemes(MaxineVM.Phase.PRISTINE);
 
+            nativeSetThreadPoolSize(ThreadPoolSize);
+
             // We can now start the other system threads.
             VmThread.vmOperationThread.startVmSystemThread();
             SpecialReferenceManager.initialize(MaxineVM.Phase.PRISTINE);
@@ -693,6 +738,8 @@ public class VmThread {
             // call Thread.exit()
             JDK_java_lang_Thread.exitThread(thread.javaThread());
         }
+        AsyncSamplingProfiler.threadTerminated(thread);
+        AllocationSampler.threadTerminated(thread);
         // inform any VMTI handlers
         VMTI.handler().threadEnd(thread);
         // possibly flush the log
@@ -821,6 +868,7 @@ public class VmThread {
             detached();
         }
         // Monitor acquisition after point this MUST NOT HAPPEN as it may reset state to RUNNABLE
+        JavaMonitorManager.releaseThreadCache(thread);
         thread.nativeThread = Address.zero();
         thread.tla = Pointer.zero();
         thread.id = -1;
@@ -1041,6 +1089,34 @@ public class VmThread {
         return samplingProfilerStackFrameWalker;
     }
 
+    /**
+     * Gets the buffer in which the {@link AsyncSamplingProfiler} records the samples of this thread.
+     *
+     * @return {@code null} if this thread is not being profiled
+     */
+    @INLINE
+    public final AsyncSamplingProfiler.ThreadSamples asyncSamples() {
+        return asyncSamples;
+    }
+
+    public final void setAsyncSamples(AsyncSamplingProfiler.ThreadSamples samples) {
+        asyncSamples = samples;
+    }
+
+    /**
+     * Gets the buffer in which the {@link AllocationSampler} records the allocation samples of this thread.
+     *
+     * @return {@code null} if the allocations of this thread are not being sampled
+     */
+    @INLINE
+    public final AllocationSampler.ThreadSamples allocationSamples() {
+        return allocationSamples;
+    }
+
+    public final void setAllocationSamples(AllocationSampler.ThreadSamples samples) {
+        allocationSamples = samples;
+    }
+
     /**
      * Gets the thread-local object used to prepare the reference map for this stack's thread during garbage collection.
      */
@@ -1112,6 +1188,10 @@ public class VmThread {
         return waitingCondition;
     }
 
+    final void setWaitingCondition(ConditionVariable waitingCondition) {
+        this.waitingCondition = waitingCondition;
+    }
+
     /**
      * Sets the interrupted status of this thread to true.
      */
@@ -1134,6 +1214,17 @@ public class VmThread {
         jvmtiAgent = true;
     }
 
+    /**
+     * Determines if this is a GC worker thread currently parked awaiting a GC task.
+     */
+    public final boolean isParkedGCWorker() {
+        return parkedGCWorker;
+    }
+
+    public final void setParkedGCWorker(boolean parked) {
+        parkedGCWorker = parked;
+    }
+
     /**
      * Bind the given {@code Thread} to this VmThread.
      * @param javaThread thread to be bound
@@ -1378,6 +1469,36 @@ public class VmThread {
         VmThreadMap.ACTIVE.startThread(this, STACK_SIZE_OPTION.getValue().alignUp(platform().pageSize).asSize(), javaThread.getPriority());
     }
 
+    /**
+     * Causes this thread to begin execution as a {@linkplain VmContinuation continuation}, i.e. on a stack of its own
+     * but on the native threads it is {@linkplain VmContinuation#run() mounted} on. The thread is not added to
+     * its thread group, like the {@linkplain #vmOperationThread VM operation thread}.
+     *
+     * @param stackSize the size of the stack of the continuation
+     * @return the continuation, which runs the thread when it is first mounted
+     */
+    final VmContinuation startContinuation(Size stackSize) {
+        assert state == Thread.State.NEW;
+        final ThreadGroup group = javaThread.getThreadGroup();
+        synchronized (group) {
+            ThreadGroupAlias.asThreadGroupAlias(group).nUnstartedThreads--;
+        }
+        state = Thread.State.RUNNABLE;
+        Thread_vmThread.setObject(javaThread, this);
+        suspendMonitor.init();
+        continuation = VmThreadMap.ACTIVE.startContinuation(this, stackSize.alignUp(platform().pageSize).asSize());
+        return continuation;
+    }
+
+    /**
+     * Gets the continuation running this thread.
+     *
+     * @return null if this thread has a native thread of its own
+     */
+    public final VmContinuation continuation() {
+        return continuation;
+    }
+
     public final boolean isInterrupted(boolean clearInterrupted) {
         final boolean interrupted = this.interrupted;
         if (clearInterrupted) {
@@ -1435,6 +1556,14 @@ public class VmThread {
             }
         }
 
+        interruptBlockedThread();
+    }
+
+    /**
+     * Wakes up this thread after its interrupted status has been set, if it is blocked in native code.
+     * A subclass overrides this method if its instances block without a native thread of their own.
+     */
+    protected void interruptBlockedThread() {
         if (!nativeThread.isZero()) {
             nativeInterrupt(nativeThread);
         }
@@ -518,7 +518,9 @@ public class VmThreadLocal implements FormatWithToString {
      */
     public static void scanReferences(Pointer tla, PointerIndexVisitor wordPointerIndexVisitor) {
         final VmThread thread = VmThread.fromTLA(tla);
-        boolean isVmOperationThread = thread.isVmOperationThread();
+        // Like the VM operation thread, parked GC worker threads prepare their own stack reference map
+        // from a frame that is not at the top of their stack.
+        boolean isVmOperationThread = thread.isVmOperationThread() || thread.isParkedGCWorker();
 
         // Note: as a side effect, this lock serializes stack reference map scanning
         boolean tracing = logStackRootScanning();
@@ -65,6 +65,7 @@ public final class VmThreadMap {
             if (currentThread.state() == Thread.State.TERMINATED) {
                 if (ownerThread != currentThread) {
                     mutex.lock();
+                    currentThread.heldMonitorMutexes++;
                     ownerThread = currentThread;
                     recursionCount = 1;
                 } else {
@@ -377,6 +378,33 @@ public final class VmThreadMap {
         }
     }
 
+    /**
+     * Creates the continuation running a VM thread. The thread is a daemon thread.
+     *
+     * @param thread the VM thread to be run by the continuation
+     * @param stackSize the size of the stack of the continuation
+     * @return the continuation, which runs the thread when it is first mounted
+     */
+    public VmContinuation startContinuation(VmThread thread, Size stackSize) {
+        synchronized (THREAD_LOCK) {
+            final int id = idMap.acquire(thread);
+            thread.daemon = true;
+
+            final Address handle = VmContinuation.nativeContinuationCreate(id, stackSize);
+            if (handle.isZero()) {
+                idMap.release(id);
+                thread.setID(0);
+                throw new OutOfMemoryError("Unable to create new continuation");
+            }
+            totalStarted++;
+            liveThreads++;
+            if (liveThreads > peakThreadCount) {
+                peakThreadCount = liveThreads;
+            }
+            return new VmContinuation(handle, thread);
+        }
+    }
+
     /**
      * Waits for all non-daemon threads to finish.
      *